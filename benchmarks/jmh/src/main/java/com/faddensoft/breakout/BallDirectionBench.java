@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks GameSimulation.setBallDirection(), which normalizes the motion vector after
+ * every bounce.  Inputs are a fixed table of vectors with varying magnitudes, similar to
+ * what the paddle and corner bounces produce.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class BallDirectionBench {
+    // Must be a power of two.
+    private static final int NUM_VECTORS = 1024;
+
+    private final float[] mDeltaX = new float[NUM_VECTORS];
+    private final float[] mDeltaY = new float[NUM_VECTORS];
+    private GameSimulation mSim;
+    private int mNext;
+
+    @Setup
+    public void setup() {
+        mSim = new GameSimulation();
+
+        Random rand = new Random(1);
+        for (int i = 0; i < NUM_VECTORS; i++) {
+            // Keep away from zero-length vectors, which the game never produces.
+            float mag = 0.1f + rand.nextFloat() * 2.0f;
+            double angle = rand.nextDouble() * Math.PI * 2;
+            mDeltaX[i] = (float) Math.cos(angle) * mag;
+            mDeltaY[i] = (float) Math.sin(angle) * mag;
+        }
+    }
+
+    /**
+     * Normalizes one vector.
+     */
+    @Benchmark
+    public float setBallDirection() {
+        int index = mNext;
+        mNext = (index + 1) & (NUM_VECTORS - 1);
+        GameSimulation sim = mSim;
+        sim.setBallDirection(mDeltaX[index], mDeltaY[index]);
+        return sim.getBallXDirection() + sim.getBallYDirection();
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collision detection benchmarks: the "coarse" pass (checkCoarseCollision()) and both
+ * versions of the "fine" pass (findFirstCollision() and findFirstCollisionSwept()).
+ * <p>
+ * Each benchmark cycles through a fixed table of queries, built from a seeded Random
+ * in setup.  A query is one step of ball movement -- a position, a direction, and the
+ * distance covered in one simulation tick at the given speed -- somewhere in or just below
+ * the brick area.  Faster balls sweep larger boxes, so they have more candidates to look at.
+ * Steps that don't come near anything are left out of the table, since moveBall() skips
+ * the fine pass for those.
+ * The table is the same on every run, so results can be compared from build to build.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CollisionBench {
+    // Must be a power of two.
+    private static final int NUM_QUERIES = 1024;
+
+    /** Brick layout, columns x rows. */
+    @Param({"12x8", "48x32", "100x100"})
+    public String board;
+
+    /** Ball speed, in arena units per second.  The game runs from 300 to 1200. */
+    @Param({"300", "1200", "4800"})
+    public int speed;
+
+    private GameSimulation mSim;
+    private GameSimulation.StepContext mStep;
+    private BrickGrid mGrid;
+    private int[] mCandidates;
+    private int[] mScratchHits;
+    private float mRadius;
+
+    // Query table.
+    private final float[] mCurX = new float[NUM_QUERIES];
+    private final float[] mCurY = new float[NUM_QUERIES];
+    private final float[] mDirX = new float[NUM_QUERIES];
+    private final float[] mDirY = new float[NUM_QUERIES];
+    private final float[] mLeft = new float[NUM_QUERIES];
+    private final float[] mRight = new float[NUM_QUERIES];
+    private final float[] mBottom = new float[NUM_QUERIES];
+    private final float[] mTop = new float[NUM_QUERIES];
+    private final int[][] mHits = new int[NUM_QUERIES][];
+    private float mDistance;
+
+    private int mNext;
+
+    /**
+     * Creates a simulation with all pieces in place.  The board is "columns x rows".
+     */
+    static GameSimulation createSimulation(String board) {
+        int sep = board.indexOf('x');
+        if (sep <= 0) {
+            throw new RuntimeException("bad board '" + board + "'");
+        }
+        int columns = Integer.parseInt(board.substring(0, sep));
+        int rows = Integer.parseInt(board.substring(sep + 1));
+        GameSimulation sim = new GameSimulation(columns, rows);
+        sim.initBoard();
+        return sim;
+    }
+
+    @Setup
+    public void setup() {
+        GameSimulation sim = createSimulation(board);
+        mSim = sim;
+        mStep = sim.newStepContext();
+        mGrid = sim.getBrickGrid();
+        mCandidates = new int[sim.getBrickCount()];
+        mRadius = sim.getBallRadius();
+        mDistance = (float) (speed * GameSimulation.TICK_SEC);
+
+        // Find the vertical extent of the bricks.
+        float brickBottom = Float.MAX_VALUE;
+        float brickTop = -Float.MAX_VALUE;
+        for (int i = 0; i < sim.getBrickCount(); i++) {
+            float y = sim.getRectYPosition(i);
+            float ys = sim.getRectYScale(i);
+            brickBottom = Math.min(brickBottom, y - ys);
+            brickTop = Math.max(brickTop, y + ys);
+        }
+        float minX = GameSimulation.BORDER_WIDTH + mRadius;
+        float maxX = GameSimulation.ARENA_WIDTH - GameSimulation.BORDER_WIDTH - mRadius;
+        float minY = brickBottom - (brickTop - brickBottom) / 4;
+        float maxY = brickTop;
+
+        Random rand = new Random(1);
+        mScratchHits = new int[sim.getPaddleRect() + 1];
+        int i = 0;
+        while (i < NUM_QUERIES) {
+            float curX = minX + rand.nextFloat() * (maxX - minX);
+            float curY = minY + rand.nextFloat() * (maxY - minY);
+            double angle = rand.nextDouble() * Math.PI * 2;
+            float dirX = (float) Math.cos(angle);
+            float dirY = (float) Math.sin(angle);
+            float finalX = curX + dirX * mDistance;
+            float finalY = curY + dirY * mDistance;
+
+            mCurX[i] = curX;
+            mCurY[i] = curY;
+            mDirX[i] = dirX;
+            mDirY[i] = dirY;
+            mLeft[i] = Math.min(curX, finalX) - mRadius;
+            mRight[i] = Math.max(curX, finalX) + mRadius;
+            mBottom[i] = Math.min(curY, finalY) - mRadius;
+            mTop[i] = Math.max(curY, finalY) + mRadius;
+
+            // Same candidate list moveBall() would hand to the fine pass.
+            int hits = coarsePass(i, mScratchHits);
+            if (hits != 0) {
+                mHits[i] = new int[hits];
+                System.arraycopy(mScratchHits, 0, mHits[i], 0, hits);
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Runs the coarse pass the way moveBall() does: bricks from the grid, then the borders
+     * and the paddle.
+     *
+     * @return Number of possible collisions stored in "result".
+     */
+    private int coarsePass(int query, int[] result) {
+        GameSimulation sim = mSim;
+        float left = mLeft[query];
+        float right = mRight[query];
+        float bottom = mBottom[query];
+        float top = mTop[query];
+
+        int hits = 0;
+        int numCandidates = mGrid.findCandidates(left, right, bottom, top, mCandidates);
+        for (int i = 0; i < numCandidates; i++) {
+            int brick = mCandidates[i];
+            if (sim.checkCoarseCollision(brick, left, right, bottom, top)) {
+                result[hits++] = brick;
+            }
+        }
+        int firstBorder = sim.getBorderRect(0);
+        for (int i = 0; i < GameSimulation.NUM_BORDERS; i++) {
+            if (sim.checkCoarseCollision(firstBorder + i, left, right, bottom, top)) {
+                result[hits++] = firstBorder + i;
+            }
+        }
+        if (sim.checkCoarseCollision(sim.getPaddleRect(), left, right, bottom, top)) {
+            result[hits++] = sim.getPaddleRect();
+        }
+        return hits;
+    }
+
+    private int nextQuery() {
+        int query = mNext;
+        mNext = (query + 1) & (NUM_QUERIES - 1);
+        return query;
+    }
+
+    /**
+     * Coarse pass for one step, with the grid narrowing the brick list.  This is what
+     * moveBall() does on every step.
+     */
+    @Benchmark
+    public int coarseGrid() {
+        return coarsePass(nextQuery(), mScratchHits);
+    }
+
+    /**
+     * Coarse pass for one step, testing every brick.  This is what moveBall() did before
+     * the grid; the cost grows with the brick count.
+     */
+    @Benchmark
+    public int coarseScan() {
+        int query = nextQuery();
+        GameSimulation sim = mSim;
+        float left = mLeft[query];
+        float right = mRight[query];
+        float bottom = mBottom[query];
+        float top = mTop[query];
+        int numRects = sim.getPaddleRect() + 1;
+
+        int hits = 0;
+        for (int i = 0; i < numRects; i++) {
+            if (sim.checkCoarseCollision(i, left, right, bottom, top)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Fine pass for one step, marching the ball along its path.
+     */
+    @Benchmark
+    public int fineMarch() {
+        int query = nextQuery();
+        int[] hits = mHits[query];
+        return mSim.findFirstCollision(mStep, hits, hits.length, mCurX[query],
+                mCurY[query], mDirX[query], mDirY[query], mDistance, mRadius);
+    }
+
+    /**
+     * Fine pass for one step, computing the time of impact directly.
+     */
+    @Benchmark
+    public int fineSwept() {
+        int query = nextQuery();
+        int[] hits = mHits[query];
+        return mSim.findFirstCollisionSwept(mStep, hits, hits.length, mCurX[query],
+                mCurY[query], mDirX[query], mDirY[query], mDistance, mRadius);
+    }
+}
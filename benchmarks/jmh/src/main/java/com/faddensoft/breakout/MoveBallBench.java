@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks GameSimulation.moveBall(), the whole per-tick movement and collision step,
+ * with one ball or many.
+ * <p>
+ * The ball bounces around on its own: the bottom border is solid (setNeverLoseBall()), and
+ * the speed is put back to the benchmark's value before every step, so the game's
+ * speed-up-on-collision doesn't change the answer over the course of a run.  The board is
+ * restored at the start of every iteration, and whenever the last brick goes, so
+ * iterations start from the same position and the brick density stays in the neighborhood
+ * of the parameter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class MoveBallBench {
+    /** Brick layout, columns x rows. */
+    @Param({"12x8", "48x32", "100x100"})
+    public String board;
+
+    /** Ball speed, in arena units per second.  The game runs from 300 to 1200. */
+    @Param({"300", "1200", "4800"})
+    public int speed;
+
+    /** Number of balls in play.  They all move on every step. */
+    @Param({"1", "256"})
+    public int balls;
+
+    /** Fine collision pass, "march" or "swept". */
+    @Param({"march", "swept"})
+    public String collision;
+
+    private GameSimulation mSim;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mSim = CollisionBench.createSimulation(board);
+        mSim.setNeverLoseBall(true);
+        if ("march".equals(collision)) {
+            mSim.setCollisionMode(GameSimulation.COLLISION_MODE_MARCH);
+        } else if ("swept".equals(collision)) {
+            mSim.setCollisionMode(GameSimulation.COLLISION_MODE_SWEPT);
+        } else {
+            throw new RuntimeException("bad collision mode '" + collision + "'");
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetBoard() {
+        mSim.initBricks();
+        mSim.reset();
+        mSim.spawnBalls(balls - 1);
+    }
+
+    /**
+     * Advances the balls by one simulation tick.
+     */
+    @Benchmark
+    public int step() {
+        GameSimulation sim = mSim;
+        for (int i = sim.getBallCount() - 1; i >= 0; i--) {
+            sim.setBallSpeed(i, speed);
+        }
+        int event = sim.moveBall(GameSimulation.TICK_SEC);
+        if (event == GameSimulation.EVENT_LAST_BRICK) {
+            sim.initBricks();
+        }
+        return event;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.Random;
+
+/**
+ * Exercises AudioMixer on the desktop, with a CaptureSink in place of the AudioTrack.
+ * <p>
+ * First we check the mixing itself: sounds played directly through mix() must come out as
+ * the clipped sum of their samples, and when every voice is busy the oldest one has to be
+ * the one cut off.
+ * <p>
+ * Then we run the audio thread against a sink that blocks in real time, play the brick
+ * sound at random moments, and measure how long it takes for the sound to show up in a
+ * write to the sink.  On a device the AudioTrack's own buffer comes on top of that.  Each
+ * captured sound is compared against the original samples.
+ * <p>
+ * Finally we report the cost of generating the game's sounds and of mixing with all
+ * voices busy.
+ */
+public class AudioMixerBenchmark {
+    // Same as SoundResources.
+    private static final int SAMPLE_RATE = 22050;
+    private static final int MAX_VOICES = 4;
+    private static final int BLOCK_FRAMES = 256;
+    private static final int QUEUE_SIZE = 8;
+    private static final float VOLUME = 0.5f;
+
+    private static final int LATENCY_TRIALS = 100;
+    private static final int MIX_ITERATIONS = 200000;
+    private static final int GENERATE_ITERATIONS = 200;
+
+
+    public static void main(String[] args) throws InterruptedException {
+        checkMix();
+        checkStealing();
+        measureLatency();
+        measureCost();
+    }
+
+    /**
+     * Plays two overlapping sounds through mix() in odd-sized pieces and compares the output
+     * with the clipped sum.
+     */
+    private static void checkMix() {
+        short[] a = AudioMixer.generateTone(SAMPLE_RATE, 50, 900, 0.8f);
+        short[] b = AudioMixer.generateTone(SAMPLE_RATE, 20, 300, 0.8f);
+        AudioMixer mixer = new AudioMixer(2, MAX_VOICES, 100, QUEUE_SIZE);
+        mixer.setSound(0, a);
+        mixer.setSound(1, b);
+
+        final int startB = 333;
+        short[] out = new short[a.length + 500];
+        mixer.play(0);
+        mixer.mix(out, 0, startB);
+        mixer.play(1);
+        int pos = startB;
+        while (pos < out.length) {
+            int count = Math.min(77, out.length - pos);
+            mixer.mix(out, pos, count);
+            pos += count;
+        }
+
+        int clipped = 0;
+        for (int i = 0; i < out.length; i++) {
+            int expected = 0;
+            if (i < a.length) {
+                expected += a[i];
+            }
+            if (i >= startB && i - startB < b.length) {
+                expected += b[i - startB];
+            }
+            if (expected > Short.MAX_VALUE) {
+                expected = Short.MAX_VALUE;
+                clipped++;
+            } else if (expected < Short.MIN_VALUE) {
+                expected = Short.MIN_VALUE;
+                clipped++;
+            }
+            if (out[i] != expected) {
+                throw new RuntimeException("mix mismatch at " + i + ": " + out[i] + " vs "
+                        + expected);
+            }
+        }
+        if (clipped == 0 || mixer.getActiveVoiceCount() != 0) {
+            throw new RuntimeException("check didn't exercise clipping, or voices left over");
+        }
+        System.out.println("Mix check OK (" + out.length + " samples, " + clipped
+                + " clipped)");
+    }
+
+    /**
+     * Fills every voice, then plays one more sound and checks that the voice that started
+     * first was the one replaced.
+     */
+    private static void checkStealing() {
+        AudioMixer mixer = new AudioMixer(MAX_VOICES + 1, MAX_VOICES, 16, QUEUE_SIZE);
+        for (int i = 0; i <= MAX_VOICES; i++) {
+            // Sound "i" is a constant 1 << i, so we can tell from the output who's playing.
+            short[] samples = new short[1000];
+            for (int j = 0; j < samples.length; j++) {
+                samples[j] = (short) (1 << i);
+            }
+            mixer.setSound(i, samples);
+        }
+
+        short[] out = new short[10];
+        for (int i = 0; i < MAX_VOICES; i++) {
+            mixer.play(i);
+            mixer.mix(out, 0, out.length);
+        }
+        mixer.play(MAX_VOICES);
+        mixer.mix(out, 0, out.length);
+
+        int expected = ((1 << (MAX_VOICES + 1)) - 1) & ~1;  // everything but sound 0
+        if (out[0] != expected || mixer.getActiveVoiceCount() != MAX_VOICES) {
+            throw new RuntimeException("voice stealing: got " + out[0] + ", expected "
+                    + expected);
+        }
+        System.out.println("Voice stealing check OK");
+    }
+
+    /**
+     * Measures the time from play() to the write that carries the start of the sound.
+     */
+    private static void measureLatency() throws InterruptedException {
+        short[] brick = AudioMixer.generateTone(SAMPLE_RATE, 50, 900, VOLUME);
+        AudioMixer mixer = new AudioMixer(1, MAX_VOICES, BLOCK_FRAMES, QUEUE_SIZE);
+        mixer.setSound(0, brick);
+        CaptureSink sink = new CaptureSink(SAMPLE_RATE, true);
+        mixer.start(sink);
+
+        Random rand = new Random(1);
+        long[] playNanos = new long[LATENCY_TRIALS];
+        int[] firstWrite = new int[LATENCY_TRIALS];
+        for (int i = 0; i < LATENCY_TRIALS; i++) {
+            // Let the previous sound finish, and wait a random time so we don't always land
+            // in the same place relative to the block boundaries.
+            Thread.sleep(60 + rand.nextInt(20));
+            firstWrite[i] = sink.getWriteCount();
+            playNanos[i] = System.nanoTime();
+            mixer.play(0);
+        }
+        Thread.sleep(100);
+        mixer.stop();
+
+        short[] samples = sink.getSamples();
+        long totalNanos = 0;
+        long maxNanos = 0;
+        for (int i = 0; i < LATENCY_TRIALS; i++) {
+            int write = firstWrite[i];
+            if (write >= sink.getWriteCount()) {
+                throw new RuntimeException("trial " + i + ": sound never written");
+            }
+            long latency = sink.getWriteNanos(write) - playNanos[i];
+            totalNanos += latency;
+            maxNanos = Math.max(maxNanos, latency);
+
+            // The sound starts at the beginning of the block and must be intact.
+            int start = sink.getWriteStart(write);
+            for (int j = 0; j < brick.length; j++) {
+                if (samples[start + j] != brick[j]) {
+                    throw new RuntimeException("trial " + i + ": sample " + j
+                            + " mismatch");
+                }
+            }
+        }
+        System.out.printf("Hit-to-sink latency: avg %.2fms, max %.2fms (block is %.1fms)%n",
+                totalNanos / (double) LATENCY_TRIALS / 1000000.0, maxNanos / 1000000.0,
+                BLOCK_FRAMES * 1000.0 / SAMPLE_RATE);
+        System.out.println("Captured " + samples.length + " samples in "
+                + sink.getWriteCount() + " writes; all " + LATENCY_TRIALS + " sounds intact");
+    }
+
+    /**
+     * Times sound generation and mixing.
+     */
+    private static void measureCost() {
+        short[][] sounds = null;
+        long start = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            // First pass is warmup.
+            start = System.nanoTime();
+            for (int i = 0; i < GENERATE_ITERATIONS; i++) {
+                sounds = new short[][] {
+                        AudioMixer.generateTone(SAMPLE_RATE, 50, 900, VOLUME),
+                        AudioMixer.generateTone(SAMPLE_RATE, 50, 700, VOLUME),
+                        AudioMixer.generateTone(SAMPLE_RATE, 50, 300, VOLUME),
+                        AudioMixer.generateTone(SAMPLE_RATE, 500, 280, VOLUME) };
+            }
+        }
+        long generateNanos = (System.nanoTime() - start) / GENERATE_ITERATIONS;
+        int totalBytes = 0;
+        for (short[] sound : sounds) {
+            totalBytes += sound.length * 2;
+        }
+        System.out.printf("Generate all sounds: %.3fms, %d bytes of PCM%n",
+                generateNanos / 1000000.0, totalBytes);
+
+        AudioMixer mixer = new AudioMixer(sounds.length, MAX_VOICES, BLOCK_FRAMES,
+                QUEUE_SIZE);
+        for (int i = 0; i < sounds.length; i++) {
+            mixer.setSound(i, sounds[i]);
+        }
+        short[] out = new short[BLOCK_FRAMES];
+        long samples = 0;
+        long mixNanos = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            samples = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < MIX_ITERATIONS; i++) {
+                // Keep every voice busy.
+                if (mixer.getActiveVoiceCount() < MAX_VOICES) {
+                    mixer.play(3);
+                }
+                mixer.mix(out, 0, BLOCK_FRAMES);
+                samples += BLOCK_FRAMES;
+            }
+            mixNanos = System.nanoTime() - start;
+        }
+        System.out.printf("Mix %d voices: %.2fns per sample (%.3f%% of real time)%n",
+                MAX_VOICES, mixNanos / (double) samples,
+                mixNanos / (double) samples * SAMPLE_RATE / 1e9 * 100.0);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares the two ways of drawing balls: textured sprites (SpriteBatch, with the texture
+ * from BallImage) and circles computed in the fragment shader (CircleBatch).
+ * <p>
+ * Startup: for the texture we time generating the image and its mipmaps, and reading it
+ * back from the cache file, and report how much data has to be uploaded.  The circle
+ * shader needs none of that.
+ * <p>
+ * Per frame: GL calls go to a RecordingGlCalls.  For each ball count we report GL calls
+ * per frame, bytes of vertex and uniform data, and CPU time per ball on our side of the
+ * GL API.
+ * <p>
+ * Before timing, we check the circle shader's arithmetic by evaluating it at every pixel
+ * of a large ball and comparing the total coverage to the area of the circle.
+ */
+public class BallRenderBenchmark {
+    // Same as TexturedAlignedRect.MAX_SPRITES and BasicAlignedRect.MAX_BATCHED_CIRCLES.
+    private static final int MAX_BATCHED = 1024;
+
+    // Ball counts to try.  4 is a normal frame: the ball in play and three spares.
+    private static final int[] BALL_COUNTS = { 4, 256, 1024, 10000 };
+
+    private static final int ITERATIONS = 2000;
+    private static final int STARTUP_ITERATIONS = 50;
+
+    // Fake program and handles.
+    private static final int PROGRAM = 1;
+    private static final int POSITION_HANDLE = 0;
+    private static final int SECOND_HANDLE = 1;
+    private static final int MATRIX_HANDLE = 2;
+    private static final int COLOR_HANDLE = 3;
+    private static final int TEXTURE = 1;
+
+    // Pixels per arena unit on a 720-pixel-wide display.
+    private static final float PIXEL_SCALE = 720.0f / GameSimulation.ARENA_WIDTH;
+
+    private static final float[] COLOR = { 1.0f, 1.0f, 1.0f, 1.0f };
+
+    private final int mNumBalls;
+    private final float[] mXPos, mYPos;
+    private final float mDiameter;
+    private final float[] mProjMatrix = new float[16];
+
+    private final RecordingGlCalls mGl = new RecordingGlCalls();
+    private final SpriteBatch mSprites = new SpriteBatch(mGl, MAX_BATCHED);
+    private final CircleBatch mCircles = new CircleBatch(mGl, MAX_BATCHED);
+
+
+    public static void main(String[] args) throws IOException {
+        checkCircleCoverage();
+        startup();
+
+        System.out.println();
+        System.out.println(" balls  sprite-calls sprite-bytes  sprite-ns/ball" +
+                "  circle-calls circle-bytes  circle-ns/ball");
+        for (int count : BALL_COUNTS) {
+            new BallRenderBenchmark(count).run();
+        }
+    }
+
+    /**
+     * Times the one-time work the texture path needs.
+     */
+    private static void startup() throws IOException {
+        // Same as Ball.TEX_STYLE and Ball.TEX_SIZE.
+        int style = BallImage.STYLE_CIRCLE;
+        int size = 64;
+
+        // Warm up.
+        for (int i = 0; i < STARTUP_ITERATIONS; i++) {
+            BallImage.generate(style, size);
+        }
+        long start = System.nanoTime();
+        BallImage image = null;
+        for (int i = 0; i < STARTUP_ITERATIONS; i++) {
+            image = BallImage.generate(style, size);
+        }
+        long generateNsec = (System.nanoTime() - start) / STARTUP_ITERATIONS;
+
+        File file = File.createTempFile("ball", ".tex");
+        try {
+            image.writeTo(file);
+            for (int i = 0; i < STARTUP_ITERATIONS; i++) {
+                BallImage.readFrom(file, style, size);
+            }
+            start = System.nanoTime();
+            for (int i = 0; i < STARTUP_ITERATIONS; i++) {
+                BallImage.readFrom(file, style, size);
+            }
+        } finally {
+            file.delete();
+        }
+        long readNsec = (System.nanoTime() - start) / STARTUP_ITERATIONS;
+
+        int uploadBytes = 0;
+        for (int i = 0; i < image.getLevelCount(); i++) {
+            uploadBytes += image.getLevelData(i).length;
+        }
+        // glGenTextures, glBindTexture, 2x glTexParameteri, one glTexImage2D per level.
+        int uploadCalls = 4 + image.getLevelCount();
+
+        System.out.println("startup, " + size + "x" + size + " texture with " +
+                image.getLevelCount() + " levels:");
+        System.out.printf("  texture: generate %.2f ms, or read cache file %.2f ms; " +
+                "upload %d bytes in %d GL calls%n",
+                generateNsec / 1000000.0, readNsec / 1000000.0, uploadBytes, uploadCalls);
+        System.out.println("  circle:  nothing to generate or upload");
+    }
+
+    /**
+     * Evaluates the circle fragment shader at the center of every pixel covered by a ball
+     * 64 pixels across, and checks that the coverage adds up to the area of the circle.
+     */
+    private static void checkCircleCoverage() {
+        RecordingGlCalls gl = new RecordingGlCalls();
+        CircleBatch batch = new CircleBatch(gl, 1);
+        batch.setProgram(PROGRAM, POSITION_HANDLE, SECOND_HANDLE, COLOR_HANDLE, MATRIX_HANDLE);
+        float diameter = 64.0f / PIXEL_SCALE;
+        batch.begin(new float[16], PIXEL_SCALE, COLOR);
+        batch.add(100.0f, 100.0f, diameter);
+
+        // Vertices 0 and 3 are the bottom-left and top-right corners.
+        float[] v = batch.getPendingVertices();
+        int f = CircleBatch.FLOATS_PER_VERTEX;
+        float dxMin = v[2], dyMin = v[3], radius = v[4];
+        float dxMax = v[3 * f + 2], dyMax = v[3 * f + 3];
+        batch.end();
+
+        int pixels = Math.round(dxMax - dxMin);
+        double coverage = 0.0;
+        for (int py = 0; py < pixels; py++) {
+            for (int px = 0; px < pixels; px++) {
+                // Interpolate to the pixel center, the way the rasterizer would.
+                float dx = dxMin + (dxMax - dxMin) * (px + 0.5f) / pixels;
+                float dy = dyMin + (dyMax - dyMin) * (py + 0.5f) / pixels;
+                float c = radius - (float) Math.sqrt(dx * dx + dy * dy);
+                coverage += Math.max(0.0f, Math.min(1.0f, c));
+            }
+        }
+
+        // The edge ramp sits just inside the radius, so the visible circle is about half a
+        // pixel smaller.
+        double expected = Math.PI * (radius - 0.5) * (radius - 0.5);
+        if (Math.abs(coverage - expected) > expected * 0.01) {
+            throw new RuntimeException("circle coverage " + coverage + ", expected " + expected);
+        }
+        System.out.printf("circle check: %d px across, coverage %.1f px^2 (expected %.1f)%n",
+                pixels, coverage, expected);
+    }
+
+    private BallRenderBenchmark(int numBalls) {
+        mNumBalls = numBalls;
+        mXPos = new float[numBalls];
+        mYPos = new float[numBalls];
+        GameSimulation sim = new GameSimulation();
+        sim.initBoard();
+        mDiameter = sim.getBallRadius() * 2.0f;
+
+        Random rand = new Random(numBalls);
+        for (int i = 0; i < numBalls; i++) {
+            mXPos[i] = rand.nextFloat() * GameSimulation.ARENA_WIDTH;
+            mYPos[i] = rand.nextFloat() * GameSimulation.ARENA_HEIGHT;
+        }
+
+        // Ortho projection, as set up by GameSurfaceRenderer.
+        mProjMatrix[0] = 2.0f / GameSimulation.ARENA_WIDTH;
+        mProjMatrix[5] = 2.0f / GameSimulation.ARENA_HEIGHT;
+        mProjMatrix[10] = -1.0f;
+        mProjMatrix[12] = -1.0f;
+        mProjMatrix[13] = -1.0f;
+        mProjMatrix[15] = 1.0f;
+
+        mSprites.setProgram(PROGRAM, POSITION_HANDLE, SECOND_HANDLE, MATRIX_HANDLE);
+        mCircles.setProgram(PROGRAM, POSITION_HANDLE, SECOND_HANDLE, COLOR_HANDLE,
+                MATRIX_HANDLE);
+    }
+
+    private void run() {
+        // Count the calls and bytes for a single pass of each.
+        mGl.reset();
+        spritePass();
+        int spriteCalls = mGl.getCallCount();
+        long spriteBytes = mGl.getByteCount();
+        mGl.reset();
+        circlePass();
+        int circleCalls = mGl.getCallCount();
+        long circleBytes = mGl.getByteCount();
+
+        // Warm up, then time.
+        for (int i = 0; i < ITERATIONS / 4; i++) {
+            spritePass();
+            circlePass();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            spritePass();
+        }
+        long spriteNsec = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            circlePass();
+        }
+        long circleNsec = System.nanoTime() - start;
+
+        double balls = (double) mNumBalls * ITERATIONS;
+        System.out.printf("%6d  %12d %12d  %14.1f  %12d %12d  %14.1f%n",
+                mNumBalls, spriteCalls, spriteBytes, spriteNsec / balls,
+                circleCalls, circleBytes, circleNsec / balls);
+    }
+
+    /**
+     * Draws every ball the way TexturedAlignedRect.drawSprite() does.
+     */
+    private void spritePass() {
+        SpriteBatch batch = mSprites;
+        batch.begin(mProjMatrix);
+        batch.setTexture(TEXTURE);
+        batch.setTexCoords(0.0f, 0.0f, 63 / 64.0f, 63 / 64.0f);
+        for (int i = 0; i < mNumBalls; i++) {
+            batch.add(mXPos[i], mYPos[i], mDiameter, mDiameter);
+        }
+        batch.end();
+    }
+
+    /**
+     * Draws every ball the way BasicAlignedRect.drawCircle() does.
+     */
+    private void circlePass() {
+        CircleBatch batch = mCircles;
+        batch.begin(mProjMatrix, PIXEL_SCALE, COLOR);
+        for (int i = 0; i < mNumBalls; i++) {
+            batch.add(mXPos[i], mYPos[i], mDiameter);
+        }
+        batch.end();
+    }
+}
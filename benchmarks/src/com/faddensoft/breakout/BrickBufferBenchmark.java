@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Measures what it costs to draw the bricks each frame during a game: one at a time, through
+ * a RectBatch, and from a StaticRectBuffer.
+ * <p>
+ * Runs on a plain JVM.  The game is played by the same paddle-follows-ball player that
+ * SimulationBenchmark uses, at 60fps, with GL calls going to a RecordingGlCalls for each
+ * approach.  The output shows the average number of GL calls and bytes sent to the driver
+ * per frame, and for the static buffer, how often a frame had to upload anything.
+ * <p>
+ * Usage: BrickBufferBenchmark [frames [columns rows]]
+ */
+public class BrickBufferBenchmark {
+    private static final double FRAME_DELTA_SEC = 1.0 / 60.0;
+
+    // Values from GLES20.
+    private static final int GL_FLOAT = 0x1406;
+    private static final int GL_TRIANGLE_STRIP = 0x0005;
+
+    // Fake program and handles.
+    private static final int PROGRAM = 1;
+    private static final int POSITION_HANDLE = 0;
+    private static final int COLOR_HANDLE = 1;
+    private static final int MATRIX_HANDLE = 2;
+
+    private final GameSimulation mSim;
+    private final float[] mProjMatrix = new float[16];
+    private final float[] mColor = { 0.5f, 0.5f, 0.25f, 1.0f };
+
+    // One-at-a-time path.
+    private final RecordingGlCalls mImmediateGl = new RecordingGlCalls();
+    private final FloatBuffer mUnitSquare;
+    private final float[] mTempMVP = new float[16];
+
+    // Batch path.
+    private final RecordingGlCalls mBatchGl = new RecordingGlCalls();
+    private final RectBatch mBatch;
+
+    // Static buffer path.
+    private final RecordingGlCalls mStaticGl = new RecordingGlCalls();
+    private final RectBatch mStaticBatch;
+    private StaticRectBuffer mBrickBuffer;
+
+    private boolean mPaddleHit;
+
+
+    public static void main(String[] args) {
+        int frames = 500000;
+        int columns = GameSimulation.BRICK_COLUMNS;
+        int rows = GameSimulation.BRICK_ROWS;
+
+        if (args.length > 0) {
+            frames = Integer.parseInt(args[0]);
+        }
+        if (args.length > 2) {
+            columns = Integer.parseInt(args[1]);
+            rows = Integer.parseInt(args[2]);
+        }
+
+        new BrickBufferBenchmark(columns, rows).run(frames);
+    }
+
+    private BrickBufferBenchmark(int columns, int rows) {
+        mSim = new GameSimulation(columns, rows);
+        mSim.setListener(new GameSimulation.Listener() {
+            @Override
+            public void onSound(int sound) {
+                if (sound == GameSimulation.SOUND_PADDLE_HIT) {
+                    mPaddleHit = true;
+                }
+            }
+
+            @Override
+            public void onBrickDestroyed(int brick) {
+                mBrickBuffer.hideRect(brick);
+            }
+
+            @Override
+            public void onLogMessage(String msg) {}
+        });
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(8 * 4);
+        bb.order(ByteOrder.nativeOrder());
+        mUnitSquare = bb.asFloatBuffer();
+
+        int numBricks = columns * rows;
+        mBatch = new RectBatch(mBatchGl, Math.min(numBricks, RectBatch.MAX_RECTS_PER_DRAW));
+        mBatch.setProgram(PROGRAM, POSITION_HANDLE, COLOR_HANDLE, MATRIX_HANDLE);
+        mStaticBatch = new RectBatch(mStaticGl, 1);
+        mStaticBatch.setProgram(PROGRAM, POSITION_HANDLE, COLOR_HANDLE, MATRIX_HANDLE);
+    }
+
+    private void run(int frames) {
+        GameSimulation sim = mSim;
+        sim.initBoard();
+        newBrickBuffer();
+
+        Random rand = new Random(1);
+        float paddleOffset = 0.0f;
+        int games = 0;
+        int bricksDestroyed = 0;
+        int uploadFrames = 0;
+
+        for (int i = 0; i < frames; i++) {
+            sim.movePaddle(sim.getBallXPosition() + paddleOffset);
+            sim.advance(FRAME_DELTA_SEC);
+            if (mPaddleHit) {
+                paddleOffset = (rand.nextFloat() - 0.5f) *
+                        sim.getRectXScale(sim.getPaddleRect()) * 0.9f;
+                mPaddleHit = false;
+            }
+
+            int updatesBefore = mBrickBuffer.getSubDataUpdateCount();
+            drawImmediate();
+            drawBatch();
+            drawStatic();
+            if (mBrickBuffer.getSubDataUpdateCount() != updatesBefore) {
+                uploadFrames++;
+            }
+
+            int state = sim.getGamePlayState();
+            if (state == GameSimulation.GAME_WON || state == GameSimulation.GAME_LOST) {
+                games++;
+                bricksDestroyed += sim.getBrickCount() - sim.getLiveBrickCount();
+                sim.initBricks();
+                sim.reset();
+                newBrickBuffer();
+            }
+        }
+        bricksDestroyed += sim.getBrickCount() - sim.getLiveBrickCount();
+
+        System.out.println("board " + sim.getBrickColumns() + "x" + sim.getBrickRows() + ", "
+                + frames + " frames, " + games + " games, " + bricksDestroyed
+                + " bricks destroyed");
+        System.out.println("            calls/frame  bytes/frame");
+        report("immediate", mImmediateGl, frames);
+        report("batch", mBatchGl, frames);
+        report("static", mStaticGl, frames);
+        System.out.printf("static buffer updated on %d frames (%.2f%%)%n",
+                uploadFrames, uploadFrames * 100.0 / frames);
+    }
+
+    private static void report(String name, RecordingGlCalls gl, int frames) {
+        System.out.printf("%-10s  %11.1f  %11.1f%n", name,
+                (double) gl.getCallCount() / frames, (double) gl.getByteCount() / frames);
+    }
+
+    /**
+     * Builds and uploads a buffer for a fresh board, the way GameState.allocBricks() does.
+     */
+    private void newBrickBuffer() {
+        GameSimulation sim = mSim;
+        StaticRectBuffer buf = new StaticRectBuffer(mStaticGl, sim.getBrickCount());
+        for (int i = 0; i < sim.getBrickCount(); i++) {
+            buf.setRect(i, sim.getRectXPosition(i), sim.getRectYPosition(i),
+                    sim.getRectXScale(i), sim.getRectYScale(i), mColor);
+        }
+        buf.upload();
+        mBrickBuffer = buf;
+    }
+
+    /**
+     * Draws the live bricks the way BasicAlignedRect does with BATCHED_DRAWING disabled.
+     */
+    private void drawImmediate() {
+        GameSimulation sim = mSim;
+        GlCalls gl = mImmediateGl;
+        gl.glUseProgram(PROGRAM);
+        gl.glEnableVertexAttribArray(POSITION_HANDLE);
+        gl.glVertexAttribPointer(POSITION_HANDLE, 2, GL_FLOAT, false, 8, mUnitSquare);
+        for (int i = 0; i < sim.getBrickCount(); i++) {
+            if (sim.isBrickAlive(i)) {
+                gl.glUniformMatrix4fv(MATRIX_HANDLE, 1, false, mTempMVP, 0);
+                gl.glUniform4fv(COLOR_HANDLE, 1, mColor, 0);
+                gl.glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+            }
+        }
+        gl.glDisableVertexAttribArray(POSITION_HANDLE);
+        gl.glUseProgram(0);
+    }
+
+    /**
+     * Draws the live bricks through a RectBatch.
+     */
+    private void drawBatch() {
+        GameSimulation sim = mSim;
+        RectBatch batch = mBatch;
+        batch.begin(mProjMatrix);
+        for (int i = 0; i < sim.getBrickCount(); i++) {
+            if (sim.isBrickAlive(i)) {
+                batch.add(sim.getRectXPosition(i), sim.getRectYPosition(i),
+                        sim.getRectXScale(i), sim.getRectYScale(i), mColor);
+            }
+        }
+        batch.end();
+    }
+
+    /**
+     * Draws the bricks from the static buffer.
+     */
+    private void drawStatic() {
+        mStaticBatch.begin(mProjMatrix);
+        mStaticBatch.drawStatic(mBrickBuffer);
+        mStaticBatch.end();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.Random;
+
+/**
+ * Compares the brick "broad phase" done with a linear scan (the way GameState.moveBall() used
+ * to do it) against the BrickGrid spatial index.
+ * <p>
+ * Runs on a plain JVM.  For each board size we generate a set of ball sweeps scattered around
+ * the arena, then time one broad-phase query per sweep.  The output shows the number of
+ * bricks each approach had to look at, and the average cost of a query.
+ */
+public class BrickGridBenchmark {
+    // Same arena layout as GameSimulation.
+    private static final float ARENA_WIDTH = 768.0f;
+    private static final float ARENA_HEIGHT = 1024.0f;
+    private static final float BORDER_WIDTH = (int) (0.02f * ARENA_WIDTH);
+    private static final float BRICK_TOP_PERC = 85 / 100.0f;
+    private static final float BRICK_BOTTOM_PERC = 43 / 100.0f;
+    private static final float BRICK_HORIZONTAL_GAP_PERC = 20 / 100.0f;
+    private static final float BRICK_VERTICAL_GAP_PERC = 50 / 100.0f;
+
+    private static final float BALL_RADIUS = (int) (ARENA_WIDTH * 2.5f / 100.0f) / 2.0f;
+    private static final float STEP_DISTANCE = 800 / 60.0f;     // max speed at 60fps
+
+    private static final int NUM_SWEEPS = 4096;
+    private static final int ITERATIONS = 200;
+
+    // Board shapes to try: { columns, rows }.
+    private static final int[][] BOARDS = {
+        { 12, 8 },          // 96, the standard board
+        { 40, 25 },         // 1,000
+        { 100, 100 },       // 10,000
+    };
+
+    private final int mNumBricks;
+    private final float[] mBrickX, mBrickY, mBrickXScale, mBrickYScale;
+    private final boolean[] mAlive;
+    private final BrickGrid mGrid;
+
+    // Swept AABBs: left, right, bottom, top.
+    private final float[] mSweeps = new float[NUM_SWEEPS * 4];
+    private final int[] mCandidates;
+
+    private long mExamined;     // bricks looked at
+    private long mOverlapping;  // bricks whose actual rect overlaps the sweep
+    private long mPassed;       // bricks that passed the coarse test
+
+
+    public static void main(String[] args) {
+        System.out.println("bricks   linear-cand  linear-ns/step   grid-cand  grid-ns/step"
+                + "   speedup");
+        for (int[] board : BOARDS) {
+            new BrickGridBenchmark(board[0], board[1]).run();
+        }
+    }
+
+    private BrickGridBenchmark(int columns, int rows) {
+        mNumBricks = columns * rows;
+        mBrickX = new float[mNumBricks];
+        mBrickY = new float[mNumBricks];
+        mBrickXScale = new float[mNumBricks];
+        mBrickYScale = new float[mNumBricks];
+        mAlive = new boolean[mNumBricks];
+        mCandidates = new int[mNumBricks];
+
+        // Lay out the bricks the same way GameSimulation.initBricks() does.
+        final float brickWidth = (ARENA_WIDTH - BORDER_WIDTH * 2) / columns;
+        final float brickHeight = ARENA_HEIGHT * (BRICK_TOP_PERC - BRICK_BOTTOM_PERC) / rows;
+        final float zoneBottom = ARENA_HEIGHT * BRICK_BOTTOM_PERC;
+        final float zoneLeft = BORDER_WIDTH;
+
+        mGrid = new BrickGrid(columns, rows, zoneLeft, zoneBottom, brickWidth, brickHeight,
+                mNumBricks);
+        for (int i = 0; i < mNumBricks; i++) {
+            int row = i / columns;
+            int col = i % columns;
+            mBrickX[i] = zoneLeft + col * brickWidth + brickWidth / 2;
+            mBrickY[i] = zoneBottom + row * brickHeight + brickHeight / 2;
+            mBrickXScale[i] = brickWidth * (1.0f - BRICK_HORIZONTAL_GAP_PERC);
+            mBrickYScale[i] = brickHeight * (1.0f - BRICK_VERTICAL_GAP_PERC);
+            mAlive[i] = true;
+            mGrid.setBrick(i, mBrickX[i], mBrickY[i], mBrickXScale[i], mBrickYScale[i]);
+        }
+        mGrid.finishSetup();
+
+        // Generate sweeps from random points in the arena, in random directions.
+        Random rand = new Random(12345);
+        for (int i = 0; i < NUM_SWEEPS; i++) {
+            float curX = BORDER_WIDTH + rand.nextFloat() * (ARENA_WIDTH - BORDER_WIDTH * 2);
+            float curY = rand.nextFloat() * (ARENA_HEIGHT - BORDER_WIDTH);
+            double angle = rand.nextDouble() * Math.PI * 2;
+            float finalX = curX + (float) Math.cos(angle) * STEP_DISTANCE;
+            float finalY = curY + (float) Math.sin(angle) * STEP_DISTANCE;
+            mSweeps[i*4] = Math.min(curX, finalX) - BALL_RADIUS;
+            mSweeps[i*4+1] = Math.max(curX, finalX) + BALL_RADIUS;
+            mSweeps[i*4+2] = Math.min(curY, finalY) - BALL_RADIUS;
+            mSweeps[i*4+3] = Math.max(curY, finalY) + BALL_RADIUS;
+        }
+    }
+
+    private void run() {
+        // Warm up both paths so the JIT has a chance to compile them.
+        for (int i = 0; i < ITERATIONS / 4; i++) {
+            linearPass();
+            gridPass();
+        }
+
+        mExamined = mOverlapping = mPassed = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            linearPass();
+        }
+        long linearNsec = System.nanoTime() - start;
+        long linearExamined = mExamined;
+        long linearOverlapping = mOverlapping;
+
+        mExamined = mOverlapping = mPassed = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            gridPass();
+        }
+        long gridNsec = System.nanoTime() - start;
+        long gridExamined = mExamined;
+
+        // Every brick that actually overlaps the sweep (and hence could be hit by the fine
+        // pass) must be among the grid's candidates.
+        if (linearOverlapping != gridExamined) {
+            throw new RuntimeException("grid disagrees with linear scan: " + gridExamined
+                    + " vs. " + linearOverlapping);
+        }
+
+        double steps = (double) NUM_SWEEPS * ITERATIONS;
+        System.out.printf("%6d  %12.2f  %14.1f  %10.2f  %12.1f  %7.1fx%n",
+                mNumBricks,
+                linearExamined / steps, linearNsec / steps,
+                gridExamined / steps, gridNsec / steps,
+                (double) linearNsec / gridNsec);
+    }
+
+    /**
+     * One broad-phase query per sweep, testing every live brick.
+     */
+    private void linearPass() {
+        for (int s = 0; s < NUM_SWEEPS; s++) {
+            float left = mSweeps[s*4];
+            float right = mSweeps[s*4+1];
+            float bottom = mSweeps[s*4+2];
+            float top = mSweeps[s*4+3];
+            for (int i = 0; i < mNumBricks; i++) {
+                if (mAlive[i]) {
+                    mExamined++;
+                    if (checkCoarseCollision(i, left, right, bottom, top)) {
+                        mPassed++;
+                        if (overlaps(i, left, right, bottom, top)) {
+                            mOverlapping++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * One broad-phase query per sweep, testing only the bricks the grid hands back.
+     */
+    private void gridPass() {
+        for (int s = 0; s < NUM_SWEEPS; s++) {
+            float left = mSweeps[s*4];
+            float right = mSweeps[s*4+1];
+            float bottom = mSweeps[s*4+2];
+            float top = mSweeps[s*4+3];
+            int count = mGrid.findCandidates(left, right, bottom, top, mCandidates);
+            mExamined += count;
+            for (int i = 0; i < count; i++) {
+                if (checkCoarseCollision(mCandidates[i], left, right, bottom, top)) {
+                    mPassed++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the brick's actual rect (inclusive edges) against the sweep.
+     */
+    private boolean overlaps(int brick, float left, float right, float bottom, float top) {
+        float halfWidth = mBrickXScale[brick] / 2;
+        float halfHeight = mBrickYScale[brick] / 2;
+        return mBrickX[brick] + halfWidth >= left && mBrickX[brick] - halfWidth <= right &&
+                mBrickY[brick] + halfHeight >= bottom && mBrickY[brick] - halfHeight <= top;
+    }
+
+    /**
+     * Same test as GameSimulation.checkCoarseCollision(), with the brick pulled out of arrays.
+     */
+    private boolean checkCoarseCollision(int brick, float left, float right, float bottom,
+            float top) {
+        float targLeft = mBrickX[brick] - mBrickXScale[brick];
+        float targRight = mBrickX[brick] + mBrickXScale[brick];
+        float targBottom = mBrickY[brick] - mBrickYScale[brick];
+        float targTop = mBrickY[brick] + mBrickYScale[brick];
+
+        float checkLeft = targLeft > left ? targLeft : left;
+        float checkRight = targRight < right ? targRight : right;
+        float checkTop = targBottom > bottom ? targBottom : bottom;
+        float checkBottom = targTop < top ? targTop : top;
+
+        return checkRight > checkLeft && checkBottom > checkTop;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.Random;
+
+/**
+ * Compares visiting the live bricks by checking every brick against walking the set bits
+ * of GameSimulation's liveness bit vector a word at a time, which is what
+ * GameState.drawBricks() does.  nextLiveBrick() is checked against both.  Also
+ * compares saving the board as a freshly allocated boolean[] (the old GameState.save())
+ * with copying the bit vector.
+ * <p>
+ * For boards of 96 (12x8), 1,000 (40x25) and 10,000 (100x100) bricks, we kill bricks at
+ * random until 100%, 50%, 10%, 1% and then just 3 are left, and report the time to visit
+ * the live bricks and to save the board each way.
+ */
+public class BrickIterationBenchmark {
+    private static final int[][] BOARDS = { { 12, 8 }, { 40, 25 }, { 100, 100 } };
+    private static final double[] LIVE_FRACTIONS = { 1.0, 0.5, 0.1, 0.01, 0.0 };
+    private static final int MIN_LIVE = 3;
+
+    // Brick visits per measurement, spread over however many passes that takes.
+    private static final int VISITS = 20000000;
+
+    private static int sSink;
+
+
+    public static void main(String[] args) {
+        System.out.println(" bricks   live  scan-ns/pass  bits-ns/pass  speedup"
+                + "  save-bool-ns  save-bits-ns");
+        for (int[] board : BOARDS) {
+            run(board[0], board[1]);
+        }
+        if (sSink == 42) {
+            System.out.println();   // keep the JIT from discarding the loops
+        }
+    }
+
+    private static void run(int columns, int rows) {
+        GameSimulation sim = new GameSimulation(columns, rows);
+        sim.initBricks();
+        int numBricks = sim.getBrickCount();
+
+        // Kill the bricks in a random order.
+        int[] order = new int[numBricks];
+        for (int i = 0; i < numBricks; i++) {
+            order[i] = i;
+        }
+        Random rand = new Random(1);
+        for (int i = numBricks - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        int killed = 0;
+
+        long[] bits = new long[sim.getLiveBrickWordCount()];
+        int prevLive = -1;
+        for (double fraction : LIVE_FRACTIONS) {
+            int live = Math.max(MIN_LIVE, (int) (numBricks * fraction));
+            if (live == prevLive) {
+                continue;
+            }
+            prevLive = live;
+            while (numBricks - killed > live) {
+                sim.killBrick(order[killed++]);
+            }
+            check(sim);
+
+            int passes = Math.max(1, VISITS / numBricks);
+            long scanNsec = 0, bitsNsec = 0, saveBoolNsec = 0, saveBitsNsec = 0;
+            for (int warm = 0; warm < 2; warm++) {
+                long start = System.nanoTime();
+                for (int p = 0; p < passes; p++) {
+                    sSink += scan(sim);
+                }
+                scanNsec = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int p = 0; p < passes; p++) {
+                    sSink += walk(sim);
+                }
+                bitsNsec = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int p = 0; p < passes; p++) {
+                    sSink += saveBooleans(sim).length;
+                }
+                saveBoolNsec = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int p = 0; p < passes; p++) {
+                    sim.copyLiveBricks(bits);
+                    sSink += (int) bits[0];
+                }
+                saveBitsNsec = System.nanoTime() - start;
+            }
+
+            System.out.printf("%7d %6d %13.1f %13.1f %7.1fx %13.1f %13.1f%n",
+                    numBricks, sim.getLiveBrickCount(), scanNsec / (double) passes,
+                    bitsNsec / (double) passes, scanNsec / (double) bitsNsec,
+                    saveBoolNsec / (double) passes, saveBitsNsec / (double) passes);
+        }
+    }
+
+    /**
+     * Visits the live bricks by checking each one, the way drawBricks() used to.
+     */
+    private static int scan(GameSimulation sim) {
+        int sum = 0;
+        int numBricks = sim.getBrickCount();
+        for (int i = 0; i < numBricks; i++) {
+            if (sim.isBrickAlive(i)) {
+                sum += i;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Visits the live bricks through the bit vector, a word at a time.
+     */
+    private static int walk(GameSimulation sim) {
+        int sum = 0;
+        int numWords = sim.getLiveBrickWordCount();
+        for (int word = 0; word < numWords; word++) {
+            long live = sim.getLiveBrickWord(word);
+            while (live != 0) {
+                sum += (word << 6) + Long.numberOfTrailingZeros(live);
+                live &= live - 1;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Saves the board the way GameState.save() used to.
+     */
+    private static boolean[] saveBooleans(GameSimulation sim) {
+        boolean[] bricks = new boolean[sim.getBrickCount()];
+        for (int i = 0; i < bricks.length; i++) {
+            bricks[i] = sim.isBrickAlive(i);
+        }
+        return bricks;
+    }
+
+    /**
+     * Checks that both ways of visiting the bricks agree, and that the saved bits restore
+     * to the same board.
+     */
+    private static void check(GameSimulation sim) {
+        int count = 0;
+        int prev = -1;
+        for (int i = sim.nextLiveBrick(0); i >= 0; i = sim.nextLiveBrick(i + 1)) {
+            if (i <= prev || !sim.isBrickAlive(i)) {
+                throw new RuntimeException("bad live brick " + i);
+            }
+            prev = i;
+            count++;
+        }
+        if (count != sim.getLiveBrickCount() || scan(sim) != walk(sim)) {
+            throw new RuntimeException("live brick mismatch: " + count + " vs "
+                    + sim.getLiveBrickCount());
+        }
+
+        long[] bits = new long[sim.getLiveBrickWordCount()];
+        sim.copyLiveBricks(bits);
+        GameSimulation copy = new GameSimulation(sim.getBrickColumns(), sim.getBrickRows());
+        copy.initBricks();
+        copy.restoreLiveBricks(bits);
+        for (int i = 0; i < sim.getBrickCount(); i++) {
+            if (copy.isBrickAlive(i) != sim.isBrickAlive(i)) {
+                throw new RuntimeException("restore mismatch at brick " + i);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+/**
+ * AudioMixer.Sink stand-in that keeps everything written to it.
+ * <p>
+ * If "paced" is set, each write blocks for as long as the samples would take to play,
+ * the way AudioTrack does once its buffer is full, so the mixer thread runs at the same
+ * rate it would on a device.  The time of each write is recorded so callers can work out
+ * when a sound reached the output.
+ */
+public class CaptureSink implements AudioMixer.Sink {
+    private final int mSampleRate;
+    private final boolean mPaced;
+
+    // Guarded by "this".
+    private short[] mSamples = new short[65536];
+    private int mNumSamples;
+    private long[] mWriteNanos = new long[1024];
+    private int[] mWriteStart = new int[1024];
+    private int mNumWrites;
+
+
+    public CaptureSink(int sampleRate, boolean paced) {
+        mSampleRate = sampleRate;
+        mPaced = paced;
+    }
+
+    @Override
+    public void write(short[] buf, int offset, int count) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (mNumSamples + count > mSamples.length) {
+                short[] bigger = new short[Math.max(mSamples.length * 2, mNumSamples + count)];
+                System.arraycopy(mSamples, 0, bigger, 0, mNumSamples);
+                mSamples = bigger;
+            }
+            if (mNumWrites == mWriteNanos.length) {
+                long[] biggerNanos = new long[mNumWrites * 2];
+                System.arraycopy(mWriteNanos, 0, biggerNanos, 0, mNumWrites);
+                mWriteNanos = biggerNanos;
+                int[] biggerStart = new int[mNumWrites * 2];
+                System.arraycopy(mWriteStart, 0, biggerStart, 0, mNumWrites);
+                mWriteStart = biggerStart;
+            }
+            mWriteNanos[mNumWrites] = now;
+            mWriteStart[mNumWrites] = mNumSamples;
+            mNumWrites++;
+            System.arraycopy(buf, offset, mSamples, mNumSamples, count);
+            mNumSamples += count;
+        }
+
+        if (mPaced) {
+            long playNanos = count * 1000000000L / mSampleRate;
+            try {
+                Thread.sleep(playNanos / 1000000, (int) (playNanos % 1000000));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the samples written so far.
+     */
+    public synchronized short[] getSamples() {
+        short[] copy = new short[mNumSamples];
+        System.arraycopy(mSamples, 0, copy, 0, mNumSamples);
+        return copy;
+    }
+
+    /**
+     * Returns the number of write() calls so far.
+     */
+    public synchronized int getWriteCount() {
+        return mNumWrites;
+    }
+
+    /**
+     * Returns the System.nanoTime() at which the given write() call was made.
+     */
+    public synchronized long getWriteNanos(int index) {
+        return mWriteNanos[index];
+    }
+
+    /**
+     * Returns the index of the first sample written by the given write() call.
+     */
+    public synchronized int getWriteStart(int index) {
+        return mWriteStart[index];
+    }
+
+    /**
+     * Discards everything written so far.
+     */
+    public synchronized void reset() {
+        mNumSamples = 0;
+        mNumWrites = 0;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Checks that replays are deterministic, using per-tick state hashes.
+ * <p>
+ * Given a ReplayArchive made with GameState.HASH_STATE, this plays it back and reports the
+ * first tick where the simulation's state hash differs from the one recorded on the
+ * device.  That's the way to find out whether a change to moveBall() (or a different
+ * JIT, or a different CPU) changes how recorded games play out.
+ * <p>
+ * With no file, it records a game with hashes the way ReplayBenchmark does, and then:
+ * <ul>
+ * <li>plays it back, which must match on every tick;
+ * <li>records a short game with a thousand balls, stepped with ParallelStepper on one
+ *     thread, and plays it back on several.  The outcome depends only on the stepper being
+ *     used, not on the thread count (see GameSimulation.setParallelThreads()), so this
+ *     must also match.  (Threaded and unthreaded stepping don't match each other; the
+ *     threaded kind defers brick kills to the end of the step.)
+ * <li>writes it to an archive and verifies that, chunk by chunk;
+ * <li>plays it back with the other collision mode, standing in for a change to the physics,
+ *     and reports where that diverges;
+ * <li>nudges a ball by one float ULP part way through, and checks that the divergence is
+ *     caught on the very next tick.  Sometimes the nudge is rounded away by the ball's
+ *     next move, leaving the state exactly as it was, and then there's nothing to catch.
+ * </ul>
+ * We also report what hashing costs, next to what a tick costs.
+ * <p>
+ * Usage: DeterminismBenchmark archive.bkr
+ *    or: DeterminismBenchmark [frames [columns rows [extraBalls]]]
+ */
+public class DeterminismBenchmark {
+    private static final long FRAME_NSEC = 16666667;
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+    private static final double MAX_FRAME_DELTA_SEC = 0.5;      // same as GameState
+    private static final int PAUSE_INTERVAL = 20000;            // frames between rotations
+    private static final int PARALLEL_THREADS = 4;
+    private static final int PARALLEL_FRAMES = 3000;
+    private static final int PARALLEL_EXTRA_BALLS = 1000;
+
+    private static final int HASH_TIMING_LOOPS = 1000000;
+
+    private boolean mPaddleHit;
+
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 1 && args[0].endsWith(".bkr")) {
+            verifyFile(new File(args[0]));
+            return;
+        }
+
+        int frames = 108000;        // half an hour at 60fps
+        int columns = 40;
+        int rows = 25;
+        int extraBalls = 0;
+        if (args.length > 0) {
+            frames = Integer.parseInt(args[0]);
+        }
+        if (args.length > 2) {
+            columns = Integer.parseInt(args[1]);
+            rows = Integer.parseInt(args[2]);
+        }
+        if (args.length > 3) {
+            extraBalls = Integer.parseInt(args[3]);
+        }
+        new DeterminismBenchmark().run(frames, columns, rows, extraBalls);
+    }
+
+    private static void verifyFile(File file) throws IOException {
+        ReplayArchive.Reader reader = new ReplayArchive.Reader(file);
+        if (!reader.hasHashes()) {
+            System.out.println(file + " has no state hashes; record with HASH_STATE");
+            System.exit(2);
+        }
+        long startNsec = System.nanoTime();
+        long tick = reader.verify(new InputRecording(ReplayArchive.KEYFRAME_INTERVAL + 16));
+        long nsec = System.nanoTime() - startNsec;
+        if (tick < 0) {
+            System.out.printf("%s: all %d ticks match (%.1f ms)%n", file,
+                    reader.getTickCount(), nsec / 1000000.0);
+        } else {
+            System.out.println(file + ": state first differs after tick " + tick + " of "
+                    + reader.getTickCount() + " (" + tick / GameSimulation.TICKS_PER_SECOND
+                    + "s into the recording)");
+            System.exit(1);
+        }
+    }
+
+    private void run(int frames, int columns, int rows, int extraBalls) throws IOException {
+        InputRecording rec = record(frames, columns, rows, extraBalls, 0);
+        int ticks = rec.getHashCount();
+        System.out.println("board " + columns + "x" + rows + ", " + extraBalls
+                + " extra balls: " + rec.getEntryCount() + " entries, " + ticks + " ticks");
+
+        // Straight playback, without and with checking.  Do it twice, so the JIT has
+        // warmed up for the second.
+        long plainNsec = 0, checkedNsec = 0, tick = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            ReplayPlayer player = new ReplayPlayer(rec, null);
+            long startNsec = System.nanoTime();
+            player.playToEnd();
+            plainNsec = System.nanoTime() - startNsec;
+            startNsec = System.nanoTime();
+            tick = play(rec, -1, -1);
+            checkedNsec = System.nanoTime() - startNsec;
+        }
+        expectMatch("playback", tick);
+        System.out.printf("  playback: all ticks match; %.1f ms, against %.1f ms unchecked%n",
+                checkedNsec / 1000000.0, plainNsec / 1000000.0);
+
+        // Hash cost.  The bricks are hashed incrementally, so it's all about the balls.
+        GameSimulation sim = rec.createSimulation();
+        double oneBallNsec = timeHash(sim);
+        sim.spawnBalls(PARALLEL_EXTRA_BALLS);
+        double manyBallsNsec = timeHash(sim);
+        System.out.printf("  hashing takes %.0f ns with 1 ball, %.0f ns with %d; "
+                + "a tick averages %.0f ns%n", oneBallNsec, manyBallsNsec,
+                PARALLEL_EXTRA_BALLS + 1, (double) plainNsec / ticks);
+
+        // Threaded playback.
+        InputRecording threaded = record(PARALLEL_FRAMES, columns, rows, PARALLEL_EXTRA_BALLS,
+                1);
+        tick = play(threaded, PARALLEL_THREADS, -1);
+        expectMatch("threaded playback", tick);
+        System.out.println("  " + (PARALLEL_EXTRA_BALLS + 1) + " balls recorded on 1 thread, "
+                + "played on " + PARALLEL_THREADS + ": all " + threaded.getHashCount()
+                + " ticks match");
+
+        // Archive.
+        File file = File.createTempFile("replay", ".bkr");
+        try {
+            ReplayArchive.write(rec, file, ReplayArchive.KEYFRAME_INTERVAL);
+            ReplayArchive.Reader reader = new ReplayArchive.Reader(file);
+            long startNsec = System.nanoTime();
+            tick = reader.verify(new InputRecording(ReplayArchive.KEYFRAME_INTERVAL + 16));
+            long nsec = System.nanoTime() - startNsec;
+            expectMatch("archive", tick);
+            System.out.printf("  archive: %d bytes, %d chunks, all ticks match (%.1f ms)%n",
+                    file.length(), reader.getChunkCount(), nsec / 1000000.0);
+        } finally {
+            file.delete();
+        }
+
+        // Changed physics.
+        ReplayPlayer player = new ReplayPlayer(rec, null);
+        sim = player.getSimulation();
+        sim.setCollisionMode(sim.getCollisionMode() == GameSimulation.COLLISION_MODE_MARCH ?
+                GameSimulation.COLLISION_MODE_SWEPT : GameSimulation.COLLISION_MODE_MARCH);
+        player.setVerify(true);
+        player.playToEnd();
+        tick = player.getFirstDivergentTick();
+        if (tick < 0) {
+            System.out.println("  other collision mode: no divergence");
+        } else {
+            System.out.println("  other collision mode: diverges after tick " + tick);
+        }
+
+        // One-ULP nudges at a few points.
+        Random rand = new Random(3);
+        int caught = 0, delayed = 0, absorbed = 0;
+        long maxDelay = 0;
+        for (int i = 0; i < 20; i++) {
+            long nudgeTick = 1 + (long) (rand.nextDouble() * (ticks - 2));
+            tick = play(rec, -1, nudgeTick);
+            if (tick < 0) {
+                absorbed++;         // see above
+                continue;
+            }
+            if (tick <= nudgeTick) {
+                throw new RuntimeException("nudge at tick " + nudgeTick + " detected early at "
+                        + tick);
+            }
+            if (tick == nudgeTick + 1) {
+                caught++;
+            } else {
+                delayed++;
+                maxDelay = Math.max(maxDelay, tick - nudgeTick);
+            }
+        }
+        System.out.println("  1-ULP nudges: " + caught + " caught on the next tick, " + delayed
+                + " later" + (delayed == 0 ? "" : " (at most " + maxDelay + " ticks)")
+                + ", " + absorbed + " rounded away");
+    }
+
+    /**
+     * Returns the average time to hash "sim", in nanoseconds.  Summing the results keeps the
+     * JIT from skipping the calls, and checks that the hash of an unchanged state doesn't
+     * change.
+     */
+    private static double timeHash(GameSimulation sim) {
+        long sum = 0;
+        long startNsec = System.nanoTime();
+        for (int i = 0; i < HASH_TIMING_LOOPS; i++) {
+            sum += sim.computeStateHash();
+        }
+        long nsec = System.nanoTime() - startNsec;
+        if (sum != sim.computeStateHash() * HASH_TIMING_LOOPS) {
+            throw new RuntimeException("hash is unstable");
+        }
+        return (double) nsec / HASH_TIMING_LOOPS;
+    }
+
+    private static void expectMatch(String what, long tick) {
+        if (tick >= 0) {
+            throw new RuntimeException(what + " diverged after tick " + tick);
+        }
+    }
+
+    /**
+     * Plays "rec" with hash checking.  If "threads" is positive, the ball stepping is spread
+     * across that many threads.  If "nudgeTick" is positive, ball 0's X position is moved by
+     * one ULP right after that tick.
+     *
+     * @return The first divergent tick, or -1.
+     */
+    private static long play(InputRecording rec, int threads, long nudgeTick) {
+        ReplayPlayer player = new ReplayPlayer(rec, null);
+        GameSimulation sim = player.getSimulation();
+        if (threads > 0) {
+            sim.setParallelThreads(threads);
+        }
+        player.setVerify(true);
+        try {
+            if (nudgeTick > 0) {
+                player.playToTick(nudgeTick);
+                float x = sim.getBallXPosition();
+                sim.setBallPosition(x + Math.ulp(x), sim.getBallYPosition());
+            }
+            player.playToEnd();
+        } finally {
+            sim.setParallelThreads(0);
+        }
+        return player.getFirstDivergentTick();
+    }
+
+    /**
+     * Records a game with state hashes, the way ReplayBenchmark does, with the ball stepping
+     * on "threads" threads.
+     */
+    private InputRecording record(int frames, int columns, int rows, int extraBalls,
+            int threads) {
+        GameSimulation sim = new GameSimulation(columns, rows);
+        sim.setNeverLoseBall(true);
+        sim.setExtraBalls(extraBalls);
+        sim.setParallelThreads(threads);
+        sim.setListener(new GameSimulation.Listener() {
+            @Override
+            public void onSound(int sound) {
+                if (sound == GameSimulation.SOUND_PADDLE_HIT) {
+                    mPaddleHit = true;
+                }
+            }
+            @Override public void onBrickDestroyed(int brick) {}
+            @Override public void onLogMessage(String msg) {}
+        });
+        sim.initBoard();
+
+        InputRecording rec = new InputRecording(1024);
+        rec.setHashing(true);
+        rec.begin(sim);
+        Random rand = new Random(1);
+        float paddleOffset = 0.0f;
+        double tickAccumulator = 0.0;
+        for (int frame = 0; frame < frames; frame++) {
+            if (frame % PAUSE_INTERVAL == PAUSE_INTERVAL - 1) {
+                sim.setPauseTime(1.5f);
+                rec.recordPause(1.5f);
+            }
+            float paddleX = sim.getBallXPosition() + paddleOffset;
+            sim.movePaddle(paddleX);
+            rec.recordPaddle(paddleX);
+
+            long deltaNsec = FRAME_NSEC + rand.nextInt(2000000) - 1000000;
+            if (rand.nextInt(100) == 0) {
+                deltaNsec += FRAME_NSEC * (1 + rand.nextInt(3));
+            }
+            tickAccumulator += Math.min(deltaNsec / NANOS_PER_SECOND, MAX_FRAME_DELTA_SEC);
+            int ticks = 0;
+            while (tickAccumulator >= GameSimulation.TICK_SEC) {
+                sim.advance(GameSimulation.TICK_SEC);
+                rec.recordHash(sim.computeStateHash());
+                tickAccumulator -= GameSimulation.TICK_SEC;
+                ticks++;
+            }
+            rec.recordFrame(deltaNsec, ticks);
+
+            if (mPaddleHit) {
+                paddleOffset = (rand.nextFloat() - 0.5f) *
+                        sim.getRectXScale(sim.getPaddleRect()) * 0.9f;
+                mPaddleHit = false;
+            }
+            int state = sim.getGamePlayState();
+            if (state == GameSimulation.GAME_WON || state == GameSimulation.GAME_LOST) {
+                break;
+            }
+        }
+        sim.setParallelThreads(0);
+        return rec;
+    }
+}
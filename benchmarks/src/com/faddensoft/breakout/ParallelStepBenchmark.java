@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.Random;
+
+/**
+ * Measures how ball movement scales with threads, for large numbers of balls.
+ * <p>
+ * Fills the arena with balls at random positions and headings, all bouncing off of
+ * everything (never-lose mode), and calls moveBall() directly for a fixed number of
+ * ticks.  When the last brick goes, a fresh board is put up.  This is done once with
+ * the ordinary single-threaded code, and then with 1, 2, 4, ... threads up to the number
+ * of processors (or "maxThreads", if given).
+ * <p>
+ * Every threaded run starts from the same state and must end in the same state.  We
+ * compute a checksum of the balls and bricks at the end of each run and complain if they
+ * differ.  (The single-threaded run uses different rules for bricks hit in the middle
+ * of a tick, so its checksum is expected to differ.)
+ * <p>
+ * Usage: ParallelStepBenchmark [balls [ticks [columns rows [maxThreads]]]]
+ */
+public class ParallelStepBenchmark {
+    public static void main(String[] args) {
+        int balls = 10000;
+        int ticks = 2400;
+        int columns = GameSimulation.BRICK_COLUMNS;
+        int rows = GameSimulation.BRICK_ROWS;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int maxThreads = cpus;
+
+        if (args.length > 0) {
+            balls = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            ticks = Integer.parseInt(args[1]);
+        }
+        if (args.length > 3) {
+            columns = Integer.parseInt(args[2]);
+            rows = Integer.parseInt(args[3]);
+        }
+        if (args.length > 4) {
+            maxThreads = Integer.parseInt(args[4]);
+        }
+
+        System.out.println("board " + columns + "x" + rows + ", " + balls + " balls, " +
+                ticks + " ticks (" + String.format("%.1f", ticks * GameSimulation.TICK_SEC) +
+                " sec of play), " + cpus + " processors");
+
+        run(balls, ticks, columns, rows, 0);
+        long expected = 0;
+        boolean mismatch = false;
+        for (int threads = 1; ; threads *= 2) {
+            if (threads > maxThreads) {
+                threads = maxThreads;
+            }
+            long checksum = run(balls, ticks, columns, rows, threads);
+            if (threads == 1) {
+                expected = checksum;
+            } else if (checksum != expected) {
+                System.out.println("  ** checksum mismatch with " + threads + " threads");
+                mismatch = true;
+            }
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+        if (mismatch) {
+            throw new RuntimeException("threaded results differ");
+        }
+    }
+
+    /**
+     * Runs the simulation with the specified number of threads, or single-threaded if zero.
+     *
+     * @return Checksum of the final state.
+     */
+    private static long run(int balls, int ticks, int columns, int rows, int threads) {
+        GameSimulation sim = new GameSimulation(columns, rows, balls);
+        sim.initBoard();
+        sim.setNeverLoseBall(true);
+        sim.setParallelThreads(threads);
+
+        Random rand = new Random(1);
+        float minX = GameSimulation.BORDER_WIDTH + sim.getBallRadius();
+        float maxX = GameSimulation.ARENA_WIDTH - GameSimulation.BORDER_WIDTH -
+                sim.getBallRadius();
+        float minY = GameSimulation.ARENA_HEIGHT * 0.15f;
+        float maxY = GameSimulation.ARENA_HEIGHT * 0.5f;
+        sim.setBallCount(balls);
+        for (int i = 0; i < balls; i++) {
+            sim.setBallPosition(i, minX + rand.nextFloat() * (maxX - minX),
+                    minY + rand.nextFloat() * (maxY - minY));
+            double angle = rand.nextDouble() * Math.PI * 2;
+            sim.setBallDirection(i, (float) Math.cos(angle), (float) Math.sin(angle));
+            sim.setBallSpeed(i, 300 + rand.nextInt(500));
+        }
+
+        int boards = 0;
+        long startNsec = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            int event = sim.moveBall(GameSimulation.TICK_SEC);
+            if (event == GameSimulation.EVENT_LAST_BRICK) {
+                sim.initBricks();
+                boards++;
+            }
+        }
+        long elapsedNsec = System.nanoTime() - startNsec;
+        sim.setParallelThreads(0);
+
+        long checksum = checksum(sim);
+        System.out.printf("  %-8s %8.1f ms, %7.0f ticks/sec, %5.1f ns/ball-tick, " +
+                "%d boards cleared, checksum %016x%n",
+                threads == 0 ? "serial" : threads + " thr", elapsedNsec / 1000000.0,
+                ticks / (elapsedNsec / 1000000000.0), (double) elapsedNsec / ticks / balls,
+                boards, checksum);
+        return checksum;
+    }
+
+    /**
+     * Hashes everything that moving the balls can change.
+     */
+    private static long checksum(GameSimulation sim) {
+        long hash = sim.getBallCount();
+        for (int i = 0; i < sim.getBallCount(); i++) {
+            hash = hash * 31 + Float.floatToIntBits(sim.getBallXPosition(i));
+            hash = hash * 31 + Float.floatToIntBits(sim.getBallYPosition(i));
+            hash = hash * 31 + Float.floatToIntBits(sim.getBallXDirection(i));
+            hash = hash * 31 + Float.floatToIntBits(sim.getBallYDirection(i));
+            hash = hash * 31 + sim.getBallSpeed(i);
+        }
+        for (int i = 0; i < sim.getBrickCount(); i++) {
+            hash = hash * 31 + (sim.isBrickAlive(i) ? 1 : 0);
+        }
+        hash = hash * 31 + sim.getScore();
+        return hash;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * GlCalls stand-in that counts calls instead of making them.
+ * <p>
+ * It also does some basic argument checking, remembers the arguments of the most recent
+ * draw call so the caller can look at them, and estimates the number of bytes that would
+ * have been sent to the driver.  Client-side vertex arrays are counted on every draw call
+ * that uses them, since that's when the driver has to copy them.
+ */
+public class RecordingGlCalls implements GlCalls {
+    private static final int GL_TRIANGLES = 0x0004;
+    private static final int GL_TRIANGLE_STRIP = 0x0005;
+    private static final int GL_ARRAY_BUFFER = 0x8892;
+    private static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+
+    private static final int MAX_ATTRIBS = 16;
+
+    private int mUseProgram;
+    private int mUniform;
+    private int mEnableDisable;
+    private int mAttribPointer;
+    private int mDraw;
+    private int mBuffer;
+    private int mTexture;
+    private long mBytes;
+
+    private int mCurrentProgram;
+    private int mEnabledArrays;
+    private int mLastDrawCount;
+    private FloatBuffer mLastPositionBuffer;
+
+    // Bytes per vertex of each client-side attribute array, or 0 if it lives in a VBO.
+    private final int[] mClientAttribBytes = new int[MAX_ATTRIBS];
+
+    private int mNextBufferHandle = 1;
+    private int mArrayBuffer;
+    private int mElementArrayBuffer;
+
+
+    /**
+     * Returns the total number of calls made.
+     */
+    public int getCallCount() {
+        return mUseProgram + mUniform + mEnableDisable + mAttribPointer + mDraw + mBuffer
+                + mTexture;
+    }
+
+    /**
+     * Returns the number of bytes sent through uniforms, buffer uploads, and client-side
+     * vertex and index arrays.
+     */
+    public long getByteCount() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the number of draw calls made.
+     */
+    public int getDrawCount() {
+        return mDraw;
+    }
+
+    /**
+     * Returns the vertex (or index) count passed to the most recent draw call.
+     */
+    public int getLastDrawCount() {
+        return mLastDrawCount;
+    }
+
+    /**
+     * Returns the buffer most recently passed to glVertexAttribPointer() with a size of 2.
+     */
+    public FloatBuffer getLastPositionBuffer() {
+        return mLastPositionBuffer;
+    }
+
+    /**
+     * Zeroes the counters.
+     */
+    public void reset() {
+        mUseProgram = mUniform = mEnableDisable = mAttribPointer = mDraw = 0;
+        mBuffer = mTexture = 0;
+        mBytes = 0;
+    }
+
+    /**
+     * Returns a one-line summary of the counters.
+     */
+    @Override
+    public String toString() {
+        return "program=" + mUseProgram + " uniform=" + mUniform + " enable=" + mEnableDisable
+                + " pointer=" + mAttribPointer + " draw=" + mDraw + " buffer=" + mBuffer
+                + " texture=" + mTexture + " bytes=" + mBytes;
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        mUseProgram++;
+        mCurrentProgram = program;
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset) {
+        checkProgram();
+        if (value.length - offset < count * 16) {
+            throw new RuntimeException("matrix array too short");
+        }
+        mUniform++;
+        mBytes += count * 16 * 4;
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+        checkProgram();
+        mUniform++;
+        mBytes += 4 * 4;
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        checkProgram();
+        if (v.length - offset < count * 4) {
+            throw new RuntimeException("vector array too short");
+        }
+        mUniform++;
+        mBytes += count * 4 * 4;
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        mEnableDisable++;
+        mEnabledArrays |= 1 << index;
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        mEnableDisable++;
+        mEnabledArrays &= ~(1 << index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+            int stride, Buffer ptr) {
+        if (!ptr.isDirect()) {
+            throw new RuntimeException("vertex data must be in a direct buffer");
+        }
+        if (mArrayBuffer != 0) {
+            throw new RuntimeException("client-side array with VBO bound");
+        }
+        mAttribPointer++;
+        mClientAttribBytes[index] = stride != 0 ? stride : size * 4;
+        if (size == 2 && ptr instanceof FloatBuffer) {
+            mLastPositionBuffer = (FloatBuffer) ptr;
+        }
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+            int stride, int offset) {
+        if (mArrayBuffer == 0) {
+            throw new RuntimeException("VBO offset with no VBO bound");
+        }
+        mAttribPointer++;
+        mClientAttribBytes[index] = 0;
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        checkDraw(mode);
+        mLastDrawCount = count;
+        mBytes += (first + count) * clientBytesPerVertex();
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        checkDraw(mode);
+        if (mElementArrayBuffer != 0) {
+            throw new RuntimeException("client-side indices with VBO bound");
+        }
+        if (indices.remaining() < count) {
+            throw new RuntimeException("index buffer too short: " + indices.remaining()
+                    + " vs. " + count);
+        }
+        mLastDrawCount = count;
+
+        // The driver has to copy the indices, and every vertex they refer to.
+        ShortBuffer sb = (ShortBuffer) indices;
+        int maxIndex = -1;
+        for (int i = 0; i < count; i++) {
+            int index = sb.get(sb.position() + i) & 0xffff;
+            if (index > maxIndex) {
+                maxIndex = index;
+            }
+        }
+        mBytes += count * 2 + (maxIndex + 1) * clientBytesPerVertex();
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        checkDraw(mode);
+        if (mElementArrayBuffer == 0) {
+            throw new RuntimeException("index offset with no VBO bound");
+        }
+        if (clientBytesPerVertex() != 0) {
+            throw new RuntimeException("not expecting client-side arrays with VBO indices");
+        }
+        mLastDrawCount = count;
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        mTexture++;
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        mTexture++;
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        mBuffer++;
+        for (int i = 0; i < n; i++) {
+            buffers[offset + i] = mNextBufferHandle++;
+        }
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        mBuffer++;
+        if (target == GL_ARRAY_BUFFER) {
+            mArrayBuffer = buffer;
+        } else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            mElementArrayBuffer = buffer;
+        } else {
+            throw new RuntimeException("unexpected target " + target);
+        }
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        mBuffer++;
+        checkBufferUpload(target, size, data);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        mBuffer++;
+        checkBufferUpload(target, size, data);
+    }
+
+    private void checkBufferUpload(int target, int size, Buffer data) {
+        int bound = target == GL_ARRAY_BUFFER ? mArrayBuffer : mElementArrayBuffer;
+        if (bound == 0) {
+            throw new RuntimeException("buffer upload with nothing bound");
+        }
+        int elemSize = data instanceof ShortBuffer ? 2 : 4;
+        if (data.remaining() * elemSize < size) {
+            throw new RuntimeException("buffer data too short: " + data.remaining() * elemSize
+                    + " vs. " + size);
+        }
+        mBytes += size;
+    }
+
+    private int clientBytesPerVertex() {
+        int total = 0;
+        for (int i = 0; i < MAX_ATTRIBS; i++) {
+            if ((mEnabledArrays & (1 << i)) != 0) {
+                total += mClientAttribBytes[i];
+            }
+        }
+        return total;
+    }
+
+    private void checkProgram() {
+        if (mCurrentProgram == 0) {
+            throw new RuntimeException("no program selected");
+        }
+    }
+
+    private void checkDraw(int mode) {
+        checkProgram();
+        if (mEnabledArrays == 0) {
+            throw new RuntimeException("draw with no vertex arrays enabled");
+        }
+        if (mode != GL_TRIANGLES && mode != GL_TRIANGLE_STRIP) {
+            throw new RuntimeException("unexpected mode " + mode);
+        }
+        mDraw++;
+    }
+}
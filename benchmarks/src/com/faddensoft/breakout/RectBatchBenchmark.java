@@ -0,0 +1,244 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Compares drawing BasicAlignedRects one at a time against drawing them through RectBatch.
+ * <p>
+ * Runs on a plain JVM, with GL calls going to a RecordingGlCalls.  For each rect count we
+ * report the number of GL calls per pass and the CPU time per rect spent on our side of the
+ * GL API.  (The time spent in the driver, which is what the batching is really trying to
+ * avoid, doesn't show up here.)
+ */
+public class RectBatchBenchmark {
+    // Same as BasicAlignedRect.MAX_BATCHED_RECTS.
+    private static final int MAX_BATCHED_RECTS = 256;
+
+    // Rect counts to try.  101 is what the game draws: 4 borders, 96 bricks, 1 paddle.
+    private static final int[] RECT_COUNTS = { 101, 1000, 10000 };
+
+    private static final int ITERATIONS = 2000;
+
+    // Values from GLES20.
+    private static final int GL_FLOAT = 0x1406;
+    private static final int GL_TRIANGLE_STRIP = 0x0005;
+
+    // Fake program and handles.
+    private static final int PROGRAM = 1;
+    private static final int POSITION_HANDLE = 0;
+    private static final int COLOR_HANDLE = 1;
+    private static final int MATRIX_HANDLE = 2;
+
+    private final int mNumRects;
+    private final float[] mXPos, mYPos, mXScale, mYScale;
+    private final float[][] mColor;
+    private final float[] mProjMatrix = new float[16];
+
+    // State for the one-at-a-time path, mirroring BasicAlignedRect.
+    private final float[][] mModelView;
+    private final float[] mTempMVP = new float[16];
+    private final FloatBuffer mUnitSquare;
+
+    private final RecordingGlCalls mGl = new RecordingGlCalls();
+    private final RectBatch mBatch = new RectBatch(mGl, MAX_BATCHED_RECTS);
+
+
+    public static void main(String[] args) {
+        System.out.println(" rects   immed-calls  immed-ns/rect   batch-calls  batch-ns/rect");
+        for (int count : RECT_COUNTS) {
+            new RectBatchBenchmark(count).run();
+        }
+    }
+
+    private RectBatchBenchmark(int numRects) {
+        mNumRects = numRects;
+        mXPos = new float[numRects];
+        mYPos = new float[numRects];
+        mXScale = new float[numRects];
+        mYScale = new float[numRects];
+        mColor = new float[numRects][4];
+        mModelView = new float[numRects][16];
+
+        Random rand = new Random(numRects);
+        for (int i = 0; i < numRects; i++) {
+            mXPos[i] = rand.nextFloat() * GameSimulation.ARENA_WIDTH;
+            mYPos[i] = rand.nextFloat() * GameSimulation.ARENA_HEIGHT;
+            mXScale[i] = 10 + rand.nextFloat() * 50;
+            mYScale[i] = 10 + rand.nextFloat() * 50;
+            mColor[i][0] = rand.nextFloat();
+            mColor[i][1] = rand.nextFloat();
+            mColor[i][2] = rand.nextFloat();
+            mColor[i][3] = 1.0f;
+
+            // Same layout BaseRect uses: scale on the diagonal, position in the last column.
+            float[] mv = mModelView[i];
+            mv[0] = mXScale[i];
+            mv[5] = mYScale[i];
+            mv[10] = 1.0f;
+            mv[12] = mXPos[i];
+            mv[13] = mYPos[i];
+            mv[15] = 1.0f;
+        }
+
+        // Ortho projection, as set up by GameSurfaceRenderer.
+        mProjMatrix[0] = 2.0f / GameSimulation.ARENA_WIDTH;
+        mProjMatrix[5] = 2.0f / GameSimulation.ARENA_HEIGHT;
+        mProjMatrix[10] = -1.0f;
+        mProjMatrix[12] = -1.0f;
+        mProjMatrix[13] = -1.0f;
+        mProjMatrix[15] = 1.0f;
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(8 * 4);
+        bb.order(ByteOrder.nativeOrder());
+        mUnitSquare = bb.asFloatBuffer();
+
+        mBatch.setProgram(PROGRAM, POSITION_HANDLE, COLOR_HANDLE, MATRIX_HANDLE);
+    }
+
+    private void run() {
+        verifyBatch();
+
+        // Count the calls for a single pass of each.
+        mGl.reset();
+        immediatePass();
+        int immediateCalls = mGl.getCallCount();
+        mGl.reset();
+        batchPass();
+        int batchCalls = mGl.getCallCount();
+
+        // Warm up, then time.
+        for (int i = 0; i < ITERATIONS / 4; i++) {
+            immediatePass();
+            batchPass();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            immediatePass();
+        }
+        long immediateNsec = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            batchPass();
+        }
+        long batchNsec = System.nanoTime() - start;
+
+        double rects = (double) mNumRects * ITERATIONS;
+        System.out.printf("%6d  %12d  %13.1f  %12d  %13.1f%n",
+                mNumRects, immediateCalls, immediateNsec / rects, batchCalls, batchNsec / rects);
+    }
+
+    /**
+     * Draws every rect the way BasicAlignedRect does with BATCHED_DRAWING disabled.
+     */
+    private void immediatePass() {
+        GlCalls gl = mGl;
+
+        // prepareToDraw()
+        gl.glUseProgram(PROGRAM);
+        gl.glEnableVertexAttribArray(POSITION_HANDLE);
+        gl.glVertexAttribPointer(POSITION_HANDLE, 2, GL_FLOAT, false, 8, mUnitSquare);
+
+        // draw()
+        for (int i = 0; i < mNumRects; i++) {
+            multiplyMM(mTempMVP, mProjMatrix, mModelView[i]);
+            gl.glUniformMatrix4fv(MATRIX_HANDLE, 1, false, mTempMVP, 0);
+            gl.glUniform4fv(COLOR_HANDLE, 1, mColor[i], 0);
+            gl.glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+        }
+
+        // finishedDrawing()
+        gl.glDisableVertexAttribArray(POSITION_HANDLE);
+        gl.glUseProgram(0);
+    }
+
+    /**
+     * Draws every rect through the batch.
+     */
+    private void batchPass() {
+        mBatch.begin(mProjMatrix);
+        for (int i = 0; i < mNumRects; i++) {
+            mBatch.add(mXPos[i], mYPos[i], mXScale[i], mYScale[i], mColor[i]);
+        }
+        mBatch.end();
+    }
+
+    /**
+     * Checks that the batch sends the right number of indices, and that the vertices that
+     * reach the GL buffer match what the per-object path would produce.
+     */
+    private void verifyBatch() {
+        int drawsBefore = mBatch.getDrawCallCount();
+        batchPass();
+        int expectedDraws = (mNumRects + MAX_BATCHED_RECTS - 1) / MAX_BATCHED_RECTS;
+        if (mBatch.getDrawCallCount() - drawsBefore != expectedDraws) {
+            throw new RuntimeException("expected " + expectedDraws + " draws, got "
+                    + (mBatch.getDrawCallCount() - drawsBefore));
+        }
+
+        // Check the contents of the last flush.
+        int lastCount = mNumRects - (expectedDraws - 1) * MAX_BATCHED_RECTS;
+        if (mGl.getLastDrawCount() != lastCount * 6) {
+            throw new RuntimeException("bad index count " + mGl.getLastDrawCount());
+        }
+        FloatBuffer fb = mGl.getLastPositionBuffer();
+        int firstRect = mNumRects - lastCount;
+        float[] corner = new float[4];
+        for (int i = 0; i < lastCount; i++) {
+            int rect = firstRect + i;
+            for (int v = 0; v < 4; v++) {
+                int base = (i * 4 + v) * 6;
+                // Transform the unit square corner by the model/view matrix.
+                corner[0] = (v & 1) == 0 ? -0.5f : 0.5f;
+                corner[1] = (v & 2) == 0 ? -0.5f : 0.5f;
+                float[] mv = mModelView[rect];
+                float expX = mv[0] * corner[0] + mv[12];
+                float expY = mv[5] * corner[1] + mv[13];
+                if (Math.abs(fb.get(base) - expX) > 0.001f
+                        || Math.abs(fb.get(base + 1) - expY) > 0.001f) {
+                    throw new RuntimeException("rect " + rect + " vertex " + v + " is at "
+                            + fb.get(base) + "," + fb.get(base + 1) + ", expected "
+                            + expX + "," + expY);
+                }
+                for (int c = 0; c < 4; c++) {
+                    if (fb.get(base + 2 + c) != mColor[rect][c]) {
+                        throw new RuntimeException("rect " + rect + " has bad color");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Column-major 4x4 matrix multiply, like android.opengl.Matrix.multiplyMM().
+     */
+    private static void multiplyMM(float[] result, float[] lhs, float[] rhs) {
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += lhs[k * 4 + j] * rhs[i * 4 + k];
+                }
+                result[i * 4 + j] = sum;
+            }
+        }
+    }
+}
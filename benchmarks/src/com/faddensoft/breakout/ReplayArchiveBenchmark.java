@@ -0,0 +1,272 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Writes a long InputRecording as a ReplayArchive, and seeks around in it.
+ * <p>
+ * We record a long game the way ReplayBenchmark does, write it out, and report the file
+ * size against the 9 bytes per entry the recording takes in memory.  Then we play the
+ * recording straight through, capturing the game state at a few hundred random ticks, and
+ * seek to each of those ticks in the archive; the state must match exactly.  We report how
+ * long opening the archive and seeking take.  Finally we damage a byte in each of a few
+ * chunks and check that loading the chunk fails.
+ * <p>
+ * Usage: ReplayArchiveBenchmark [frames [columns rows [keyframeInterval]]]
+ */
+public class ReplayArchiveBenchmark {
+    private static final long FRAME_NSEC = 16666667;
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+    private static final double MAX_FRAME_DELTA_SEC = 0.5;      // same as GameState
+    private static final int PAUSE_INTERVAL = 20000;            // frames between rotations
+    private static final int NUM_SEEKS = 300;
+
+    private boolean mPaddleHit;
+
+
+    public static void main(String[] args) throws IOException {
+        int frames = 216000;        // an hour at 60fps
+        int columns = 100;
+        int rows = 100;
+        int keyframeInterval = ReplayArchive.KEYFRAME_INTERVAL;
+        if (args.length > 0) {
+            frames = Integer.parseInt(args[0]);
+        }
+        if (args.length > 2) {
+            columns = Integer.parseInt(args[1]);
+            rows = Integer.parseInt(args[2]);
+        }
+        if (args.length > 3) {
+            keyframeInterval = Integer.parseInt(args[3]);
+        }
+        new ReplayArchiveBenchmark().run(frames, columns, rows, keyframeInterval);
+    }
+
+    private void run(int frames, int columns, int rows, int keyframeInterval)
+            throws IOException {
+        InputRecording rec = record(frames, columns, rows);
+
+        File file = File.createTempFile("replay", ".bkr");
+        try {
+            long startNsec = System.nanoTime();
+            ReplayArchive.write(rec, file, keyframeInterval);
+            long writeNsec = System.nanoTime() - startNsec;
+
+            startNsec = System.nanoTime();
+            ReplayArchive.Reader reader = new ReplayArchive.Reader(file);
+            long openNsec = System.nanoTime() - startNsec;
+            if (reader.getEntryCount() != rec.getEntryCount()) {
+                throw new RuntimeException("entry count mismatch");
+            }
+
+            // Play straight through, capturing the state at random ticks.
+            Random rand = new Random(2);
+            long[] ticks = new long[NUM_SEEKS];
+            for (int i = 0; i < NUM_SEEKS; i++) {
+                ticks[i] = (long) (rand.nextDouble() * (reader.getTickCount() + 1));
+            }
+            ticks[0] = 0;
+            ticks[1] = reader.getTickCount();
+            ticks[2] = reader.getChunkStartTick(reader.getChunkCount() / 2);
+            Arrays.sort(ticks);
+            SavedGame[] expected = new SavedGame[NUM_SEEKS];
+            ReplayPlayer player = new ReplayPlayer(rec, null);
+            for (int i = 0; i < NUM_SEEKS; i++) {
+                player.playToTick(ticks[i]);
+                expected[i] = capture(player.getSimulation());
+            }
+            if (player.getTick() != reader.getTickCount()) {
+                throw new RuntimeException("tick count mismatch");
+            }
+
+            // Seek to them in a scrambled order.
+            InputRecording chunk = new InputRecording(keyframeInterval + 16);
+            long seekNsec = 0, maxSeekNsec = 0;
+            for (int pass = 0; pass < 2; pass++) {      // first pass is warmup
+                seekNsec = maxSeekNsec = 0;
+                for (int n = 0; n < NUM_SEEKS; n++) {
+                    int i = (int) ((n * 7919L) % NUM_SEEKS);
+                    startNsec = System.nanoTime();
+                    ReplayPlayer seeker = reader.seek(ticks[i], chunk, null);
+                    long nsec = System.nanoTime() - startNsec;
+                    seekNsec += nsec;
+                    maxSeekNsec = Math.max(maxSeekNsec, nsec);
+                    if (seeker.getTick() != ticks[i]) {
+                        throw new RuntimeException("seek to " + ticks[i] + " ended at "
+                                + seeker.getTick());
+                    }
+                    compare(expected[i], capture(seeker.getSimulation()), "tick " + ticks[i]);
+                }
+            }
+
+            // Damage a byte in a few chunks.
+            int damaged = 0;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                for (int c = 0; c < reader.getChunkCount(); c += reader.getChunkCount() / 5 + 1) {
+                    long start = reader.getChunkStartTick(c);
+                    long pos = findChunkOffset(file, c);
+                    raf.seek(pos + 40);
+                    int b = raf.read();
+                    raf.seek(pos + 40);
+                    raf.write(b ^ 0x04);
+                    try {
+                        // Opening the archive loads the last chunk, so that can fail too.
+                        new ReplayArchive.Reader(file).seek(start, chunk, null);
+                        throw new RuntimeException("damage in chunk " + c + " not detected");
+                    } catch (IOException expectedException) {
+                        damaged++;
+                    }
+                    raf.seek(pos + 40);
+                    raf.write(b);
+                }
+            } finally {
+                raf.close();
+            }
+
+            int entries = rec.getEntryCount();
+            System.out.println("board " + columns + "x" + rows + ", " + entries
+                    + " entries, " + reader.getTickCount() + " ticks, "
+                    + String.format("%.1f", player.getRecordedElapsedNsec()
+                            / NANOS_PER_SECOND / 60.0) + " minutes of play");
+            System.out.printf("  archive %d bytes in %d chunks: %.2f bytes/entry "
+                    + "(%d in memory), written in %.1f ms%n", file.length(),
+                    reader.getChunkCount(), (double) file.length() / entries, entries * 9,
+                    writeNsec / 1000000.0);
+            System.out.printf("  open %.3f ms; seek avg %.2f ms, max %.2f ms "
+                    + "(%d seeks, all matched)%n", openNsec / 1000000.0,
+                    seekNsec / 1000000.0 / NUM_SEEKS, maxSeekNsec / 1000000.0, NUM_SEEKS);
+            System.out.println("  damage detected in " + damaged + " of " + damaged
+                    + " chunks");
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Reads the file offset of chunk "c" out of the index.  The trailer has the index
+     * offset; see ReplayArchive for the layout.
+     */
+    private static long findChunkOffset(File file, int c) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(raf.length() - 16);
+            long indexOffset = raf.readLong();
+            raf.seek(indexOffset + c * 32L + 16);
+            return raf.readLong();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Records a game the way ReplayBenchmark does.
+     */
+    private InputRecording record(int frames, int columns, int rows) {
+        GameSimulation sim = new GameSimulation(columns, rows);
+        sim.setNeverLoseBall(true);
+        sim.setListener(new GameSimulation.Listener() {
+            @Override
+            public void onSound(int sound) {
+                if (sound == GameSimulation.SOUND_PADDLE_HIT) {
+                    mPaddleHit = true;
+                }
+            }
+            @Override public void onBrickDestroyed(int brick) {}
+            @Override public void onLogMessage(String msg) {}
+        });
+        sim.initBoard();
+
+        InputRecording rec = new InputRecording(1024);
+        rec.begin(sim);
+        Random rand = new Random(1);
+        float paddleOffset = 0.0f;
+        double tickAccumulator = 0.0;
+        for (int frame = 0; frame < frames; frame++) {
+            if (frame % PAUSE_INTERVAL == PAUSE_INTERVAL - 1) {
+                sim.setPauseTime(1.5f);
+                rec.recordPause(1.5f);
+            }
+            float paddleX = sim.getBallXPosition() + paddleOffset;
+            sim.movePaddle(paddleX);
+            rec.recordPaddle(paddleX);
+
+            long deltaNsec = FRAME_NSEC + rand.nextInt(2000000) - 1000000;
+            if (rand.nextInt(100) == 0) {
+                deltaNsec += FRAME_NSEC * (1 + rand.nextInt(3));
+            }
+            tickAccumulator += Math.min(deltaNsec / NANOS_PER_SECOND, MAX_FRAME_DELTA_SEC);
+            int ticks = 0;
+            while (tickAccumulator >= GameSimulation.TICK_SEC) {
+                sim.advance(GameSimulation.TICK_SEC);
+                tickAccumulator -= GameSimulation.TICK_SEC;
+                ticks++;
+            }
+            rec.recordFrame(deltaNsec, ticks);
+
+            if (mPaddleHit) {
+                paddleOffset = (rand.nextFloat() - 0.5f) *
+                        sim.getRectXScale(sim.getPaddleRect()) * 0.9f;
+                mPaddleHit = false;
+            }
+            int state = sim.getGamePlayState();
+            if (state == GameSimulation.GAME_WON || state == GameSimulation.GAME_LOST) {
+                break;
+            }
+        }
+        return rec;
+    }
+
+    private static SavedGame capture(GameSimulation sim) {
+        SavedGame save = new SavedGame(sim.getBrickCount(), sim.getMaxBalls());
+        save.captureFrom(sim);
+        save.mGameStatusMessageNum = Float.floatToIntBits(sim.getPauseTime());
+        return save;
+    }
+
+    private static void compare(SavedGame expected, SavedGame actual, String where) {
+        int numBalls = expected.mNumBalls;
+        boolean same = numBalls == actual.mNumBalls
+                && Arrays.equals(expected.mLiveBricks, actual.mLiveBricks)
+                && Float.floatToIntBits(expected.mPaddlePosition)
+                        == Float.floatToIntBits(actual.mPaddlePosition)
+                && expected.mGamePlayState == actual.mGamePlayState
+                && expected.mGameStatusMessageNum == actual.mGameStatusMessageNum
+                && expected.mLivesRemaining == actual.mLivesRemaining
+                && expected.mScore == actual.mScore;
+        for (int i = 0; same && i < numBalls; i++) {
+            same = Float.floatToIntBits(expected.mBallXPosition[i])
+                        == Float.floatToIntBits(actual.mBallXPosition[i])
+                    && Float.floatToIntBits(expected.mBallYPosition[i])
+                        == Float.floatToIntBits(actual.mBallYPosition[i])
+                    && Float.floatToIntBits(expected.mBallXDirection[i])
+                        == Float.floatToIntBits(actual.mBallXDirection[i])
+                    && Float.floatToIntBits(expected.mBallYDirection[i])
+                        == Float.floatToIntBits(actual.mBallYDirection[i])
+                    && expected.mBallSpeed[i] == actual.mBallSpeed[i];
+        }
+        if (!same) {
+            throw new RuntimeException("seek result differs at " + where);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Records a game with InputRecording and plays it back with ReplayPlayer.
+ * <p>
+ * The recording side drives the simulation the way GameState does: frame times wobble
+ * around 60fps with the occasional long frame, elapsed time goes into a tick accumulator,
+ * and the paddle is moved between frames (same player as SimulationBenchmark).  Every so
+ * often we pause the game the way a screen rotation does.  A recording covers one game, so
+ * the ball is never lost, and we stop when the bricks are gone or we run out of frames.
+ * A bigger board makes for a longer game.
+ * <p>
+ * The playback must match the recording exactly.  We capture the full game state every
+ * 1,000 entries while recording and compare at the same points while playing back, and
+ * play it back twice.  We report how much faster than real time the playback runs.
+ * <p>
+ * Usage: ReplayBenchmark [frames [columns rows [extraBalls]]]
+ */
+public class ReplayBenchmark {
+    private static final long FRAME_NSEC = 16666667;
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+    private static final double MAX_FRAME_DELTA_SEC = 0.5;      // same as GameState
+    private static final int CHECK_INTERVAL = 1000;
+    private static final int PAUSE_INTERVAL = 20000;            // frames between rotations
+
+    private boolean mPaddleHit;
+
+
+    public static void main(String[] args) {
+        int frames = 216000;        // an hour at 60fps
+        int columns = GameSimulation.BRICK_COLUMNS;
+        int rows = GameSimulation.BRICK_ROWS;
+        int extraBalls = 0;
+        if (args.length > 0) {
+            frames = Integer.parseInt(args[0]);
+        }
+        if (args.length > 2) {
+            columns = Integer.parseInt(args[1]);
+            rows = Integer.parseInt(args[2]);
+        }
+        if (args.length > 3) {
+            extraBalls = Integer.parseInt(args[3]);
+        }
+        new ReplayBenchmark().run(frames, columns, rows, extraBalls);
+    }
+
+    private void run(int frames, int columns, int rows, int extraBalls) {
+        GameSimulation sim = new GameSimulation(columns, rows);
+        sim.setExtraBalls(extraBalls);
+        sim.setNeverLoseBall(true);         // keep going until the bricks are gone
+        sim.setListener(new GameSimulation.Listener() {
+            @Override
+            public void onSound(int sound) {
+                if (sound == GameSimulation.SOUND_PADDLE_HIT) {
+                    mPaddleHit = true;
+                }
+            }
+            @Override public void onBrickDestroyed(int brick) {}
+            @Override public void onLogMessage(String msg) {}
+        });
+        sim.initBoard();
+
+        InputRecording rec = new InputRecording(1024);
+        rec.begin(sim);
+        SavedGame[] checkpoints = new SavedGame[frames / CHECK_INTERVAL + 2];
+        int numCheckpoints = 0;
+
+        // Record.
+        Random rand = new Random(1);
+        float paddleOffset = 0.0f;
+        double tickAccumulator = 0.0;
+        long recordStartNsec = System.nanoTime();
+        for (int frame = 0; frame < frames; frame++) {
+            if (rec.getEntryCount() % CHECK_INTERVAL == 0) {
+                checkpoints[numCheckpoints++] = capture(sim);
+            }
+            if (frame % PAUSE_INTERVAL == PAUSE_INTERVAL - 1) {
+                sim.setPauseTime(1.5f);
+                rec.recordPause(1.5f);
+                if (rec.getEntryCount() % CHECK_INTERVAL == 0) {
+                    checkpoints[numCheckpoints++] = capture(sim);
+                }
+            }
+
+            float paddleX = sim.getBallXPosition() + paddleOffset;
+            sim.movePaddle(paddleX);
+            rec.recordPaddle(paddleX);
+
+            long deltaNsec = FRAME_NSEC + rand.nextInt(2000000) - 1000000;
+            if (rand.nextInt(100) == 0) {
+                deltaNsec += FRAME_NSEC * (1 + rand.nextInt(3));       // dropped frames
+            }
+            tickAccumulator += Math.min(deltaNsec / NANOS_PER_SECOND, MAX_FRAME_DELTA_SEC);
+            int ticks = 0;
+            while (tickAccumulator >= GameSimulation.TICK_SEC) {
+                sim.advance(GameSimulation.TICK_SEC);
+                tickAccumulator -= GameSimulation.TICK_SEC;
+                ticks++;
+            }
+            rec.recordFrame(deltaNsec, ticks);
+
+            if (mPaddleHit) {
+                paddleOffset = (rand.nextFloat() - 0.5f) *
+                        sim.getRectXScale(sim.getPaddleRect()) * 0.9f;
+                mPaddleHit = false;
+            }
+            int state = sim.getGamePlayState();
+            if (state == GameSimulation.GAME_WON || state == GameSimulation.GAME_LOST) {
+                break;
+            }
+        }
+        long recordNsec = System.nanoTime() - recordStartNsec;
+        SavedGame recordedEnd = capture(sim);
+
+        // Play back, twice.
+        long playNsec = 0;
+        long recordedNsec = 0, ticks = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            ReplayPlayer player = new ReplayPlayer(rec, null);
+            int checkpoint = 0;
+            long startNsec = System.nanoTime();
+            while (player.hasMore()) {
+                if (player.getPosition() % CHECK_INTERVAL == 0) {
+                    compare(checkpoints[checkpoint++], capture(player.getSimulation()),
+                            "entry " + player.getPosition());
+                }
+                player.step();
+            }
+            playNsec = System.nanoTime() - startNsec;
+            compare(recordedEnd, capture(player.getSimulation()), "end");
+            recordedNsec = player.getRecordedElapsedNsec();
+            ticks = player.getTick();
+        }
+
+        int entries = rec.getEntryCount();
+        System.out.println("board " + columns + "x" + rows + ", " + extraBalls
+                + " extra balls per launch");
+        System.out.println("  recorded " + entries + " entries, " + ticks + " ticks, "
+                + String.format("%.1f", recordedNsec / NANOS_PER_SECOND / 60.0)
+                + " minutes of play, "
+                + (recordedEnd.mGamePlayState == GameSimulation.GAME_WON ? "won" : "not won")
+                + ", score " + recordedEnd.mScore);
+        System.out.println("  " + (entries * 9) + " bytes of input (9 per entry)");
+        System.out.println("  playback matched at " + numCheckpoints
+                + " checkpoints and the end, twice");
+        System.out.printf("  record %.1f ms (with checkpoints), playback %.1f ms: "
+                + "%.0fx real time%n", recordNsec / 1000000.0, playNsec / 1000000.0,
+                (double) recordedNsec / playNsec);
+    }
+
+    /**
+     * Captures the simulation's state.  Includes the pause time, which a saved game
+     * doesn't, as the status message number.
+     */
+    private static SavedGame capture(GameSimulation sim) {
+        SavedGame save = new SavedGame(sim.getBrickCount(), sim.getMaxBalls());
+        save.captureFrom(sim);
+        save.mGameStatusMessageNum = Float.floatToIntBits(sim.getPauseTime());
+        return save;
+    }
+
+    private static void compare(SavedGame expected, SavedGame actual, String where) {
+        int numBalls = expected.mNumBalls;
+        if (numBalls != actual.mNumBalls
+                || !Arrays.equals(expected.mLiveBricks, actual.mLiveBricks)
+                || !equal(expected.mBallXPosition, actual.mBallXPosition, numBalls)
+                || !equal(expected.mBallYPosition, actual.mBallYPosition, numBalls)
+                || !equal(expected.mBallXDirection, actual.mBallXDirection, numBalls)
+                || !equal(expected.mBallYDirection, actual.mBallYDirection, numBalls)
+                || expected.mPaddlePosition != actual.mPaddlePosition
+                || expected.mGamePlayState != actual.mGamePlayState
+                || expected.mGameStatusMessageNum != actual.mGameStatusMessageNum
+                || expected.mLivesRemaining != actual.mLivesRemaining
+                || expected.mScore != actual.mScore) {
+            throw new RuntimeException("playback diverged at " + where);
+        }
+        for (int i = 0; i < numBalls; i++) {
+            if (expected.mBallSpeed[i] != actual.mBallSpeed[i]) {
+                throw new RuntimeException("playback diverged at " + where);
+            }
+        }
+    }
+
+    private static boolean equal(float[] a, float[] b, int count) {
+        for (int i = 0; i < count; i++) {
+            if (Float.floatToIntBits(a[i]) != Float.floatToIntBits(b[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Measures what keeping a RewindBuffer costs, and checks that rewinding is exact.
+ * <p>
+ * The game is driven the way ReplayBenchmark drives it, with the buffer set up the way
+ * GameState sets it up: ten seconds, a snapshot every second.  First we time the game with
+ * and without the buffer, to see what recording costs per tick, and time recordTick() by
+ * itself.  Then we play again, and every ten seconds of game time rewind to a random tick
+ * the buffer still has.  The state hash after the rewind must match the one recorded the
+ * first time through that tick.  Play then carries on from there, with different input,
+ * so later rewinds land on ticks that have been replaced.  We also check that the buffer
+ * doesn't allocate while recording or rewinding.
+ * <p>
+ * Usage: RewindBenchmark [frames [columns rows [extraBalls]]]
+ */
+public class RewindBenchmark {
+    private static final long FRAME_NSEC = 16666667;
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+    private static final double MAX_FRAME_DELTA_SEC = 0.5;      // same as GameState
+    private static final int PAUSE_INTERVAL = 20000;            // frames between rotations
+    private static final int REWIND_SECONDS = 10;               // same as GameState
+    private static final int SNAPSHOT_TICKS = GameSimulation.TICKS_PER_SECOND;
+    private static final int CHECK_INTERVAL = 600;              // frames between rewinds
+    private static final int RECORD_TIMING_TICKS = 10000000;
+    private static final int TIMING_PASSES = 5;
+
+    private boolean mPaddleHit;
+
+    // Results of the checked pass.
+    private int mRewinds;
+    private long mRewindTicks;
+    private long mRestoreNsec;
+    private long mMaxRestoreNsec;
+    private long mAllocatedBytes = -1;
+
+
+    public static void main(String[] args) {
+        int frames = 72000;         // 20 minutes at 60fps
+        int columns = 40;
+        int rows = 25;
+        int extraBalls = 0;
+        if (args.length > 0) {
+            frames = Integer.parseInt(args[0]);
+        }
+        if (args.length > 2) {
+            columns = Integer.parseInt(args[1]);
+            rows = Integer.parseInt(args[2]);
+        }
+        if (args.length > 3) {
+            extraBalls = Integer.parseInt(args[3]);
+        }
+        new RewindBenchmark().run(frames, columns, rows, extraBalls);
+    }
+
+    private void run(int frames, int columns, int rows, int extraBalls) {
+        // Timing passes.  The game is deterministic, so both play out the same way.  Take
+        // the best of a few, to get past the JIT warming up and whatever else the machine
+        // is doing.
+        long plainNsec = Long.MAX_VALUE, bufferNsec = Long.MAX_VALUE;
+        long ticks = 0;
+        for (int pass = 0; pass < TIMING_PASSES; pass++) {
+            long startNsec = System.nanoTime();
+            play(frames, columns, rows, extraBalls, false, false);
+            plainNsec = Math.min(plainNsec, System.nanoTime() - startNsec);
+            startNsec = System.nanoTime();
+            ticks = play(frames, columns, rows, extraBalls, true, false);
+            bufferNsec = Math.min(bufferNsec, System.nanoTime() - startNsec);
+        }
+
+        // Checked pass.  The first time through, something in the VM allocates a little as
+        // the rewind path gets going, so report the second.
+        for (int pass = 0; pass < 2; pass++) {
+            mRewinds = 0;
+            mRewindTicks = mRestoreNsec = mMaxRestoreNsec = 0;
+            play(frames, columns, rows, extraBalls, true, true);
+        }
+
+        // recordTick() on its own, with the usual interval and with a snapshot every tick.
+        GameSimulation sim = new GameSimulation(columns, rows);
+        sim.setExtraBalls(extraBalls);
+        sim.initBoard();
+        double recordNsec = timeRecordTick(sim, SNAPSHOT_TICKS);
+        double snapshotNsec = timeRecordTick(sim, 1);
+
+        int numSnapshots = REWIND_SECONDS + 1;
+        long bytes = numSnapshots * (((sim.getBrickCount() + 63) >>> 6) * 8
+                + sim.getMaxBalls() * 5 * 4L)
+                + (long) numSnapshots * SNAPSHOT_TICKS * 8;
+        System.out.println("board " + columns + "x" + rows + ", " + extraBalls
+                + " extra balls: " + ticks + " ticks; buffer holds " + REWIND_SECONDS
+                + "s in about " + bytes / 1024 + "KB");
+        System.out.printf("  game %.1f ms, with rewind buffer %.1f ms (%+.1f ns/tick)%n",
+                plainNsec / 1000000.0, bufferNsec / 1000000.0,
+                (double) (bufferNsec - plainNsec) / ticks);
+        System.out.printf("  recordTick %.1f ns (snapshot every %d ticks), a snapshot "
+                + "%.0f ns%n", recordNsec, SNAPSHOT_TICKS, snapshotNsec);
+        if (mRewinds == 0) {
+            System.out.println("  game too short to rewind");
+        } else {
+            System.out.printf("  %d rewinds, all exact: restore avg %.1f us, max %.1f us, "
+                    + "%.0f ticks re-run on average%n", mRewinds,
+                    mRestoreNsec / 1000.0 / mRewinds, mMaxRestoreNsec / 1000.0,
+                    (double) mRewindTicks / mRewinds);
+        }
+        System.out.println("  allocated while playing and rewinding: "
+                + (mAllocatedBytes < 0 ? "n/a" : mAllocatedBytes + " bytes"));
+    }
+
+    /**
+     * Returns the average time recordTick() takes, in nanoseconds, with a snapshot every
+     * "interval" ticks.
+     */
+    private static double timeRecordTick(GameSimulation sim, int interval) {
+        RewindBuffer rewind = new RewindBuffer(sim.getBrickCount(), sim.getMaxBalls(),
+                REWIND_SECONDS * GameSimulation.TICKS_PER_SECOND, interval);
+        rewind.reset(sim);
+        int loops = RECORD_TIMING_TICKS / Math.max(1, 100 / interval);
+        for (int i = 0; i < loops / 10; i++) {        // warm up
+            rewind.recordPaddle(i);
+            rewind.recordTick(sim);
+        }
+        long startNsec = System.nanoTime();
+        for (int i = 0; i < loops; i++) {
+            rewind.recordPaddle(i);
+            rewind.recordTick(sim);
+        }
+        return (double) (System.nanoTime() - startNsec) / loops;
+    }
+
+    /**
+     * Plays a game.  If "buffer" is set, it's recorded in a RewindBuffer, and if "check" is
+     * also set, we rewind every so often and check the result.
+     *
+     * @return The number of ticks played, not counting the ones undone by rewinding.
+     */
+    private long play(int frames, int columns, int rows, int extraBalls, boolean buffer,
+            boolean check) {
+        GameSimulation sim = new GameSimulation(columns, rows);
+        sim.setNeverLoseBall(true);
+        sim.setExtraBalls(extraBalls);
+        sim.setListener(new GameSimulation.Listener() {
+            @Override
+            public void onSound(int sound) {
+                if (sound == GameSimulation.SOUND_PADDLE_HIT) {
+                    mPaddleHit = true;
+                }
+            }
+            @Override public void onBrickDestroyed(int brick) {}
+            @Override public void onLogMessage(String msg) {}
+        });
+        sim.initBoard();
+
+        RewindBuffer rewind = null;
+        long[] history = null;      // state hash after each tick, for checking
+        if (buffer) {
+            rewind = new RewindBuffer(sim.getBrickCount(), sim.getMaxBalls(),
+                    REWIND_SECONDS * GameSimulation.TICKS_PER_SECOND, SNAPSHOT_TICKS);
+            rewind.reset(sim);
+        }
+        if (check) {
+            history = new long[frames * 20 + 1];
+            history[0] = sim.computeStateHash();
+        }
+
+        Random rand = new Random(1);
+        Random rewindRand = new Random(2);
+        float paddleOffset = 0.0f;
+        double tickAccumulator = 0.0;
+        long ticks = 0;
+        long overhead = -allocatedBytes() + allocatedBytes();
+        long startBytes = allocatedBytes();
+        for (int frame = 0; frame < frames; frame++) {
+            if (frame % PAUSE_INTERVAL == PAUSE_INTERVAL - 1) {
+                sim.setPauseTime(1.5f);
+                if (buffer) {
+                    rewind.recordPause(1.5f);
+                }
+            }
+            float paddleX = sim.getBallXPosition() + paddleOffset;
+            sim.movePaddle(paddleX);
+            if (buffer) {
+                rewind.recordPaddle(paddleX);
+            }
+
+            long deltaNsec = FRAME_NSEC + rand.nextInt(2000000) - 1000000;
+            if (rand.nextInt(100) == 0) {
+                deltaNsec += FRAME_NSEC * (1 + rand.nextInt(3));
+            }
+            tickAccumulator += Math.min(deltaNsec / NANOS_PER_SECOND, MAX_FRAME_DELTA_SEC);
+            while (tickAccumulator >= GameSimulation.TICK_SEC) {
+                sim.advance(GameSimulation.TICK_SEC);
+                tickAccumulator -= GameSimulation.TICK_SEC;
+                ticks++;
+                if (buffer) {
+                    rewind.recordTick(sim);
+                    if (check) {
+                        history[(int) rewind.getTick()] = sim.computeStateHash();
+                    }
+                }
+            }
+
+            if (check && frame % CHECK_INTERVAL == CHECK_INTERVAL - 1) {
+                long oldest = rewind.getOldestTick();
+                long now = rewind.getTick();
+                long target = oldest + (long) (rewindRand.nextDouble() * (now - oldest + 1));
+                long startNsec = System.nanoTime();
+                rewind.restore(sim, target);
+                long nsec = System.nanoTime() - startNsec;
+                if (sim.computeStateHash() != history[(int) target]) {
+                    throw new RuntimeException("rewind to tick " + target + " (from " + now
+                            + ") doesn't match");
+                }
+                mRewinds++;
+                mRewindTicks += target - (target - target % SNAPSHOT_TICKS);
+                mRestoreNsec += nsec;
+                mMaxRestoreNsec = Math.max(mMaxRestoreNsec, nsec);
+                ticks -= now - target;
+            }
+
+            if (mPaddleHit) {
+                paddleOffset = (rand.nextFloat() - 0.5f) *
+                        sim.getRectXScale(sim.getPaddleRect()) * 0.9f;
+                mPaddleHit = false;
+            }
+            int state = sim.getGamePlayState();
+            if (state == GameSimulation.GAME_WON || state == GameSimulation.GAME_LOST) {
+                break;
+            }
+        }
+        long endBytes = allocatedBytes();
+        if (check && startBytes >= 0 && endBytes >= 0) {
+            mAllocatedBytes = endBytes - startBytes - overhead;
+        }
+        return ticks;
+    }
+
+    /**
+     * Returns the number of bytes the current thread has allocated, or -1 if the VM can't
+     * tell us.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the SavedGame file format: how big the file is, and how long it takes to encode,
+ * decode, write, and read back.
+ * <p>
+ * For boards of 96 (12x8), 1,000 (40x25) and 10,000 (100x100) bricks, with 1 and 256 balls,
+ * we kill a random half of the bricks, fill in the saved game the way GameState.save()
+ * does, and time each step.  Before timing, we check that the game survives the round trip
+ * through a file, and that damaging any single byte, or truncating the data, makes the
+ * decoder reject it.  We also check that an intact file holding a game that doesn't fit the
+ * simulation (too many balls, a stopped ball, a bad state or life count) is turned away
+ * before it gets to applyTo().
+ */
+public class SavedGameBenchmark {
+    private static final int[][] BOARDS = { { 12, 8 }, { 40, 25 }, { 100, 100 } };
+    private static final int[] BALL_COUNTS = { 1, 256 };
+    private static final int ITERATIONS = 2000;
+
+
+    public static void main(String[] args) throws IOException {
+        File file = File.createTempFile("saved_game", ".bin");
+        try {
+            System.out.println(" bricks  balls  bytes  encode-us  decode-us  write-us   read-us");
+            for (int[] board : BOARDS) {
+                for (int numBalls : BALL_COUNTS) {
+                    run(board[0], board[1], numBalls, file);
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void run(int columns, int rows, int numBalls, File file)
+            throws IOException {
+        GameSimulation sim = new GameSimulation(columns, rows);
+        SavedGame save = makeSave(sim, numBalls);
+        byte[] data = save.encode();
+        check(save, data, file);
+        checkFits(sim, save, file);
+
+        long encodeNsec = 0, decodeNsec = 0, writeNsec = 0, readNsec = 0;
+        for (int warm = 0; warm < 2; warm++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                data = save.encode();
+            }
+            encodeNsec = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                SavedGame.decode(data, data.length);
+            }
+            decodeNsec = System.nanoTime() - start;
+
+            // File operations are slower and noisier; do fewer of them.
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS / 10; i++) {
+                SavedGame.writeFile(file, data, data.length);
+            }
+            writeNsec = (System.nanoTime() - start) * 10;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                SavedGame.readFile(file);
+            }
+            readNsec = System.nanoTime() - start;
+        }
+
+        System.out.printf("%7d %6d %6d %10.2f %10.2f %9.1f %9.2f%n",
+                columns * rows, numBalls, data.length, encodeNsec / 1000.0 / ITERATIONS,
+                decodeNsec / 1000.0 / ITERATIONS, writeNsec / 1000.0 / ITERATIONS,
+                readNsec / 1000.0 / ITERATIONS);
+    }
+
+    /**
+     * Sets up a game with half the bricks gone and copies it out the way GameState.save()
+     * does.
+     */
+    private static SavedGame makeSave(GameSimulation sim, int numBalls) {
+        sim.initBricks();
+        sim.initPaddle();
+        sim.initBall();
+        sim.setBallCount(numBalls);
+        Random rand = new Random(1);
+        for (int i = 0; i < sim.getBrickCount(); i++) {
+            if (rand.nextBoolean()) {
+                sim.killBrick(i);
+            }
+        }
+        for (int i = 0; i < numBalls; i++) {
+            sim.setBallPosition(i, rand.nextFloat() * GameSimulation.ARENA_WIDTH,
+                    rand.nextFloat() * GameSimulation.ARENA_HEIGHT);
+            sim.setBallDirection(i, rand.nextFloat() - 0.5f, rand.nextFloat() - 0.5f);
+            sim.setBallSpeed(i, 300 + rand.nextInt(900));
+        }
+
+        SavedGame save = new SavedGame(sim.getBrickCount(), numBalls);
+        sim.copyLiveBricks(save.mLiveBricks);
+        save.mNumBalls = numBalls;
+        for (int i = 0; i < numBalls; i++) {
+            save.mBallXDirection[i] = sim.getBallXDirection(i);
+            save.mBallYDirection[i] = sim.getBallYDirection(i);
+            save.mBallXPosition[i] = sim.getBallXPosition(i);
+            save.mBallYPosition[i] = sim.getBallYPosition(i);
+            save.mBallSpeed[i] = sim.getBallSpeed(i);
+        }
+        save.mPaddlePosition = sim.getRectXPosition(sim.getPaddleRect());
+        save.mGamePlayState = GameSimulation.GAME_PLAYING;
+        save.mGameStatusMessageNum = 3;
+        save.mLivesRemaining = 2;
+        save.mScore = 12345;
+        save.mIsValid = true;
+        return save;
+    }
+
+    /**
+     * Checks the round trip through a file, and that damage is detected.
+     */
+    private static void check(SavedGame save, byte[] data, File file) throws IOException {
+        SavedGame.writeFile(file, data, data.length);
+        SavedGame copy = SavedGame.readFile(file);
+        if (copy == null || copy.mNumBricks != save.mNumBricks
+                || !Arrays.equals(copy.mLiveBricks, save.mLiveBricks)
+                || !Arrays.equals(copy.mBallXDirection, save.mBallXDirection)
+                || !Arrays.equals(copy.mBallYDirection, save.mBallYDirection)
+                || !Arrays.equals(copy.mBallXPosition, save.mBallXPosition)
+                || !Arrays.equals(copy.mBallYPosition, save.mBallYPosition)
+                || !Arrays.equals(copy.mBallSpeed, save.mBallSpeed)
+                || copy.mPaddlePosition != save.mPaddlePosition
+                || copy.mGamePlayState != save.mGamePlayState
+                || copy.mGameStatusMessageNum != save.mGameStatusMessageNum
+                || copy.mLivesRemaining != save.mLivesRemaining
+                || copy.mScore != save.mScore) {
+            throw new RuntimeException("round trip failed");
+        }
+
+        // Every byte is covered by the checksum (or is the checksum), so flipping any bit
+        // must be caught.  For big files, just try a sample.
+        int step = Math.max(1, data.length / 4096);
+        for (int i = 0; i < data.length; i += step) {
+            data[i] ^= 0x10;
+            if (SavedGame.decode(data, data.length) != null) {
+                throw new RuntimeException("damage at byte " + i + " not detected");
+            }
+            data[i] ^= 0x10;
+        }
+        if (SavedGame.decode(data, data.length - 1) != null) {
+            throw new RuntimeException("truncation not detected");
+        }
+    }
+
+    /**
+     * Checks that games which decode fine, but can't be applied to the simulation, are
+     * rejected by checkFits(), and that the good one isn't.
+     */
+    private static void checkFits(GameSimulation sim, SavedGame save, File file)
+            throws IOException {
+        if (save.checkFits(sim) != null) {
+            throw new RuntimeException("good game rejected: " + save.checkFits(sim));
+        }
+
+        // Grow the ball arrays by one, for the "too many balls" case.
+        int numBalls = save.mNumBalls;
+        SavedGame big = new SavedGame(save.mNumBricks, sim.getMaxBalls() + 1);
+        System.arraycopy(save.mLiveBricks, 0, big.mLiveBricks, 0, save.mLiveBricks.length);
+        for (int i = 0; i < big.mBallSpeed.length; i++) {
+            big.mBallXDirection[i] = save.mBallXDirection[i % numBalls];
+            big.mBallYDirection[i] = save.mBallYDirection[i % numBalls];
+            big.mBallXPosition[i] = save.mBallXPosition[i % numBalls];
+            big.mBallYPosition[i] = save.mBallYPosition[i % numBalls];
+            big.mBallSpeed[i] = save.mBallSpeed[i % numBalls];
+        }
+        big.mNumBalls = big.mBallSpeed.length;
+        big.mPaddlePosition = save.mPaddlePosition;
+        big.mGamePlayState = save.mGamePlayState;
+        big.mLivesRemaining = save.mLivesRemaining;
+        big.mIsValid = true;
+        checkRejected(sim, big, file, "too many balls");
+
+        int speed = save.mBallSpeed[numBalls - 1];
+        save.mBallSpeed[numBalls - 1] = 0;
+        checkRejected(sim, save, file, "stopped ball");
+        save.mBallSpeed[numBalls - 1] = speed;
+
+        int state = save.mGamePlayState;
+        save.mGamePlayState = GameSimulation.GAME_LOST + 1;
+        checkRejected(sim, save, file, "bad state");
+        save.mGamePlayState = -1;
+        checkRejected(sim, save, file, "negative state");
+        save.mGamePlayState = state;
+
+        int lives = save.mLivesRemaining;
+        save.mLivesRemaining = sim.getMaxLives() + 1;
+        checkRejected(sim, save, file, "too many lives");
+        save.mLivesRemaining = -1;
+        checkRejected(sim, save, file, "negative lives");
+        save.mLivesRemaining = lives;
+    }
+
+    private static void checkRejected(GameSimulation sim, SavedGame save, File file,
+            String what) throws IOException {
+        byte[] data = save.encode();
+        SavedGame.writeFile(file, data, data.length);
+        SavedGame copy = SavedGame.readFile(file);
+        if (copy == null) {
+            throw new RuntimeException(what + ": decoder rejected an intact file");
+        }
+        if (copy.checkFits(sim) == null) {
+            throw new RuntimeException(what + ": not rejected");
+        }
+    }
+}
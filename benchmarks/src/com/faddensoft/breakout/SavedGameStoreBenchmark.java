@@ -0,0 +1,304 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress test for SavedGameStore.  One thread plays the part of the Renderer and saves as
+ * fast as it can, while reader threads play the part of the UI thread and read the saved
+ * game back, and the store's own thread writes every save it can to a file.
+ * <p>
+ * Every value in save number N is derived from N, so a reader can tell if it got parts of
+ * two different saves (a "torn" save).  Readers also check that saves never go backward,
+ * and one of them invalidates the saved game now and then, like starting a new game does.
+ * At the end we check that the file holds a whole save, and report how many reads had to
+ * try again and how many bytes the saving thread allocated.  There must be no torn saves.
+ * <p>
+ * Usage: SavedGameStoreBenchmark [seconds [readers [balls]]]
+ */
+public class SavedGameStoreBenchmark {
+    private static final int NUM_BRICKS = 96;
+    private static final int INVALIDATE_INTERVAL = 10000;      // reads between invalidates
+
+    private static volatile boolean sStop;
+    private static final AtomicInteger sTorn = new AtomicInteger();
+
+
+    public static void main(String[] args) throws Exception {
+        int seconds = 3;
+        int numReaders = 2;
+        int maxBalls = GameSimulation.DEFAULT_MAX_BALLS;
+        if (args.length > 0) {
+            seconds = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            numReaders = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            maxBalls = Integer.parseInt(args[2]);
+        }
+
+        File file = File.createTempFile("saved_game", ".bin");
+        file.delete();
+        final SavedGameStore store = new SavedGameStore(new SavedGameStore.Listener() {
+            @Override
+            public void onLogMessage(String msg) {
+                System.err.println(msg);
+            }
+        });
+        store.setFile(file);
+
+        Saver saver = new Saver(store, maxBalls);
+        Reader[] readers = new Reader[numReaders];
+        for (int i = 0; i < numReaders; i++) {
+            readers[i] = new Reader(store, maxBalls, i == 0);
+        }
+        Thread saverThread = new Thread(saver, "Saver");
+        saverThread.start();
+        Thread[] readerThreads = new Thread[numReaders];
+        for (int i = 0; i < numReaders; i++) {
+            readerThreads[i] = new Thread(readers[i], "Reader" + i);
+            readerThreads[i].start();
+        }
+
+        Thread.sleep(seconds * 1000L);
+        sStop = true;
+        saverThread.join();
+        long reads = 0, empty = 0, invalidates = 0;
+        for (int i = 0; i < numReaders; i++) {
+            readerThreads[i].join();
+            reads += readers[i].mReads;
+            empty += readers[i].mEmpty;
+            invalidates += readers[i].mInvalidates;
+        }
+        if (saver.mError != null) {
+            throw saver.mError;
+        }
+        for (Reader reader : readers) {
+            if (reader.mError != null) {
+                throw reader.mError;
+            }
+        }
+
+        // One more save, so the file should end up holding it.
+        saver.save(saver.mSaves + 1);
+        SavedGame fromFile = null;
+        for (int i = 0; i < 100 && fromFile == null; i++) {
+            Thread.sleep(20);
+            SavedGame loaded = SavedGame.readFile(file);
+            if (loaded != null && loaded.mScore == scoreFor(saver.mSaves + 1)) {
+                fromFile = loaded;
+            }
+        }
+        file.delete();
+        if (fromFile == null) {
+            throw new RuntimeException("last save never reached the file");
+        }
+        checkSave(fromFile, saver.mSaves + 1, maxBalls, "file");
+
+        System.out.println("saves:           " + saver.mSaves);
+        System.out.println("reads:           " + reads + " (" + empty + " found no save)");
+        System.out.println("invalidates:     " + invalidates);
+        System.out.println("read retries:    " + store.getReadRetries());
+        System.out.println("torn reads:      " + sTorn.get());
+        System.out.println("saver allocated: "
+                + (saver.mAllocatedBytes < 0 ? "n/a" : saver.mAllocatedBytes + " bytes")
+                + " after warmup");
+        if (sTorn.get() != 0) {
+            throw new RuntimeException("torn saves seen");
+        }
+    }
+
+    private static int scoreFor(int n) {
+        return n * 7;
+    }
+
+    /**
+     * Throws if "save" isn't exactly save number "n", made with room for "maxBalls".
+     */
+    private static void checkSave(SavedGame save, int n, int maxBalls, String who) {
+        int numBalls = 1 + n % maxBalls;
+        boolean ok = save.mNumBalls == numBalls
+                && save.mScore == scoreFor(n)
+                && save.mLivesRemaining == n
+                && save.mGameStatusMessageNum == (n & 0xff)
+                && save.mPaddlePosition == (float) (n & 0xffff);
+        for (int i = 0; ok && i < save.mLiveBricks.length; i++) {
+            ok = save.mLiveBricks[i] == (brickWord(n, i) & wordMask(i));
+        }
+        for (int i = 0; ok && i < numBalls; i++) {
+            ok = save.mBallXDirection[i] == n
+                    && save.mBallYDirection[i] == -n
+                    && save.mBallXPosition[i] == n + i
+                    && save.mBallYPosition[i] == n - i
+                    && save.mBallSpeed[i] == n;
+        }
+        if (!ok) {
+            sTorn.incrementAndGet();
+            throw new RuntimeException(who + ": torn save " + n);
+        }
+    }
+
+    private static long brickWord(int n, int word) {
+        return (n * 0x9e3779b97f4a7c15L) ^ word;
+    }
+
+    private static long wordMask(int word) {
+        int bits = Math.min(64, NUM_BRICKS - word * 64);
+        return bits == 64 ? -1L : (1L << bits) - 1;
+    }
+
+    /**
+     * Plays the Renderer thread: saves as fast as it can.
+     */
+    private static class Saver implements Runnable {
+        private final SavedGameStore mStore;
+        private final int mMaxBalls;
+        int mSaves;
+        long mAllocatedBytes = -1;
+        RuntimeException mError;
+
+        Saver(SavedGameStore store, int maxBalls) {
+            mStore = store;
+            mMaxBalls = maxBalls;
+        }
+
+        void save(int n) {
+            SavedGame save = mStore.beginSave(NUM_BRICKS, mMaxBalls);
+            for (int i = 0; i < save.mLiveBricks.length; i++) {
+                save.mLiveBricks[i] = brickWord(n, i) & wordMask(i);
+            }
+            int numBalls = 1 + n % mMaxBalls;
+            save.mNumBalls = numBalls;
+            for (int i = 0; i < numBalls; i++) {
+                save.mBallXDirection[i] = n;
+                save.mBallYDirection[i] = -n;
+                save.mBallXPosition[i] = n + i;
+                save.mBallYPosition[i] = n - i;
+                save.mBallSpeed[i] = n;
+            }
+            save.mPaddlePosition = n & 0xffff;
+            save.mGamePlayState = GameSimulation.GAME_PLAYING;
+            save.mGameStatusMessageNum = n & 0xff;
+            save.mLivesRemaining = n;
+            save.mScore = scoreFor(n);
+            mStore.endSave(save);
+        }
+
+        @Override
+        public void run() {
+            try {
+                // Warm up, so the buffers exist and the code is compiled, then measure.
+                int n = 0;
+                while (n < 10000 && !sStop) {
+                    save(++n);
+                }
+                // Asking costs a few bytes itself, so measure that and take it off.
+                long overhead = -allocatedBytes() + allocatedBytes();
+                long startBytes = allocatedBytes();
+                while (!sStop) {
+                    save(++n);
+                }
+                long endBytes = allocatedBytes();
+                if (startBytes >= 0 && endBytes >= 0) {
+                    mAllocatedBytes = endBytes - startBytes - overhead;
+                }
+                mSaves = n;
+            } catch (RuntimeException re) {
+                mError = re;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes the current thread has allocated, or -1 if the VM can't
+     * tell us.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Plays the UI thread: reads the saved game as fast as it can.
+     */
+    private static class Reader implements Runnable {
+        private final SavedGameStore mStore;
+        private final SavedGame mCopy;
+        private final boolean mCanInvalidate;
+        long mReads, mEmpty, mInvalidates;
+        RuntimeException mError;
+
+        Reader(SavedGameStore store, int maxBalls, boolean invalidates) {
+            mStore = store;
+            mCopy = new SavedGame(NUM_BRICKS, maxBalls);
+            mCanInvalidate = invalidates;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int lastSeen = 0;
+                while (!sStop) {
+                    mReads++;
+                    int n;
+                    if ((mReads & 1) == 0) {
+                        long status = mStore.readStatus();
+                        if (status == SavedGameStore.NO_SAVE) {
+                            mEmpty++;
+                            continue;
+                        }
+                        int score = SavedGameStore.getScore(status);
+                        n = score / 7;
+                        if (SavedGameStore.getPlayState(status) != GameSimulation.GAME_PLAYING
+                                || score != scoreFor(n)) {
+                            sTorn.incrementAndGet();
+                            throw new RuntimeException("torn status " + Long.toHexString(status));
+                        }
+                    } else {
+                        if (!mStore.copyTo(mCopy)) {
+                            mEmpty++;
+                            continue;
+                        }
+                        n = mCopy.mLivesRemaining;
+                        checkSave(mCopy, n, mCopy.getMaxBalls(), Thread.currentThread().getName());
+                    }
+                    if (n < lastSeen) {
+                        throw new RuntimeException("went back from save " + lastSeen
+                                + " to " + n);
+                    }
+                    lastSeen = n;
+
+                    if (mCanInvalidate && mReads % INVALIDATE_INTERVAL == 0) {
+                        mStore.invalidate();
+                        mInvalidates++;
+                    }
+                }
+            } catch (RuntimeException re) {
+                mError = re;
+            }
+        }
+    }
+}
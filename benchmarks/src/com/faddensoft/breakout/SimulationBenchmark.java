@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.Random;
+
+/**
+ * Runs the game simulation headless, as fast as it will go.
+ * <p>
+ * A trivial "player" keeps the paddle under the ball, with a bit of random offset so the
+ * ball doesn't settle into a loop.  Every frame advances the simulation by a fixed 1/60th of
+ * a second, so a given set of arguments always plays out the same way.  When a game ends
+ * we set up a fresh board and keep going.
+ * <p>
+ * With "extraBalls" set, that many additional balls are launched with each new ball.  The
+ * player only follows ball 0, so the others are soon lost, but the first few hundred
+ * frames of each ball are a multi-ball stress test.
+ * <p>
+ * Usage: SimulationBenchmark [frames [march|swept [columns rows [extraBalls]]]]
+ */
+public class SimulationBenchmark {
+    private static final double FRAME_DELTA_SEC = 1.0 / 60.0;
+
+    private int mBricksDestroyed;
+    private int mSounds;
+    private int mMessages;
+    private boolean mPaddleHit;
+
+
+    public static void main(String[] args) {
+        int frames = 5000000;
+        int mode = GameSimulation.COLLISION_MODE_MARCH;
+        int columns = GameSimulation.BRICK_COLUMNS;
+        int rows = GameSimulation.BRICK_ROWS;
+        int extraBalls = 0;
+
+        if (args.length > 0) {
+            frames = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            if (args[1].equals("swept")) {
+                mode = GameSimulation.COLLISION_MODE_SWEPT;
+            } else if (!args[1].equals("march")) {
+                throw new RuntimeException("unknown collision mode " + args[1]);
+            }
+        }
+        if (args.length > 3) {
+            columns = Integer.parseInt(args[2]);
+            rows = Integer.parseInt(args[3]);
+        }
+        if (args.length > 4) {
+            extraBalls = Integer.parseInt(args[4]);
+        }
+
+        new SimulationBenchmark().run(frames, mode, columns, rows, extraBalls);
+    }
+
+    private void run(int frames, int mode, int columns, int rows, int extraBalls) {
+        GameSimulation sim = new GameSimulation(columns, rows);
+        sim.setCollisionMode(mode);
+        sim.setExtraBalls(extraBalls);
+        sim.setListener(new GameSimulation.Listener() {
+            @Override
+            public void onSound(int sound) {
+                mSounds++;
+                if (sound == GameSimulation.SOUND_PADDLE_HIT) {
+                    mPaddleHit = true;
+                }
+            }
+
+            @Override
+            public void onBrickDestroyed(int brick) {
+                mBricksDestroyed++;
+            }
+
+            @Override
+            public void onLogMessage(String msg) {
+                mMessages++;
+            }
+        });
+        sim.initBoard();
+
+        Random rand = new Random(1);
+        float paddleOffset = 0.0f;
+        int gamesWon = 0;
+        int gamesLost = 0;
+        int ballsLost = 0;
+        long totalScore = 0;
+        long ballTicks = 0;
+
+        long startNsec = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            sim.movePaddle(sim.getBallXPosition() + paddleOffset);
+
+            int event = sim.advance(FRAME_DELTA_SEC);
+            ballTicks += sim.getBallCount();
+            if (event == GameSimulation.EVENT_BALL_LOST) {
+                ballsLost++;
+            }
+            if (mPaddleHit) {
+                // Pick a new spot on the paddle to catch the ball with next time.
+                paddleOffset = (rand.nextFloat() - 0.5f) *
+                        sim.getRectXScale(sim.getPaddleRect()) * 0.9f;
+                mPaddleHit = false;
+            }
+
+            int state = sim.getGamePlayState();
+            if (state == GameSimulation.GAME_WON || state == GameSimulation.GAME_LOST) {
+                if (state == GameSimulation.GAME_WON) {
+                    gamesWon++;
+                } else {
+                    gamesLost++;
+                }
+                totalScore += sim.getScore();
+                sim.initBricks();
+                sim.reset();
+            }
+        }
+        long elapsedNsec = System.nanoTime() - startNsec;
+
+        System.out.println("board " + columns + "x" + rows + ", " +
+                (mode == GameSimulation.COLLISION_MODE_SWEPT ? "swept" : "march") +
+                " collisions, " + frames + " frames (" +
+                String.format("%.1f", frames * FRAME_DELTA_SEC / 3600.0) + " hours of play)");
+        System.out.println("  games won " + gamesWon + ", lost " + gamesLost +
+                ", balls lost " + ballsLost + ", total score " + totalScore);
+        System.out.println("  bricks destroyed " + mBricksDestroyed + ", sounds " + mSounds +
+                ", log messages " + mMessages);
+        if (extraBalls > 0) {
+            System.out.printf("  %d extra balls per launch, %.1f balls in play on average%n",
+                    extraBalls, (double) ballTicks / frames);
+        }
+        System.out.printf("  %.1f ms total, %.0f ns/frame, %.0f frames/sec%n",
+                elapsedNsec / 1000000.0, (double) elapsedNsec / frames,
+                frames / (elapsedNsec / 1000000000.0));
+    }
+}
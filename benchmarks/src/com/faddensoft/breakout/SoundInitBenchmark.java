@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Measures how long generating the game's sounds holds up the caller, done the old way
+ * (all four tones in a row on the calling thread) and the way SoundResources.initialize()
+ * does it now (a background thread that synthesizes them in parallel on a pool).
+ * <p>
+ * The first measurement is taken cold, as it would be at app startup, for the mode given
+ * on the command line; run once with each mode to compare.  After that everything is
+ * warmed up and we report both modes with 1 to 4 pool threads.
+ * <p>
+ * Only synthesis is timed.  The old code also wrote a WAV file per sound and had SoundPool
+ * load it, which USE_MIXER does away with entirely.
+ * <p>
+ * Usage: SoundInitBenchmark [serial|parallel]
+ */
+public class SoundInitBenchmark {
+    // Same as SoundResources.
+    private static final int SAMPLE_RATE = 22050;
+    private static final int[] SOUND_LENGTH_MSEC = { 50, 50, 50, 500 };
+    private static final int[] SOUND_FREQ_HZ = { 900, 700, 300, 280 };
+    private static final float VOLUME = 0.5f;
+
+    private static final int ITERATIONS = 500;
+
+    // Results of the last run, in nanoseconds.
+    private static long sBlockedNsec;
+    private static long sReadyNsec;
+
+
+    public static void main(String[] args) throws Exception {
+        boolean parallel = false;
+        if (args.length > 0) {
+            if (args[0].equals("parallel")) {
+                parallel = true;
+            } else if (!args[0].equals("serial")) {
+                throw new RuntimeException("unknown mode " + args[0]);
+            }
+        }
+        int threads = Math.min(SOUND_LENGTH_MSEC.length,
+                Runtime.getRuntime().availableProcessors());
+
+        if (parallel) {
+            runParallel(threads);
+        } else {
+            runSerial();
+        }
+        System.out.printf("Cold start, %s: caller blocked %.3fms, sounds ready after %.3fms%n",
+                parallel ? "parallel (" + threads + " threads)" : "serial",
+                sBlockedNsec / 1000000.0, sReadyNsec / 1000000.0);
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            runSerial();
+            runParallel(threads);
+        }
+
+        System.out.println();
+        System.out.println("Warm (" + Runtime.getRuntime().availableProcessors()
+                + " processors):");
+        System.out.println("mode          blocked-ms  ready-ms");
+        long blocked = 0, ready = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            runSerial();
+            blocked += sBlockedNsec;
+            ready += sReadyNsec;
+        }
+        print("serial", blocked, ready);
+        for (int t = 1; t <= SOUND_LENGTH_MSEC.length; t++) {
+            blocked = ready = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                runParallel(t);
+                blocked += sBlockedNsec;
+                ready += sReadyNsec;
+            }
+            print("parallel/" + t, blocked, ready);
+        }
+    }
+
+    private static void print(String mode, long blockedNsec, long readyNsec) {
+        System.out.printf("%-12s %11.3f %9.3f%n", mode,
+                blockedNsec / (double) ITERATIONS / 1000000.0,
+                readyNsec / (double) ITERATIONS / 1000000.0);
+    }
+
+    /**
+     * Generates the tones on the calling thread, the way initialize() used to.
+     */
+    private static void runSerial() {
+        long startNsec = System.nanoTime();
+        AudioMixer.generateTones(null, SAMPLE_RATE, SOUND_LENGTH_MSEC, SOUND_FREQ_HZ, VOLUME);
+        sBlockedNsec = sReadyNsec = System.nanoTime() - startNsec;
+    }
+
+    /**
+     * Starts a thread that generates the tones on a pool, the way initialize() does now,
+     * and then waits for the result.
+     */
+    private static void runParallel(final int threads) throws Exception {
+        long startNsec = System.nanoTime();
+        FutureTask<short[][]> task = new FutureTask<short[][]>(new Callable<short[][]>() {
+            @Override
+            public short[][] call() {
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                try {
+                    return AudioMixer.generateTones(pool, SAMPLE_RATE, SOUND_LENGTH_MSEC,
+                            SOUND_FREQ_HZ, VOLUME);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        });
+        Thread thread = new Thread(task, "SoundInit");
+        thread.setDaemon(true);
+        thread.start();
+        sBlockedNsec = System.nanoTime() - startNsec;
+
+        task.get();
+        sReadyNsec = System.nanoTime() - startNsec;
+    }
+}
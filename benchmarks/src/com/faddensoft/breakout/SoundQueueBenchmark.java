@@ -0,0 +1,217 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.Random;
+
+/**
+ * Checks SoundEventQueue across two threads, times it, and shows how big it needs to be.
+ * <p>
+ * The threaded check has one thread push a long known sequence through a small queue,
+ * retrying whenever it's full, while another thread pulls it out; every event must arrive
+ * once and in order.  With more distinct sounds than slots nothing gets coalesced, so any
+ * ordering problem shows up.
+ * <p>
+ * For sizing, we play the game headless (same player as SimulationBenchmark) with extra
+ * balls, feed the sound events to queues of several sizes, and drain them on the mixer's
+ * schedule: every 256 samples at 22.05KHz, or about 0.7 frames.  We report how many events
+ * were coalesced and dropped at each size.
+ * <p>
+ * Usage: SoundQueueBenchmark [frames [extraBalls]]
+ */
+public class SoundQueueBenchmark {
+    private static final double FRAME_DELTA_SEC = 1.0 / 60.0;
+
+    // Same as SoundResources.
+    private static final int SAMPLE_RATE = 22050;
+    private static final int BLOCK_FRAMES = 256;
+
+    private static final int[] CAPACITIES = { 1, 2, 4, 8, 16, 32 };
+
+    private static final int THREAD_CHECK_EVENTS = 20000000;
+    private static final int THREAD_CHECK_SOUNDS = 1024;
+    private static final int TIMING_ITERATIONS = 50000000;
+
+    private final SoundEventQueue[] mQueues = new SoundEventQueue[CAPACITIES.length];
+    private final int[] mMaxDepth = new int[CAPACITIES.length];
+    private final int[] mDepth = new int[CAPACITIES.length];
+    private long mOffered;
+    private boolean mPaddleHit;
+
+
+    public static void main(String[] args) throws InterruptedException {
+        int frames = 1000000;
+        int extraBalls = 200;
+        if (args.length > 0) {
+            frames = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            extraBalls = Integer.parseInt(args[1]);
+        }
+
+        checkThreaded();
+        measureCost();
+        new SoundQueueBenchmark().run(frames, extraBalls);
+    }
+
+    /**
+     * Pushes 0, 1, 2, ... (mod THREAD_CHECK_SOUNDS) through an 8-entry queue from one thread
+     * and checks the order on another.
+     */
+    private static void checkThreaded() throws InterruptedException {
+        final SoundEventQueue queue = new SoundEventQueue(8, THREAD_CHECK_SOUNDS);
+        final long[] received = new long[1];
+        final String[] failure = new String[1];
+
+        Thread consumer = new Thread("consumer") {
+            @Override
+            public void run() {
+                long count = 0;
+                while (count < THREAD_CHECK_EVENTS) {
+                    int sound = queue.poll();
+                    if (sound < 0) {
+                        Thread.yield();
+                        continue;
+                    }
+                    if (sound != (int) (count % THREAD_CHECK_SOUNDS)) {
+                        failure[0] = "event " + count + ": got " + sound;
+                        break;
+                    }
+                    count++;
+                }
+                received[0] = count;
+            }
+        };
+        consumer.start();
+
+        long startNsec = System.nanoTime();
+        for (int i = 0; i < THREAD_CHECK_EVENTS && failure[0] == null; i++) {
+            while (!queue.offer(i % THREAD_CHECK_SOUNDS)) {
+                if (!consumer.isAlive()) {
+                    break;
+                }
+                Thread.yield();
+            }
+        }
+        consumer.join();
+        long elapsedNsec = System.nanoTime() - startNsec;
+
+        if (failure[0] != null || received[0] != THREAD_CHECK_EVENTS
+                || queue.getCoalescedCount() != 0) {
+            throw new RuntimeException("threaded check failed: " + failure[0] + " received="
+                    + received[0] + " coalesced=" + queue.getCoalescedCount());
+        }
+        System.out.printf("Threaded check OK: %d events in %.1fms, queue full %d times%n",
+                THREAD_CHECK_EVENTS, elapsedNsec / 1000000.0, queue.getDroppedCount());
+    }
+
+    /**
+     * Times offer() and poll() on one thread.
+     */
+    private static void measureCost() {
+        SoundEventQueue queue = new SoundEventQueue(16, GameSimulation.NUM_SOUNDS);
+        long elapsedNsec = 0;
+        int sum = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            // First pass is warmup.
+            long startNsec = System.nanoTime();
+            for (int i = 0; i < TIMING_ITERATIONS; i++) {
+                queue.offer(i & 3);
+                sum += queue.poll();
+            }
+            elapsedNsec = System.nanoTime() - startNsec;
+        }
+        System.out.printf("offer + poll: %.2fns (checksum %d)%n",
+                elapsedNsec / (double) TIMING_ITERATIONS, sum);
+    }
+
+    private void run(int frames, int extraBalls) {
+        for (int i = 0; i < CAPACITIES.length; i++) {
+            mQueues[i] = new SoundEventQueue(CAPACITIES[i], GameSimulation.NUM_SOUNDS);
+        }
+
+        GameSimulation sim = new GameSimulation(GameSimulation.BRICK_COLUMNS,
+                GameSimulation.BRICK_ROWS);
+        sim.setExtraBalls(extraBalls);
+        sim.setListener(new GameSimulation.Listener() {
+            @Override
+            public void onSound(int sound) {
+                mOffered++;
+                if (sound == GameSimulation.SOUND_PADDLE_HIT) {
+                    mPaddleHit = true;
+                }
+                for (int i = 0; i < mQueues.length; i++) {
+                    int coalesced = mQueues[i].getCoalescedCount();
+                    if (mQueues[i].offer(sound)
+                            && mQueues[i].getCoalescedCount() == coalesced) {
+                        mDepth[i]++;
+                        mMaxDepth[i] = Math.max(mMaxDepth[i], mDepth[i]);
+                    }
+                }
+            }
+
+            @Override
+            public void onBrickDestroyed(int brick) {}
+
+            @Override
+            public void onLogMessage(String msg) {}
+        });
+        sim.initBoard();
+
+        Random rand = new Random(1);
+        float paddleOffset = 0.0f;
+        double nextDrainSec = 0.0;
+        double nowSec = 0.0;
+        final double blockSec = BLOCK_FRAMES / (double) SAMPLE_RATE;
+
+        for (int frame = 0; frame < frames; frame++) {
+            sim.movePaddle(sim.getBallXPosition() + paddleOffset);
+            sim.advance(FRAME_DELTA_SEC);
+            nowSec += FRAME_DELTA_SEC;
+            if (mPaddleHit) {
+                paddleOffset = (rand.nextFloat() - 0.5f) *
+                        sim.getRectXScale(sim.getPaddleRect()) * 0.9f;
+                mPaddleHit = false;
+            }
+
+            while (nextDrainSec <= nowSec) {
+                for (int i = 0; i < mQueues.length; i++) {
+                    while (mQueues[i].poll() >= 0) {
+                        mDepth[i]--;
+                    }
+                }
+                nextDrainSec += blockSec;
+            }
+
+            int state = sim.getGamePlayState();
+            if (state == GameSimulation.GAME_WON || state == GameSimulation.GAME_LOST) {
+                sim.initBricks();
+                sim.reset();
+            }
+        }
+
+        System.out.println();
+        System.out.println(frames + " frames, " + extraBalls + " extra balls per launch, "
+                + mOffered + " sound events");
+        System.out.println("capacity  coalesced   dropped  max-depth");
+        for (int i = 0; i < mQueues.length; i++) {
+            System.out.printf("%8d %10d %9d %10d%n", CAPACITIES[i],
+                    mQueues[i].getCoalescedCount(), mQueues[i].getDroppedCount(),
+                    mMaxDepth[i]);
+        }
+    }
+}
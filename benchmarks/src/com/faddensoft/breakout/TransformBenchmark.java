@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.Random;
+
+/**
+ * Measures the CPU side of the per-object transform: computing an MVP matrix for every rect
+ * and sending all 16 floats, against sending x/y/xscale/yscale in one vec4 and letting the
+ * vertex shader do the rest (BaseRect.UNIFORM_TRANSFORM).
+ * <p>
+ * Runs on a plain JVM.  The matrix multiply is a straight port of
+ * android.opengl.Matrix.multiplyMM(), which on the device is a JNI call; that adds a fixed
+ * cost per call that we don't see here.  GL calls go to a RecordingGlCalls, so the numbers
+ * only cover our side of the API.
+ */
+public class TransformBenchmark {
+    private static final int NUM_RECTS = 10000;
+    private static final int ITERATIONS = 500;
+
+    // Values from GLES20.
+    private static final int GL_TRIANGLE_STRIP = 0x0005;
+
+    // Fake program and handles.
+    private static final int PROGRAM = 1;
+    private static final int POSITION_HANDLE = 0;
+    private static final int COLOR_HANDLE = 1;
+    private static final int MATRIX_HANDLE = 2;
+    private static final int POS_SCALE_HANDLE = 3;
+
+    private final float[][] mModelView = new float[NUM_RECTS][16];
+    private final float[] mColor = { 1.0f, 1.0f, 1.0f, 1.0f };
+    private final float[] mProjMatrix = new float[16];
+    private final float[] mTempMVP = new float[16];
+    private final RecordingGlCalls mGl = new RecordingGlCalls();
+
+    private float mSink;        // keeps the JIT from discarding work
+
+
+    public static void main(String[] args) {
+        new TransformBenchmark().run();
+    }
+
+    private TransformBenchmark() {
+        Random rand = new Random(1);
+        for (int i = 0; i < NUM_RECTS; i++) {
+            // Same layout BaseRect uses.
+            float[] mv = mModelView[i];
+            mv[0] = 10 + rand.nextFloat() * 50;
+            mv[5] = 10 + rand.nextFloat() * 50;
+            mv[10] = 1.0f;
+            mv[12] = rand.nextFloat() * GameSimulation.ARENA_WIDTH;
+            mv[13] = rand.nextFloat() * GameSimulation.ARENA_HEIGHT;
+            mv[15] = 1.0f;
+        }
+
+        // Ortho projection, as set up by GameSurfaceRenderer.
+        mProjMatrix[0] = 2.0f / GameSimulation.ARENA_WIDTH;
+        mProjMatrix[5] = 2.0f / GameSimulation.ARENA_HEIGHT;
+        mProjMatrix[10] = -1.0f;
+        mProjMatrix[12] = -1.0f;
+        mProjMatrix[13] = -1.0f;
+        mProjMatrix[15] = 1.0f;
+
+        // The recorder wants a program selected and an array enabled before drawing.
+        mGl.glUseProgram(PROGRAM);
+        mGl.glEnableVertexAttribArray(POSITION_HANDLE);
+    }
+
+    private void run() {
+        verify();
+
+        // Warm up.
+        for (int i = 0; i < ITERATIONS / 4; i++) {
+            mvpOnly();
+            posScaleOnly();
+            mvpPass();
+            posScalePass();
+        }
+
+        long mvpOnlyNsec = time(0);
+        long posScaleOnlyNsec = time(1);
+        mGl.reset();
+        long mvpNsec = time(2);
+        long mvpBytes = mGl.getByteCount();
+        mGl.reset();
+        long posScaleNsec = time(3);
+        long posScaleBytes = mGl.getByteCount();
+
+        double rects = (double) NUM_RECTS * ITERATIONS;
+        System.out.println(NUM_RECTS + " rects, " + ITERATIONS + " passes");
+        System.out.println("              xform-ns/rect  w/calls-ns/rect  bytes/rect");
+        System.out.printf("mvp matrix    %13.1f  %15.1f  %10.1f%n",
+                mvpOnlyNsec / rects, mvpNsec / rects, mvpBytes / rects);
+        System.out.printf("pos/scale     %13.1f  %15.1f  %10.1f%n",
+                posScaleOnlyNsec / rects, posScaleNsec / rects, posScaleBytes / rects);
+        if (mSink == 12345.0f) {
+            System.out.println("(unlikely)");
+        }
+    }
+
+    private long time(int which) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            switch (which) {
+                case 0: mvpOnly(); break;
+                case 1: posScaleOnly(); break;
+                case 2: mvpPass(); break;
+                case 3: posScalePass(); break;
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Computes the MVP matrix for every rect, without making any GL calls.
+     */
+    private void mvpOnly() {
+        float sum = 0;
+        for (int i = 0; i < NUM_RECTS; i++) {
+            multiplyMM(mTempMVP, mProjMatrix, mModelView[i]);
+            sum += mTempMVP[0] + mTempMVP[13];
+        }
+        mSink += sum;
+    }
+
+    /**
+     * Pulls out the position and scale for every rect, without making any GL calls.
+     */
+    private void posScaleOnly() {
+        float sum = 0;
+        for (int i = 0; i < NUM_RECTS; i++) {
+            float[] mv = mModelView[i];
+            sum += mv[12] + mv[13] + mv[0] + mv[5];
+        }
+        mSink += sum;
+    }
+
+    /**
+     * Draws every rect the way the per-object draw() methods do with UNIFORM_TRANSFORM off.
+     */
+    private void mvpPass() {
+        GlCalls gl = mGl;
+        for (int i = 0; i < NUM_RECTS; i++) {
+            multiplyMM(mTempMVP, mProjMatrix, mModelView[i]);
+            gl.glUniformMatrix4fv(MATRIX_HANDLE, 1, false, mTempMVP, 0);
+            gl.glUniform4fv(COLOR_HANDLE, 1, mColor, 0);
+            gl.glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+        }
+    }
+
+    /**
+     * Draws every rect the way the per-object draw() methods do with UNIFORM_TRANSFORM on.
+     * The projection matrix would be sent once, in prepareToDraw().
+     */
+    private void posScalePass() {
+        GlCalls gl = mGl;
+        for (int i = 0; i < NUM_RECTS; i++) {
+            float[] mv = mModelView[i];
+            gl.glUniform4f(POS_SCALE_HANDLE, mv[12], mv[13], mv[0], mv[5]);
+            gl.glUniform4fv(COLOR_HANDLE, 1, mColor, 0);
+            gl.glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+        }
+    }
+
+    /**
+     * Checks that the shader's arithmetic (pos = corner * scale + position, then projection)
+     * puts the corners where the MVP matrix does.
+     */
+    private void verify() {
+        for (int i = 0; i < NUM_RECTS; i++) {
+            float[] mv = mModelView[i];
+            multiplyMM(mTempMVP, mProjMatrix, mv);
+            for (int v = 0; v < 4; v++) {
+                float cx = (v & 1) == 0 ? -0.5f : 0.5f;
+                float cy = (v & 2) == 0 ? -0.5f : 0.5f;
+
+                float mvpX = mTempMVP[0] * cx + mTempMVP[4] * cy + mTempMVP[12];
+                float mvpY = mTempMVP[1] * cx + mTempMVP[5] * cy + mTempMVP[13];
+
+                float px = cx * mv[0] + mv[12];
+                float py = cy * mv[5] + mv[13];
+                float shaderX = mProjMatrix[0] * px + mProjMatrix[4] * py + mProjMatrix[12];
+                float shaderY = mProjMatrix[1] * px + mProjMatrix[5] * py + mProjMatrix[13];
+
+                if (Math.abs(mvpX - shaderX) > 1e-5f || Math.abs(mvpY - shaderY) > 1e-5f) {
+                    throw new RuntimeException("rect " + i + " corner " + v + " mismatch: "
+                            + mvpX + "," + mvpY + " vs. " + shaderX + "," + shaderY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Column-major 4x4 matrix multiply, like android.opengl.Matrix.multiplyMM().
+     */
+    private static void multiplyMM(float[] result, float[] lhs, float[] rhs) {
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += lhs[k * 4 + j] * rhs[i * 4 + k];
+                }
+                result[i * 4 + j] = sum;
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.Random;
+
+/**
+ * Plays the game headless with extra balls and runs its sounds through an AudioMixer, to
+ * see what happens to the voices under bursty load.
+ * <p>
+ * "unsorted" is the way sounds were handled before: every hit calls play() as it happens,
+ * and all sounds are equal, so when the voices are full the one that has played longest
+ * is cut off.  "priority" is the way GameState and SoundResources do it now: the sounds of
+ * a frame are collected and played once each at the end of the frame, and the mixer's
+ * VoiceAllocator uses the per-sound priorities.
+ * <p>
+ * The mixer isn't run on its own thread; we call mix() directly every 256 samples of game
+ * time, which is what the audio thread would be doing.  For each mode we report play()
+ * calls, requests coalesced by the queue and the allocator, sounds started, stolen and
+ * refused, how many "ball lost" sounds were cut short by some other sound, and mixing time
+ * per block.  The
+ * "priority" mode is run twice, and the mixed output must be identical both times.
+ * <p>
+ * Usage: VoiceBenchmark [frames [extraBalls]]
+ */
+public class VoiceBenchmark {
+    private static final double FRAME_DELTA_SEC = 1.0 / 60.0;
+
+    // Same as SoundResources.
+    private static final int SAMPLE_RATE = 22050;
+    private static final int MAX_VOICES = 4;
+    private static final int BLOCK_FRAMES = 256;
+    private static final int QUEUE_SIZE = 8;
+    private static final float VOLUME = 0.5f;
+    private static final int[] SOUND_LENGTH_MSEC = { 50, 50, 50, 500 };
+    private static final int[] SOUND_FREQ_HZ = { 900, 700, 300, 280 };
+    private static final int[] SOUND_PRIORITY = { 1, 2, 0, 3 };
+
+    private final boolean mPriority;
+    private final AudioMixer mMixer;
+    private final short[] mOut = new short[BLOCK_FRAMES];
+    private final int[] mPrevSound = new int[MAX_VOICES];
+    private final int[] mPrevPos = new int[MAX_VOICES];
+    private final short[][] mTones;
+
+    private int mFrameSounds;
+    private int mPlayCalls;
+    private int mBallLostCut;
+    private long mChecksum;
+    private long mMixNsec;
+    private int mBlocks;
+    private boolean mPaddleHit;
+
+
+    public static void main(String[] args) {
+        int frames = 1000000;
+        int extraBalls = 200;
+        if (args.length > 0) {
+            frames = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            extraBalls = Integer.parseInt(args[1]);
+        }
+
+        short[][] tones = AudioMixer.generateTones(null, SAMPLE_RATE, SOUND_LENGTH_MSEC,
+                SOUND_FREQ_HZ, VOLUME);
+        System.out.println(frames + " frames, " + extraBalls + " extra balls per launch");
+        System.out.println("mode       play()  q-coalesced  a-coalesced  started   stolen"
+                + "  refused  lost-cut  ns/block  checksum");
+        new VoiceBenchmark(false, tones).run(frames, extraBalls);
+        long first = new VoiceBenchmark(true, tones).run(frames, extraBalls);
+        long second = new VoiceBenchmark(true, tones).run(frames, extraBalls);
+        if (first != second) {
+            throw new RuntimeException("priority runs differ");
+        }
+    }
+
+    private VoiceBenchmark(boolean priority, short[][] tones) {
+        mPriority = priority;
+        mTones = tones;
+        if (priority) {
+            mMixer = new AudioMixer(SOUND_PRIORITY, MAX_VOICES, BLOCK_FRAMES, QUEUE_SIZE);
+        } else {
+            mMixer = new AudioMixer(tones.length, MAX_VOICES, BLOCK_FRAMES, QUEUE_SIZE);
+        }
+        for (int i = 0; i < tones.length; i++) {
+            mMixer.setSound(i, tones[i]);
+        }
+        for (int v = 0; v < MAX_VOICES; v++) {
+            mPrevSound[v] = -1;
+        }
+    }
+
+    private long run(int frames, int extraBalls) {
+        GameSimulation sim = new GameSimulation(GameSimulation.BRICK_COLUMNS,
+                GameSimulation.BRICK_ROWS);
+        sim.setExtraBalls(extraBalls);
+        sim.setListener(new GameSimulation.Listener() {
+            @Override
+            public void onSound(int sound) {
+                if (sound == GameSimulation.SOUND_PADDLE_HIT) {
+                    mPaddleHit = true;
+                }
+                if (mPriority) {
+                    mFrameSounds |= 1 << sound;
+                } else {
+                    play(sound);
+                }
+            }
+
+            @Override
+            public void onBrickDestroyed(int brick) {}
+
+            @Override
+            public void onLogMessage(String msg) {}
+        });
+        sim.initBoard();
+
+        Random rand = new Random(1);
+        float paddleOffset = 0.0f;
+        double nextBlockSec = 0.0;
+        double nowSec = 0.0;
+        final double blockSec = BLOCK_FRAMES / (double) SAMPLE_RATE;
+
+        for (int frame = 0; frame < frames; frame++) {
+            sim.movePaddle(sim.getBallXPosition() + paddleOffset);
+            sim.advance(FRAME_DELTA_SEC);
+            nowSec += FRAME_DELTA_SEC;
+            if (mPriority) {
+                int sounds = mFrameSounds;
+                mFrameSounds = 0;
+                for (int sound = 0; sounds != 0; sound++, sounds >>>= 1) {
+                    if ((sounds & 1) != 0) {
+                        play(sound);
+                    }
+                }
+            }
+            if (mPaddleHit) {
+                paddleOffset = (rand.nextFloat() - 0.5f) *
+                        sim.getRectXScale(sim.getPaddleRect()) * 0.9f;
+                mPaddleHit = false;
+            }
+
+            while (nextBlockSec <= nowSec) {
+                mixBlock();
+                nextBlockSec += blockSec;
+            }
+
+            int state = sim.getGamePlayState();
+            if (state == GameSimulation.GAME_WON || state == GameSimulation.GAME_LOST) {
+                sim.initBricks();
+                sim.reset();
+            }
+        }
+
+        VoiceAllocator voices = mMixer.getVoiceAllocator();
+        SoundEventQueue queue = mMixer.getQueue();
+        System.out.printf("%-8s %8d %12d %12d %8d %8d %8d %9d %9.0f  %016x%n",
+                mPriority ? "priority" : "unsorted", mPlayCalls, queue.getCoalescedCount(),
+                voices.getCoalescedCount(), voices.getStartedCount(), voices.getStolenCount(),
+                voices.getRefusedCount(), mBallLostCut, mMixNsec / (double) mBlocks,
+                mChecksum);
+        return mChecksum;
+    }
+
+    private void play(int sound) {
+        mPlayCalls++;
+        mMixer.play(sound);
+    }
+
+    /**
+     * Mixes one block, checks whether a "ball lost" sound was cut off by a different sound,
+     * and adds the output to the checksum.
+     */
+    private void mixBlock() {
+        long startNsec = System.nanoTime();
+        mMixer.mix(mOut, 0, BLOCK_FRAMES);
+        mMixNsec += System.nanoTime() - startNsec;
+        mBlocks++;
+
+        VoiceAllocator voices = mMixer.getVoiceAllocator();
+        int lostLength = mTones[GameSimulation.SOUND_BALL_LOST].length;
+        for (int v = 0; v < MAX_VOICES; v++) {
+            int sound = voices.getSound(v);
+            int pos = voices.getPosition(v);
+            if (mPrevSound[v] == GameSimulation.SOUND_BALL_LOST
+                    && mPrevPos[v] + BLOCK_FRAMES < lostLength
+                    && sound != GameSimulation.SOUND_BALL_LOST) {
+                mBallLostCut++;
+            }
+            mPrevSound[v] = sound;
+            mPrevPos[v] = pos;
+        }
+
+        long sum = mChecksum;
+        for (int i = 0; i < BLOCK_FRAMES; i++) {
+            sum = sum * 31 + mOut[i];
+        }
+        mChecksum = sum;
+    }
+}
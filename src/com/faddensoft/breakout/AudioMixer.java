@@ -0,0 +1,346 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mixes short sound effects held in memory into a stream of 16-bit mono PCM.
+ * <p>
+ * Sounds are registered up front with setSound().  play() just puts the request on a
+ * SoundEventQueue, without locking or allocating, so it's safe to call in the middle of a
+ * physics step; it must only be called from one thread.  A dedicated audio thread, started
+ * with start(), picks up the requests at the top of each block, lets a VoiceAllocator decide
+ * which of them get voices, adds every active voice into the block, and hands the result
+ * to a Sink.  On the device the Sink is an AudioTrack in streaming mode (see
+ * AudioTrackSink); elsewhere it can be anything that takes samples, e.g. something that
+ * just captures them.
+ * <p>
+ * The latency from play() to sound is at most one block plus whatever the Sink has queued.
+ * The blocks are small, and when nothing is playing the audio thread goes to sleep instead
+ * of feeding silence to the Sink, so the Sink's queue has drained by the time the next sound
+ * comes along and the new block goes out right away.
+ * <p>
+ * The Sink is the only thing that touches AudioTrack, so with a Sink that just keeps the
+ * samples, the mixer runs on a plain JVM; AudioMixerBenchmark and VoiceBenchmark use it
+ * that way.
+ */
+public class AudioMixer {
+    /**
+     * Destination for mixed samples.
+     */
+    public interface Sink {
+        /**
+         * Writes "count" samples from "buf", starting at "offset".  Expected to block until
+         * the samples have been accepted, which is what paces the audio thread.
+         */
+        void write(short[] buf, int offset, int count);
+    }
+
+    private final int mBlockFrames;
+    private final short[][] mSounds;
+
+    // Voices.  Only touched by the thread that calls mix().
+    private final VoiceAllocator mVoices;
+
+    // Mixing accumulator and output block.
+    private final int[] mAccum;
+    private final short[] mOutBuf;
+
+    // play() requests that mix() hasn't picked up yet.
+    private final SoundEventQueue mQueue;
+
+    // Set by the audio thread while it's parked waiting for something to play; play()
+    // only has to wake it if this is set.
+    private volatile boolean mSleeping;
+    private volatile boolean mStopRequested;
+
+    private volatile Thread mThread;
+
+
+    /**
+     * Creates a mixer.
+     *
+     * @param numSounds Number of sound slots.
+     * @param maxVoices Maximum number of sounds that can play at once.
+     * @param blockFrames Number of samples mixed and written at a time.
+     * @param queueCapacity Number of play() requests that can wait for the next block.  Must
+     *        be a power of two.
+     */
+    public AudioMixer(int numSounds, int maxVoices, int blockFrames, int queueCapacity) {
+        this(new int[numSounds], maxVoices, blockFrames, queueCapacity);
+    }
+
+    /**
+     * Creates a mixer with sound priorities.  When every voice is busy, a new sound can take
+     * over a voice playing a sound of the same or lower priority (see VoiceAllocator).
+     *
+     * @param priority Priority of each sound slot; higher is more important.
+     * @param maxVoices Maximum number of sounds that can play at once.
+     * @param blockFrames Number of samples mixed and written at a time.
+     * @param queueCapacity Number of play() requests that can wait for the next block.  Must
+     *        be a power of two.
+     */
+    public AudioMixer(int[] priority, int maxVoices, int blockFrames, int queueCapacity) {
+        int numSounds = priority.length;
+        if (numSounds <= 0 || maxVoices <= 0 || blockFrames <= 0) {
+            throw new RuntimeException("bad mixer config " + numSounds + "/" + maxVoices + "/"
+                    + blockFrames);
+        }
+        mBlockFrames = blockFrames;
+        mSounds = new short[numSounds][];
+        mVoices = new VoiceAllocator(maxVoices, priority);
+        mAccum = new int[blockFrames];
+        mOutBuf = new short[blockFrames];
+        mQueue = new SoundEventQueue(queueCapacity, numSounds);
+    }
+
+    /**
+     * Sets the samples for a sound slot.  Must be called before start(); the array is not
+     * copied and must not be changed afterward.
+     */
+    public void setSound(int soundNum, short[] samples) {
+        if (mThread != null) {
+            throw new RuntimeException("mixer already running");
+        }
+        mSounds[soundNum] = samples;
+    }
+
+    /**
+     * Returns the number of samples in each block.
+     */
+    public int getBlockFrames() {
+        return mBlockFrames;
+    }
+
+    /**
+     * Returns the voice allocator, for its statistics.  Only meaningful on the thread that
+     * calls mix().
+     */
+    public VoiceAllocator getVoiceAllocator() {
+        return mVoices;
+    }
+
+    /**
+     * Returns the request queue, for its statistics.
+     */
+    public SoundEventQueue getQueue() {
+        return mQueue;
+    }
+
+    /**
+     * Starts playing a sound.  Must always be called from the same thread.
+     */
+    public void play(int soundNum) {
+        mQueue.offer(soundNum);
+
+        // mQueue.offer() did a volatile write, and the audio thread sets mSleeping before
+        // it checks the queue one last time, so one of us is sure to see the other.
+        if (mSleeping) {
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    /**
+     * Starts the audio thread, which mixes blocks and writes them to "sink" until stop()
+     * is called.
+     */
+    public void start(final Sink sink) {
+        if (mThread != null) {
+            throw new RuntimeException("mixer already running");
+        }
+        mThread = new Thread("AudioMixer") {
+            @Override
+            public void run() {
+                runLoop(sink);
+            }
+        };
+        mThread.setDaemon(true);
+        mThread.setPriority(Thread.MAX_PRIORITY);
+        mThread.start();
+    }
+
+    /**
+     * Stops the audio thread and waits for it to finish writing its current block.
+     */
+    public void stop() {
+        Thread thread = mThread;
+        if (thread == null) {
+            return;
+        }
+        mStopRequested = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+        mStopRequested = false;
+    }
+
+    /**
+     * Audio thread main loop.
+     */
+    private void runLoop(Sink sink) {
+        while (!mStopRequested) {
+            if (mVoices.getActiveCount() == 0 && mQueue.isEmpty()) {
+                // Nothing to play, so let the sink run dry and wait for something to do.
+                // park() can return for no reason, so we just go around again.
+                mSleeping = true;
+                if (mQueue.isEmpty() && !mStopRequested) {
+                    LockSupport.park(this);
+                }
+                mSleeping = false;
+                continue;
+            }
+
+            mix(mOutBuf, 0, mBlockFrames);
+            sink.write(mOutBuf, 0, mBlockFrames);
+        }
+    }
+
+    /**
+     * Starts voices for any pending play() requests, then mixes "count" samples of the
+     * active voices into "out", advancing them.  Samples past the end of every voice are
+     * zero.  Called by the audio thread; may be called directly if start() isn't used.
+     */
+    public void mix(short[] out, int offset, int count) {
+        VoiceAllocator voices = mVoices;
+        int request;
+        while ((request = mQueue.poll()) >= 0) {
+            short[] samples = mSounds[request];
+            if (samples != null && samples.length != 0) {
+                voices.request(request);
+            }
+        }
+        voices.startPending();
+
+        int[] accum = mAccum;
+        while (count > 0) {
+            int chunk = Math.min(count, accum.length);
+            for (int i = 0; i < chunk; i++) {
+                accum[i] = 0;
+            }
+
+            for (int v = 0; v < voices.getVoiceCount(); v++) {
+                int soundNum = voices.getSound(v);
+                if (soundNum < 0) {
+                    continue;
+                }
+                short[] samples = mSounds[soundNum];
+                int pos = voices.getPosition(v);
+                int n = Math.min(chunk, samples.length - pos);
+                for (int i = 0; i < n; i++) {
+                    accum[i] += samples[pos + i];
+                }
+                pos += n;
+                if (pos == samples.length) {
+                    voices.release(v);
+                } else {
+                    voices.setPosition(v, pos);
+                }
+            }
+
+            // Clip to 16 bits.
+            for (int i = 0; i < chunk; i++) {
+                int sample = accum[i];
+                if (sample > Short.MAX_VALUE) {
+                    sample = Short.MAX_VALUE;
+                } else if (sample < Short.MIN_VALUE) {
+                    sample = Short.MIN_VALUE;
+                }
+                out[offset + i] = (short) sample;
+            }
+            offset += chunk;
+            count -= chunk;
+        }
+    }
+
+    /**
+     * Returns the number of voices currently playing.  Only meaningful on the thread that
+     * calls mix().
+     */
+    public int getActiveVoiceCount() {
+        return mVoices.getActiveCount();
+    }
+
+    /**
+     * Generates a sine wave tone.
+     *
+     * @param sampleRate Output sample rate, in Hz.
+     * @param lengthMsec Length of the tone.
+     * @param freqHz Frequency of the tone.
+     * @param volume Peak amplitude, 0.0 - 1.0.
+     */
+    public static short[] generateTone(int sampleRate, int lengthMsec, int freqHz,
+            float volume) {
+        // Number of samples.  Not worried about int overflow for our short sounds.
+        int sampleCount = lengthMsec * sampleRate / 1000;
+        final double peak = 32767.0 * volume;
+        final double freq = freqHz;
+
+        short[] samples = new short[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            double timeSec = i / (double) sampleRate;
+            samples[i] = (short) (peak * Math.sin(2 * Math.PI * freq * timeSec));
+        }
+        return samples;
+    }
+
+    /**
+     * Generates a set of sine wave tones, one per entry in "lengthMsec" and "freqHz", in
+     * parallel on "pool".  If "pool" is null they're generated on the current thread.
+     */
+    public static short[][] generateTones(ExecutorService pool, final int sampleRate,
+            final int[] lengthMsec, final int[] freqHz, final float volume) {
+        short[][] tones = new short[lengthMsec.length][];
+        if (pool == null) {
+            for (int i = 0; i < tones.length; i++) {
+                tones[i] = generateTone(sampleRate, lengthMsec[i], freqHz[i], volume);
+            }
+            return tones;
+        }
+
+        List<Future<short[]>> futures = new ArrayList<Future<short[]>>(tones.length);
+        for (int i = 0; i < tones.length; i++) {
+            final int index = i;
+            futures.add(pool.submit(new Callable<short[]>() {
+                @Override
+                public short[] call() {
+                    return generateTone(sampleRate, lengthMsec[index], freqHz[index], volume);
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < tones.length; i++) {
+                tones[i] = futures.get(i).get();
+            }
+        } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            throw new RuntimeException(ee.getCause());
+        }
+        return tones;
+    }
+}
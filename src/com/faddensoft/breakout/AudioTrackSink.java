@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.util.Log;
+
+/**
+ * AudioMixer.Sink that streams 16-bit mono PCM to an AudioTrack.
+ */
+public class AudioTrackSink implements AudioMixer.Sink {
+    private static final String TAG = BreakoutActivity.TAG;
+
+    private final AudioTrack mTrack;
+
+
+    /**
+     * Creates a streaming AudioTrack and starts it playing.
+     * <p>
+     * The track's buffer is the smallest the device allows, but at least two blocks, so
+     * the mixer can be filling one while the other plays.  Anything bigger just adds latency.
+     */
+    public AudioTrackSink(int sampleRate, int blockFrames) {
+        int minBytes = AudioTrack.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_OUT_MONO,
+                AudioFormat.ENCODING_PCM_16BIT);
+        if (minBytes <= 0) {
+            throw new RuntimeException("getMinBufferSize failed: " + minBytes);
+        }
+        int bufferBytes = Math.max(minBytes, blockFrames * 2 * 2);
+        Log.d(TAG, "AudioTrackSink: rate=" + sampleRate + " min=" + minBytes + " buf="
+                + bufferBytes);
+
+        mTrack = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate,
+                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT, bufferBytes,
+                AudioTrack.MODE_STREAM);
+        if (mTrack.getState() != AudioTrack.STATE_INITIALIZED) {
+            mTrack.release();
+            throw new RuntimeException("AudioTrack init failed");
+        }
+        mTrack.play();
+    }
+
+    @Override
+    public void write(short[] buf, int offset, int count) {
+        while (count > 0) {
+            int written = mTrack.write(buf, offset, count);
+            if (written <= 0) {
+                Log.w(TAG, "AudioTrack write failed: " + written);
+                return;
+            }
+            offset += written;
+            count -= written;
+        }
+    }
+
+    /**
+     * Stops playback and releases the AudioTrack.
+     */
+    public void release() {
+        mTrack.stop();
+        mTrack.release();
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Pixel data for a ball texture, with a full set of mipmap levels.
+ * <p>
+ * Pure Java (no Android or GL dependencies), so it can be built on any thread.
+ * BallTextureCache does that on a background thread and hands the result to GL.
+ */
+public class BallImage {
+    /*
+     * Texture styles.  The test pattern is for checking orientation and blending; see
+     * generateTestPattern().
+     */
+    public static final int STYLE_CIRCLE = 0;
+    public static final int STYLE_TEST = 1;
+    private static final String[] STYLE_NAMES = { "circle", "test" };
+
+    public static final int BYTES_PER_PIXEL = 4;    // 8bpp RGBA
+
+    // Cache file header.  Bump the version if the generated pixels change.
+    private static final int FILE_MAGIC = 0x42616c6c;  // 'Ball'
+    private static final int FILE_VERSION = 1;
+
+    private final int mStyle;
+    private final int mSize;
+
+    // Premultiplied RGBA.  Level 0 is mSize x mSize, each level after that is half the size
+    // of the one before, down to 1x1.
+    private final byte[][] mLevels;
+
+
+    private BallImage(int style, int size, byte[][] levels) {
+        mStyle = style;
+        mSize = size;
+        mLevels = levels;
+    }
+
+    /**
+     * Generates the image and its mipmaps.
+     *
+     * @param style STYLE_CIRCLE or STYLE_TEST.
+     * @param size Width and height, in pixels.  Must be a power of 2.
+     */
+    public static BallImage generate(int style, int size) {
+        checkArgs(style, size);
+
+        byte[] base;
+        if (style == STYLE_CIRCLE) {
+            base = generateCircle(size);
+        } else {
+            base = generateTestPattern(size);
+        }
+
+        byte[][] levels = new byte[numLevels(size)][];
+        levels[0] = base;
+        int levelSize = size;
+        for (int i = 1; i < levels.length; i++) {
+            levels[i] = downsample(levels[i - 1], levelSize);
+            levelSize /= 2;
+        }
+        return new BallImage(style, size, levels);
+    }
+
+    /**
+     * Returns the name of the file this image is cached in.  The style and size are part of
+     * the name, so they can't get mixed up.
+     */
+    public static String getFileName(int style, int size) {
+        checkArgs(style, size);
+        return "ball_" + STYLE_NAMES[style] + "_" + size + ".tex";
+    }
+
+    /**
+     * Returns the style, STYLE_CIRCLE or STYLE_TEST.
+     */
+    public int getStyle() {
+        return mStyle;
+    }
+
+    /**
+     * Returns the width (and height) of the full-size image.
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Returns the number of mipmap levels.
+     */
+    public int getLevelCount() {
+        return mLevels.length;
+    }
+
+    /**
+     * Returns the width (and height) of the specified mipmap level.
+     */
+    public int getLevelSize(int level) {
+        return mSize >> level;
+    }
+
+    /**
+     * Returns the pixels for the specified mipmap level.  Don't modify the array.
+     */
+    public byte[] getLevelData(int level) {
+        return mLevels[level];
+    }
+
+    /**
+     * Writes the image to a file.  The data goes to a temporary file that is renamed into
+     * place when complete, so a crash part-way through won't leave a bad file behind.
+     */
+    public void writeTo(File file) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            dos.writeInt(FILE_MAGIC);
+            dos.writeInt(FILE_VERSION);
+            dos.writeInt(mStyle);
+            dos.writeInt(mSize);
+            dos.writeInt(mLevels.length);
+            for (int i = 0; i < mLevels.length; i++) {
+                dos.write(mLevels[i]);
+            }
+        } finally {
+            dos.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("unable to rename " + tmpFile + " to " + file);
+        }
+    }
+
+    /**
+     * Reads an image written by writeTo().
+     *
+     * @return The image, or null if the file doesn't exist or doesn't hold the expected
+     *     style and size.
+     */
+    public static BallImage readFrom(File file, int style, int size) throws IOException {
+        checkArgs(style, size);
+        if (!file.exists()) {
+            return null;
+        }
+
+        int numLevels = numLevels(size);
+        int expectedLength = 5 * 4;
+        for (int i = 0; i < numLevels; i++) {
+            int levelSize = size >> i;
+            expectedLength += levelSize * levelSize * BYTES_PER_PIXEL;
+        }
+        if (file.length() != expectedLength) {
+            return null;
+        }
+
+        DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (dis.readInt() != FILE_MAGIC || dis.readInt() != FILE_VERSION ||
+                    dis.readInt() != style || dis.readInt() != size ||
+                    dis.readInt() != numLevels) {
+                return null;
+            }
+            byte[][] levels = new byte[numLevels][];
+            for (int i = 0; i < numLevels; i++) {
+                int levelSize = size >> i;
+                levels[i] = new byte[levelSize * levelSize * BYTES_PER_PIXEL];
+                dis.readFully(levels[i]);
+            }
+            return new BallImage(style, size, levels);
+        } finally {
+            dis.close();
+        }
+    }
+
+    private static void checkArgs(int style, int size) {
+        if (style < 0 || style >= STYLE_NAMES.length) {
+            throw new RuntimeException("bad ball style " + style);
+        }
+        if (size <= 0 || (size & (size - 1)) != 0) {
+            throw new RuntimeException("ball texture size must be a power of 2 (" + size + ")");
+        }
+        if (style == STYLE_TEST && size < 4) {
+            throw new RuntimeException("test pattern must be at least 4x4");
+        }
+    }
+
+    /**
+     * Returns the number of mipmap levels for a square power-of-2 texture.
+     */
+    private static int numLevels(int size) {
+        int count = 1;
+        while (size > 1) {
+            size /= 2;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Generates the next mipmap level by averaging each 2x2 block of pixels.  The data is
+     * premultiplied, so we can average all four channels directly.
+     */
+    private static byte[] downsample(byte[] src, int srcSize) {
+        int dstSize = srcSize / 2;
+        byte[] dst = new byte[dstSize * dstSize * BYTES_PER_PIXEL];
+        int srcStride = srcSize * BYTES_PER_PIXEL;
+
+        for (int y = 0; y < dstSize; y++) {
+            for (int x = 0; x < dstSize; x++) {
+                int srcOffset = (y * 2) * srcStride + (x * 2) * BYTES_PER_PIXEL;
+                int dstOffset = (y * dstSize + x) * BYTES_PER_PIXEL;
+                for (int c = 0; c < BYTES_PER_PIXEL; c++) {
+                    int sum = (src[srcOffset + c] & 0xff) +
+                            (src[srcOffset + BYTES_PER_PIXEL + c] & 0xff) +
+                            (src[srcOffset + srcStride + c] & 0xff) +
+                            (src[srcOffset + srcStride + BYTES_PER_PIXEL + c] & 0xff);
+                    dst[dstOffset + c] = (byte) ((sum + 2) / 4);
+                }
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Generates the ball texture.  This is a simple filled circle in a solid color, with
+     * a transparent black background.
+     *
+     * @return Pre-multiplied RGBA data.
+     */
+    private static byte[] generateCircle(int size) {
+        /*
+         * Most images used in games are generated with external tools and then loaded from
+         * image files.  This is an example of generating texture data directly.
+         *
+         * We use GL_RGBA, which has four 8-bit normalized unsigned integer components (which
+         * is a fancy way to say, "the usual format for 32-bit color pixels").  We could
+         * get away with creating this as an alpha map and then use a shader to apply color,
+         * but that's not necessary and requires the shader work.
+         */
+        byte[] buf = new byte[size * size * BYTES_PER_PIXEL];
+
+        /*
+         * We're drawing a filled circle with a radius of 31, which gives us a circle
+         * that fills a 63x63 area.  We're using a 64x64 texture, so have a choice to make:
+         *  (1) Assume the hardware can handle non-power-of-2 texture sizes.  This doesn't
+         *      always hold, so we don't want to do this.
+         *  (2) Leave the 64th row and column set to transparent black, and hope nobody notices
+         *      when things don't quite collide.  This is reasonably safe, given the size of
+         *      the ball and the speed of motion.
+         *  (3) "Stretch" the circle slightly when generating the data, doubling-up the center
+         *      row and column, to fill the circle to 64x64.  Should look fine.
+         *  (4) Adjust the texture coordinates so that the edges are at 0.984375 (63/64) instead
+         *      of 1.0.  This is generally the correct approach, but requires that we manually
+         *      specify the texture dimensions instead of just saying, "use this whole image".
+         *
+         * Going with #4.  Note the radius of 31 is arbitrary and has no bearing on how large
+         * the ball is on screen (this is a texture applied to a pair of triangles, not a bitmap
+         * of screen-sized pixels).  We want it to be small enough that it doesn't use up a
+         * ton of memory, but bug enough that, if the ball is drawn very large, the circle
+         * edges don't look chunky when we scale it up.
+         */
+        int left[] = new int[size-1];
+        int right[] = new int[size-1];
+        computeCircleEdges(size/2 - 1, left, right);
+
+        // Render the edge list as a filled circle.
+        for (int y = 0; y < left.length; y++) {
+            int xleft = left[y];
+            int xright = right[y];
+
+            for (int x = xleft ; x <= xright; x++) {
+                int offset = (y * size + x) * BYTES_PER_PIXEL;
+                buf[offset]   = (byte) 0xff;    // red
+                buf[offset+1] = (byte) 0xff;    // green
+                buf[offset+2] = (byte) 0xff;    // blue
+                buf[offset+3] = (byte) 0xff;    // alpha
+            }
+        }
+
+        return buf;
+    }
+
+    /**
+     * Computes the left and right edges of a rasterized circle, using Bresenham's algorithm.
+     *
+     * @param rad Radius.
+     * @param left Left edge index, range [0, rad].  Array must hold (rad*2+1) elements.
+     * @param right Right edge index, range [rad, rad*2 + 1].
+     */
+    private static void computeCircleEdges(int rad, int[] left, int[] right) {
+        /* (also available in 6502 assembly) */
+        int x, y, d;
+
+        d = 1 - rad;
+        x = 0;
+        y = rad;
+
+        // Walk through one quadrant, setting the other three as reflections.
+        while (x <= y) {
+            setCircleValues(rad, x, y, left, right);
+
+            if (d < 0) {
+                d = d + (x << 2) + 3;
+            } else {
+                d = d + ((x - y) << 2) + 5;
+                y--;
+            }
+            x++;
+        }
+    }
+
+    /**
+     * Sets the edge values for four quadrants based on values from the first quadrant.
+     */
+    private static void setCircleValues(int rad, int x, int y, int[] left, int[] right) {
+        left[rad+y] = left[rad-y] = rad - x;
+        left[rad+x] = left[rad-x] = rad - y;
+        right[rad+y] = right[rad-y] = rad + x;
+        right[rad+x] = right[rad-x] = rad + y;
+    }
+
+
+    // Colors for the test texture, in little-endian RGBA.
+    public static final int BLACK = 0x00000000;
+    public static final int RED = 0x000000ff;
+    public static final int GREEN = 0x0000ff00;
+    public static final int BLUE = 0x00ff0000;
+    public static final int MAGENTA = RED | BLUE;
+    public static final int YELLOW = RED | GREEN;
+    public static final int CYAN = GREEN | BLUE;
+    public static final int WHITE = RED | GREEN | BLUE;
+    public static final int OPAQUE = (int) 0xff000000L;
+    public static final int HALF = (int) 0x80000000L;
+    public static final int LOW = (int) 0x40000000L;
+    public static final int TRANSP = 0;
+
+    public static final int GRID[] = new int[] {    // must be 16 elements
+        OPAQUE|RED,     OPAQUE|YELLOW,  OPAQUE|GREEN,   OPAQUE|MAGENTA,
+        OPAQUE|WHITE,   LOW|RED,        LOW|GREEN,      OPAQUE|YELLOW,
+        OPAQUE|MAGENTA, TRANSP|GREEN,   HALF|RED,       OPAQUE|BLACK,
+        OPAQUE|CYAN,    OPAQUE|MAGENTA, OPAQUE|CYAN,    OPAQUE|BLUE,
+    };
+
+    /**
+     * Generates a test texture.  We want to create a 4x4 block pattern with obvious color
+     * values in the corners, so that we can confirm orientation and coverage.  We also
+     * leave a couple of alpha holes to check that channel.
+     *
+     * Like most image formats, the pixel data begins with the top-left corner, which is
+     * upside-down relative to OpenGL conventions.  The texture coordinates should be flipped
+     * vertically.  Using an asymmetric patterns lets us check that we're doing that right.
+     *
+     * Colors use pre-multiplied alpha (so set glBlendFunc appropriately).
+     *
+     * @return The 8888 RGBA data.
+     */
+    private static byte[] generateTestPattern(int size) {
+        byte[] buf = new byte[size * size * BYTES_PER_PIXEL];
+        final int scale = size / 4;        // convert 64x64 --> 4x4
+
+        for (int i = 0; i < buf.length; i += BYTES_PER_PIXEL) {
+            int texRow = (i / BYTES_PER_PIXEL) / size;
+            int texCol = (i / BYTES_PER_PIXEL) % size;
+
+            int gridRow = texRow / scale;  // 0-3
+            int gridCol = texCol / scale;  // 0-3
+            int gridIndex = (gridRow * 4) + gridCol;  // 0-15
+
+            int color = GRID[gridIndex];
+
+            // override the pixels in two corners to check coverage
+            if (i == 0) {
+                color = OPAQUE | WHITE;
+            } else if (i == buf.length - BYTES_PER_PIXEL) {
+                color = OPAQUE | WHITE;
+            }
+
+            // extract RGBA; use "int" instead of "byte" to get unsigned values
+            int red = color & 0xff;
+            int green = (color >> 8) & 0xff;
+            int blue = (color >> 16) & 0xff;
+            int alpha = (color >> 24) & 0xff;
+
+            // pre-multiply colors and store in buffer
+            float alphaM = alpha / 255.0f;
+            buf[i] = (byte) (red * alphaM);
+            buf[i+1] = (byte) (green * alphaM);
+            buf[i+2] = (byte) (blue * alphaM);
+            buf[i+3] = (byte) alpha;
+        }
+
+        return buf;
+    }
+}
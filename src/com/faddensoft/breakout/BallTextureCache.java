@@ -0,0 +1,209 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Ball textures, shared by every Ball with the same size and style.
+ * <p>
+ * The pixels (see BallImage) are produced on a background thread, which reads them from a
+ * file in the app's private directory if a previous run left one there, and otherwise
+ * generates them and writes the file for next time.  initialize() starts that going for the
+ * standard ball when the activity is created, so by the time the GL surface exists the
+ * pixels are usually ready and the render thread only has to upload them.
+ * <p>
+ * The pixels stay in memory for the life of the process.  The GL textures go away with the
+ * EGL context, so the renderer calls discardTextures() from onSurfaceCreated(), and the next
+ * getTexture() uploads the pixels again.
+ */
+public class BallTextureCache {
+    private static final String TAG = BreakoutActivity.TAG;
+
+    // Where cached images live.  Null if initialize() hasn't been called, in which case we
+    // generate the images but don't save them.
+    private static File sCacheDir;
+
+    // Background thread that loads or generates images.
+    private static ExecutorService sExecutor;
+
+    // Images, loaded or pending, keyed by file name.  Guarded by the class lock.
+    private static final HashMap<String, Future<BallImage>> sImages =
+            new HashMap<String, Future<BallImage>>();
+
+    // GL texture handles, keyed by file name.  Only touched on the render thread.
+    private static final HashMap<String, Integer> sTextures = new HashMap<String, Integer>();
+
+
+    /**
+     * Records where cached images live, and starts preparing the standard ball texture.
+     * Call this when the game activity starts.
+     */
+    public static synchronized void initialize(Context context) {
+        if (sCacheDir == null) {
+            sCacheDir = context.getFilesDir();
+        }
+        prefetch(Ball.TEX_STYLE, Ball.TEX_SIZE);
+    }
+
+    /**
+     * Starts preparing the pixels for the specified texture on the background thread, if
+     * that hasn't happened already.
+     *
+     * @return A Future that produces the image.
+     */
+    public static synchronized Future<BallImage> prefetch(final int style, final int size) {
+        String key = BallImage.getFileName(style, size);
+        Future<BallImage> future = sImages.get(key);
+        if (future == null) {
+            if (sExecutor == null) {
+                sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "BallTextureCache");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            final File cacheDir = sCacheDir;
+            future = sExecutor.submit(new Callable<BallImage>() {
+                @Override
+                public BallImage call() {
+                    return loadOrGenerate(cacheDir, style, size);
+                }
+            });
+            sImages.put(key, future);
+        }
+        return future;
+    }
+
+    /**
+     * Returns the GL texture for the specified style and size, uploading it if necessary.
+     * If the pixels aren't ready yet, this waits for them.  Must be called on the render
+     * thread.
+     */
+    public static int getTexture(int style, int size) {
+        String key = BallImage.getFileName(style, size);
+        Integer handle = sTextures.get(key);
+        if (handle != null) {
+            return handle;
+        }
+
+        BallImage image;
+        try {
+            image = prefetch(style, size).get();
+        } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            throw new RuntimeException(ee.getCause());
+        }
+        int textureHandle = upload(image);
+        sTextures.put(key, textureHandle);
+        return textureHandle;
+    }
+
+    /**
+     * Forgets all GL texture handles.  Call this when a new EGL context is created; the
+     * textures went away with the old one.
+     */
+    public static void discardTextures() {
+        sTextures.clear();
+    }
+
+    /**
+     * Reads the image from the cache directory, or generates it (and writes it there) if
+     * it's missing or unreadable.  Runs on the background thread.
+     */
+    private static BallImage loadOrGenerate(File cacheDir, int style, int size) {
+        File file = null;
+        if (cacheDir != null) {
+            file = new File(cacheDir, BallImage.getFileName(style, size));
+            try {
+                BallImage image = BallImage.readFrom(file, style, size);
+                if (image != null) {
+                    Log.d(TAG, "Loaded ball texture " + file);
+                    return image;
+                }
+            } catch (IOException ioe) {
+                Log.w(TAG, "Unable to read " + file + ": " + ioe.getMessage());
+            }
+        }
+
+        BallImage image = BallImage.generate(style, size);
+
+        if (file != null) {
+            // Not fatal if this fails; we'll just generate it again next time.
+            try {
+                image.writeTo(file);
+                Log.d(TAG, "Wrote ball texture " + file);
+            } catch (IOException ioe) {
+                Log.w(TAG, "Unable to write " + file + ": " + ioe.getMessage());
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Creates a GL texture from the image, with all mipmap levels.
+     */
+    private static int upload(BallImage image) {
+        int[] textureHandles = new int[1];
+        GLES20.glGenTextures(1, textureHandles, 0);
+        int textureHandle = textureHandles[0];
+        Util.checkGlError("glGenTextures");
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle);
+
+        // We supply the mipmaps, so use them when the ball is drawn smaller than the texture.
+        // That's the usual case, and with lots of balls on screen it's noticeably less
+        // shimmery than sampling the 64x64 image directly.
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR_MIPMAP_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        Util.checkGlError("glTexParameteri");
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(image.getLevelData(0).length);
+        for (int level = 0; level < image.getLevelCount(); level++) {
+            byte[] data = image.getLevelData(level);
+            int levelSize = image.getLevelSize(level);
+            buf.clear();
+            buf.put(data);
+            buf.position(0);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, level, GLES20.GL_RGBA,
+                    levelSize, levelSize, /*border*/ 0, GLES20.GL_RGBA,
+                    GLES20.GL_UNSIGNED_BYTE, buf);
+        }
+        Util.checkGlError("glTexImage2D");
+
+        return textureHandle;
+    }
+}
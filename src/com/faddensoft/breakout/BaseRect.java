@@ -31,6 +31,15 @@ public class BaseRect {
      * and copying them to the model/view matrix as needed, we just use the matrix as storage.
      */
 
+    /**
+     * If set, the per-object drawing code sends the position and scale to the vertex shader
+     * as a single vec4 uniform, and the shader applies them before the projection matrix
+     * (which is sent once per pass, in prepareToDraw()).  If not set, we multiply the
+     * model/view matrix by the projection matrix on the CPU for every object, and send the
+     * full 4x4 result.  See the discussion in BasicAlignedRect.
+     */
+    static final boolean UNIFORM_TRANSFORM = true;
+
     /**
      * Model/view matrix for this object.  Updated by setPosition() and setScale().  This
      * should be merged with the projection matrix when it's time to draw the object.
@@ -76,8 +76,27 @@ public class BasicAlignedRect extends BaseRect {
      * Since this game is *nowhere near* the bandwidth or compute capacity of any device capable
      * of OpenGL ES 2.0, this decision is not crucial.  Approach #3 is the easiest, and we're
      * not going to bother with VBOs or other memory-management features.
+     *
+     * Having said that, approach #3 does cost us three GL calls per rect, and every GL call
+     * is a trip through the driver.  When BATCHED_DRAWING is enabled we switch to approach #2
+     * instead: draw() just appends the rect's corners and color to a RectBatch, and the whole
+     * lot goes out in a single draw call when finishedDrawing() is called.  The projection
+     * matrix is sent once per batch.
+     *
+     * The per-object path (used by OutlineAlignedRect and TexturedAlignedRect, and by us when
+     * BATCHED_DRAWING is off) can use approach #1 instead of #3.  With BaseRect's
+     * UNIFORM_TRANSFORM set, prepareToDraw() sends the projection matrix, and draw() sends
+     * just x/y/xscale/yscale in a vec4.  That replaces a 4x4 matrix multiply and a 16-float
+     * upload with a 4-float upload, and the extra multiply-add per vertex is lost in the
+     * noise on any GPU.
      */
 
+    // Gather all rects between prepareToDraw() and finishedDrawing() into a single draw call.
+    static final boolean BATCHED_DRAWING = true;
+
+    // Max rects per batch draw call.  Enough for the standard board with room to spare.
+    private static final int MAX_BATCHED_RECTS = 256;
+
     static final String VERTEX_SHADER_CODE =
             "uniform mat4 u_mvpMatrix;" +
             "attribute vec4 a_position;" +
@@ -94,6 +113,62 @@ public class BasicAlignedRect extends BaseRect {
             "  gl_FragColor = u_color;" +
             "}";
 
+    static final String POS_SCALE_VERTEX_SHADER_CODE =
+            "uniform mat4 u_projMatrix;" +
+            "uniform vec4 u_posScale;" +        // x, y, xscale, yscale
+            "attribute vec4 a_position;" +
+
+            "void main() {" +
+            "  vec2 pos = a_position.xy * u_posScale.zw + u_posScale.xy;" +
+            "  gl_Position = u_projMatrix * vec4(pos, 0.0, 1.0);" +
+            "}";
+
+    static final String BATCH_VERTEX_SHADER_CODE =
+            "uniform mat4 u_projMatrix;" +
+            "attribute vec4 a_position;" +
+            "attribute vec4 a_color;" +
+            "varying vec4 v_color;" +
+
+            "void main() {" +
+            "  v_color = a_color;" +
+            "  gl_Position = u_projMatrix * a_position;" +
+            "}";
+
+    static final String BATCH_FRAGMENT_SHADER_CODE =
+            "precision mediump float;" +
+            "varying vec4 v_color;" +
+
+            "void main() {" +
+            "  gl_FragColor = v_color;" +
+            "}";
+
+    /*
+     * Anti-aliased circles, for drawing the balls without a texture.  See CircleBatch.
+     */
+    static final String CIRCLE_VERTEX_SHADER_CODE =
+            "uniform mat4 u_projMatrix;" +
+            "attribute vec4 a_position;" +
+            "attribute vec3 a_circle;" +        // dx, dy, radius (pixels)
+            "varying vec3 v_circle;" +
+
+            "void main() {" +
+            "  v_circle = a_circle;" +
+            "  gl_Position = u_projMatrix * a_position;" +
+            "}";
+
+    static final String CIRCLE_FRAGMENT_SHADER_CODE =
+            "precision mediump float;" +
+            "uniform vec4 u_color;" +
+            "varying vec3 v_circle;" +
+
+            "void main() {" +
+            "  float coverage = clamp(v_circle.z - length(v_circle.xy), 0.0, 1.0);" +
+            "  gl_FragColor = u_color * coverage;" +
+            "}";
+
+    // Max circles per draw call.  Same as the sprite batch.
+    private static final int MAX_BATCHED_CIRCLES = 1024;
+
     // Reference to vertex data.
     static FloatBuffer sVertexBuffer = getVertexArray();
 
@@ -102,6 +177,15 @@ public class BasicAlignedRect extends BaseRect {
     static int sColorHandle = -1;
     static int sPositionHandle = -1;
     static int sMVPMatrixHandle = -1;
+    static int sProjMatrixHandle = -1;
+    static int sPosScaleHandle = -1;
+
+    // Collects rects when BATCHED_DRAWING is set.  Created along with the program.
+    private static RectBatch sBatch;
+
+    // Collects circles between prepareToDrawCircles() and finishedDrawingCircles().  Only
+    // created when GameState.SDF_BALLS is set.
+    private static CircleBatch sCircleBatch;
 
     // RGBA color vector.
     float[] mColor = new float[4];
@@ -124,7 +208,8 @@ public class BasicAlignedRect extends BaseRect {
      * Creates the GL program and associated references.
      */
     public static void createProgram() {
-        sProgramHandle = Util.createProgram(VERTEX_SHADER_CODE,
+        sProgramHandle = Util.createProgram(
+                UNIFORM_TRANSFORM ? POS_SCALE_VERTEX_SHADER_CODE : VERTEX_SHADER_CODE,
                 FRAGMENT_SHADER_CODE);
         Log.d(TAG, "Created program " + sProgramHandle);
 
@@ -136,9 +221,53 @@ public class BasicAlignedRect extends BaseRect {
         sColorHandle = GLES20.glGetUniformLocation(sProgramHandle, "u_color");
         Util.checkGlError("glGetUniformLocation");
 
-        // get handle to transformation matrix
-        sMVPMatrixHandle = GLES20.glGetUniformLocation(sProgramHandle, "u_mvpMatrix");
+        if (UNIFORM_TRANSFORM) {
+            // get handles to projection matrix and position/scale vector
+            sProjMatrixHandle = GLES20.glGetUniformLocation(sProgramHandle, "u_projMatrix");
+            sPosScaleHandle = GLES20.glGetUniformLocation(sProgramHandle, "u_posScale");
+            Util.checkGlError("glGetUniformLocation");
+        } else {
+            // get handle to transformation matrix
+            sMVPMatrixHandle = GLES20.glGetUniformLocation(sProgramHandle, "u_mvpMatrix");
+            Util.checkGlError("glGetUniformLocation");
+        }
+
+        if (BATCHED_DRAWING) {
+            int batchProgram = Util.createProgram(BATCH_VERTEX_SHADER_CODE,
+                    BATCH_FRAGMENT_SHADER_CODE);
+            Log.d(TAG, "Created batch program " + batchProgram);
+            int positionHandle = GLES20.glGetAttribLocation(batchProgram, "a_position");
+            int colorHandle = GLES20.glGetAttribLocation(batchProgram, "a_color");
+            Util.checkGlError("glGetAttribLocation");
+            int projMatrixHandle = GLES20.glGetUniformLocation(batchProgram, "u_projMatrix");
+            Util.checkGlError("glGetUniformLocation");
+
+            sBatch = new RectBatch(new GLES20Calls(), MAX_BATCHED_RECTS);
+            sBatch.setProgram(batchProgram, positionHandle, colorHandle, projMatrixHandle);
+        }
+
+        // Only the SDF balls use circles.  The texture-rect balls don't need the program.
+        if (GameState.SDF_BALLS) {
+            createCircleProgram();
+        }
+    }
+
+    /**
+     * Creates the GL program for CircleBatch.
+     */
+    private static void createCircleProgram() {
+        int program = Util.createProgram(CIRCLE_VERTEX_SHADER_CODE, CIRCLE_FRAGMENT_SHADER_CODE);
+        Log.d(TAG, "Created circle program " + program);
+        int positionHandle = GLES20.glGetAttribLocation(program, "a_position");
+        int circleHandle = GLES20.glGetAttribLocation(program, "a_circle");
+        Util.checkGlError("glGetAttribLocation");
+        int colorHandle = GLES20.glGetUniformLocation(program, "u_color");
+        int projMatrixHandle = GLES20.glGetUniformLocation(program, "u_projMatrix");
         Util.checkGlError("glGetUniformLocation");
+
+        sCircleBatch = new CircleBatch(new GLES20Calls(), MAX_BATCHED_CIRCLES);
+        sCircleBatch.setProgram(program, positionHandle, circleHandle, colorHandle,
+                projMatrixHandle);
     }
 
     /**
@@ -181,6 +310,13 @@ public class BasicAlignedRect extends BaseRect {
          * calls highlight potential efficiency problems.
          */
 
+        if (BATCHED_DRAWING) {
+            sBatch.begin(GameSurfaceRenderer.mProjectionMatrix);
+            Util.checkGlError("batch begin");
+            sDrawPrepared = true;
+            return;
+        }
+
         // Select the program.
         GLES20.glUseProgram(sProgramHandle);
         Util.checkGlError("glUseProgram");
@@ -194,6 +330,13 @@ public class BasicAlignedRect extends BaseRect {
             GLES20.GL_FLOAT, false, VERTEX_STRIDE, sVertexBuffer);
         Util.checkGlError("glVertexAttribPointer");
 
+        if (UNIFORM_TRANSFORM) {
+            // The projection matrix is the same for every object.
+            GLES20.glUniformMatrix4fv(sProjMatrixHandle, 1, false,
+                    GameSurfaceRenderer.mProjectionMatrix, 0);
+            Util.checkGlError("glUniformMatrix4fv");
+        }
+
         sDrawPrepared = true;
     }
 
@@ -203,13 +346,66 @@ public class BasicAlignedRect extends BaseRect {
     public static void finishedDrawing() {
         sDrawPrepared = false;
 
+        if (BATCHED_DRAWING) {
+            // Sends everything we've collected, and disables the program.
+            sBatch.end();
+            if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("batch end");
+            return;
+        }
+
         // Disable vertex array and program.  Not strictly necessary.
         GLES20.glDisableVertexAttribArray(sPositionHandle);
         GLES20.glUseProgram(0);
     }
 
     /**
-     * Draws the rect.
+     * Performs setup for drawing circles.  They're drawn with their own program, so this
+     * can't be combined with prepareToDraw().  Blending must be enabled, and
+     * GameState.SDF_BALLS must be set, or the program won't exist.
+     *
+     * @param color Premultiplied RGBA color for all circles drawn until
+     *     finishedDrawingCircles().
+     */
+    public static void prepareToDrawCircles(float[] color) {
+        sCircleBatch.begin(GameSurfaceRenderer.mProjectionMatrix,
+                GameSurfaceRenderer.sArenaPixelScale, color);
+        if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("circle batch begin");
+    }
+
+    /**
+     * Adds a circle to the batch.  It won't actually be drawn until
+     * finishedDrawingCircles() is called, or the batch fills up.
+     */
+    public static void drawCircle(float xpos, float ypos, float diameter) {
+        sCircleBatch.add(xpos, ypos, diameter);
+    }
+
+    /**
+     * Draws the circles collected since prepareToDrawCircles(), and cleans up.
+     */
+    public static void finishedDrawingCircles() {
+        sCircleBatch.end();
+        if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("circle batch end");
+    }
+
+    /**
+     * Draws the contents of a StaticRectBuffer, in order with the rects drawn with draw().
+     * Requires BATCHED_DRAWING.
+     */
+    public static void drawStatic(StaticRectBuffer buf) {
+        if (!sDrawPrepared) {
+            throw new RuntimeException("not prepared");
+        }
+        if (!BATCHED_DRAWING) {
+            throw new RuntimeException("static buffers require BATCHED_DRAWING");
+        }
+        sBatch.drawStatic(buf);
+        if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("drawStatic");
+    }
+
+    /**
+     * Draws the rect.  If BATCHED_DRAWING is set, the rect is just added to the batch, and
+     * won't actually be drawn until finishedDrawing() is called.
      */
     public void draw() {
         if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("draw start");
@@ -217,13 +413,25 @@ public class BasicAlignedRect extends BaseRect {
             throw new RuntimeException("not prepared");
         }
 
-        // Compute model/view/projection matrix.
-        float[] mvp = sTempMVP;     // scratch storage
-        Matrix.multiplyMM(mvp, 0, GameSurfaceRenderer.mProjectionMatrix, 0, mModelView, 0);
+        if (BATCHED_DRAWING) {
+            sBatch.add(getXPosition(), getYPosition(), getXScale(), getYScale(), mColor);
+            return;
+        }
 
-        // Copy the model / view / projection matrix over.
-        GLES20.glUniformMatrix4fv(sMVPMatrixHandle, 1, false, mvp, 0);
-        if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glUniformMatrix4fv");
+        if (UNIFORM_TRANSFORM) {
+            // Send the position and scale; the shader does the rest.
+            GLES20.glUniform4f(sPosScaleHandle,
+                    getXPosition(), getYPosition(), getXScale(), getYScale());
+            if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glUniform4f");
+        } else {
+            // Compute model/view/projection matrix.
+            float[] mvp = sTempMVP;     // scratch storage
+            Matrix.multiplyMM(mvp, 0, GameSurfaceRenderer.mProjectionMatrix, 0, mModelView, 0);
+
+            // Copy the model / view / projection matrix over.
+            GLES20.glUniformMatrix4fv(sMVPMatrixHandle, 1, false, mvp, 0);
+            if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glUniformMatrix4fv");
+        }
 
         // Copy the color vector into the program.
         GLES20.glUniform4fv(sColorHandle, 1, mColor, 0);
@@ -73,6 +73,9 @@ public class BreakoutActivity extends Activity implements OnItemSelectedListener
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
 
+        // Lets the "resume" button find a game saved before the process was killed.
+        GameState.setSaveDir(getFilesDir());
+
         // Populate difficulty-level spinner.
         Spinner spinner = (Spinner) findViewById(R.id.spinner_difficultyLevel);
         // Need to create one of these fancy ArrayAdapter thingies, and specify the generic layout
@@ -30,25 +30,13 @@ public class Brick extends BasicAlignedRect {
      * Implementing bricks this way would require significantly less storage but additional
      * computation per frame.  It's also a less-general solution, making it less desirable
      * for a demo app.
+     *
+     * The bit vector does exist, in GameSimulation, and is the only record of which bricks
+     * are alive.  GameState uses it to decide which Bricks to draw.
      */
 
-    private boolean mAlive = false;
     private int mPoints = 0;
 
-    /**
-     * Returns whether or not the brick is "alive".
-     */
-    public boolean isAlive() {
-        return mAlive;
-    }
-
-    /**
-     * Sets the brick liveness.
-     */
-    public void setAlive(boolean alive) {
-        mAlive = alive;
-    }
-
     /**
      * Gets the brick's point value.
      */
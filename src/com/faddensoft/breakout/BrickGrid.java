@@ -0,0 +1,358 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+/**
+ * Uniform-grid spatial index for the bricks, used for the "broad phase" of collision detection.
+ * <p>
+ * This class has no Android or OpenGL dependencies, so it can be exercised on a plain JVM.
+ * Bricks are identified by their index in GameSimulation's brick array.
+ */
+public class BrickGrid {
+    /*
+     * The bricks are laid out in a regular grid of "brick zones", so the obvious choice of
+     * spatial index is a uniform grid with one cell per zone.  Each brick is registered in
+     * every cell its rectangle touches.  For the standard board that's exactly one cell per
+     * brick, because the bricks are smaller than their zones, but we don't want to rely on
+     * that.
+     *
+     * The cell contents are stored in a single int[] (cell N owns the slots starting at
+     * mCellStart[N]), with mCellCount[N] holding the number of live entries.  When a brick
+     * dies we remove it from its cells, so queries never have to look at dead bricks.  Nothing
+     * is allocated after construction.
+     *
+     * Queries take the swept-ball AABB from GameSimulation.moveBall(), clamp it to the grid, and
+     * return the bricks in the overlapped cells.  A brick that spans several cells could be
+     * found more than once, so we "stamp" each brick with a query serial number to weed out
+     * duplicates.  If the AABB doesn't touch the brick area at all -- which is true for most
+     * of the ball's travel -- we bail out after a couple of compares.
+     *
+     * The stamps are the only thing a query writes.  They live in a Query object, so several
+     * threads can search the grid at once as long as each has its own Query and nobody is
+     * removing bricks at the same time.  The grid has a Query of its own for single-threaded
+     * callers.
+     */
+
+    private final int mColumns;
+    private final int mRows;
+    private final float mLeft;
+    private final float mBottom;
+    private final float mCellWidth;
+    private final float mCellHeight;
+
+    // Brick bounds, in arena coordinates.  Indexed by brick number.
+    private final float[] mBrickLeft;
+    private final float[] mBrickRight;
+    private final float[] mBrickBottom;
+    private final float[] mBrickTop;
+    private final boolean[] mBrickAdded;
+
+    // Per-cell brick lists.  Built by finishSetup().
+    private final int[] mCellStart;
+    private final int[] mCellCount;
+    private int[] mCellBricks;
+
+    // Duplicate suppression for queries made without an explicit Query.
+    private final Query mDefaultQuery;
+
+    /**
+     * Per-thread query state.  The serial number only ever goes up, so a Query can be used
+     * with any grid that holds no more than "maxBricks" bricks, including one that has been
+     * rebuilt since.
+     */
+    public static class Query {
+        private final int[] mStamp;
+        private int mSerial;
+
+        public Query(int maxBricks) {
+            mStamp = new int[maxBricks];
+        }
+    }
+
+
+    /**
+     * Creates an empty grid.  Add the bricks with setBrick(), then call finishSetup().
+     *
+     * @param columns Number of cell columns.
+     * @param rows Number of cell rows.
+     * @param left Left edge of the grid, in arena coordinates.
+     * @param bottom Bottom edge of the grid, in arena coordinates.
+     * @param cellWidth Width of one cell.
+     * @param cellHeight Height of one cell.
+     * @param maxBricks Number of bricks that will be registered.
+     */
+    public BrickGrid(int columns, int rows, float left, float bottom, float cellWidth,
+            float cellHeight, int maxBricks) {
+        if (columns <= 0 || rows <= 0 || cellWidth <= 0.0f || cellHeight <= 0.0f) {
+            throw new RuntimeException("bad grid dimensions");
+        }
+        mColumns = columns;
+        mRows = rows;
+        mLeft = left;
+        mBottom = bottom;
+        mCellWidth = cellWidth;
+        mCellHeight = cellHeight;
+
+        mBrickLeft = new float[maxBricks];
+        mBrickRight = new float[maxBricks];
+        mBrickBottom = new float[maxBricks];
+        mBrickTop = new float[maxBricks];
+        mBrickAdded = new boolean[maxBricks];
+
+        mCellStart = new int[columns * rows + 1];
+        mCellCount = new int[columns * rows];
+
+        mDefaultQuery = new Query(maxBricks);
+    }
+
+    /**
+     * Registers a brick.  The position identifies the center, and the scale is the full
+     * width and height (same conventions as BaseRect).
+     */
+    public void setBrick(int index, float xpos, float ypos, float xscale, float yscale) {
+        mBrickLeft[index] = xpos - xscale / 2;
+        mBrickRight[index] = xpos + xscale / 2;
+        mBrickBottom[index] = ypos - yscale / 2;
+        mBrickTop[index] = ypos + yscale / 2;
+        mBrickAdded[index] = true;
+    }
+
+    /**
+     * Builds the per-cell lists.  Must be called after all bricks have been registered, and
+     * before the grid is queried.  All bricks start out alive.
+     */
+    public void finishSetup() {
+        int numCells = mColumns * mRows;
+        int numBricks = mBrickAdded.length;
+
+        // First pass: count the entries in each cell.
+        for (int i = 0; i < numCells; i++) {
+            mCellCount[i] = 0;
+        }
+        for (int i = 0; i < numBricks; i++) {
+            if (!mBrickAdded[i]) {
+                continue;
+            }
+            int colMin = columnOf(mBrickLeft[i]);
+            int colMax = columnOf(mBrickRight[i]);
+            int rowMin = rowOf(mBrickBottom[i]);
+            int rowMax = rowOf(mBrickTop[i]);
+            for (int row = rowMin; row <= rowMax; row++) {
+                for (int col = colMin; col <= colMax; col++) {
+                    mCellCount[row * mColumns + col]++;
+                }
+            }
+        }
+
+        // Convert counts to start offsets.
+        int total = 0;
+        for (int i = 0; i < numCells; i++) {
+            mCellStart[i] = total;
+            total += mCellCount[i];
+            mCellCount[i] = 0;
+        }
+        mCellStart[numCells] = total;
+        mCellBricks = new int[total];
+
+        // Second pass: fill the cells.  Bricks go in ascending index order.
+        for (int i = 0; i < numBricks; i++) {
+            if (!mBrickAdded[i]) {
+                continue;
+            }
+            int colMin = columnOf(mBrickLeft[i]);
+            int colMax = columnOf(mBrickRight[i]);
+            int rowMin = rowOf(mBrickBottom[i]);
+            int rowMax = rowOf(mBrickTop[i]);
+            for (int row = rowMin; row <= rowMax; row++) {
+                for (int col = colMin; col <= colMax; col++) {
+                    int cell = row * mColumns + col;
+                    mCellBricks[mCellStart[cell] + mCellCount[cell]++] = i;
+                }
+            }
+        }
+
+        for (int i = 0; i < numBricks; i++) {
+            mDefaultQuery.mStamp[i] = 0;
+        }
+        mDefaultQuery.mSerial = 0;
+    }
+
+    /**
+     * Removes a brick from the index.  Call this whenever a brick stops being alive.
+     */
+    public void removeBrick(int index) {
+        int colMin = columnOf(mBrickLeft[index]);
+        int colMax = columnOf(mBrickRight[index]);
+        int rowMin = rowOf(mBrickBottom[index]);
+        int rowMax = rowOf(mBrickTop[index]);
+        for (int row = rowMin; row <= rowMax; row++) {
+            for (int col = colMin; col <= colMax; col++) {
+                int cell = row * mColumns + col;
+                int start = mCellStart[cell];
+                int count = mCellCount[cell];
+
+                // Shift the remaining entries down, so the list stays in index order.  Cells
+                // only hold a brick or two, so this is cheap.
+                for (int j = 0; j < count; j++) {
+                    if (mCellBricks[start + j] == index) {
+                        System.arraycopy(mCellBricks, start + j + 1, mCellBricks, start + j,
+                                count - j - 1);
+                        mCellCount[cell] = count - 1;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts a brick removed with removeBrick() back in the index.  Call this when a brick
+     * comes back to life (e.g. when rewinding).  Each cell has room for every brick that
+     * was registered in it, so this never needs to allocate.
+     */
+    public void addBrick(int index) {
+        int colMin = columnOf(mBrickLeft[index]);
+        int colMax = columnOf(mBrickRight[index]);
+        int rowMin = rowOf(mBrickBottom[index]);
+        int rowMax = rowOf(mBrickTop[index]);
+        for (int row = rowMin; row <= rowMax; row++) {
+            for (int col = colMin; col <= colMax; col++) {
+                int cell = row * mColumns + col;
+                int start = mCellStart[cell];
+                int count = mCellCount[cell];
+
+                // Insert in index order, so queries return the same order as before the
+                // brick was removed.
+                int j = count;
+                while (j > 0 && mCellBricks[start + j - 1] > index) {
+                    j--;
+                }
+                System.arraycopy(mCellBricks, start + j, mCellBricks, start + j + 1, count - j);
+                mCellBricks[start + j] = index;
+                mCellCount[cell] = count + 1;
+            }
+        }
+    }
+
+    /**
+     * Finds the live bricks whose rectangles overlap the specified area.
+     *
+     * @param left Left edge of the area to test.
+     * @param right Right edge.
+     * @param bottom Bottom edge.
+     * @param top Top edge.
+     * @param result Receives the brick indices.  Must be large enough to hold all bricks.
+     * @return The number of bricks found.
+     */
+    public int findCandidates(float left, float right, float bottom, float top, int[] result) {
+        return findCandidates(mDefaultQuery, left, right, bottom, top, result);
+    }
+
+    /**
+     * Finds the live bricks whose rectangles overlap the specified area, using the
+     * caller's query state.  Safe to call from multiple threads at once if each uses a
+     * different Query.
+     */
+    public int findCandidates(Query query, float left, float right, float bottom, float top,
+            int[] result) {
+        // Quick rejection: if we're entirely outside the grid, there's nothing to find.
+        float gridRight = mLeft + mColumns * mCellWidth;
+        float gridTop = mBottom + mRows * mCellHeight;
+        if (right < mLeft || left > gridRight || top < mBottom || bottom > gridTop) {
+            return 0;
+        }
+
+        int colMin = columnOf(left);
+        int colMax = columnOf(right);
+        int rowMin = rowOf(bottom);
+        int rowMax = rowOf(top);
+
+        int[] stamp = query.mStamp;
+        int serial = ++query.mSerial;
+        if (serial == 0) {
+            // Wrapped around (after ~4 billion queries).  Reset the stamps.
+            for (int i = 0; i < stamp.length; i++) {
+                stamp[i] = 0;
+            }
+            serial = query.mSerial = 1;
+        }
+
+        int found = 0;
+        for (int row = rowMin; row <= rowMax; row++) {
+            for (int col = colMin; col <= colMax; col++) {
+                int cell = row * mColumns + col;
+                int start = mCellStart[cell];
+                int end = start + mCellCount[cell];
+                for (int j = start; j < end; j++) {
+                    int brick = mCellBricks[j];
+                    if (stamp[brick] == serial) {
+                        continue;       // already found via another cell
+                    }
+                    stamp[brick] = serial;
+
+                    // The cell is only an approximation, so check the brick itself.  Use
+                    // inclusive tests so we never miss something the fine pass would hit.
+                    if (mBrickRight[brick] >= left && mBrickLeft[brick] <= right &&
+                            mBrickTop[brick] >= bottom && mBrickBottom[brick] <= top) {
+                        result[found++] = brick;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the number of cell columns.
+     */
+    public int getColumns() {
+        return mColumns;
+    }
+
+    /**
+     * Returns the number of cell rows.
+     */
+    public int getRows() {
+        return mRows;
+    }
+
+    /**
+     * Converts an X coordinate to a column number, clamped to the grid.
+     */
+    private int columnOf(float x) {
+        int col = (int) Math.floor((x - mLeft) / mCellWidth);
+        if (col < 0) {
+            col = 0;
+        } else if (col >= mColumns) {
+            col = mColumns - 1;
+        }
+        return col;
+    }
+
+    /**
+     * Converts a Y coordinate to a row number, clamped to the grid.
+     */
+    private int rowOf(float y) {
+        int row = (int) Math.floor((y - mBottom) / mCellHeight);
+        if (row < 0) {
+            row = 0;
+        } else if (row >= mRows) {
+            row = mRows - 1;
+        }
+        return row;
+    }
+}
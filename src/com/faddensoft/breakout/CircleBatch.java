@@ -0,0 +1,245 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Collects solid-color anti-aliased circles and draws them all with a single draw call.
+ * <p>
+ * This is an alternative to drawing the balls as textured sprites.  The circle is
+ * evaluated in the fragment shader, so there's no texture to generate, upload, or bind.
+ * Like RectBatch it has no Android dependencies; all GL calls go through a GlCalls object,
+ * and the program is created by BasicAlignedRect.
+ */
+public class CircleBatch {
+    /*
+     * Each circle is drawn as a quad that just encloses it.  Each vertex is:
+     *
+     *   x, y, dx, dy, radius   (x4 per circle)
+     *
+     * The position is in arena coordinates, so the vertex shader just applies the projection
+     * matrix.  dx/dy is the vertex's offset from the center of the circle and radius is the
+     * circle's radius, both in pixels.  They're passed through to the fragment shader, which
+     * interpolates dx/dy across the quad, so each fragment knows how far it is from the
+     * center.  Coverage falls off over the last pixel inside the radius, giving us an
+     * anti-aliased edge at any scale without needing the derivatives extension.
+     *
+     * The output is premultiplied, same as the textures, so the usual (ONE, ONE_MINUS_SRC_ALPHA)
+     * blend works.
+     *
+     * We need to know how many pixels there are per arena unit to convert the offsets; the
+     * caller supplies that in begin().  The index buffer and the limits on circles per draw
+     * are the same as RectBatch.
+     */
+    static final int FLOATS_PER_VERTEX = 5;                 // x, y, dx, dy, radius
+    static final int FLOATS_PER_CIRCLE = FLOATS_PER_VERTEX * RectBatch.VERTICES_PER_RECT;
+    static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * 4;         // 4 bytes per float
+
+    // Values from GLES20.  We don't want the dependency.
+    private static final int GL_TRIANGLES = 0x0004;
+    private static final int GL_UNSIGNED_SHORT = 0x1403;
+    private static final int GL_FLOAT = 0x1406;
+
+    private final GlCalls mGl;
+    private final int mMaxCircles;
+
+    // Vertex data is assembled in mVertices, then copied to the direct buffers for GL.
+    private final float[] mVertices;
+    private final FloatBuffer mVertexBuffer;
+    private final FloatBuffer mCircleBuffer;    // view of mVertexBuffer, starting at "dx"
+    private final ShortBuffer mIndexBuffer;
+    private int mNumCircles;
+
+    // Pixels per arena unit, from begin().
+    private float mPixelScale;
+
+    private int mProgramHandle = -1;
+    private int mPositionHandle = -1;
+    private int mCircleHandle = -1;
+    private int mColorHandle = -1;
+    private int mProjMatrixHandle = -1;
+
+    // Sanity check on draw prep.
+    private boolean mDrawPrepared;
+
+    // Statistics.
+    private int mDrawCalls;
+    private int mCirclesDrawn;
+
+    /**
+     * Creates a batch.
+     *
+     * @param gl Where to send GL calls.
+     * @param maxCircles Maximum number of circles per draw call.
+     */
+    public CircleBatch(GlCalls gl, int maxCircles) {
+        if (maxCircles <= 0 || maxCircles > RectBatch.MAX_RECTS_PER_DRAW) {
+            throw new RuntimeException("bad maxCircles " + maxCircles);
+        }
+        mGl = gl;
+        mMaxCircles = maxCircles;
+        mVertices = new float[maxCircles * FLOATS_PER_CIRCLE];
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(mVertices.length * 4);
+        bb.order(ByteOrder.nativeOrder());
+        mVertexBuffer = bb.asFloatBuffer();
+        mVertexBuffer.position(2);
+        mCircleBuffer = mVertexBuffer.slice();
+        mVertexBuffer.position(0);
+
+        mIndexBuffer = RectBatch.createIndexBuffer(maxCircles);
+    }
+
+    /**
+     * Sets the program and the handles of its attributes and uniforms.  The program must
+     * take a vec4 "position" and a vec3 offset/radius per vertex, a vec4 color, and a mat4
+     * projection matrix.
+     */
+    public void setProgram(int programHandle, int positionHandle, int circleHandle,
+            int colorHandle, int projMatrixHandle) {
+        mProgramHandle = programHandle;
+        mPositionHandle = positionHandle;
+        mCircleHandle = circleHandle;
+        mColorHandle = colorHandle;
+        mProjMatrixHandle = projMatrixHandle;
+    }
+
+    /**
+     * Starts a batch.  Selects the program and sends the projection matrix and color.
+     *
+     * @param pixelScale Number of pixels per arena unit.
+     * @param color Premultiplied RGBA color for all circles in the batch.
+     */
+    public void begin(float[] projectionMatrix, float pixelScale, float[] color) {
+        GlCalls gl = mGl;
+        gl.glUseProgram(mProgramHandle);
+        gl.glUniformMatrix4fv(mProjMatrixHandle, 1, false, projectionMatrix, 0);
+        gl.glUniform4fv(mColorHandle, 1, color, 0);
+        gl.glEnableVertexAttribArray(mPositionHandle);
+        gl.glEnableVertexAttribArray(mCircleHandle);
+        mPixelScale = pixelScale;
+        mNumCircles = 0;
+        mDrawPrepared = true;
+    }
+
+    /**
+     * Adds a circle to the batch.
+     *
+     * @param xpos Center X, in arena coordinates.
+     * @param ypos Center Y, in arena coordinates.
+     * @param diameter Diameter, in arena units.
+     */
+    public void add(float xpos, float ypos, float diameter) {
+        if (!mDrawPrepared) {
+            throw new RuntimeException("not prepared");
+        }
+        if (mNumCircles == mMaxCircles) {
+            flush();
+        }
+
+        float radius = diameter / 2;
+        float left = xpos - radius;
+        float right = xpos + radius;
+        float bottom = ypos - radius;
+        float top = ypos + radius;
+        float pixRadius = radius * mPixelScale;
+
+        float[] v = mVertices;
+        int i = mNumCircles * FLOATS_PER_CIRCLE;
+        v[i++] = left;  v[i++] = bottom; v[i++] = -pixRadius; v[i++] = -pixRadius;
+        v[i++] = pixRadius;
+        v[i++] = right; v[i++] = bottom; v[i++] = pixRadius;  v[i++] = -pixRadius;
+        v[i++] = pixRadius;
+        v[i++] = left;  v[i++] = top;    v[i++] = -pixRadius; v[i++] = pixRadius;
+        v[i++] = pixRadius;
+        v[i++] = right; v[i++] = top;    v[i++] = pixRadius;  v[i++] = pixRadius;
+        v[i++] = pixRadius;
+        mNumCircles++;
+    }
+
+    /**
+     * Draws anything still in the batch, and cleans up.
+     */
+    public void end() {
+        flush();
+        mDrawPrepared = false;
+
+        // Disable vertex arrays and program.  Not strictly necessary.
+        GlCalls gl = mGl;
+        gl.glDisableVertexAttribArray(mPositionHandle);
+        gl.glDisableVertexAttribArray(mCircleHandle);
+        gl.glUseProgram(0);
+    }
+
+    /**
+     * Sends the accumulated circles to GL.
+     */
+    private void flush() {
+        if (mNumCircles == 0) {
+            return;
+        }
+
+        mVertexBuffer.position(0);
+        mVertexBuffer.put(mVertices, 0, mNumCircles * FLOATS_PER_CIRCLE);
+        mVertexBuffer.position(0);
+
+        GlCalls gl = mGl;
+        gl.glVertexAttribPointer(mPositionHandle, 2, GL_FLOAT, false, VERTEX_STRIDE,
+                mVertexBuffer);
+        gl.glVertexAttribPointer(mCircleHandle, 3, GL_FLOAT, false, VERTEX_STRIDE,
+                mCircleBuffer);
+        gl.glDrawElements(GL_TRIANGLES, mNumCircles * RectBatch.INDICES_PER_RECT,
+                GL_UNSIGNED_SHORT, mIndexBuffer);
+
+        mDrawCalls++;
+        mCirclesDrawn += mNumCircles;
+        mNumCircles = 0;
+    }
+
+    /**
+     * Returns the number of draw calls issued since the batch was created.
+     */
+    public int getDrawCallCount() {
+        return mDrawCalls;
+    }
+
+    /**
+     * Returns the number of circles drawn since the batch was created.
+     */
+    public int getCirclesDrawn() {
+        return mCirclesDrawn;
+    }
+
+    /**
+     * Returns the vertex data for the circles currently in the batch.  Valid until the next
+     * flush.  The caller must not modify the array.
+     */
+    float[] getPendingVertices() {
+        return mVertices;
+    }
+
+    /**
+     * Returns the number of circles currently in the batch.
+     */
+    int getPendingCount() {
+        return mNumCircles;
+    }
+}
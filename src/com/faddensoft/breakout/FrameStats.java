@@ -0,0 +1,296 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Per-frame timing instrumentation.
+ * <p>
+ * Each frame is divided into sections (game state update, each of the draw passes), and the
+ * time spent in each is recorded in a fixed-size ring buffer, along with the total for the
+ * frame.  Once the ring fills, the oldest frames are overwritten, so the summaries always
+ * describe the most recent {@code capacity} frames.
+ * <p>
+ * Recording a frame does no allocation and no logging, so the instrumentation doesn't
+ * disturb the thing it's measuring (a GC pause in the middle of the frame would show up
+ * nicely in the max column, but we'd rather not be the cause).  Computing the summaries
+ * sorts a copy of each section into a preallocated scratch array; that's cheap for a few
+ * hundred frames, but it's not something to do every frame.
+ * <p>
+ * The times are CPU-side only.  The draw passes mostly measure how long it takes to hand
+ * commands to the driver; the GPU may do the actual work much later.  Time spent blocked in
+ * eglSwapBuffers() falls between frames and isn't counted at all.
+ * <p>
+ * All times are in nanoseconds, as returned by System.nanoTime().  The caller provides the
+ * timestamps, which keeps this class free of any notion of a clock.  Not thread-safe; all
+ * calls are expected to come from the Renderer thread.
+ */
+public class FrameStats {
+    // Sections.  Every section but TOTAL is measured from the end of the previous section
+    // (or the start of the frame) to the call to endSection().
+    public static final int UPDATE = 0;
+    public static final int DRAW_BASIC = 1;
+    public static final int DRAW_TEXTURED = 2;
+    public static final int DRAW_DEBUG = 3;
+    public static final int TOTAL = 4;
+    public static final int NUM_SECTIONS = 5;
+
+    // Summary values, as returned by getSummary().
+    public static final int P50 = 0;
+    public static final int P95 = 1;
+    public static final int P99 = 2;
+    public static final int MAX = 3;
+    public static final int NUM_SUMMARIES = 4;
+
+    private static final String[] SECTION_NAMES = {
+        "update", "basic", "textured", "debug", "total"
+    };
+    private static final String[] SUMMARY_NAMES = {
+        "p50", "p95", "p99", "max"
+    };
+
+    private final int mCapacity;
+
+    // Ring buffers, one per section.  Frame N lives at index (N % mCapacity) in each.
+    private final long[][] mSamples;
+
+    // Times for the frame in progress.  Sections that aren't reached are recorded as zero.
+    private final long[] mCurrent = new long[NUM_SECTIONS];
+
+    private long mFrameStart;
+    private long mSectionStart;
+    private boolean mInFrame;
+
+    // Number of completed frames.  The ring holds min(mFrameCount, mCapacity) of them.
+    private long mFrameCount;
+
+    // Most recently computed summaries, and the scratch space used to compute them.
+    private final long[][] mSummary = new long[NUM_SECTIONS][NUM_SUMMARIES];
+    private final long[] mSortScratch;
+
+    /**
+     * Constructs the object.
+     *
+     * @param capacity Number of frames to keep.
+     */
+    public FrameStats(int capacity) {
+        if (capacity <= 0) {
+            throw new RuntimeException("bad capacity " + capacity);
+        }
+        mCapacity = capacity;
+        mSamples = new long[NUM_SECTIONS][capacity];
+        mSortScratch = new long[capacity];
+    }
+
+    /**
+     * Marks the start of a frame.
+     */
+    public void startFrame(long nowNsec) {
+        for (int i = 0; i < NUM_SECTIONS; i++) {
+            mCurrent[i] = 0;
+        }
+        mFrameStart = mSectionStart = nowNsec;
+        mInFrame = true;
+    }
+
+    /**
+     * Marks the end of a section.  The time since the previous mark is charged to it.
+     */
+    public void endSection(int section, long nowNsec) {
+        if (!mInFrame) {
+            return;
+        }
+        mCurrent[section] += nowNsec - mSectionStart;
+        mSectionStart = nowNsec;
+    }
+
+    /**
+     * Marks the end of a frame, and adds it to the ring.
+     */
+    public void endFrame(long nowNsec) {
+        if (!mInFrame) {
+            return;
+        }
+        mCurrent[TOTAL] = nowNsec - mFrameStart;
+        int index = (int) (mFrameCount % mCapacity);
+        for (int i = 0; i < NUM_SECTIONS; i++) {
+            mSamples[i][index] = mCurrent[i];
+        }
+        mFrameCount++;
+        mInFrame = false;
+    }
+
+    /**
+     * Discards all recorded frames.
+     */
+    public void reset() {
+        mFrameCount = 0;
+        mInFrame = false;
+        for (int i = 0; i < NUM_SECTIONS; i++) {
+            Arrays.fill(mSummary[i], 0);
+        }
+    }
+
+    /**
+     * Returns the total number of frames recorded since the last reset.
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Returns the number of frames currently held in the ring.
+     */
+    public int getSampleCount() {
+        return (int) Math.min(mFrameCount, mCapacity);
+    }
+
+    /**
+     * Recomputes the p50/p95/p99/max summaries from the frames in the ring.  Retrieve the
+     * results with getSummary().
+     */
+    public void computeSummary() {
+        int count = getSampleCount();
+        long[] scratch = mSortScratch;
+        for (int i = 0; i < NUM_SECTIONS; i++) {
+            long[] summary = mSummary[i];
+            if (count == 0) {
+                Arrays.fill(summary, 0);
+                continue;
+            }
+            System.arraycopy(mSamples[i], 0, scratch, 0, count);
+            Arrays.sort(scratch, 0, count);
+            summary[P50] = percentile(scratch, count, 50);
+            summary[P95] = percentile(scratch, count, 95);
+            summary[P99] = percentile(scratch, count, 99);
+            summary[MAX] = scratch[count - 1];
+        }
+    }
+
+    /**
+     * Returns a value from the most recent computeSummary(), in nanoseconds.
+     *
+     * @param section Section index (UPDATE, DRAW_BASIC, ...).
+     * @param which Summary index (P50, P95, P99, MAX).
+     */
+    public long getSummary(int section, int which) {
+        return mSummary[section][which];
+    }
+
+    /**
+     * Returns the name of a section, e.g. "update".
+     */
+    public static String getSectionName(int section) {
+        return SECTION_NAMES[section];
+    }
+
+    /**
+     * Appends one line of summary for a section, e.g. "update p50 0.12 p95 ...", with
+     * the times in milliseconds.  Uses the values from the most recent computeSummary().
+     * Doesn't allocate, so it's safe to call while drawing.
+     */
+    public void appendSummary(StringBuilder sb, int section) {
+        sb.append(SECTION_NAMES[section]);
+        for (int i = 0; i < NUM_SUMMARIES; i++) {
+            sb.append(' ');
+            sb.append(SUMMARY_NAMES[i]);
+            sb.append(' ');
+            appendMillis(sb, mSummary[section][i]);
+        }
+    }
+
+    /**
+     * Writes the summary and the contents of the ring, oldest frame first, as CSV with
+     * nanosecond values.  Summary lines are prefixed with '#'.  Recomputes the summary.
+     */
+    public void dump(PrintWriter pw) {
+        computeSummary();
+        int count = getSampleCount();
+        pw.println("# frames recorded: " + mFrameCount + ", in ring: " + count);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NUM_SECTIONS; i++) {
+            sb.setLength(0);
+            sb.append("# ");
+            appendSummary(sb, i);
+            sb.append(" (ms)");
+            pw.println(sb);
+        }
+
+        for (int i = 0; i < NUM_SECTIONS; i++) {
+            if (i != 0) {
+                pw.print(',');
+            }
+            pw.print(SECTION_NAMES[i]);
+            pw.print("_ns");
+        }
+        pw.println();
+
+        long first = mFrameCount - count;
+        for (long frame = first; frame < mFrameCount; frame++) {
+            int index = (int) (frame % mCapacity);
+            for (int i = 0; i < NUM_SECTIONS; i++) {
+                if (i != 0) {
+                    pw.print(',');
+                }
+                pw.print(mSamples[i][index]);
+            }
+            pw.println();
+        }
+    }
+
+    /**
+     * Returns the nearest-rank percentile from a sorted array.
+     */
+    private static long percentile(long[] sorted, int count, int pct) {
+        // Smallest value such that at least pct% of the samples are <= it.
+        int rank = (int) (((long) pct * count + 99) / 100);
+        if (rank < 1) {
+            rank = 1;
+        }
+        return sorted[rank - 1];
+    }
+
+    /**
+     * Appends a nanosecond value as milliseconds with two decimal places, e.g. "16.67".
+     * StringBuilder.append(float) allocates on some versions of Android, so we do the
+     * digits ourselves.
+     */
+    static void appendMillis(StringBuilder sb, long nsec) {
+        if (nsec < 0) {
+            sb.append('-');
+            nsec = -nsec;
+        }
+        long hundredths = (nsec + 5000) / 10000;
+        appendDigits(sb, hundredths / 100);
+        sb.append('.');
+        int frac = (int) (hundredths % 100);
+        sb.append((char) ('0' + frac / 10));
+        sb.append((char) ('0' + frac % 10));
+    }
+
+    /**
+     * Appends a non-negative integer.
+     */
+    private static void appendDigits(StringBuilder sb, long val) {
+        if (val >= 10) {
+            appendDigits(sb, val / 10);
+        }
+        sb.append((char) ('0' + (int) (val % 10)));
+    }
+}
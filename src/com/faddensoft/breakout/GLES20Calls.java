@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+
+/**
+ * GlCalls implementation that hands everything to GLES20.
+ */
+public class GLES20Calls implements GlCalls {
+    @Override
+    public void glUseProgram(int program) {
+        GLES20.glUseProgram(program);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset) {
+        GLES20.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+        GLES20.glUniform4f(location, x, y, z, w);
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        GLES20.glUniform4fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        GLES20.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        GLES20.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+            int stride, Buffer ptr) {
+        GLES20.glVertexAttribPointer(index, size, type, normalized, stride, ptr);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+            int stride, int offset) {
+        GLES20.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        GLES20.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        GLES20.glDrawElements(mode, count, type, indices);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        GLES20.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        GLES20.glActiveTexture(texture);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        GLES20.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        GLES20.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        GLES20.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        GLES20.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        GLES20.glBufferSubData(target, offset, size, data);
+    }
+}
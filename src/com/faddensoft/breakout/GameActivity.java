@@ -57,7 +57,11 @@ public class GameActivity extends Activity {
         Log.d(TAG, "GameActivity onCreate");
 
         // Initialize data that depends on Android resources.
+        GameState.setSaveDir(getFilesDir());
         SoundResources.initialize(this);
+        if (!GameState.SDF_BALLS) {
+            BallTextureCache.initialize(this);
+        }
         TextResources.Configuration textConfig = TextResources.configure(this);
 
         mGameState = new GameState();
@@ -0,0 +1,2442 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.Arrays;
+
+/**
+ * The game simulation: ball, paddle, bricks, and borders, and the rules that govern them.
+ * <p>
+ * This class has no Android or OpenGL dependencies.  All state is held in primitive fields
+ * and arrays, so the simulation can be stepped on a plain JVM (see the headless runner in the
+ * "benchmarks" directory).  GameState owns an instance, drives it once per frame, and mirrors
+ * the results into the drawable objects.
+ * <p>
+ * Things the simulation can't do on its own, like playing sounds or writing to the log, are
+ * reported through a Listener.
+ */
+public class GameSimulation {
+    public static final boolean DEBUG_COLLISIONS = false;       // enable increased logging
+    static final boolean EXTRA_CHECK = true;                    // enable additional assertions
+
+    /**
+     * Receives notifications from the simulation.  Calls are made synchronously from
+     * advance(), on whatever thread is driving the simulation.
+     */
+    public interface Listener {
+        /**
+         * A sound should be played.  One of the SOUND_* constants.
+         */
+        void onSound(int sound);
+
+        /**
+         * A brick was destroyed.
+         */
+        void onBrickDestroyed(int brick);
+
+        /**
+         * Diagnostic output (collision debugging, glitches).
+         */
+        void onLogMessage(String msg);
+    }
+
+    /*
+     * Sounds the simulation asks for.  These match the SoundResources constants.
+     */
+    public static final int SOUND_BRICK_HIT = 0;
+    public static final int SOUND_PADDLE_HIT = 1;
+    public static final int SOUND_WALL_HIT = 2;
+    public static final int SOUND_BALL_LOST = 3;
+    static final int NUM_SOUNDS = 4;
+
+    // Gameplay configurables.  These may not be changed while the game is in progress.
+    private boolean mNeverLoseBall = false;      // if true, bounce off the bottom
+    private int mMaxLives = 3;
+    private int mBallInitialSpeed = 300;
+    private int mBallMaximumSpeed = 800;
+    private float mBallSizeMultiplier = 1.0f;
+    private float mPaddleSizeMultiplier = 1.0f;
+    private float mScoreMultiplier = 1.0f;
+    private int mExtraBalls = 0;                // launched along with each new ball
+
+
+    /*
+     * Size of the "arena".  We pretend we have a fixed-size screen with this many pixels in it.
+     * Everything gets scaled to the viewport before display, so this is just an artificial
+     * construct that allows us to work with integer values.  It also allows us to save and
+     * restore values in a screen-dimension-independent way, which would be useful if a saved
+     * game were moved between devices through The Cloud.
+     *
+     * The values here are completely arbitrary.  I find it easier to read debug output with
+     * 3-digit integer values than, say, floating point numbers between 0.0 and 1.0.  What
+     * really matters is the proportion of width to height, since that defines the shape of
+     * the play area.
+     */
+    static final float ARENA_WIDTH = 768.0f;
+    static final float ARENA_HEIGHT = 1024.0f;
+
+    /*
+     * The arena looks something like this (remember, GL coordinates start in lower-left corner):
+     *
+     * +-----------------------------+
+     * |          (empty)      score |  <- 90%
+     * |                             |  <- 80%
+     * | brick brick brick brick ... |  <- 70%
+     * | brick brick brick brick ... |  <- 60%
+     * | brick brick brick brick ... |  <- 50%
+     * | brick brick brick brick ... |  <- 40%
+     * |                             |  <- 30%
+     * |          (empty)            |  <- 20%
+     * |          !paddle!           |  <- 10%
+     * |          (empty)            |  <-  0%
+     * +-----------------------------+
+     *
+     * We scale bricks so they fill the middle area, split into 8 rows and 16 columns.
+     *
+     * The arena has a (width * 2%) border on three sides (bottom is open).  The border is
+     * inside the arena, not an external decoration.
+     *
+     * The size of the ball is flexible, except that we require it to be round (looks nicer
+     * than a square).  Knowing the shape is important for collision detection, which must
+     * treat the ball as a circle rather than a rectangle.
+     *
+     * The paddle is another simple rect, and the size can change based on the current
+     * difficulty level.
+     *
+     * Positions and sizes are specified in percentages, because it's easier to get a sense for
+     * how things are laid out when reading the constants than it would with absolute coordinate
+     * values.  It also means things will adjust automatically if we decide to change the
+     * proportions of the arena.
+     */
+    static final float BRICK_TOP_PERC = 85 / 100.0f;
+    static final float BRICK_BOTTOM_PERC = 43 / 100.0f;
+    static final float BORDER_WIDTH_PERC = 2 / 100.0f;
+    static final int BRICK_COLUMNS = 12;
+    static final int BRICK_ROWS = 8;
+
+    static final float BORDER_WIDTH = (int) (BORDER_WIDTH_PERC * ARENA_WIDTH);
+
+    /*
+     * We compute the size of each "brick zone" based on the amount of space available.  A
+     * brick zone is a single brick plus the blank area around it.  The size of the border gap is
+     * determined by these two constants.  If we use 5% on each side, we get a 10% gap between
+     * bricks (except at the outer edges).
+     *
+     * If the gap between bricks is large enough, the ball can "tunnel" between rows or
+     * columns if it hits at the right angle.
+     *
+     * Set these to zero to have a solid block of bricks.
+     */
+    private static final float BRICK_HORIZONTAL_GAP_PERC = 20 / 100.0f;
+    private static final float BRICK_VERTICAL_GAP_PERC = 50 / 100.0f;
+
+    /*
+     * Vertical position for the paddle, and paddle dimensions.  The height (i.e. thickness) is
+     * a % of the arena height, and the width is a unit size, based on % of arena width.  The
+     * width can be increased or decreased based on skill level.
+     *
+     * We want the paddle to be a little higher up on the screen than it would be in a
+     * mouse-based game because there needs to be enough room for the player's finger under the
+     * paddle.  Depending on the screen dimensions and orientation there may or may not be some
+     * touch space outside the viewport, but we can't rely on that.
+     */
+    private static final float PADDLE_VERTICAL_PERC = 12 / 100.0f;
+    private static final float PADDLE_HEIGHT_PERC = 1 / 100.0f;
+    private static final float PADDLE_WIDTH_PERC = 2 / 100.0f;
+    private static final int PADDLE_DEFAULT_WIDTH = 6;
+    private static final int DEFAULT_PADDLE_WIDTH =
+            (int) (ARENA_WIDTH * PADDLE_WIDTH_PERC * PADDLE_DEFAULT_WIDTH);
+
+    /*
+     * Ball dimensions.  Internally it's just a rect, but we'll give it a circular texture so
+     * it looks round.  Size is a percentage of the arena width.  This can also be adjusted
+     * for skill level, up to a fairly goofy level.
+     */
+    private static final float BALL_WIDTH_PERC = 2.5f / 100.0f;
+    private static final int DEFAULT_BALL_DIAMETER = (int) (ARENA_WIDTH * BALL_WIDTH_PERC);
+
+    /*
+     * Border 0 is special -- it's the bottom of the screen, and colliding with it means you
+     * lose the ball.  A more general solution would be to give borders a "type", but that's
+     * overkill for this game.
+     */
+    static final int NUM_BORDERS = 4;
+    static final int BOTTOM_BORDER = 0;
+
+    /*
+     * Everything the ball can collide with is an axis-aligned rect, identified by an index
+     * into these arrays.  The bricks come first (so a brick's index is also its rect index),
+     * followed by the borders, followed by the paddle.  As with BaseRect, the position is the
+     * center point and the scale is the full width and height.
+     *
+     * The bricks are in a single linear array.  To stay in the theme of OpenGL, this is in
+     * column-major order, i.e. the first N blocks on the left side are the first N members
+     * of the array.
+     */
+    private final int mBrickColumns;
+    private final int mBrickRows;
+    private final int mNumBricks;
+    private final int mFirstBorder;
+    private final int mPaddleRect;
+    private final float[] mRectXPosition;
+    private final float[] mRectYPosition;
+    private final float[] mRectXScale;
+    private final float[] mRectYScale;
+
+    /*
+     * Brick liveness, one bit per brick: brick N is bit (N & 63) of word (N >>> 6).  Walking
+     * the set bits with Long.numberOfTrailingZeros() visits only the live bricks, so it gets
+     * cheaper as the board empties, and saving the board is a copy of a few words.
+     */
+    private final long[] mBrickAliveBits;
+    private final int[] mBrickScoreValue;
+    private int mLiveBrickCount;
+
+    /*
+     * XOR of brickHashKey() for every dead brick, kept up to date by killBrick(), so
+     * computeStateHash() doesn't have to walk the whole bit vector on a big board.
+     */
+    private long mDeadBrickHash;
+
+    /*
+     * Spatial index for the bricks, so the collision code only has to look at the bricks near
+     * the ball.  Cells match the "brick zones" set up in initBricks().  Must be updated
+     * whenever a brick dies.
+     */
+    private BrickGrid mBrickGrid;
+
+    /*
+     * The balls.  The diameter is configurable, either for different skill levels or for
+     * amusement value.
+     *
+     * The speed is expressed in arena-units per second.  A speed of 60 will move the ball
+     * 60 arena-units per second, or 1 unit per frame on a 60Hz device.
+     *
+     * There's always at least one ball in play; ball 0 is the one the player launches, and
+     * the accessors without a ball index refer to it.  Additional balls can be added with
+     * addBall() or spawnBalls().  Like the rects, the balls are kept in parallel arrays
+     * rather than as objects, so moveBall() can walk through hundreds of them without
+     * chasing references, and nothing is allocated while playing.  When a ball is removed,
+     * the last ball is moved into its slot, so ball indices are not stable across a call to
+     * advance() that loses a ball.
+     */
+    static final int DEFAULT_MAX_BALLS = 1024;
+    private final int mMaxBalls;
+    private final float[] mBallXPosition, mBallYPosition;
+    private final float[] mBallXDirection, mBallYDirection;     // normalized motion vector
+    private final int[] mBallSpeed;
+    private final float[] mBallRadius;
+    private int mNumBalls;
+    private float mDefaultBallRadius;
+
+    /*
+     * Length of one fixed simulation step, for callers that want to advance in fixed-size
+     * ticks.  If every call to advance() uses this value, the outcome depends only on the
+     * sequence of paddle positions, not on the timing of the display.
+     */
+    public static final int TICKS_PER_SECOND = 240;
+    public static final double TICK_SEC = 1.0 / TICKS_PER_SECOND;
+
+    /*
+     * Pause briefly on certain transitions, e.g. before launching a new ball after one was lost.
+     */
+    private float mPauseDuration;
+
+    /*
+     * Debug feature: do the next N frames in slow motion.  Useful when examining collisions.
+     * The speed will ramp up to normal over the last 60 frames.  (This is a debug feature, not
+     * part of the game, so we just count frames and assume the panel is somewhere near 60fps.)
+     * See DEBUG_COLLISIONS for example usage.
+     */
+    private int mDebugSlowMotionFrames;
+
+    /*
+     * Storage for collision detection results.
+     */
+    private static final int HIT_FACE_NONE = 0;
+    private static final int HIT_FACE_VERTICAL = 1;
+    private static final int HIT_FACE_HORIZONTAL = 2;
+    private static final int HIT_FACE_SHARPCORNER = 3;
+
+    /**
+     * Scratch space for moving balls, and the results of the collision functions.  Each
+     * thread that moves balls needs its own.  The game thread uses mMainStep.
+     * <p>
+     * A "deferred" context is used when several threads are moving balls at once.  Nothing
+     * shared is changed: bricks that get hit are left standing and noted here, along with
+     * lost balls, score penalties, and sounds, and mergeDeferred() applies it all once every
+     * ball has moved.  Log messages are counted and dropped, since the listener expects to
+     * be called on the game thread.
+     */
+    static final class StepContext {
+        final int[] mPossibleCollisions;
+        final int[] mBrickCandidates;
+        final BrickGrid.Query mGridQuery;
+        float mHitDistanceTraveled;     // result from findFirstCollision()
+        float mHitXAdj, mHitYAdj;       // result from findFirstCollision()
+        int mHitFace;                   // result from findFirstCollision()
+
+        // Most recent area examined by the "coarse" pass, for visual debugging.
+        float mSweepLeft, mSweepRight, mSweepBottom, mSweepTop;
+
+        final boolean mDeferred;
+        final int[] mKilledBricks;
+        final boolean[] mKilled;        // dedupes mKilledBricks
+        int mNumKilled;
+        final int[] mLostBalls;
+        int mNumLost;
+        int mScorePenalty;
+        final int[] mSoundCounts;
+        int mLogCount;
+
+        StepContext(int numRects, int numBricks, int maxBalls, boolean deferred) {
+            mPossibleCollisions = new int[numRects];
+            mBrickCandidates = new int[numBricks];
+            mGridQuery = new BrickGrid.Query(numBricks);
+            mDeferred = deferred;
+            if (deferred) {
+                mKilledBricks = new int[numBricks];
+                mKilled = new boolean[numBricks];
+                mLostBalls = new int[maxBalls];
+                mSoundCounts = new int[NUM_SOUNDS];
+            } else {
+                mKilledBricks = null;
+                mKilled = null;
+                mLostBalls = null;
+                mSoundCounts = null;
+            }
+        }
+
+        void addKill(int brick) {
+            if (!mKilled[brick]) {
+                mKilled[brick] = true;
+                mKilledBricks[mNumKilled++] = brick;
+            }
+        }
+    }
+    private final StepContext mMainStep;
+
+    // Parallel ball movement.  Null unless setParallelThreads() has been called.
+    private ParallelStepper mStepper;
+    private boolean[] mMergeKilled;
+    private int[] mMergeKilledBricks;
+    private int[] mMergeLostBalls;
+
+    /*
+     * The "fine" collision pass can be done two ways.  The original approach marches the ball
+     * along its path in small steps (findFirstCollision()), the other computes the exact time
+     * of impact with each candidate (findFirstCollisionSwept()).  Both produce the same set
+     * of results.
+     *
+     * If COMPARE_COLLISION_MODES is set, we run both on every query, use the results from the
+     * selected mode, and log any disagreements along with the relative cost.
+     */
+    public static final int COLLISION_MODE_MARCH = 0;
+    public static final int COLLISION_MODE_SWEPT = 1;
+    private static final boolean COMPARE_COLLISION_MODES = false;
+    private int mCollisionMode = COLLISION_MODE_MARCH;
+    private int mCompareCount;
+    private int mCompareFaceMismatch;
+    private int mCompareObjectMismatch;
+    private long mCompareMarchNsec;
+    private long mCompareSweptNsec;
+
+    /*
+     * Game play state.
+     */
+    static final int GAME_INITIALIZING = 0;
+    static final int GAME_READY = 1;
+    static final int GAME_PLAYING = 2;
+    static final int GAME_WON = 3;
+    static final int GAME_LOST = 4;
+    private int mGamePlayState;
+
+    private int mLivesRemaining;
+    private int mScore;
+
+    /*
+     * Events that can happen when the ball moves.
+     */
+    public static final int EVENT_NONE = 0;
+    public static final int EVENT_LAST_BRICK = 1;
+    public static final int EVENT_BALL_LOST = 2;
+
+    private Listener mListener;
+
+
+    /**
+     * Creates a simulation with the standard board.
+     */
+    public GameSimulation() {
+        this(BRICK_COLUMNS, BRICK_ROWS);
+    }
+
+    /**
+     * Creates a simulation with a non-standard number of bricks.  The bricks are sized to
+     * fill the usual brick area.  Handy for stress-testing.
+     */
+    public GameSimulation(int brickColumns, int brickRows) {
+        this(brickColumns, brickRows, DEFAULT_MAX_BALLS);
+    }
+
+    /**
+     * Creates a simulation with a non-standard number of bricks, and room for up to
+     * "maxBalls" balls in play at once.
+     */
+    public GameSimulation(int brickColumns, int brickRows, int maxBalls) {
+        if (brickColumns <= 0 || brickRows <= 0) {
+            throw new RuntimeException("bad board size " + brickColumns + "x" + brickRows);
+        }
+        if (maxBalls <= 0) {
+            throw new RuntimeException("bad maxBalls " + maxBalls);
+        }
+        mBrickColumns = brickColumns;
+        mBrickRows = brickRows;
+        mNumBricks = brickColumns * brickRows;
+        mFirstBorder = mNumBricks;
+        mPaddleRect = mNumBricks + NUM_BORDERS;
+
+        int numRects = mPaddleRect + 1;
+        mRectXPosition = new float[numRects];
+        mRectYPosition = new float[numRects];
+        mRectXScale = new float[numRects];
+        mRectYScale = new float[numRects];
+        mBrickAliveBits = new long[(mNumBricks + 63) >>> 6];
+        mBrickScoreValue = new int[mNumBricks];
+
+        mMaxBalls = maxBalls;
+        mBallXPosition = new float[maxBalls];
+        mBallYPosition = new float[maxBalls];
+        mBallXDirection = new float[maxBalls];
+        mBallYDirection = new float[maxBalls];
+        mBallSpeed = new int[maxBalls];
+        mBallRadius = new float[maxBalls];
+        mNumBalls = 1;
+
+        mMainStep = new StepContext(numRects, mNumBricks, maxBalls, false);
+    }
+
+    /*
+     * Trivial setters for configurables.  See the notes in GameState.
+     */
+    public void setNeverLoseBall(boolean neverLoseBall) {
+        mNeverLoseBall = neverLoseBall;
+    }
+    public void setMaxLives(int maxLives) {
+        mMaxLives = maxLives;
+    }
+    public void setExtraBalls(int extraBalls) {
+        mExtraBalls = extraBalls;
+    }
+    public void setBallInitialSpeed(int speed) {
+        mBallInitialSpeed = speed;
+    }
+    public void setBallMaximumSpeed(int speed) {
+        mBallMaximumSpeed = speed;
+    }
+    public void setBallSizeMultiplier(float mult) {
+        mBallSizeMultiplier = mult;
+    }
+    public void setPaddleSizeMultiplier(float mult) {
+        mPaddleSizeMultiplier = mult;
+    }
+    public void setScoreMultiplier(float mult) {
+        mScoreMultiplier = mult;
+    }
+    public void setCollisionMode(int mode) {
+        mCollisionMode = mode;
+    }
+
+    /*
+     * Trivial getters for configurables.  Used to record the setup along with a game, so it
+     * can be replayed.
+     */
+    public boolean getNeverLoseBall() {
+        return mNeverLoseBall;
+    }
+    public int getMaxLives() {
+        return mMaxLives;
+    }
+    public int getExtraBalls() {
+        return mExtraBalls;
+    }
+    public int getBallInitialSpeed() {
+        return mBallInitialSpeed;
+    }
+    public int getBallMaximumSpeed() {
+        return mBallMaximumSpeed;
+    }
+    public float getBallSizeMultiplier() {
+        return mBallSizeMultiplier;
+    }
+    public float getPaddleSizeMultiplier() {
+        return mPaddleSizeMultiplier;
+    }
+    public float getScoreMultiplier() {
+        return mScoreMultiplier;
+    }
+    public int getCollisionMode() {
+        return mCollisionMode;
+    }
+
+    /**
+     * Sets the object that receives sound and log notifications.  May be null.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Sets up the borders, bricks, paddle, and ball, then resets the game.  This is a
+     * convenience for callers that don't need to interleave their own setup, e.g. headless
+     * test runs.
+     */
+    public void initBoard() {
+        initBorders();
+        initBricks();
+        initPaddle();
+        initBall();
+        reset();
+    }
+
+    /**
+     * Resets game state to initial values.  The board must already be set up.
+     */
+    public void reset() {
+        mGamePlayState = GAME_INITIALIZING;
+        mPauseDuration = 0.0f;
+        mLivesRemaining = mMaxLives;
+        mScore = 0;
+        resetBall();
+        //mLiveBrickCount = 0;      // initialized by initBricks
+    }
+
+    /**
+     * Discards any extra balls, and moves the ball to its start position, resetting direction
+     * and speed to initial values.
+     */
+    private void resetBall() {
+        mNumBalls = 1;
+        mBallRadius[0] = mDefaultBallRadius;
+        setBallDirection(-0.3f, -1.0f);
+        setBallSpeed(mBallInitialSpeed);
+
+        setBallPosition(ARENA_WIDTH / 2.0f + 45, ARENA_HEIGHT * BRICK_BOTTOM_PERC - 100);
+    }
+
+    /**
+     * Sets the sizes and positions of the borders.
+     */
+    public void initBorders() {
+        // This rect is just off the bottom of the arena.  If we collide with it, the ball is
+        // lost.  This must be BOTTOM_BORDER (zero).
+        setRect(mFirstBorder + BOTTOM_BORDER, ARENA_WIDTH/2, -BORDER_WIDTH/2,
+                ARENA_WIDTH, BORDER_WIDTH);
+
+        // Need one rect each for left / right / top.
+        setRect(mFirstBorder + 1, BORDER_WIDTH/2, ARENA_HEIGHT/2,
+                BORDER_WIDTH, ARENA_HEIGHT);
+        setRect(mFirstBorder + 2, ARENA_WIDTH - BORDER_WIDTH/2, ARENA_HEIGHT/2,
+                BORDER_WIDTH, ARENA_HEIGHT);
+        setRect(mFirstBorder + 3, ARENA_WIDTH/2, ARENA_HEIGHT - BORDER_WIDTH/2,
+                ARENA_WIDTH - BORDER_WIDTH*2, BORDER_WIDTH);
+    }
+
+    /**
+     * Sets the sizes, positions, and score values of the bricks, and marks them all as alive.
+     * Sets mLiveBrickCount.
+     */
+    public void initBricks() {
+        final float totalBrickWidth = ARENA_WIDTH - BORDER_WIDTH * 2;
+        final float brickWidth = totalBrickWidth / mBrickColumns;
+        final float totalBrickHeight = ARENA_HEIGHT * (BRICK_TOP_PERC - BRICK_BOTTOM_PERC);
+        final float brickHeight = totalBrickHeight / mBrickRows;
+
+        final float zoneBottom = ARENA_HEIGHT * BRICK_BOTTOM_PERC;
+        final float zoneLeft = BORDER_WIDTH;
+
+        BrickGrid grid = new BrickGrid(mBrickColumns, mBrickRows, zoneLeft, zoneBottom,
+                brickWidth, brickHeight, mNumBricks);
+
+        for (int i = 0; i < mNumBricks; i++) {
+            int row = i / mBrickColumns;
+
+            float bottom = zoneBottom + row * brickHeight;
+            float left = zoneLeft + (i % mBrickColumns) * brickWidth;
+
+            // Brick position specifies the center point, so need to offset from bottom left.
+            // Brick size is the size of the "brick zone", scaled down by a few % on each edge.
+            setRect(i, left + brickWidth / 2, bottom + brickHeight / 2,
+                    brickWidth * (1.0f - BRICK_HORIZONTAL_GAP_PERC),
+                    brickHeight * (1.0f - BRICK_VERTICAL_GAP_PERC));
+
+            // Score is based on row, with lower bricks being worth less than the top bricks.
+            // The point value here is for a game at normal difficulty.  We multiply by 100
+            // because that makes everything MORE EXCITING!!!
+            mBrickScoreValue[i] = (row + 1) * 100;
+
+            grid.setBrick(i, mRectXPosition[i], mRectYPosition[i], mRectXScale[i],
+                    mRectYScale[i]);
+        }
+        grid.finishSetup();
+        mBrickGrid = grid;
+
+        long[] bits = mBrickAliveBits;
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = -1L;
+        }
+        if ((mNumBricks & 63) != 0) {
+            bits[bits.length - 1] = (1L << (mNumBricks & 63)) - 1;
+        }
+        mLiveBrickCount = mNumBricks;
+        mDeadBrickHash = 0;
+    }
+
+    /**
+     * Sets the size and initial position of the paddle.
+     */
+    public void initPaddle() {
+        setRect(mPaddleRect, ARENA_WIDTH / 2.0f, ARENA_HEIGHT * PADDLE_VERTICAL_PERC,
+                DEFAULT_PADDLE_WIDTH * mPaddleSizeMultiplier, ARENA_HEIGHT * PADDLE_HEIGHT_PERC);
+    }
+
+    /**
+     * Sets the size of the ball.
+     */
+    public void initBall() {
+        int diameter = (int) (DEFAULT_BALL_DIAMETER * mBallSizeMultiplier);
+        // ovals don't work right -- collision detection requires a circle
+        mDefaultBallRadius = diameter / 2.0f;
+        for (int i = 0; i < mNumBalls; i++) {
+            mBallRadius[i] = mDefaultBallRadius;
+        }
+    }
+
+    private void setRect(int rect, float xpos, float ypos, float xscale, float yscale) {
+        mRectXPosition[rect] = xpos;
+        mRectYPosition[rect] = ypos;
+        mRectXScale[rect] = xscale;
+        mRectYScale[rect] = yscale;
+    }
+
+    /**
+     * Marks a brick as dead, and removes it from the spatial index.  Has no effect if the
+     * brick is already dead.
+     */
+    public void killBrick(int brick) {
+        long mask = 1L << brick;        // shift count is taken mod 64
+        int word = brick >>> 6;
+        if ((mBrickAliveBits[word] & mask) == 0) {
+            return;
+        }
+        mBrickAliveBits[word] &= ~mask;
+        mBrickGrid.removeBrick(brick);
+        mLiveBrickCount--;
+        mDeadBrickHash ^= brickHashKey(brick);
+        if (mListener != null) {
+            mListener.onBrickDestroyed(brick);
+        }
+    }
+
+    /**
+     * Brings a dead brick back to life, and returns it to the spatial index.  Has no effect
+     * if the brick is already alive.  The listener isn't told; callers that draw the bricks
+     * need to check isBrickAlive() afterward.
+     */
+    public void reviveBrick(int brick) {
+        long mask = 1L << brick;        // shift count is taken mod 64
+        int word = brick >>> 6;
+        if ((mBrickAliveBits[word] & mask) != 0) {
+            return;
+        }
+        mBrickAliveBits[word] |= mask;
+        mBrickGrid.addBrick(brick);
+        mLiveBrickCount++;
+        mDeadBrickHash ^= brickHashKey(brick);
+    }
+
+    /**
+     * Moves the paddle to a new location.  The requested position is expressed in arena
+     * coordinates, but does not need to be clamped to the viewable region.
+     * <p>
+     * The final position may be slightly different due to collisions with walls or
+     * side-contact with the ball.
+     */
+    public void movePaddle(float arenaX) {
+        /*
+         * If we allow the paddle to be moved inside the ball (e.g. a quick sideways motion at a
+         * time when the ball is on the same horizontal line), the collision detection code may
+         * react badly.  This can happen if we move the paddle without regard for the position
+         * of the ball.
+         *
+         * The problem is easy to demonstrate with a ball that has a large radius and a slow
+         * speed.  If the paddle deeply intersects the ball, you either have to ignore the
+         * collision and let the ball pass through the paddle (which looks weird), or bounce off.
+         * When bouncing off we have to adjust the ball position so it no longer intersects with
+         * the paddle, which means a large jarring jump in position, or ignoring additional
+         * collisions, since they could cause the ball to reverse direction repeatedly
+         * (essentially just vibrating in place).
+         *
+         * We can handle this by running the paddle movement through the same collision
+         * detection code that the ball uses, and stopping it when we collide with something
+         * (the ball or walls).  That would work well if the paddle were smoothly sliding, but
+         * our control scheme allows absolute jumps -- the paddle instantly goes wherever you
+         * touch on the screen.  If the paddle were on the far right, and you touched the far
+         * left, you'd expect it to go to the far left even if the ball was "in the way" in
+         * the middle of the screen.  (This is mitigated if you arrange it so that the paddle
+         * appears to knock the ball sideways when it collides -- then it's apparent to the user
+         * that the paddle was stopped by a collision with the ball.)
+         *
+         * The visual artifacts of making the ball leap are minor given the speed of animation
+         * and the size of objects on screen, so I'm currently just ignoring the problem.  The
+         * moral of the story is that everything that moves needs to tested for collisions
+         * with all objects.
+         */
+
+        float paddleWidth = mRectXScale[mPaddleRect] / 2;
+        final float minX = BORDER_WIDTH + paddleWidth;
+        final float maxX = ARENA_WIDTH - BORDER_WIDTH - paddleWidth;
+
+        if (arenaX < minX) {
+            arenaX = minX;
+        } else if (arenaX > maxX) {
+            arenaX = maxX;
+        }
+
+        mRectXPosition[mPaddleRect] = arenaX;
+    }
+
+    /**
+     * Sets the pause time.  The game will continue to execute, but won't advance game state.
+     */
+    public void setPauseTime(float durationSec) {
+        mPauseDuration = durationSec;
+    }
+
+    /**
+     * Returns the amount of pause time remaining, in seconds.
+     */
+    public float getPauseTime() {
+        return mPauseDuration;
+    }
+
+    /**
+     * Advances the simulation.
+     *
+     * @param deltaSec Amount of time that has elapsed since the previous call.
+     * @return A value indicating special events (won game, lost ball).
+     */
+    public int advance(double deltaSec) {
+        boolean advanceFrame = true;
+
+        // If we're in a pause, don't advance any state.
+        if (mPauseDuration > 0.0f) {
+            advanceFrame = false;
+            if (mPauseDuration > deltaSec) {
+                mPauseDuration -= deltaSec;
+            } else {
+                mPauseDuration = 0.0f;
+            }
+        }
+
+        // Do something appropriate based on our current state.
+        switch (mGamePlayState) {
+            case GAME_INITIALIZING:
+                mGamePlayState = GAME_READY;
+                break;
+            case GAME_READY:
+                if (advanceFrame) {
+                    // "ready" has expired, move ball to starting position
+                    mGamePlayState = GAME_PLAYING;
+                    if (mExtraBalls > 0) {
+                        spawnBalls(mExtraBalls);
+                    }
+                    setPauseTime(0.5f);
+                    advanceFrame = false;
+                }
+                break;
+            case GAME_WON:
+            case GAME_LOST:
+                advanceFrame = false;
+                break;
+            case GAME_PLAYING:
+                break;
+            default:
+                log("GLITCH: bad state " + mGamePlayState);
+                break;
+        }
+
+        // If we're playing, move the ball around.
+        int event = EVENT_NONE;
+        if (advanceFrame) {
+            event = moveBall(deltaSec);
+            switch (event) {
+                case EVENT_LAST_BRICK:
+                    mGamePlayState = GAME_WON;
+                    // We're already playing the brick sound; play the other three sounds
+                    // simultaneously.  Cheap substitute for an actual "victory" sound.
+                    playSound(SOUND_PADDLE_HIT);
+                    playSound(SOUND_WALL_HIT);
+                    playSound(SOUND_BALL_LOST);
+                    break;
+                case EVENT_BALL_LOST:
+                    if (--mLivesRemaining == 0) {
+                        // game over, man
+                        mGamePlayState = GAME_LOST;
+                    } else {
+                        // switch back to "ready" state, reset ball position
+                        mGamePlayState = GAME_READY;
+                        setPauseTime(1.5f);
+                        resetBall();
+                    }
+                    break;
+                case EVENT_NONE:
+                    break;
+                default:
+                    throw new RuntimeException("bad game event: " + event);
+            }
+        }
+
+        return event;
+    }
+
+    /**
+     * Moves the ball, checking for and reporting collisions as we go.
+     * <p>
+     * This and the collision functions it uses are package-private so the JMH benchmarks
+     * can call them directly.
+     *
+     * @return A value indicating special events (won game, lost ball).
+     */
+    int moveBall(double deltaSec) {
+        /*
+         * Movement and collision detection is done with two checks, "coarse" and "fine".
+         *
+         * First, we take the current position of the ball, and compute where it will be
+         * for the next frame.  We compute a box that encloses both the current and next
+         * positions (an "axis-aligned bounding box", or AABB).  For every object in the list,
+         * including the borders and paddle, we do quick test for a collision.  If nothing
+         * matches, we just jump the ball forward.
+         *
+         * If we do get some matches, we need to do a finer-grained test to see if (a) we
+         * actually hit something, and (b) how far along the ball's path we were when we
+         * first collided.
+         *
+         * If we did hit something, we need to update the ball's motion vector based on which
+         * edge or corner we hit, and restart the whole process from the point of the collision.
+         * The ball is now moving in a different direction, so the "coarse" information we
+         * gathered previously is no longer valid.
+         *
+         * There can be multiple collisions in a single frame, and we need to catch them all.
+         *
+         * (Given an insanely fast-moving ball, or a ball with a really large radius, or various
+         * other crazy parameters, it's possible to hit every brick in a single frame.)
+         *
+         * With more than one ball in play, each one is moved in turn, all the way through
+         * its collisions, before we look at the next.  They don't collide with each other.
+         * We walk the list backward so that removing a lost ball (which moves the last ball
+         * into its slot) doesn't cause us to skip or repeat anything.
+         *
+         * If setParallelThreads() has been called, the balls are divided up among several
+         * threads instead.  See ParallelStepper.
+         */
+
+        float slowDiv = 1.0f;
+        if (mDebugSlowMotionFrames > 0) {
+            // Simulate a "slow motion" mode by reducing distance.  The reduction is constant
+            // until the last 60 frames, which ramps the speed up gradually.
+            final float SLOW_FACTOR = 8.0f;
+            final float RAMP_FRAMES = 60.0f;
+            if (mDebugSlowMotionFrames > RAMP_FRAMES) {
+                slowDiv = SLOW_FACTOR;
+            } else {
+                // At frame 60, we want the full slowdown.  At frame 0, we want no slowdown.
+                // STEP is how much we want to subtract from SLOW_FACTOR at each step.
+                final float STEP = (SLOW_FACTOR - 1.0f) / RAMP_FRAMES;
+
+                slowDiv = SLOW_FACTOR - (STEP * (RAMP_FRAMES - mDebugSlowMotionFrames));
+            }
+
+            mDebugSlowMotionFrames--;
+        }
+
+        if (mStepper != null) {
+            return mStepper.step(mNumBalls, deltaSec, slowDiv);
+        }
+
+        int event = EVENT_NONE;
+        for (int ball = mNumBalls - 1; ball >= 0; ball--) {
+            float distance = (float) (mBallSpeed[ball] * deltaSec) / slowDiv;
+            //log("delta=" + deltaSec * 60.0f + " dist=" + distance);
+
+            int ballEvent = moveOneBall(mMainStep, ball, distance);
+            if (ballEvent == EVENT_LAST_BRICK) {
+                event = EVENT_LAST_BRICK;
+                break;
+            } else if (ballEvent == EVENT_BALL_LOST) {
+                if (mNumBalls > 1) {
+                    // Still have others in play, just drop this one.
+                    removeBall(ball);
+                } else {
+                    event = EVENT_BALL_LOST;
+                }
+            }
+        }
+
+        return event;
+    }
+
+    /**
+     * Moves balls [first, end) with a deferred StepContext.  Called from the ParallelStepper
+     * threads, each with its own context and its own range of balls.  Nothing here changes
+     * state that another thread reads: each ball's position, direction and speed are only
+     * touched by the thread moving it, and brick kills etc. are left for mergeDeferred().
+     */
+    void moveBallRange(StepContext ctx, int first, int end, double deltaSec, float slowDiv) {
+        for (int ball = first; ball < end; ball++) {
+            float distance = (float) (mBallSpeed[ball] * deltaSec) / slowDiv;
+            if (moveOneBall(ctx, ball, distance) == EVENT_BALL_LOST) {
+                ctx.mLostBalls[ctx.mNumLost++] = ball;
+            }
+        }
+    }
+
+    /**
+     * Applies what the deferred contexts collected while the balls were moving, and resets
+     * them for the next step.  Called on the game thread after every ball has moved.
+     * <p>
+     * Every ball saw the bricks as they were at the start of the step, so two balls can hit
+     * the same brick; it only dies (and scores) once.  The bricks are killed in ascending
+     * order and each sound is played at most once, so the result doesn't depend on how the
+     * balls were divided up among the threads.
+     *
+     * @return A value indicating special events (won game, lost ball).
+     */
+    int mergeDeferred(StepContext[] contexts, int numContexts) {
+        int numKilled = 0;
+        int numLost = 0;
+        int penalty = 0;
+        int logCount = 0;
+        for (int i = 0; i < numContexts; i++) {
+            StepContext ctx = contexts[i];
+            for (int j = 0; j < ctx.mNumKilled; j++) {
+                int brick = ctx.mKilledBricks[j];
+                ctx.mKilled[brick] = false;
+                if (!mMergeKilled[brick]) {
+                    mMergeKilled[brick] = true;
+                    mMergeKilledBricks[numKilled++] = brick;
+                }
+            }
+            ctx.mNumKilled = 0;
+            for (int j = 0; j < ctx.mNumLost; j++) {
+                mMergeLostBalls[numLost++] = ctx.mLostBalls[j];
+            }
+            ctx.mNumLost = 0;
+            penalty += ctx.mScorePenalty;
+            ctx.mScorePenalty = 0;
+            logCount += ctx.mLogCount;
+            ctx.mLogCount = 0;
+        }
+
+        Arrays.sort(mMergeKilledBricks, 0, numKilled);
+        for (int i = 0; i < numKilled; i++) {
+            int brick = mMergeKilledBricks[i];
+            mMergeKilled[brick] = false;
+            killBrick(brick);
+            mScore += mBrickScoreValue[brick] * mScoreMultiplier;
+        }
+        if (penalty != 0) {
+            mScore -= penalty;
+            if (mScore < 0) {
+                mScore = 0;
+            }
+        }
+
+        for (int sound = 0; sound < NUM_SOUNDS; sound++) {
+            int count = 0;
+            for (int i = 0; i < numContexts; i++) {
+                count += contexts[i].mSoundCounts[sound];
+                contexts[i].mSoundCounts[sound] = 0;
+            }
+            if (count != 0) {
+                playSound(sound);
+            }
+        }
+        if (logCount != 0) {
+            log("dropped " + logCount + " log messages from parallel step");
+        }
+
+        int event = EVENT_NONE;
+        if (numLost == mNumBalls) {
+            // Lost them all.  Keep one around for advance() to reset.
+            mNumBalls = 1;
+            event = EVENT_BALL_LOST;
+        } else if (numLost != 0) {
+            // Remove from the top down, so removeBall() doesn't move a ball we still need
+            // to remove.
+            Arrays.sort(mMergeLostBalls, 0, numLost);
+            for (int i = numLost - 1; i >= 0; i--) {
+                removeBall(mMergeLostBalls[i]);
+            }
+        }
+        if (numKilled != 0 && mLiveBrickCount == 0) {
+            log("*** won ***");
+            event = EVENT_LAST_BRICK;
+        }
+        return event;
+    }
+
+    /**
+     * Moves one ball the specified distance, bouncing off of anything it hits.
+     *
+     * @return EVENT_LAST_BRICK if the ball destroyed the last brick, EVENT_BALL_LOST if it
+     *     fell off the bottom, EVENT_NONE otherwise.
+     */
+    private int moveOneBall(StepContext ctx, int ball, float distance) {
+        int event = EVENT_NONE;
+        float radius = mBallRadius[ball];
+
+        while (distance > 0.0f) {
+            float curX = mBallXPosition[ball];
+            float curY = mBallYPosition[ball];
+            float dirX = mBallXDirection[ball];
+            float dirY = mBallYDirection[ball];
+            float finalX = curX + dirX * distance;
+            float finalY = curY + dirY * distance;
+            float left, right, top, bottom;
+
+            /*
+             * Find the edges of the rectangle described by the ball's start and end position.
+             * The (x,y) values identify the center, so factor in the radius too.
+             *
+             * Per GL conventions, values get larger moving toward the top-right corner.
+             */
+            if (curX < finalX) {
+                left = curX - radius;
+                right = finalX + radius;
+            } else {
+                left = finalX - radius;
+                right = curX + radius;
+            }
+            if (curY < finalY) {
+                bottom = curY - radius;
+                top = finalY + radius;
+            } else {
+                bottom = finalY - radius;
+                top = curY + radius;
+            }
+            /* debug */
+            ctx.mSweepLeft = left;
+            ctx.mSweepRight = right;
+            ctx.mSweepBottom = bottom;
+            ctx.mSweepTop = top;
+
+            int hits = 0;
+
+            // test bricks; the grid only gives us live bricks near the ball
+            int numCandidates = mBrickGrid.findCandidates(ctx.mGridQuery, left, right,
+                    bottom, top, ctx.mBrickCandidates);
+            for (int i = 0; i < numCandidates; i++) {
+                int brick = ctx.mBrickCandidates[i];
+                if (checkCoarseCollision(brick, left, right, bottom, top)) {
+                    ctx.mPossibleCollisions[hits++] = brick;
+                }
+            }
+
+            // test borders
+            for (int i = 0; i < NUM_BORDERS; i++) {
+                if (checkCoarseCollision(mFirstBorder + i, left, right, bottom, top)) {
+                    ctx.mPossibleCollisions[hits++] = mFirstBorder + i;
+                }
+            }
+
+            // test paddle
+            if (checkCoarseCollision(mPaddleRect, left, right, bottom, top)) {
+                ctx.mPossibleCollisions[hits++] = mPaddleRect;
+            }
+
+            if (hits != 0) {
+                // may have hit something, look closer
+                int hit;
+                if (COMPARE_COLLISION_MODES) {
+                    hit = compareCollisionModes(ctx, ctx.mPossibleCollisions, hits,
+                            curX, curY, dirX, dirY, distance, radius);
+                } else if (mCollisionMode == COLLISION_MODE_SWEPT) {
+                    hit = findFirstCollisionSwept(ctx, ctx.mPossibleCollisions, hits,
+                            curX, curY, dirX, dirY, distance, radius);
+                } else {
+                    hit = findFirstCollision(ctx, ctx.mPossibleCollisions, hits,
+                            curX, curY, dirX, dirY, distance, radius);
+                }
+
+                if (hit < 0) {
+                    // didn't actually hit, clear counter
+                    hits = 0;
+                } else {
+                    if (EXTRA_CHECK) {
+                        if (ctx.mHitDistanceTraveled <= 0.0f) {
+                            log(ctx, "GLITCH: collision detection didn't move the ball");
+                            ctx.mHitDistanceTraveled = distance;
+                        }
+                    }
+
+                    // Update posn for the actual distance traveled and the collision adjustment
+                    float newPosX = curX + dirX * ctx.mHitDistanceTraveled + ctx.mHitXAdj;
+                    float newPosY = curY + dirY * ctx.mHitDistanceTraveled + ctx.mHitYAdj;
+                    setBallPosition(ball, newPosX, newPosY);
+                    if (DEBUG_COLLISIONS) {
+                        log(ctx, "COL: intermediate cx=" + newPosX + " cy=" + newPosY);
+                    }
+
+                    // Update the direction vector based on the nature of the surface we
+                    // struck.  We will override this for collisions with the paddle.
+                    float newDirX = dirX;
+                    float newDirY = dirY;
+                    switch (ctx.mHitFace) {
+                        case HIT_FACE_HORIZONTAL:
+                            newDirY = -dirY;
+                            break;
+                        case HIT_FACE_VERTICAL:
+                            newDirX = -dirX;
+                            break;
+                        case HIT_FACE_SHARPCORNER:
+                            newDirX = -dirX;
+                            newDirY = -dirY;
+                            break;
+                        case HIT_FACE_NONE:
+                        default:
+                            log(ctx, "GLITCH: unexpected hit face" + ctx.mHitFace);
+                            break;
+                    }
+
+
+                    /*
+                     * Figure out what we hit, and react.  A conceptually cleaner way to do
+                     * this would be to define a "collision" action on every object, and call
+                     * that.  This is very straightforward for the object state update
+                     * handling (e.g. remove brick, make sound), but gets a little more
+                     * complicated for collisions that don't follow the basic rules (e.g. hitting
+                     * the paddle) or special events (like hitting the very last brick).  We're
+                     * not trying to build a game engine, so we just use a big if-then-else.
+                     *
+                     * Sounds are handed to the listener, which decides how to play them.  If
+                     * the sound code takes a while to queue up sounds, we could stall the
+                     * game/render thread and reduce our frame rate.  However, unless the ball
+                     * is moving at an absurd speed, we shouldn't be colliding with more than
+                     * two objects in a single frame, so we shouldn't be stressing SoundPool much.
+                     */
+                    if (hit < mNumBricks) {
+                        if (ctx.mDeferred) {
+                            // Other threads are looking at the bricks too.  Leave the brick
+                            // standing for them and let mergeDeferred() kill it.
+                            ctx.addKill(hit);
+                        } else {
+                            killBrick(hit);
+                            mScore += mBrickScoreValue[hit] * mScoreMultiplier;
+                            if (mLiveBrickCount == 0) {
+                                log(ctx, "*** won ***");
+                                event = EVENT_LAST_BRICK;
+                                distance = 0.0f;
+                            }
+                        }
+                        playSound(ctx, SOUND_BRICK_HIT);
+                    } else if (hit == mPaddleRect) {
+                        if (ctx.mHitFace == HIT_FACE_HORIZONTAL) {
+                            float paddleWidth = mRectXScale[mPaddleRect];
+                            float paddleLeft = mRectXPosition[mPaddleRect] - paddleWidth / 2;
+                            float hitAdjust = (newPosX - paddleLeft) / paddleWidth;
+
+                            // Adjust the ball's motion based on where it hit the paddle.
+                            //
+                            // hitPosn ranges from 0.0 to 1.0, with a little bit of overlap
+                            // because the ball is round (it's based on the ball's *center*,
+                            // not the actual point of impact on the paddle itself -- something
+                            // we could correct by getting additional data out of the collision
+                            // detection code, but we can just as easily clamp it).
+                            //
+                            // The location determines how we alter the X velocity.  We want
+                            // this to be more pronounced at the edges of the paddle, especially
+                            // if the ball is hitting the "outside edge".
+                            //
+                            // Direction is a vector, normalized by setBallDirection().  We
+                            // don't need to worry about dirX growing without bound.
+                            //
+                            // This bit of code has a substantial impact on the "feel" of
+                            // the game.  It could probably use more tweaking.
+                            if (hitAdjust < 0.0f) {
+                                hitAdjust = 0.0f;
+                            }
+                            if (hitAdjust > 1.0f) {
+                                hitAdjust = 1.0f;
+                            }
+                            hitAdjust -= 0.5f;
+                            if (Math.abs(hitAdjust) > 0.25) {   // outer 25% on each side
+                                if (dirX < 0 && hitAdjust > 0 || dirX > 0 && hitAdjust < 0) {
+                                    //log("outside corner, big jump");
+                                    hitAdjust *= 1.6;
+                                } else {
+                                    //log("far corner, modest jump");
+                                    hitAdjust *= 1.2;
+                                }
+                            }
+                            hitAdjust *= 1.25;
+                            //log(" hitAdj=" + hitAdjust + " old dir=" + dirX + "," + dirY);
+                            newDirX += hitAdjust;
+                            float maxRatio = 3.0f;
+                            if (Math.abs(newDirX) > Math.abs(newDirY) * maxRatio) {
+                                // Limit the angle so we don't get too crazily horizontal.  Note
+                                // the ball could be moving downward after a collision if we're
+                                // in "never lose" mode and we bounced off the bottom of the
+                                // paddle, so we can't assume newDirY is positive.
+                                //log("capping Y vel to " + maxRatio + ":1");
+                                if (newDirY < 0) {
+                                    maxRatio = -maxRatio;
+                                }
+                                newDirY = Math.abs(newDirX) / maxRatio;
+                            }
+                        }
+
+                        playSound(ctx, SOUND_PADDLE_HIT);
+                    } else if (hit == mFirstBorder + BOTTOM_BORDER) {
+                        // We hit the bottom border.  It might be a little weird visually to
+                        // bounce off of it when the ball is lost, so if we hit it we stop the
+                        // current frame of computation immediately.  (Moving the border farther
+                        // off screen doesn't work -- too far and there's a long delay waiting
+                        // for a slow ball to drain, too close and we still get the bounce effect
+                        // from a fast-moving ball.)
+                        if (!mNeverLoseBall) {
+                            event = EVENT_BALL_LOST;
+                            distance = 0.0f;
+                            playSound(ctx, SOUND_BALL_LOST);
+                        } else if (ctx.mDeferred) {
+                            ctx.mScorePenalty += (int) (500 * mScoreMultiplier);
+                            playSound(ctx, SOUND_WALL_HIT);
+                        } else {
+                            mScore -= 500 * mScoreMultiplier;
+                            if (mScore < 0) {
+                                mScore = 0;
+                            }
+                            playSound(ctx, SOUND_WALL_HIT);
+                        }
+                    } else {
+                        // hit a border
+                        playSound(ctx, SOUND_WALL_HIT);
+                    }
+
+                    // Increase speed by 3% after each (super-elastic!) collision, capping
+                    // at the skill-level-dependent maximum speed.
+                    int speed = mBallSpeed[ball];
+                    speed += (mBallMaximumSpeed - mBallInitialSpeed) * 3 / 100;
+                    if (speed > mBallMaximumSpeed) {
+                        speed = mBallMaximumSpeed;
+                    }
+                    setBallSpeed(ball, speed);
+
+                    setBallDirection(ball, newDirX, newDirY);
+                    distance -= ctx.mHitDistanceTraveled;
+
+                    if (DEBUG_COLLISIONS) {
+                        log(ctx, "COL: remaining dist=" + distance + " new dirX=" +
+                                mBallXDirection[ball] + " dirY=" + mBallYDirection[ball]);
+                    }
+                }
+            }
+
+            if (hits == 0) {
+                // hit nothing, move ball to final position and bail
+                if (DEBUG_COLLISIONS) {
+                    log(ctx, "COL: none (dist was " + distance + ")");
+                }
+                setBallPosition(ball, finalX, finalY);
+                distance = 0.0f;
+            }
+        }
+
+        return event;
+    }
+
+    /**
+     * Determines whether the target object could possibly collide with a ball whose current
+     * and future position are enclosed by the l/r/b/t values.
+     *
+     * @return true if we might collide with this object.
+     */
+    boolean checkCoarseCollision(int target, float left, float right,
+            float bottom, float top) {
+        /*
+         * This is a "coarse" detection, so we can play fast and loose.  One approach is to
+         * essentially draw a circle around each object, and see if the circles intersect.
+         * This requires a simple distance test -- if the distance between the center points
+         * of the objects is greater than their combined radii, there's no chance of collision.
+         * Mathematically, each test is two multiplications and a compare.
+         *
+         * This is a very sloppy test for a fast-moving ball, though, because we're drawing
+         * it around the current and final position.  If the ball is moving quickly from left
+         * to right, we will end up testing for collisions in a large area above and below
+         * the ball, because the circle extends in all directions.
+         *
+         * A better test, given the generally rectangular nature of all of our objects, would
+         * be to test the draw rects for overlap.  This is precise for all objects except the
+         * ball itself, and even for that it has a better-confined region.  Each test requires
+         * a handful of additions and comparisons, and on a device with an FPU will be slower.
+         *
+         * If we're really concerned about performance, we can skip brick collision detection
+         * entirely at the top and bottom of the board with a simple range check, and divide
+         * the brick area into a grid so we only look at bricks in the cells the ball could
+         * touch as it moves between the old and new positions.  That's what BrickGrid does, so
+         * for bricks this test just trims the handful of candidates the grid hands us.
+         *
+         * At the end of the day we've got about a hundred bricks, the four edges of the screen,
+         * and the paddle.  We just want to do something simple that will cut the number of
+         * objects we need to check in the "fine" pass to a handful.
+         */
+
+        // Convert position+scale into l/r/b/t.
+        float xpos, ypos, xscale, yscale;
+        float targLeft, targRight, targBottom, targTop;
+
+        xpos = mRectXPosition[target];
+        ypos = mRectYPosition[target];
+        xscale = mRectXScale[target];
+        yscale = mRectYScale[target];
+        targLeft = xpos - xscale;
+        targRight = xpos + xscale;
+        targBottom = ypos - yscale;
+        targTop = ypos + yscale;
+
+        // If the smallest right is bigger than the biggest left, and the smallest bottom is
+        // bigger than the biggest top, we overlap.
+        //
+        // FWIW, this is essentially an application of the Separating Axis Theorem for two
+        // axis-aligned rects.
+        float checkLeft = targLeft > left ? targLeft : left;
+        float checkRight = targRight < right ? targRight : right;
+        float checkTop = targBottom > bottom ? targBottom : bottom;
+        float checkBottom = targTop < top ? targTop : top;
+
+        if (checkRight > checkLeft && checkBottom > checkTop) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tests for a collision with the rectangles in mPossibleCollisions as the ball travels from
+     * (curX,curY).
+     * <p>
+     * We can't return multiple values from a method call in Java.  We don't want to allocate
+     * storage for the return value on each frame (this being part of the main game loop).  We
+     * used to drop the values into dedicated return-value fields, but with balls being moved
+     * on several threads at once each thread needs its own, so they live in the StepContext
+     * the caller hands us.  We return the object we hit, and store additional details in:
+     * <ul>
+     * <li>mHitDistanceTraveled - the distance traveled before impact
+     * <li>mHitFace - what face orientation we hit
+     * <li>mHitXAdj, mHitYAdj - position adjustment so objects won't intersect
+     * </ul>
+     *
+     * @param ctx Per-thread scratch space; receives the results.
+     * @param rects Array of rect indices to test against.
+     * @param numRects Number of rects in array.
+     * @param curX Current X position.
+     * @param curY Current Y position.
+     * @param dirX X component of normalized direction vector.
+     * @param dirY Y component of normalized direction vector.
+     * @param distance Distance to travel.
+     * @param radius Radius of the ball.
+     * @return The index of the rect we struck, or -1 if none.
+     */
+    int findFirstCollision(StepContext ctx, int[] rects, final int numRects,
+            final float curX, final float curY, final float dirX, final float dirY,
+            final float distance, final float radius) {
+        /*
+         * The "coarse" function has indicated that a collision is possible.  We need to get
+         * an exact determination of what we're hitting.
+         *
+         * We can either use some math to compute the time of intersection of each rect with
+         * the moving ball (a "sweeping" collision test, perhaps even straying into
+         * "continuous collision detection"), or we can just step the ball forward until
+         * it collides with something or reaches the end point.  The latter isn't as precise,
+         * but is much simpler, so we'll do that.
+         *
+         * We can use a test similar to the Separating Axis Theorem, but with a circle vs.
+         * rectangle collision it's possible for the axis-aligned projections to overlap but
+         * not have a collision (e.g. the circle is near one corner).  We need to perform an
+         * additional test to check the distance from the closest vertex to the center of the
+         * circle.  The fancy way to figure out which corner is closest is with Voronoi regions,
+         * but we don't really need that: since we're colliding with axis-aligned rects, we can
+         * just collapse the whole thing into a single quadrant.
+         *
+         * Nice illustration here:
+         *  http://stackoverflow.com/questions/401847/circle-rectangle-collision-detection-intersection
+         *
+         * Once we determine that a collision has occurred, we need to determine where we hit
+         * so that we can decide how to bounce.  For our bricks we're either hitting a vertical
+         * or horizontal surface; these will cause us to invert the X component or Y component
+         * of our direction vector.  It also makes sense visually to reverse direction when
+         * you run into a corner.
+         *
+         * It's possible to get "tunneling" effects, which may look weird but are actually
+         * legitimate.  Two common scenarios:
+         *
+         *  (1) Suppose the ball is moving upward and slightly to the left.  If it
+         *      squeezes between the gap in the bricks and hits a right edge, it will
+         *      do a vertical-surface bounce (i.e. start moving back to the right), and
+         *      almost immediately hit the vertical surface of the brick to the right.
+         *      With the right angle, this can repeat in a nearby column and climb up through
+         *      several layers.  (Unless the ball is small relative to the gap between bricks,
+         *      this is hard to do in practice.)
+         *  (2) A "sharp corner" bounce can keep the ball moving upward.  For
+         *      example, a ball moving up and right hits the bottom of a brick,
+         *      and heads down and to the right.  It hits the top-left corner of
+         *      a brick, and reverses direction (up and left).  It hits the bottom
+         *      of another brick, and while moving down and left it hits the
+         *      top-right corner of a fourth brick.  If the angle is right, this
+         *      pattern will continue, knocking out a vertical tunnel.  Because it's
+         *      hitting on corners, this is easy to do even if the horizontal gap
+         *      between bricks is fairly narrow.
+         *
+         * The smaller the inter-brick gap is, the less likely the tunneling
+         * effects are to occur.  With a small enough gap (and a reasonable MAX_STEP)
+         * it's impossible to hit an "inside" corner or surface.
+         *
+         * It's possible to collide with two shapes at once.  We ignore this situation.
+         * Whichever object we happen to examine first gets credit.
+         */
+
+        // Maximum distance, in arena coordinates, we advance the ball on each iteration of
+        // the loop.  If this is too small, we'll do a lot of unnecessary iterations.  If it's
+        // too large (e.g. more than the ball's radius), the ball can end up inside an object,
+        // or pass through one entirely.
+        final float MAX_STEP = 2.0f;
+
+        // Minimum distance.  After a collision the objects are just barely in contact, so at
+        // each step we need to move a little or we'll double-collide.  The minimum exists to
+        // ensure that we don't get hosed by floating point round-off error.
+        final float MIN_STEP = 0.001f;
+
+        float radiusSq = radius * radius;
+        int faceHit = HIT_FACE_NONE;
+        int faceToAdjust = HIT_FACE_NONE;
+        float traveled = 0.0f;
+
+        while (traveled < distance) {
+            // Travel a bit.
+            if (distance - traveled > MAX_STEP) {
+                traveled += MAX_STEP;
+            } else if (distance - traveled < MIN_STEP) {
+                //log("WOW: skipping tiny step distance " + (distance - traveled));
+                break;
+            } else {
+                traveled = distance;
+            }
+            float circleXWorld = curX + dirX * traveled;
+            float circleYWorld = curY + dirY * traveled;
+
+            for (int i = 0; i < numRects; i++) {
+                int rect = rects[i];
+                float rectXWorld = mRectXPosition[rect];
+                float rectYWorld = mRectYPosition[rect];
+                float rectXScaleHalf = mRectXScale[rect] / 2.0f;
+                float rectYScaleHalf = mRectYScale[rect] / 2.0f;
+
+                // Translate the circle so that it's in the first quadrant, with the center of the
+                // rectangle at (0,0).
+                float circleX = Math.abs(circleXWorld - rectXWorld);
+                float circleY = Math.abs(circleYWorld - rectYWorld);
+
+                if (circleX > rectXScaleHalf + radius || circleY > rectYScaleHalf + radius) {
+                    // Circle is too far from rect edge(s) to overlap.  No collision.
+                    continue;
+                }
+
+                /*
+                 * Check to see if the center of the circle is inside the rect on one axis.  The
+                 * previous test eliminated anything that was too far on either axis, so
+                 * if this passes then we must have a collision.
+                 *
+                 * We're not moving the ball fast enough (limited by MAX_STEP) to get the center
+                 * of the ball completely inside the rect (i.e. we shouldn't see a case where the
+                 * center is inside the rect on *both* axes), so if we're inside in the X axis we
+                 * can conclude that we just collided due to vertical motion, and have hit a
+                 * horizontal surface.
+                 *
+                 * If the center isn't inside on either axis, we've hit the corner case, and
+                 * need to do a distance test.
+                 */
+                if (circleX <= rectXScaleHalf) {
+                    faceToAdjust = faceHit = HIT_FACE_HORIZONTAL;
+                } else if (circleY <= rectYScaleHalf) {
+                    faceToAdjust = faceHit = HIT_FACE_VERTICAL;
+                } else {
+                    // Check the distance from rect corner to center of circle.
+                    float xdist = circleX - rectXScaleHalf;
+                    float ydist = circleY - rectYScaleHalf;
+                    if (xdist*xdist + ydist*ydist > radiusSq) {
+                        // Not close enough.
+                        //log("COL: corner miss");
+                        continue;
+                    }
+
+                    /*
+                     * The center point of the ball is outside both edges of the rectangle,
+                     * but the corner is inside the radius of the circle, so this is a corner
+                     * hit.  We need to decide how to bounce off.
+                     *
+                     * One approach is to see which edge is closest.  We know we're within a
+                     * ball-radius of both edges.  If you imagine a ball moving straight upward,
+                     * hitting just to the left of the bottom-left corner of a brick, you'll
+                     * note that the impact occurs when the X distance (from brick edge to
+                     * center of ball) is very small, and the Y distance is close to the ball
+                     * radius.  So if X < Y, it's a horizontal-surface hit.
+                     *
+                     * However, there's a nasty edge case: imagine the ball is traveling up and
+                     * to the right.  It skims past the top-left corner of a brick.  If the ball
+                     * is positioned just barely outside the collision radius to the left of the
+                     * brick in the current frame, our next step could take us to the other side
+                     * of the ball -- at which point we "collide" with the horizontal *top*
+                     * surface of the brick.  The brick is destroyed and the ball "bounces" down
+                     * and to the right (because we reverse Y direction on a horizontal hit).
+                     * Decreasing MAX_STEP makes this less likely, but we can't make it impossible.
+                     *
+                     * Another approach is to compare the direction the ball was moving with
+                     * which corner we hit.  Consider the bottom-left corner of a brick.  There
+                     * are three ways to hit it: straight in (ball moving up and right), skimming
+                     * from the left (ball moving down and right), and skimming from below
+                     * (ball moving up and left).  By comparing just the sign of the components
+                     * of the ball's direction vector with the sign of a vector drawn from the
+                     * corner to the center of the rect, we can decide what sort of impact
+                     * we've had.
+                     *
+                     * If the signs match, it's a "sharp" corner impact, and we want to bounce
+                     * straight back.  If only X matches, we're approaching from the side, and
+                     * it's a vertical side impact.  If only Y matches, we're approaching from
+                     * the bottom, and it's a horizontal impact.  The collision behavior no
+                     * longer depends on which side we're actually touching, concealing the
+                     * fact that the ball has effectively passed through the corner of the brick
+                     * and we're catching the collision a bit late.
+                     *
+                     * If bouncing straight back off of a corner is undesirable, we can just
+                     * use the computation done in the faceToAdjust assignment for "sharp
+                     * "corner" impacts instead.
+                     */
+                    float dirXSign = Math.signum(dirX);
+                    float dirYSign = Math.signum(dirY);
+                    float cornerXSign = Math.signum(rectXWorld - circleXWorld);
+                    float cornerYSign = Math.signum(rectYWorld - circleYWorld);
+
+                    String msg;
+                    if (dirXSign == cornerXSign && dirYSign == cornerYSign) {
+                        faceHit = HIT_FACE_SHARPCORNER;
+                        msg = "sharp";
+                        if (DEBUG_COLLISIONS) {
+                            // Sharp corners can be interesting.  Slow it down for a few
+                            // seconds.
+                            mDebugSlowMotionFrames = 240;
+                        }
+                    } else if (dirXSign == cornerXSign) {
+                        faceHit = HIT_FACE_VERTICAL;
+                        msg = "vert";
+                    } else if (dirYSign == cornerYSign) {
+                        faceHit = HIT_FACE_HORIZONTAL;
+                        msg = "horiz";
+                    } else {
+                        // This would mean we hit the far corner of the brick, i.e. the ball
+                        // passed completely through it.
+                        log(ctx, "COL: impossible corner hit");
+                        faceHit = HIT_FACE_SHARPCORNER;
+                        msg = "???";
+                    }
+
+                    if (DEBUG_COLLISIONS) {
+                        log(ctx, "COL: " + msg + "-corner hit xd=" + xdist + " yd=" + ydist
+                                + " dir=" + dirXSign + "," + dirYSign
+                                + " cor=" + cornerXSign + "," + cornerYSign);
+                    }
+
+                    // Adjust whichever requires the least movement to guarantee we're no
+                    // longer colliding.
+                    if (xdist < ydist) {
+                        faceToAdjust = HIT_FACE_HORIZONTAL;
+                    } else {
+                        faceToAdjust = HIT_FACE_VERTICAL;
+                    }
+                }
+
+                if (DEBUG_COLLISIONS) {
+                    String msg = "?";
+                    if (faceHit == HIT_FACE_SHARPCORNER) {
+                        msg = "corner";
+                    } else if (faceHit == HIT_FACE_HORIZONTAL) {
+                        msg = "horiz";
+                    } else if (faceHit == HIT_FACE_VERTICAL) {
+                        msg = "vert";
+                    }
+                    log(ctx, "COL: " + msg + " hit rect " + rect +
+                            " cx=" + circleXWorld + " cy=" + circleYWorld +
+                            " rx=" + rectXWorld + " ry=" + rectYWorld +
+                            " rxh=" + rectXScaleHalf + " ryh=" + rectYScaleHalf);
+                }
+
+                /*
+                 * Collision!
+                 *
+                 * Because we're moving in discrete steps rather than continuously, we will
+                 * usually end up slightly embedded in the object.  If, after reversing direction,
+                 * we subsequently step forward very slightly (assuming a non-destructable
+                 * object like a wall), we will detect a second collision with the same object,
+                 * and reverse direction back *into* the wall.  Visually, the ball will "stick"
+                 * to the wall and vibrate.
+                 *
+                 * We need to back the ball out slightly.  Ideally we'd back it along the path
+                 * the ball was traveling by just the right amount, but unless MAX_STEP is
+                 * really large the difference between that and a minimum-distance axis-aligned
+                 * shift is negligible -- and this is easier to compute.
+                 *
+                 * There's some risk that our adjustment will leave the ball trapped in a
+                 * different object.  Since the ball is the only object that's moving, and the
+                 * direction of adjustment shouldn't be too far from the angle of incidence, we
+                 * shouldn't have this problem in practice.
+                 *
+                 * Note this leaves the ball just *barely* in contact with the object it hit,
+                 * which means it's technically still colliding.  This won't cause us to
+                 * collide again and reverse course back into the object because we will move
+                 * the ball a nonzero distance away from the object before we check for another
+                 * collision.  The use of MIN_STEP ensures that we won't fall victim to floating
+                 * point round-off error.  (If we didn't want to guarantee movement, we could
+                 * shift the ball a tiny bit farther so that it simply wasn't in contact.)
+                 */
+                float hitXAdj, hitYAdj;
+                if (faceToAdjust == HIT_FACE_HORIZONTAL) {
+                    hitXAdj = 0.0f;
+                    hitYAdj = rectYScaleHalf + radius - circleY;
+                    if (EXTRA_CHECK && hitYAdj < 0.0f) {
+                        log(ctx, "HEY: horiz was neg");
+                    }
+                    if (circleYWorld < rectYWorld) {
+                        // ball is below rect, must be moving up, so adjust it down
+                        hitYAdj = -hitYAdj;
+                    }
+                } else if (faceToAdjust == HIT_FACE_VERTICAL) {
+                    hitXAdj = rectXScaleHalf + radius - circleX;
+                    hitYAdj = 0.0f;
+                    if (EXTRA_CHECK && hitXAdj < 0.0f) {
+                        log(ctx, "HEY: vert was neg");
+                    }
+                    if (circleXWorld < rectXWorld) {
+                        // ball is left of rect, must be moving to right, so adjust it left
+                        hitXAdj = -hitXAdj;
+                    }
+                } else {
+                    log(ctx, "GLITCH: unexpected faceToAdjust " + faceToAdjust);
+                    hitXAdj = hitYAdj = 0.0f;
+                }
+
+                if (DEBUG_COLLISIONS) {
+                    log(ctx, "COL:  r=" + radius + " trav=" + traveled +
+                            " xadj=" + hitXAdj + " yadj=" + hitYAdj);
+                }
+                ctx.mHitFace = faceHit;
+                ctx.mHitDistanceTraveled = traveled;
+                ctx.mHitXAdj = hitXAdj;
+                ctx.mHitYAdj = hitYAdj;
+                return rect;
+            }
+        }
+
+        //log("COL: no collision");
+        return -1;
+    }
+
+    /**
+     * Tests for a collision with the rectangles in mPossibleCollisions by computing the exact
+     * time of impact with each one.  Same arguments and results as findFirstCollision().
+     */
+    int findFirstCollisionSwept(StepContext ctx, int[] rects, final int numRects,
+            final float curX, final float curY, final float dirX, final float dirY,
+            final float distance, final float radius) {
+        /*
+         * A circle moving along a line hits an axis-aligned rect at the same moment its center
+         * point enters the rect "inflated" by the circle's radius (the Minkowski sum of the two
+         * shapes).  That's a rect with rounded corners, so instead of testing a circle against
+         * a rect at discrete steps we can cast a ray from the ball's center against the rounded
+         * rect and get the exact distance to the point of contact.
+         *
+         * The ray cast is done in two parts.  First, we intersect the ray with the inflated rect
+         * (ignoring the rounding) using the usual "slab" test: find the interval over which the
+         * center is between the left/right edges, the interval over which it's between the
+         * top/bottom edges, and take the intersection.  If the entry point lands on one of the
+         * flat sides, we're done -- the slab we entered last tells us which face we hit.  If it
+         * lands in one of the corner squares, the actual surface is the circle of radius
+         * "radius" centered on the rect's corner, so we intersect the ray with that.  Because
+         * the rounded rect is convex, missing the corner circle means missing the shape entirely.
+         *
+         * This costs a few divisions per candidate no matter how far the ball travels, whereas
+         * the step-based approach costs (distance / MAX_STEP) iterations over all candidates.
+         *
+         * The ball ends up exactly in contact with the object it hit.  If we're touching
+         * something when we start, we ignore it unless we're moving toward it, so we don't
+         * collide with the thing we just bounced off of.  We do need to make forward progress
+         * in all cases (a ball squeezed between the paddle and a wall could otherwise bounce
+         * back and forth forever without moving), so as with the step-based code we always
+         * advance by at least MIN_STEP, pushing the ball back out along the surface normal
+         * if that leaves it embedded.
+         *
+         * Corner hits are classified with the same direction-vs-corner test the step-based code
+         * uses, so the two approaches agree on how the ball bounces.
+         */
+
+        final float MIN_STEP = 0.001f;
+        if (distance < MIN_STEP) {
+            return -1;
+        }
+
+        int bestRect = -1;
+        float bestDist = distance;
+        float bestRectX = 0.0f, bestRectY = 0.0f, bestHalfX = 0.0f, bestHalfY = 0.0f;
+
+        for (int i = 0; i < numRects; i++) {
+            int rect = rects[i];
+            float rectXWorld = mRectXPosition[rect];
+            float rectYWorld = mRectYPosition[rect];
+            float rectXScaleHalf = mRectXScale[rect] / 2.0f;
+            float rectYScaleHalf = mRectYScale[rect] / 2.0f;
+
+            float hitDist = sweepCircleRect(curX - rectXWorld, curY - rectYWorld, dirX, dirY,
+                    radius, rectXScaleHalf, rectYScaleHalf);
+            // Ties go to the object examined first, same as findFirstCollision().
+            if (hitDist < 0.0f) {
+                continue;
+            }
+            if (bestRect < 0 ? hitDist <= bestDist : hitDist < bestDist) {
+                bestRect = rect;
+                bestDist = hitDist;
+                bestRectX = rectXWorld;
+                bestRectY = rectYWorld;
+                bestHalfX = rectXScaleHalf;
+                bestHalfY = rectYScaleHalf;
+            }
+        }
+
+        if (bestRect < 0) {
+            return -1;
+        }
+
+        // Figure out which face we hit, using the position at the moment of contact.
+        float contactX = curX + dirX * bestDist;
+        float contactY = curY + dirY * bestDist;
+        float circleX = Math.abs(contactX - bestRectX);
+        float circleY = Math.abs(contactY - bestRectY);
+        float xdist = circleX - bestHalfX;
+        float ydist = circleY - bestHalfY;
+        int faceHit;
+        if (xdist <= 0.0f) {
+            faceHit = HIT_FACE_HORIZONTAL;
+        } else if (ydist <= 0.0f) {
+            faceHit = HIT_FACE_VERTICAL;
+        } else {
+            float dirXSign = Math.signum(dirX);
+            float dirYSign = Math.signum(dirY);
+            float cornerXSign = Math.signum(bestRectX - contactX);
+            float cornerYSign = Math.signum(bestRectY - contactY);
+            if (dirXSign == cornerXSign && dirYSign == cornerYSign) {
+                faceHit = HIT_FACE_SHARPCORNER;
+            } else if (dirXSign == cornerXSign) {
+                faceHit = HIT_FACE_VERTICAL;
+            } else if (dirYSign == cornerYSign) {
+                faceHit = HIT_FACE_HORIZONTAL;
+            } else {
+                log(ctx, "COL: impossible corner hit (swept)");
+                faceHit = HIT_FACE_SHARPCORNER;
+            }
+        }
+
+        // Enforce forward progress, then push the ball back out if it's embedded.
+        float traveled = bestDist;
+        if (traveled < MIN_STEP) {
+            traveled = MIN_STEP;
+        }
+        float posX = curX + dirX * traveled;
+        float posY = curY + dirY * traveled;
+        float offX = posX - bestRectX;
+        float offY = posY - bestRectY;
+        float hitXAdj = 0.0f;
+        float hitYAdj = 0.0f;
+        if (Math.abs(offX) <= bestHalfX) {
+            float pen = bestHalfY + radius - Math.abs(offY);
+            if (pen > 0.0f) {
+                hitYAdj = offY < 0.0f ? -pen : pen;
+            }
+        } else if (Math.abs(offY) <= bestHalfY) {
+            float pen = bestHalfX + radius - Math.abs(offX);
+            if (pen > 0.0f) {
+                hitXAdj = offX < 0.0f ? -pen : pen;
+            }
+        } else {
+            // Corner region: push away from the corner point.
+            float cornerOffX = offX - Math.signum(offX) * bestHalfX;
+            float cornerOffY = offY - Math.signum(offY) * bestHalfY;
+            float len = (float) Math.sqrt(cornerOffX * cornerOffX + cornerOffY * cornerOffY);
+            float pen = radius - len;
+            if (pen > 0.0f && len > 0.0f) {
+                hitXAdj = cornerOffX / len * pen;
+                hitYAdj = cornerOffY / len * pen;
+            }
+        }
+
+        if (DEBUG_COLLISIONS) {
+            log(ctx, "COL: swept hit rect " + bestRect +
+                    " face=" + faceHit + " dist=" + bestDist + " trav=" + traveled +
+                    " xadj=" + hitXAdj + " yadj=" + hitYAdj);
+        }
+        ctx.mHitFace = faceHit;
+        ctx.mHitDistanceTraveled = traveled;
+        ctx.mHitXAdj = hitXAdj;
+        ctx.mHitYAdj = hitYAdj;
+        return bestRect;
+    }
+
+    /**
+     * Computes the distance a circle can travel before it touches an axis-aligned rect.
+     * Coordinates are relative to the center of the rect.
+     *
+     * @param posX Circle center X, relative to the rect center.
+     * @param posY Circle center Y, relative to the rect center.
+     * @param dirX X component of normalized direction vector.
+     * @param dirY Y component of normalized direction vector.
+     * @param radius Radius of the circle.
+     * @param halfWidth Half the width of the rect.
+     * @param halfHeight Half the height of the rect.
+     * @return Distance to the point of contact, or -1 if the circle never touches the rect
+     *      (or is already touching it and isn't moving toward it).
+     */
+    static float sweepCircleRect(float posX, float posY, float dirX, float dirY, float radius,
+            float halfWidth, float halfHeight) {
+        final float outerX = halfWidth + radius;
+        final float outerY = halfHeight + radius;
+
+        // Slab test against the inflated rect.  "Enter" and "exit" are distances along the ray.
+        float enterX, exitX, enterY, exitY;
+        if (dirX == 0.0f) {
+            if (Math.abs(posX) > outerX) {
+                return -1.0f;
+            }
+            enterX = Float.NEGATIVE_INFINITY;
+            exitX = Float.POSITIVE_INFINITY;
+        } else {
+            float t1 = (-outerX - posX) / dirX;
+            float t2 = (outerX - posX) / dirX;
+            enterX = Math.min(t1, t2);
+            exitX = Math.max(t1, t2);
+        }
+        if (dirY == 0.0f) {
+            if (Math.abs(posY) > outerY) {
+                return -1.0f;
+            }
+            enterY = Float.NEGATIVE_INFINITY;
+            exitY = Float.POSITIVE_INFINITY;
+        } else {
+            float t1 = (-outerY - posY) / dirY;
+            float t2 = (outerY - posY) / dirY;
+            enterY = Math.min(t1, t2);
+            exitY = Math.max(t1, t2);
+        }
+        float enter = Math.max(enterX, enterY);
+        float exit = Math.min(exitX, exitY);
+        if (enter > exit || exit <= 0.0f) {
+            return -1.0f;
+        }
+
+        if (enter < 0.0f) {
+            /*
+             * We're starting inside the inflated rect.  If we're actually touching (or
+             * overlapping) the rect, report a hit right away if we're heading into it, and
+             * ignore it otherwise.  If we're in one of the corner squares but outside the
+             * rounded corner, fall through to the corner test.
+             */
+            float nearX = Math.max(-halfWidth, Math.min(halfWidth, posX));
+            float nearY = Math.max(-halfHeight, Math.min(halfHeight, posY));
+            float normX = posX - nearX;
+            float normY = posY - nearY;
+            if (normX * normX + normY * normY <= radius * radius) {
+                if (normX * dirX + normY * dirY < 0.0f) {
+                    return 0.0f;
+                }
+                return -1.0f;
+            }
+        } else {
+            float entryX = posX + dirX * enter;
+            float entryY = posY + dirY * enter;
+            if (Math.abs(entryX) <= halfWidth || Math.abs(entryY) <= halfHeight) {
+                // Landed on a flat side.
+                return enter;
+            }
+        }
+
+        /*
+         * Corner region.  Intersect the ray with the circle centered on the nearest corner.
+         * With the corner at C and the ray at P + tD (|D| = 1), we want |P + tD - C| = radius:
+         *   t^2 + 2t(D.(P-C)) + |P-C|^2 - radius^2 = 0
+         * The smaller root is where we enter the circle.
+         */
+        float refX = posX + dirX * Math.max(enter, 0.0f);
+        float refY = posY + dirY * Math.max(enter, 0.0f);
+        float cornerX = refX < 0.0f ? -halfWidth : halfWidth;
+        float cornerY = refY < 0.0f ? -halfHeight : halfHeight;
+        float relX = posX - cornerX;
+        float relY = posY - cornerY;
+        float b = relX * dirX + relY * dirY;
+        float c = relX * relX + relY * relY - radius * radius;
+        if (b >= 0.0f) {
+            return -1.0f;           // moving away from the corner
+        }
+        float disc = b * b - c;
+        if (disc < 0.0f) {
+            return -1.0f;           // missed the rounded corner
+        }
+        float t = -b - (float) Math.sqrt(disc);
+        return t < 0.0f ? 0.0f : t;
+    }
+
+    /**
+     * Debug helper: runs both "fine" collision passes on the same input, logs disagreements
+     * and relative cost, and leaves the results from the currently-selected mode in place.
+     */
+    private int compareCollisionModes(StepContext ctx, int[] rects, final int numRects,
+            final float curX, final float curY, final float dirX, final float dirY,
+            final float distance, final float radius) {
+        long startNsec = System.nanoTime();
+        int marchHit = findFirstCollision(ctx, rects, numRects, curX, curY, dirX, dirY,
+                distance, radius);
+        long midNsec = System.nanoTime();
+        float marchDist = ctx.mHitDistanceTraveled;
+        float marchXAdj = ctx.mHitXAdj;
+        float marchYAdj = ctx.mHitYAdj;
+        int marchFace = ctx.mHitFace;
+        int sweptHit = findFirstCollisionSwept(ctx, rects, numRects, curX, curY, dirX, dirY,
+                distance, radius);
+        long endNsec = System.nanoTime();
+
+        mCompareMarchNsec += midNsec - startNsec;
+        mCompareSweptNsec += endNsec - midNsec;
+        mCompareCount++;
+        if (marchHit != sweptHit) {
+            mCompareObjectMismatch++;
+            log(ctx, "COMPARE: march hit " + marchHit + ", swept hit " + sweptHit);
+        } else if (marchHit >= 0 && marchFace != ctx.mHitFace) {
+            mCompareFaceMismatch++;
+            log(ctx, "COMPARE: march face=" + marchFace + " swept face=" + ctx.mHitFace +
+                    " on " + marchHit);
+        }
+        if (mCompareCount % 500 == 0) {
+            log(ctx, "COMPARE: " + mCompareCount + " queries, march " +
+                    (mCompareMarchNsec / mCompareCount) + "ns/query, swept " +
+                    (mCompareSweptNsec / mCompareCount) + "ns/query, object mismatch " +
+                    mCompareObjectMismatch + ", face mismatch " + mCompareFaceMismatch);
+        }
+
+        if (mCollisionMode != COLLISION_MODE_SWEPT) {
+            ctx.mHitDistanceTraveled = marchDist;
+            ctx.mHitXAdj = marchXAdj;
+            ctx.mHitYAdj = marchYAdj;
+            ctx.mHitFace = marchFace;
+            return marchHit;
+        }
+        return sweptHit;
+    }
+
+    private void playSound(int sound) {
+        if (mListener != null) {
+            mListener.onSound(sound);
+        }
+    }
+
+    private void playSound(StepContext ctx, int sound) {
+        if (ctx.mDeferred) {
+            ctx.mSoundCounts[sound]++;
+        } else {
+            playSound(sound);
+        }
+    }
+
+    private void log(String msg) {
+        if (mListener != null) {
+            mListener.onLogMessage(msg);
+        }
+    }
+
+    private void log(StepContext ctx, String msg) {
+        if (ctx.mDeferred) {
+            ctx.mLogCount++;
+        } else {
+            log(msg);
+        }
+    }
+
+    /**
+     * Moves the balls with "threads" threads, or on the calling thread if zero.  Only
+     * worth doing with thousands of balls in play.
+     * <p>
+     * With threads enabled, bricks hit during a step don't go away until the step is
+     * done, so a brick can't block a second ball in the same step.  The outcome depends
+     * only on the thread count being nonzero, not on its value.  Call with zero to shut
+     * the threads down when done.
+     */
+    public void setParallelThreads(int threads) {
+        if (mStepper != null) {
+            mStepper.shutdown();
+            mStepper = null;
+        }
+        if (threads > 0) {
+            if (mMergeKilled == null) {
+                mMergeKilled = new boolean[mNumBricks];
+                mMergeKilledBricks = new int[mNumBricks];
+                mMergeLostBalls = new int[mMaxBalls];
+            }
+            mStepper = new ParallelStepper(this, threads);
+        }
+    }
+
+    public int getParallelThreads() {
+        return mStepper == null ? 0 : mStepper.getThreadCount();
+    }
+
+    /**
+     * Creates a deferred StepContext, for ParallelStepper.
+     */
+    StepContext newDeferredContext() {
+        return new StepContext(mPaddleRect + 1, mNumBricks, mMaxBalls, true);
+    }
+
+    /**
+     * Creates a non-deferred StepContext, for benchmarks that call the collision functions
+     * directly.
+     */
+    StepContext newStepContext() {
+        return new StepContext(mPaddleRect + 1, mNumBricks, mMaxBalls, false);
+    }
+
+    /*
+     * Ball accessors.
+     */
+
+    public int getBallCount() {
+        return mNumBalls;
+    }
+    public int getMaxBalls() {
+        return mMaxBalls;
+    }
+
+    /**
+     * Sets the number of balls in play.  New balls get the default radius, but their
+     * position, direction, and speed must be set by the caller.  Used when restoring a
+     * saved game.
+     */
+    public void setBallCount(int count) {
+        if (count <= 0 || count > mMaxBalls) {
+            throw new RuntimeException("bad ball count " + count);
+        }
+        for (int i = mNumBalls; i < count; i++) {
+            mBallRadius[i] = mDefaultBallRadius;
+        }
+        mNumBalls = count;
+    }
+
+    /**
+     * Adds a ball to play.
+     *
+     * @return The index of the new ball, or -1 if we're at the maximum.
+     */
+    public int addBall(float x, float y, float deltaX, float deltaY, int speed) {
+        if (mNumBalls == mMaxBalls) {
+            return -1;
+        }
+        int ball = mNumBalls++;
+        mBallRadius[ball] = mDefaultBallRadius;
+        setBallPosition(ball, x, y);
+        setBallDirection(ball, deltaX, deltaY);
+        setBallSpeed(ball, speed);
+        return ball;
+    }
+
+    /**
+     * Removes a ball from play.  The last ball is moved into the vacated slot.  Ball 0 can't
+     * be removed if it's the only one.
+     */
+    public void removeBall(int ball) {
+        if (ball < 0 || ball >= mNumBalls || mNumBalls == 1) {
+            throw new RuntimeException("can't remove ball " + ball + " of " + mNumBalls);
+        }
+        int last = --mNumBalls;
+        if (ball != last) {
+            mBallXPosition[ball] = mBallXPosition[last];
+            mBallYPosition[ball] = mBallYPosition[last];
+            mBallXDirection[ball] = mBallXDirection[last];
+            mBallYDirection[ball] = mBallYDirection[last];
+            mBallSpeed[ball] = mBallSpeed[last];
+            mBallRadius[ball] = mBallRadius[last];
+        }
+    }
+
+    /**
+     * Launches "count" extra balls from ball 0's position, fanned out evenly around the
+     * circle, at ball 0's speed.  Directions that are too close to horizontal are steepened
+     * a bit, so no ball spends forever bouncing between the side walls.
+     *
+     * @return The number of balls actually added, which will be less than "count" if we hit
+     *     the maximum.
+     */
+    public int spawnBalls(int count) {
+        float x = mBallXPosition[0];
+        float y = mBallYPosition[0];
+        double baseAngle = Math.atan2(mBallYDirection[0], mBallXDirection[0]);
+        int added = 0;
+        for (int i = 1; i <= count; i++) {
+            double angle = baseAngle + (Math.PI * 2 * i) / (count + 1);
+            float dirX = (float) Math.cos(angle);
+            float dirY = (float) Math.sin(angle);
+            if (Math.abs(dirY) < 0.2f) {
+                dirY = dirY < 0 ? -0.2f : 0.2f;
+            }
+            if (addBall(x, y, dirX, dirY, mBallSpeed[0]) < 0) {
+                break;
+            }
+            added++;
+        }
+        return added;
+    }
+
+    public float getBallXPosition() {
+        return mBallXPosition[0];
+    }
+    public float getBallYPosition() {
+        return mBallYPosition[0];
+    }
+    public void setBallPosition(float x, float y) {
+        setBallPosition(0, x, y);
+    }
+    public float getBallXDirection() {
+        return mBallXDirection[0];
+    }
+    public float getBallYDirection() {
+        return mBallYDirection[0];
+    }
+
+    /**
+     * Sets ball 0's motion vector.  Input values will be normalized.
+     */
+    public void setBallDirection(float deltaX, float deltaY) {
+        setBallDirection(0, deltaX, deltaY);
+    }
+
+    public int getBallSpeed() {
+        return mBallSpeed[0];
+    }
+
+    /**
+     * Sets ball 0's speed, in arena-units per second.
+     */
+    public void setBallSpeed(int speed) {
+        setBallSpeed(0, speed);
+    }
+
+    public float getBallRadius() {
+        return mBallRadius[0];
+    }
+
+    public float getBallXPosition(int ball) {
+        return mBallXPosition[ball];
+    }
+    public float getBallYPosition(int ball) {
+        return mBallYPosition[ball];
+    }
+    public void setBallPosition(int ball, float x, float y) {
+        mBallXPosition[ball] = x;
+        mBallYPosition[ball] = y;
+    }
+    public float getBallXDirection(int ball) {
+        return mBallXDirection[ball];
+    }
+    public float getBallYDirection(int ball) {
+        return mBallYDirection[ball];
+    }
+
+    /**
+     * Sets a ball's motion vector.  Input values will be normalized.
+     */
+    public void setBallDirection(int ball, float deltaX, float deltaY) {
+        float mag = (float) Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+        mBallXDirection[ball] = deltaX / mag;
+        mBallYDirection[ball] = deltaY / mag;
+    }
+
+    /**
+     * Sets a ball's direction to a vector that's already normalized, e.g. one from
+     * getBallXDirection()/getBallYDirection().  Normalizing it again could change the low
+     * bits, and then a restored or replayed game wouldn't play out exactly the same way.
+     */
+    public void restoreBallDirection(int ball, float dirX, float dirY) {
+        mBallXDirection[ball] = dirX;
+        mBallYDirection[ball] = dirY;
+    }
+
+    public int getBallSpeed(int ball) {
+        return mBallSpeed[ball];
+    }
+
+    /**
+     * Sets a ball's speed, in arena-units per second.
+     */
+    public void setBallSpeed(int ball, int speed) {
+        if (speed <= 0) {
+            throw new RuntimeException("speed must be positive (" + speed + ")");
+        }
+        mBallSpeed[ball] = speed;
+    }
+
+    public float getBallRadius(int ball) {
+        return mBallRadius[ball];
+    }
+
+    /*
+     * Rect accessors.  Bricks, borders, and the paddle are all identified by rect index.
+     */
+
+    public int getBrickCount() {
+        return mNumBricks;
+    }
+    public int getBrickColumns() {
+        return mBrickColumns;
+    }
+    public int getBrickRows() {
+        return mBrickRows;
+    }
+    public int getBorderRect(int border) {
+        return mFirstBorder + border;
+    }
+    public int getPaddleRect() {
+        return mPaddleRect;
+    }
+    BrickGrid getBrickGrid() {
+        return mBrickGrid;
+    }
+    public float getRectXPosition(int rect) {
+        return mRectXPosition[rect];
+    }
+    public float getRectYPosition(int rect) {
+        return mRectYPosition[rect];
+    }
+    public float getRectXScale(int rect) {
+        return mRectXScale[rect];
+    }
+    public float getRectYScale(int rect) {
+        return mRectYScale[rect];
+    }
+
+    public boolean isBrickAlive(int brick) {
+        return (mBrickAliveBits[brick >>> 6] & (1L << brick)) != 0;
+    }
+
+    /**
+     * Returns the index of the first live brick at or after "brick", or -1 if there isn't
+     * one.  To visit every live brick:
+     * <pre>
+     *   for (int i = sim.nextLiveBrick(0); i >= 0; i = sim.nextLiveBrick(i + 1))
+     * </pre>
+     */
+    public int nextLiveBrick(int brick) {
+        if (brick >= mNumBricks) {
+            return -1;
+        }
+        long[] bits = mBrickAliveBits;
+        int word = brick >>> 6;
+        long live = bits[word] & (-1L << brick);
+        while (live == 0) {
+            if (++word == bits.length) {
+                return -1;
+            }
+            live = bits[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(live);
+    }
+
+    /**
+     * Returns 64 bricks' worth of liveness bits: bit N of word W is brick (W * 64 + N).
+     * Visiting the live bricks a word at a time this way is faster than nextLiveBrick() when
+     * most of the board is still up:
+     * <pre>
+     *   for (int w = 0; w < sim.getLiveBrickWordCount(); w++) {
+     *       long live = sim.getLiveBrickWord(w);
+     *       while (live != 0) {
+     *           int brick = (w << 6) + Long.numberOfTrailingZeros(live);
+     *           live &= live - 1;
+     *           ...
+     * </pre>
+     */
+    public long getLiveBrickWord(int word) {
+        return mBrickAliveBits[word];
+    }
+
+    /**
+     * Returns the number of longs needed to hold the brick liveness bits.
+     */
+    public int getLiveBrickWordCount() {
+        return mBrickAliveBits.length;
+    }
+
+    /**
+     * Copies the brick liveness bits into "dst", which must hold at least
+     * getLiveBrickWordCount() longs.  Brick N is bit (N & 63) of dst[N >>> 6].
+     */
+    public void copyLiveBricks(long[] dst) {
+        System.arraycopy(mBrickAliveBits, 0, dst, 0, mBrickAliveBits.length);
+    }
+
+    /**
+     * Makes the live bricks match "src", which is in the format produced by
+     * copyLiveBricks(): bricks alive now but not in "src" are killed, and bricks dead now
+     * but alive in "src" are revived.  Only the words that differ cost anything, so this is
+     * cheap for a freshly initialized board or a recent snapshot.
+     */
+    public void restoreLiveBricks(long[] src) {
+        long[] bits = mBrickAliveBits;
+        for (int word = 0; word < bits.length; word++) {
+            long dead = bits[word] & ~src[word];
+            while (dead != 0) {
+                int bit = Long.numberOfTrailingZeros(dead);
+                dead &= dead - 1;
+                killBrick((word << 6) + bit);
+            }
+            long revived = src[word] & ~bits[word];
+            while (revived != 0) {
+                int bit = Long.numberOfTrailingZeros(revived);
+                revived &= revived - 1;
+                reviveBrick((word << 6) + bit);
+            }
+        }
+    }
+    public int getBrickScoreValue(int brick) {
+        return mBrickScoreValue[brick];
+    }
+    public int getLiveBrickCount() {
+        return mLiveBrickCount;
+    }
+
+    /*
+     * Game state accessors.  The setters are for restoring a saved game.
+     */
+
+    public int getGamePlayState() {
+        return mGamePlayState;
+    }
+    public void setGamePlayState(int state) {
+        mGamePlayState = state;
+    }
+    public int getLivesRemaining() {
+        return mLivesRemaining;
+    }
+    public void setLivesRemaining(int lives) {
+        mLivesRemaining = lives;
+    }
+    public int getScore() {
+        return mScore;
+    }
+    public void setScore(int score) {
+        mScore = score;
+    }
+
+    /**
+     * Returns a 64-bit hash of everything that decides how the game plays out from here: the
+     * balls, the paddle position, the live bricks, the score and lives, the play state, and
+     * the pause and slow-motion timers.  Floats are hashed by their bits, so a difference
+     * in the last place shows up.
+     * <p>
+     * Two simulations with the same configuration that return the same hash will, barring a
+     * collision, stay in step as long as they're given the same paddle moves and ticks.  If
+     * they don't, moveBall() isn't deterministic.  Computing the hash doesn't allocate.  The
+     * bricks are hashed incrementally as they die (see mDeadBrickHash), so the cost depends
+     * on the number of balls, not the size of the board.
+     */
+    public long computeStateHash() {
+        long hash = 0x42726b4f7574L;        // arbitrary nonzero seed
+        hash = mixHash(hash, mGamePlayState);
+        hash = mixHash(hash, mLivesRemaining);
+        hash = mixHash(hash, mScore);
+        hash = mixHash(hash, Float.floatToRawIntBits(mPauseDuration));
+        hash = mixHash(hash, mDebugSlowMotionFrames);
+        hash = mixHash(hash, Float.floatToRawIntBits(mRectXPosition[mPaddleRect]));
+        hash = mixHash(hash, mLiveBrickCount);
+        hash = mixHash(hash, mDeadBrickHash);
+
+        int numBalls = mNumBalls;
+        hash = mixHash(hash, numBalls);
+        for (int i = 0; i < numBalls; i++) {
+            hash = mixHash(hash, ((long) Float.floatToRawIntBits(mBallXPosition[i]) << 32)
+                    | (Float.floatToRawIntBits(mBallYPosition[i]) & 0xffffffffL));
+            hash = mixHash(hash, ((long) Float.floatToRawIntBits(mBallXDirection[i]) << 32)
+                    | (Float.floatToRawIntBits(mBallYDirection[i]) & 0xffffffffL));
+            hash = mixHash(hash, mBallSpeed[i]);
+        }
+
+        return avalanche(hash);
+    }
+
+    /**
+     * Returns the random-looking key for brick "brick" that goes into mDeadBrickHash.  A set
+     * of bricks hashes to the XOR of its keys, which can be updated one brick at a time.
+     */
+    private static long brickHashKey(int brick) {
+        return avalanche((brick + 1) * 0x9e3779b97f4a7c15L);
+    }
+
+    /**
+     * Folds "value" into "hash".  Order matters, so swapped values hash differently.
+     */
+    private static long mixHash(long hash, long value) {
+        hash ^= value * 0x9e3779b97f4a7c15L;
+        return Long.rotateLeft(hash, 27) * 0xbf58476d1ce4e5b9L;
+    }
+
+    /**
+     * Scrambles "hash" so every input bit affects every output bit (MurmurHash3's fmix64).
+     */
+    private static long avalanche(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /*
+     * The area examined by the most recent "coarse" collision pass.  For visual debugging.
+     */
+
+    public float getSweepLeft() {
+        return mMainStep.mSweepLeft;
+    }
+    public float getSweepRight() {
+        return mMainStep.mSweepRight;
+    }
+    public float getSweepBottom() {
+        return mMainStep.mSweepBottom;
+    }
+    public float getSweepTop() {
+        return mMainStep.mSweepTop;
+    }
+}
@@ -22,6 +22,11 @@ import android.opengl.Matrix;
 import android.os.ConditionVariable;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -34,11 +39,25 @@ import javax.microedition.khronos.opengles.GL10;
 public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
     private static final String TAG = BreakoutActivity.TAG;
     public static final boolean EXTRA_CHECK = true;         // enable additional assertions
+    public static final boolean COLLECT_FRAME_STATS = true; // record per-frame timings
+    public static final boolean SHOW_FRAME_STATS = false;   // draw timing summary on screen
+
+    // Number of frames of timing data to keep.  At 60fps this is a bit over 8 seconds.
+    private static final int FRAME_STATS_CAPACITY = 512;
+    // Recompute the on-screen summary this often.  Sorting the ring every frame would show up
+    // in the numbers we're trying to display.
+    private static final int FRAME_STATS_REFRESH = 30;
+    // Name of file, in the app's files dir, that receives the timings when we pause.
+    private static final String FRAME_STATS_FILE = "frame-stats.csv";
 
     // Orthographic projection matrix.  Must be updated when the available screen area
     // changes (e.g. when the device is rotated).
     static final float mProjectionMatrix[] = new float[16];
 
+    // Pixels per arena unit in the current viewport.  Used for anti-aliasing the circles
+    // drawn by CircleBatch.
+    static float sArenaPixelScale = 1.0f;
+
     // Size and position of the GL viewport, in screen coordinates.  If the viewport covers the
     // entire screen, the offsets will be zero and the width/height values will match the
     // size of the display.  (This is one of the few places where we deal in actual pixels.)
@@ -48,7 +67,12 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
     private GameSurfaceView mSurfaceView;
     private GameState mGameState;
     private TextResources.Configuration mTextConfig;
+    private TextResources mTextResources;
 
+    private final FrameStats mFrameStats = new FrameStats(FRAME_STATS_CAPACITY);
+    private final File mFrameStatsFile;
+    private final StringBuilder[] mFrameStatsText;
+    private int mFrameStatsCountdown;
 
     /**
      * Constructs the Renderer.  We need references to the GameState, so we can tell it to
@@ -60,6 +84,13 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
         mSurfaceView = surfaceView;
         mGameState = gameState;
         mTextConfig = textConfig;
+
+        File filesDir = surfaceView.getContext().getFilesDir();
+        mFrameStatsFile = (filesDir == null) ? null : new File(filesDir, FRAME_STATS_FILE);
+        mFrameStatsText = new StringBuilder[FrameStats.NUM_SECTIONS];
+        for (int i = 0; i < FrameStats.NUM_SECTIONS; i++) {
+            mFrameStatsText[i] = new StringBuilder(64);
+        }
     }
 
     /**
@@ -76,10 +107,12 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
         // Generate programs and data.
         BasicAlignedRect.createProgram();
         TexturedAlignedRect.createProgram();
+        BallTextureCache.discardTextures();
 
         // Allocate objects associated with the various graphical elements.
         GameState gameState = mGameState;
-        gameState.setTextResources(new TextResources(mTextConfig));
+        mTextResources = new TextResources(mTextConfig);
+        gameState.setTextResources(mTextResources);
         gameState.allocBorders();
         gameState.allocBricks();
         gameState.allocPaddle();
@@ -164,6 +197,7 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
         mViewportHeight = viewHeight;
         mViewportXoff = x;
         mViewportYoff = y;
+        sArenaPixelScale = viewWidth / GameState.ARENA_WIDTH;
 
         // Create an orthographic projection that maps the desired arena size to the viewport
         // dimensions.
@@ -186,9 +220,14 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
     @Override
     public void onDrawFrame(GL10 unused) {
         GameState gameState = mGameState;
+        FrameStats stats = mFrameStats;
+
+        if (COLLECT_FRAME_STATS) stats.startFrame(System.nanoTime());
 
         gameState.calculateNextFrame();
 
+        if (COLLECT_FRAME_STATS) stats.endSection(FrameStats.UPDATE, System.nanoTime());
+
         // Simulate slow game state update, to see impact on animation.
 //        try { Thread.sleep(33); }
 //        catch (InterruptedException ie) {}
@@ -205,6 +244,8 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
         gameState.drawPaddle();
         BasicAlignedRect.finishedDrawing();
 
+        if (COLLECT_FRAME_STATS) stats.endSection(FrameStats.DRAW_BASIC, System.nanoTime());
+
         /*
          * Draw alpha-blended components, notably the ball and score.
          *
@@ -236,19 +277,40 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
         // Blend based on the fragment's alpha value.
         GLES20.glBlendFunc(GLES20.GL_ONE /*GL_SRC_ALPHA*/, GLES20.GL_ONE_MINUS_SRC_ALPHA);
 
-        TexturedAlignedRect.prepareToDraw();
+        // The score goes under the ball, the messages go on top.  Text uses a different
+        // program from the ball, so each gets its own prepare/finish.
+        TexturedAlignedRect.prepareToDrawText(mTextResources);
         gameState.drawScore();
-        gameState.drawBall();
+        TexturedAlignedRect.finishedDrawingText();
+
+        if (GameState.SDF_BALLS) {
+            BasicAlignedRect.prepareToDrawCircles(GameState.BALL_COLOR);
+            gameState.drawBall();
+            BasicAlignedRect.finishedDrawingCircles();
+        } else {
+            TexturedAlignedRect.prepareToDrawSprites();
+            gameState.drawBall();
+            TexturedAlignedRect.finishedDrawingSprites();
+        }
+
+        TexturedAlignedRect.prepareToDrawText(mTextResources);
         gameState.drawMessages();
-        TexturedAlignedRect.finishedDrawing();
+        TexturedAlignedRect.finishedDrawingText();
+
+        if (COLLECT_FRAME_STATS) stats.endSection(FrameStats.DRAW_TEXTURED, System.nanoTime());
 
         gameState.drawDebugStuff();
+        if (SHOW_FRAME_STATS) drawFrameStats();
+
+        if (COLLECT_FRAME_STATS) stats.endSection(FrameStats.DRAW_DEBUG, System.nanoTime());
 
         // Turn alpha blending off.
         GLES20.glDisable(GLES20.GL_BLEND);
 
         if (EXTRA_CHECK) Util.checkGlError("onDrawFrame end");
 
+        if (COLLECT_FRAME_STATS) stats.endFrame(System.nanoTime());
+
         // Stop animating at 60fps (or whatever the refresh rate is) if the game is over.  Once
         // we do this, we won't get here again unless something explicitly asks the system to
         // render a new frame.  (As a handy side-effect, this prevents the paddle from actively
@@ -284,6 +346,73 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
         mGameState.save();
 
         syncObj.open();
+
+        // The UI thread doesn't need to wait for this, so do it after we release it.
+        if (COLLECT_FRAME_STATS) dumpFrameStats();
+    }
+
+    /**
+     * Draws the frame timing summary in the upper-left corner of the arena.  The text is
+     * regenerated every FRAME_STATS_REFRESH frames; in between we redraw the old strings.
+     * <p>
+     * Call with blending enabled.  The cost of drawing this is charged to the debug pass.
+     */
+    private void drawFrameStats() {
+        FrameStats stats = mFrameStats;
+        StringBuilder[] lines = mFrameStatsText;
+
+        if (--mFrameStatsCountdown <= 0) {
+            stats.computeSummary();
+            for (int i = 0; i < FrameStats.NUM_SECTIONS; i++) {
+                lines[i].setLength(0);
+                stats.appendSummary(lines[i], i);
+            }
+            mFrameStatsCountdown = FRAME_STATS_REFRESH;
+        }
+
+        // Size the text so each line is about 2.5% of the arena height.
+        GlyphAtlas atlas = mTextResources.getAtlas();
+        float lineHeight = GameState.ARENA_HEIGHT * 0.025f;
+        float scale = lineHeight / (atlas.getDescent() - atlas.getAscent());
+        float left = GameSimulation.BORDER_WIDTH * 2;
+        float baseline = GameState.ARENA_HEIGHT - GameSimulation.BORDER_WIDTH * 2 +
+                atlas.getAscent() * scale;
+        float[] color = mTextResources.getScoreColor();
+
+        TexturedAlignedRect.prepareToDrawText(mTextResources);
+        for (int i = 0; i < FrameStats.NUM_SECTIONS; i++) {
+            TexturedAlignedRect.drawText(lines[i], left, baseline, scale, TextBatch.ALIGN_LEFT,
+                    color, false);
+            baseline -= lineHeight;
+        }
+        TexturedAlignedRect.finishedDrawingText();
+    }
+
+    /**
+     * Writes the recorded frame timings to a file in the app's private storage.  Pull it off
+     * with "adb shell run-as com.faddensoft.breakout cat files/frame-stats.csv".
+     */
+    private void dumpFrameStats() {
+        if (mFrameStatsFile == null || mFrameStats.getSampleCount() == 0) {
+            return;
+        }
+
+        PrintWriter pw = null;
+        try {
+            pw = new PrintWriter(new FileWriter(mFrameStatsFile));
+            mFrameStats.dump(pw);
+            if (pw.checkError()) {
+                throw new IOException("write failed");
+            }
+            Log.d(TAG, "wrote " + mFrameStats.getSampleCount() + " frame timings to " +
+                    mFrameStatsFile);
+        } catch (IOException ioe) {
+            Log.w(TAG, "unable to write frame stats: " + ioe);
+        } finally {
+            if (pw != null) {
+                pw.close();
+            }
+        }
     }
 
     /**
@@ -310,4 +439,11 @@ public class GameSurfaceRenderer implements GLSurfaceView.Renderer {
 
         mGameState.movePaddle(arenaX);
     }
+
+    /**
+     * Rewinds the game after the player asks for it.  Call through queueEvent().
+     */
+    public void rewindEvent() {
+        mGameState.rewind();
+    }
 }
@@ -80,9 +80,12 @@ public class GameSurfaceView extends GLSurfaceView {
          *
          * This increases the latency of our touch response slightly, but it shouldn't be
          * noticeable.
+         *
+         * If GameState.REWIND_GESTURE is set, a second finger going down rewinds the game a
+         * little.  The pointer index is packed into the action for that one, so mask it off.
          */
 
-        switch (e.getAction()) {
+        switch (e.getAction() & MotionEvent.ACTION_MASK) {
             case MotionEvent.ACTION_MOVE:
                 final float x, y;
                 x = e.getX();
@@ -93,6 +96,14 @@ public class GameSurfaceView extends GLSurfaceView {
                         mRenderer.touchEvent(x, y);
                     }});
                 break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                if (GameState.REWIND_GESTURE) {
+                    queueEvent(new Runnable() {
+                        @Override public void run() {
+                            mRenderer.rewindEvent();
+                        }});
+                }
+                break;
             default:
                 break;
         }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.nio.Buffer;
+
+/**
+ * The subset of the OpenGL ES 2.0 API used by the GL-free drawing helpers (e.g. RectBatch).
+ * <p>
+ * The methods have the same names and arguments as their android.opengl.GLES20 counterparts.
+ * On the device GLES20Calls forwards them straight through; off the device a stand-in can
+ * record or count the calls, which lets us exercise the drawing code on a plain JVM.
+ */
+public interface GlCalls {
+    void glUseProgram(int program);
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+            int offset);
+    void glUniform4f(int location, float x, float y, float z, float w);
+    void glUniform4fv(int location, int count, float[] v, int offset);
+    void glEnableVertexAttribArray(int index);
+    void glDisableVertexAttribArray(int index);
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+            Buffer ptr);
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+            int offset);
+    void glDrawArrays(int mode, int first, int count);
+    void glDrawElements(int mode, int count, int type, Buffer indices);
+    void glDrawElements(int mode, int count, int type, int offset);
+    void glActiveTexture(int texture);
+    void glBindTexture(int target, int texture);
+    void glGenBuffers(int n, int[] buffers, int offset);
+    void glBindBuffer(int target, int buffer);
+    void glBufferData(int target, int size, Buffer data, int usage);
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.Arrays;
+
+/**
+ * Metrics and texture locations for a set of glyphs that have been rendered into a single
+ * texture ("atlas").
+ * <p>
+ * This class does the bookkeeping and layout; it doesn't know anything about fonts, bitmaps,
+ * or GL.  TextResources measures the glyphs, hands the sizes to pack(), renders each glyph at
+ * the position it's given, and uploads the result.  TextBatch uses the metrics to turn a
+ * string into a series of textured quads.
+ * <p>
+ * All measurements are in texels, at the size the glyphs were rendered.  Vertical offsets
+ * are relative to the baseline and follow image conventions, i.e. negative values are above
+ * the baseline.
+ */
+public class GlyphAtlas {
+    /*
+     * We need to find a glyph quickly for every character we draw.  Most of what we draw is
+     * ASCII, so we keep a direct lookup table for that.  Anything else (e.g. accented
+     * characters from a translated message) is found with a binary search on a sorted array.
+     * Characters that aren't in the atlas are drawn as blank space, using the advance of
+     * the first glyph in the atlas (which, for the set TextResources builds, is the space).
+     */
+    private static final int DIRECT_LOOKUP_SIZE = 128;
+
+    // Padding between glyphs.  With GL_LINEAR filtering the texture sampler can pick up
+    // texels just outside the rect we ask for, so we leave a transparent gap.
+    private static final int GLYPH_PADDING = 1;
+
+    // Largest texture we'll try.
+    private static final int MAX_TEXTURE_SIZE = 2048;
+
+    private final char[] mChars;            // sorted
+    private final int[] mDirect = new int[DIRECT_LOOKUP_SIZE];
+
+    // Per-glyph data, indexed like mChars.
+    private final float[] mAdvance;
+    private final int[] mBoundsLeft;        // offset of ink box from pen position
+    private final int[] mBoundsTop;         // offset of ink box from baseline (negative is up)
+    private final int[] mWidth;             // ink box size
+    private final int[] mHeight;
+    private final int[] mTexLeft;           // location in texture
+    private final int[] mTexTop;
+
+    private int mTextureWidth;
+    private int mTextureHeight;
+    private float mAscent;                  // negative (above baseline)
+    private float mDescent;                 // positive (below baseline)
+    private float mTextSize;
+
+
+    /**
+     * Creates an atlas for the specified characters.  Duplicates are discarded.  Call
+     * setGlyph() for each character, then pack().
+     */
+    public GlyphAtlas(char[] chars) {
+        char[] sorted = chars.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i-1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        mChars = new char[count];
+        System.arraycopy(sorted, 0, mChars, 0, count);
+
+        mAdvance = new float[count];
+        mBoundsLeft = new int[count];
+        mBoundsTop = new int[count];
+        mWidth = new int[count];
+        mHeight = new int[count];
+        mTexLeft = new int[count];
+        mTexTop = new int[count];
+
+        Arrays.fill(mDirect, -1);
+        for (int i = 0; i < count; i++) {
+            if (mChars[i] < DIRECT_LOOKUP_SIZE) {
+                mDirect[mChars[i]] = i;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of glyphs in the atlas.
+     */
+    public int getGlyphCount() {
+        return mChars.length;
+    }
+
+    /**
+     * Returns the character for the Nth glyph.
+     */
+    public char getGlyphChar(int glyph) {
+        return mChars[glyph];
+    }
+
+    /**
+     * Returns the index of the glyph for the specified character, or -1 if it's not in the
+     * atlas.
+     */
+    public int findGlyph(char ch) {
+        if (ch < DIRECT_LOOKUP_SIZE) {
+            return mDirect[ch];
+        }
+        int index = Arrays.binarySearch(mChars, ch);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Sets the font metrics.
+     *
+     * @param textSize Size the glyphs were rendered at.
+     * @param ascent Recommended distance above the baseline (negative).
+     * @param descent Recommended distance below the baseline (positive).
+     */
+    public void setFontMetrics(float textSize, float ascent, float descent) {
+        mTextSize = textSize;
+        mAscent = ascent;
+        mDescent = descent;
+    }
+
+    /**
+     * Sets the metrics for one glyph.
+     *
+     * @param glyph Glyph index.
+     * @param advance Distance to move the pen after drawing the glyph.
+     * @param left Left edge of the ink box, relative to the pen position.
+     * @param top Top edge of the ink box, relative to the baseline.
+     * @param width Width of the ink box.  May be zero, e.g. for a space.
+     * @param height Height of the ink box.
+     */
+    public void setGlyph(int glyph, float advance, int left, int top, int width, int height) {
+        mAdvance[glyph] = advance;
+        mBoundsLeft[glyph] = left;
+        mBoundsTop[glyph] = top;
+        mWidth[glyph] = width;
+        mHeight[glyph] = height;
+    }
+
+    /**
+     * Assigns each glyph a location in the texture, and picks the texture size.
+     * <p>
+     * We use a simple "shelf" algorithm: sort the glyphs by height, then fill rows left to
+     * right, starting a new row when we run out of room.  Sorting keeps the rows from having
+     * much wasted space above the shorter glyphs.  We start with a small power-of-two texture
+     * and grow it (width first, then height) until everything fits.
+     *
+     * @throws RuntimeException if the glyphs won't fit in the largest texture we allow.
+     */
+    public void pack() {
+        // Sort glyph indices by height, tallest first.  Insertion sort is fine for a few
+        // hundred glyphs, and it's stable, so the layout doesn't change from run to run.
+        final int count = mChars.length;
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            int glyph = i;
+            int j = i;
+            while (j > 0 && mHeight[order[j-1]] < mHeight[glyph]) {
+                order[j] = order[j-1];
+                j--;
+            }
+            order[j] = glyph;
+        }
+
+        int texWidth = 64;
+        int texHeight = 64;
+        while (!tryPack(order, texWidth, texHeight)) {
+            if (texWidth <= texHeight) {
+                texWidth *= 2;
+            } else {
+                texHeight *= 2;
+            }
+            if (texHeight > MAX_TEXTURE_SIZE) {
+                throw new RuntimeException("glyphs don't fit in " + MAX_TEXTURE_SIZE + "x"
+                        + MAX_TEXTURE_SIZE);
+            }
+        }
+        mTextureWidth = texWidth;
+        mTextureHeight = texHeight;
+    }
+
+    /**
+     * Attempts to pack the glyphs into a texture of the specified size.
+     */
+    private boolean tryPack(int[] order, int texWidth, int texHeight) {
+        int x = 0;
+        int y = 0;
+        int rowHeight = 0;
+        for (int glyph : order) {
+            int width = mWidth[glyph] + GLYPH_PADDING;
+            int height = mHeight[glyph] + GLYPH_PADDING;
+            if (width > texWidth) {
+                return false;
+            }
+            if (x + width > texWidth) {
+                x = 0;
+                y += rowHeight;
+                rowHeight = 0;
+            }
+            if (y + height > texHeight) {
+                return false;
+            }
+            mTexLeft[glyph] = x;
+            mTexTop[glyph] = y;
+            x += width;
+            rowHeight = Math.max(rowHeight, height);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the width of the texture, in texels.  Valid after pack().
+     */
+    public int getTextureWidth() {
+        return mTextureWidth;
+    }
+
+    /**
+     * Returns the height of the texture, in texels.  Valid after pack().
+     */
+    public int getTextureHeight() {
+        return mTextureHeight;
+    }
+
+    /**
+     * Returns the size the glyphs were rendered at.
+     */
+    public float getTextSize() {
+        return mTextSize;
+    }
+
+    /**
+     * Returns the font ascent (negative).
+     */
+    public float getAscent() {
+        return mAscent;
+    }
+
+    /**
+     * Returns the font descent (positive).
+     */
+    public float getDescent() {
+        return mDescent;
+    }
+
+    /**
+     * Returns how far the pen moves after drawing the glyph, in texels.
+     */
+    public float getAdvance(int glyph) {
+        return mAdvance[glyph];
+    }
+
+    /**
+     * Returns the offset from the pen position to the left edge of the glyph's ink box.
+     */
+    public int getBoundsLeft(int glyph) {
+        return mBoundsLeft[glyph];
+    }
+
+    /**
+     * Returns the offset from the baseline to the top of the ink box (negative is up).
+     */
+    public int getBoundsTop(int glyph) {
+        return mBoundsTop[glyph];
+    }
+
+    /**
+     * Returns the width of the glyph's ink box, in texels.
+     */
+    public int getWidth(int glyph) {
+        return mWidth[glyph];
+    }
+
+    /**
+     * Returns the height of the glyph's ink box, in texels.
+     */
+    public int getHeight(int glyph) {
+        return mHeight[glyph];
+    }
+
+    /**
+     * Returns the X coordinate of the glyph's left edge in the texture.
+     */
+    public int getTexLeft(int glyph) {
+        return mTexLeft[glyph];
+    }
+
+    /**
+     * Returns the Y coordinate of the glyph's top edge in the texture.
+     */
+    public int getTexTop(int glyph) {
+        return mTexTop[glyph];
+    }
+
+    /**
+     * Returns the advance to use for a character that isn't in the atlas.
+     */
+    public float getMissingAdvance() {
+        return mAdvance.length > 0 ? mAdvance[0] : 0.0f;
+    }
+
+    /**
+     * Measures a string.  Results are in texels.
+     *
+     * @param result Three-element array that receives the total advance width, and the top
+     *      and bottom of the combined ink box, relative to the baseline.  The ink values are
+     *      zero if nothing in the string has any ink.
+     */
+    public void measure(CharSequence str, float[] result) {
+        float width = 0.0f;
+        int top = 0;
+        int bottom = 0;
+        boolean anyInk = false;
+        for (int i = 0; i < str.length(); i++) {
+            int glyph = findGlyph(str.charAt(i));
+            if (glyph < 0) {
+                width += getMissingAdvance();
+                continue;
+            }
+            width += mAdvance[glyph];
+            if (mHeight[glyph] != 0) {
+                int glyphTop = mBoundsTop[glyph];
+                int glyphBottom = glyphTop + mHeight[glyph];
+                if (!anyInk || glyphTop < top) {
+                    top = glyphTop;
+                }
+                if (!anyInk || glyphBottom > bottom) {
+                    bottom = glyphBottom;
+                }
+                anyInk = true;
+            }
+        }
+        result[0] = width;
+        result[1] = top;
+        result[2] = bottom;
+    }
+}
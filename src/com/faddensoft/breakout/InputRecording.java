@@ -0,0 +1,371 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A record of everything the player did to the game, so it can be played back exactly.
+ * <p>
+ * With the fixed timestep, the simulation's outcome depends only on where it started, how
+ * it was configured, where the paddle was put, and how many ticks were run in between.  So
+ * that's what we keep: the configuration, a snapshot of the starting state, and one entry
+ * per frame.  Each frame entry holds the frame's time delta in nanoseconds (kept for
+ * profiling), the number of ticks the simulation was advanced, and the last paddle position
+ * requested since the previous frame (NaN if the paddle wasn't touched).
+ * <p>
+ * A pause (e.g. after a screen rotation) is stored as an entry with PAUSE in place of the
+ * tick count, and the pause length in nanoseconds in place of the time delta.
+ * <p>
+ * The entries live in parallel primitive arrays, about 9 bytes per frame, or 2MB for an
+ * hour at 60fps.  Recording doesn't allocate unless the arrays fill up, in which case they
+ * double in size.
+ * <p>
+ * If hashing is turned on, the recording also keeps GameSimulation.computeStateHash() from
+ * after every tick, 8 bytes per tick (about 7MB for an hour at 240Hz).  A replay can then
+ * check itself against the original game tick by tick, and say exactly where it went
+ * differently (see ReplayPlayer.setVerify()).
+ * <p>
+ * A recording can also be a piece of a longer one (see ReplayArchive), in which case the
+ * starting state is from part way through, and getStartTick() says how far.
+ * <p>
+ * ReplayPlayer plays a recording back on a GameSimulation, with or without a display.
+ */
+class InputRecording {
+    /**
+     * Value in the ticks array that marks a pause entry.
+     */
+    public static final byte PAUSE = -1;
+
+    /**
+     * Number of bytes putConfig() writes.
+     */
+    public static final int CONFIG_SIZE = 13 * 4;
+
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    // Configuration.  See the GameSimulation setters.
+    private int mBrickColumns;
+    private int mBrickRows;
+    private int mMaxBalls;
+    private boolean mNeverLoseBall;
+    private int mMaxLives;
+    private int mExtraBalls;
+    private int mBallInitialSpeed;
+    private int mBallMaximumSpeed;
+    private float mBallSizeMultiplier;
+    private float mPaddleSizeMultiplier;
+    private float mScoreMultiplier;
+    private int mCollisionMode;
+    private int mParallelThreads;
+
+    // State at the start of the recording.  The pause time isn't part of a saved game.
+    private SavedGame mStart;
+    private float mStartPauseSec;
+    private long mStartTick;
+
+    // The entries.
+    private int mCount;
+    private int[] mDeltaNsec;
+    private byte[] mTicks;
+    private float[] mPaddleX;
+
+    // State hashes, one per tick, or null if we're not hashing.
+    private int mHashCount;
+    private long[] mHashes;
+
+    // Paddle position requested since the last frame, or NaN.
+    private float mPendingPaddleX = Float.NaN;
+
+
+    /**
+     * Creates a recording with room for "capacity" entries before it has to grow.
+     */
+    public InputRecording(int capacity) {
+        capacity = Math.max(capacity, 16);
+        mDeltaNsec = new int[capacity];
+        mTicks = new byte[capacity];
+        mPaddleX = new float[capacity];
+    }
+
+    /**
+     * Starts a new recording of "sim", discarding whatever was recorded before.  Captures
+     * the configuration and current state.  Only allocates if the board is bigger than
+     * last time.
+     */
+    public void begin(GameSimulation sim) {
+        mBrickColumns = sim.getBrickColumns();
+        mBrickRows = sim.getBrickRows();
+        mMaxBalls = sim.getMaxBalls();
+        mNeverLoseBall = sim.getNeverLoseBall();
+        mMaxLives = sim.getMaxLives();
+        mExtraBalls = sim.getExtraBalls();
+        mBallInitialSpeed = sim.getBallInitialSpeed();
+        mBallMaximumSpeed = sim.getBallMaximumSpeed();
+        mBallSizeMultiplier = sim.getBallSizeMultiplier();
+        mPaddleSizeMultiplier = sim.getPaddleSizeMultiplier();
+        mScoreMultiplier = sim.getScoreMultiplier();
+        mCollisionMode = sim.getCollisionMode();
+        mParallelThreads = sim.getParallelThreads();
+
+        if (mStart == null || mStart.mNumBricks != sim.getBrickCount()
+                || mStart.getMaxBalls() < mMaxBalls) {
+            mStart = new SavedGame(sim.getBrickCount(), mMaxBalls);
+        }
+        mStart.captureFrom(sim);
+        mStart.mIsValid = true;
+        mStartPauseSec = sim.getPauseTime();
+        mStartTick = 0;
+
+        mCount = 0;
+        mHashCount = 0;
+        mPendingPaddleX = Float.NaN;
+    }
+
+    /**
+     * Starts a new recording with the current configuration, from a state that was
+     * captured "startTick" ticks into a longer recording.  "start" becomes ours.
+     */
+    public void beginAt(SavedGame start, float startPauseSec, long startTick) {
+        mStart = start;
+        mStartPauseSec = startPauseSec;
+        mStartTick = startTick;
+
+        mCount = 0;
+        mHashCount = 0;
+        mPendingPaddleX = Float.NaN;
+    }
+
+    /**
+     * Turns state hashing on or off.  When it's on, recordHash() must be called after every
+     * tick.  Turning it off discards the hashes.  Stays set across begin().
+     */
+    public void setHashing(boolean hashing) {
+        if (hashing && mHashes == null) {
+            mHashes = new long[mTicks.length * 4];
+        } else if (!hashing) {
+            mHashes = null;
+        }
+        mHashCount = 0;
+    }
+
+    /**
+     * Returns true if state hashing is on.
+     */
+    public boolean isHashing() {
+        return mHashes != null;
+    }
+
+    /**
+     * Records the state hash after a tick.  Only allocates if the array fills up, in which
+     * case it doubles in size.
+     */
+    public void recordHash(long hash) {
+        if (mHashCount == mHashes.length) {
+            long[] hashes = new long[mHashCount * 2];
+            System.arraycopy(mHashes, 0, hashes, 0, mHashCount);
+            mHashes = hashes;
+        }
+        mHashes[mHashCount++] = hash;
+    }
+
+    /**
+     * Records a paddle move.  Only the last one before each frame matters, since the
+     * simulation only looks at the paddle while it's advancing.
+     */
+    public void recordPaddle(float arenaX) {
+        mPendingPaddleX = arenaX;
+    }
+
+    /**
+     * Records a call to GameSimulation.setPauseTime().
+     */
+    public void recordPause(float durationSec) {
+        addEntry((int) Math.round(durationSec * NANOS_PER_SECOND), PAUSE, Float.NaN);
+    }
+
+    /**
+     * Records a frame that advanced the simulation "ticks" fixed-size ticks, "deltaNsec"
+     * nanoseconds after the previous frame.
+     */
+    public void recordFrame(long deltaNsec, int ticks) {
+        if (ticks < 0) {
+            throw new RuntimeException("bad tick count " + ticks);
+        }
+        addEntry((int) Math.min(deltaNsec, Integer.MAX_VALUE), ticks, mPendingPaddleX);
+        mPendingPaddleX = Float.NaN;
+    }
+
+    /**
+     * Adds an entry as-is.  "ticks" may be PAUSE.  Used when reading a recording back.
+     */
+    public void addEntry(int deltaNsec, int ticks, float paddleX) {
+        if (ticks < PAUSE || ticks > Byte.MAX_VALUE) {
+            throw new RuntimeException("bad tick count " + ticks);
+        }
+        int index = nextEntry();
+        mDeltaNsec[index] = deltaNsec;
+        mTicks[index] = (byte) ticks;
+        mPaddleX[index] = paddleX;
+    }
+
+    /**
+     * Returns the index of a new entry, growing the arrays if needed.
+     */
+    private int nextEntry() {
+        if (mCount == mTicks.length) {
+            int newCapacity = mCount * 2;
+            int[] deltaNsec = new int[newCapacity];
+            byte[] ticks = new byte[newCapacity];
+            float[] paddleX = new float[newCapacity];
+            System.arraycopy(mDeltaNsec, 0, deltaNsec, 0, mCount);
+            System.arraycopy(mTicks, 0, ticks, 0, mCount);
+            System.arraycopy(mPaddleX, 0, paddleX, 0, mCount);
+            mDeltaNsec = deltaNsec;
+            mTicks = ticks;
+            mPaddleX = paddleX;
+        }
+        return mCount++;
+    }
+
+    /**
+     * Writes the configuration to "buf", CONFIG_SIZE bytes.
+     */
+    public void putConfig(ByteBuffer buf) {
+        buf.putInt(mBrickColumns);
+        buf.putInt(mBrickRows);
+        buf.putInt(mMaxBalls);
+        buf.putInt(mNeverLoseBall ? 1 : 0);
+        buf.putInt(mMaxLives);
+        buf.putInt(mExtraBalls);
+        buf.putInt(mBallInitialSpeed);
+        buf.putInt(mBallMaximumSpeed);
+        buf.putFloat(mBallSizeMultiplier);
+        buf.putFloat(mPaddleSizeMultiplier);
+        buf.putFloat(mScoreMultiplier);
+        buf.putInt(mCollisionMode);
+        buf.putInt(mParallelThreads);
+    }
+
+    /**
+     * Reads a configuration written by putConfig().
+     */
+    public void getConfig(ByteBuffer buf) {
+        mBrickColumns = buf.getInt();
+        mBrickRows = buf.getInt();
+        mMaxBalls = buf.getInt();
+        mNeverLoseBall = buf.getInt() != 0;
+        mMaxLives = buf.getInt();
+        mExtraBalls = buf.getInt();
+        mBallInitialSpeed = buf.getInt();
+        mBallMaximumSpeed = buf.getInt();
+        mBallSizeMultiplier = buf.getFloat();
+        mPaddleSizeMultiplier = buf.getFloat();
+        mScoreMultiplier = buf.getFloat();
+        mCollisionMode = buf.getInt();
+        mParallelThreads = buf.getInt();
+    }
+
+    /**
+     * Creates a simulation set up the way the recorded one was at the start of the
+     * recording, with no listener.
+     */
+    public GameSimulation createSimulation() {
+        if (mStart == null) {
+            throw new RuntimeException("nothing recorded");
+        }
+        GameSimulation sim = new GameSimulation(mBrickColumns, mBrickRows, mMaxBalls);
+        sim.setNeverLoseBall(mNeverLoseBall);
+        sim.setMaxLives(mMaxLives);
+        sim.setExtraBalls(mExtraBalls);
+        sim.setBallInitialSpeed(mBallInitialSpeed);
+        sim.setBallMaximumSpeed(mBallMaximumSpeed);
+        sim.setBallSizeMultiplier(mBallSizeMultiplier);
+        sim.setPaddleSizeMultiplier(mPaddleSizeMultiplier);
+        sim.setScoreMultiplier(mScoreMultiplier);
+        sim.setCollisionMode(mCollisionMode);
+        sim.setParallelThreads(mParallelThreads);
+        sim.initBoard();
+        mStart.applyTo(sim);
+        sim.setPauseTime(mStartPauseSec);
+        return sim;
+    }
+
+    /**
+     * Returns the number of entries recorded.
+     */
+    public int getEntryCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the number of ticks for entry "index", or PAUSE.
+     */
+    public int getTicks(int index) {
+        return mTicks[index];
+    }
+
+    /**
+     * Returns the time delta for entry "index", or the pause length for a pause entry.
+     */
+    public int getDeltaNsec(int index) {
+        return mDeltaNsec[index];
+    }
+
+    /**
+     * Returns the paddle position requested before entry "index", or NaN if none.
+     */
+    public float getPaddleX(int index) {
+        return mPaddleX[index];
+    }
+
+    /**
+     * Returns the number of state hashes recorded.
+     */
+    public int getHashCount() {
+        return mHashCount;
+    }
+
+    /**
+     * Returns the state hash after tick getStartTick() + index + 1, i.e. after the tick with
+     * index "index" in this recording.
+     */
+    public long getHash(int index) {
+        return mHashes[index];
+    }
+
+    /**
+     * Returns the starting state.  Don't modify it.
+     */
+    public SavedGame getStart() {
+        return mStart;
+    }
+
+    /**
+     * Returns the pause time remaining at the start of the recording.
+     */
+    public float getStartPauseSec() {
+        return mStartPauseSec;
+    }
+
+    /**
+     * Returns the number of ticks into a longer recording that this one starts.
+     */
+    public long getStartTick() {
+        return mStartTick;
+    }
+}
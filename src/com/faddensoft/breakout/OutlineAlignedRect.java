@@ -47,6 +47,12 @@ public class OutlineAlignedRect extends BasicAlignedRect {
             GLES20.GL_FLOAT, false, VERTEX_STRIDE, sOutlineVertexBuffer);
         Util.checkGlError("glVertexAttribPointer");
 
+        if (UNIFORM_TRANSFORM) {
+            GLES20.glUniformMatrix4fv(sProjMatrixHandle, 1, false,
+                    GameSurfaceRenderer.mProjectionMatrix, 0);
+            Util.checkGlError("glUniformMatrix4fv");
+        }
+
         sDrawPrepared = true;
     }
 
@@ -68,13 +74,20 @@ public class OutlineAlignedRect extends BasicAlignedRect {
             throw new RuntimeException("not prepared");
         }
 
-        // Compute model/view/projection matrix.
-        float[] mvp = sTempMVP;     // scratch storage
-        Matrix.multiplyMM(mvp, 0, GameSurfaceRenderer.mProjectionMatrix, 0, mModelView, 0);
-
-        // Copy the model / view / projection matrix over.
-        GLES20.glUniformMatrix4fv(sMVPMatrixHandle, 1, false, mvp, 0);
-        Util.checkGlError("glUniformMatrix4fv");
+        if (UNIFORM_TRANSFORM) {
+            // Send the position and scale; the shader does the rest.
+            GLES20.glUniform4f(sPosScaleHandle,
+                    getXPosition(), getYPosition(), getXScale(), getYScale());
+            Util.checkGlError("glUniform4f");
+        } else {
+            // Compute model/view/projection matrix.
+            float[] mvp = sTempMVP;     // scratch storage
+            Matrix.multiplyMM(mvp, 0, GameSurfaceRenderer.mProjectionMatrix, 0, mModelView, 0);
+
+            // Copy the model / view / projection matrix over.
+            GLES20.glUniformMatrix4fv(sMVPMatrixHandle, 1, false, mvp, 0);
+            Util.checkGlError("glUniformMatrix4fv");
+        }
 
         // Copy the color vector into the program.
         GLES20.glUniform4fv(sColorHandle, 1, mColor, 0);
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Moves the balls in a GameSimulation on several threads at once.
+ * <p>
+ * The balls are split into contiguous ranges, one per thread.  The thread that calls step()
+ * does the first range itself, and a fixed set of worker threads does the rest.  Everyone
+ * meets at a barrier before starting and again when done, and then the calling thread
+ * merges the results with GameSimulation.mergeDeferred().  The workers sit blocked on the
+ * start barrier between steps.
+ * <p>
+ * Handing work to another thread and waiting for it costs a few microseconds, so small
+ * numbers of balls aren't split up at all.
+ * <p>
+ * Apart from GameSimulation, this only needs java.util.concurrent, so the speedup can be
+ * measured on a desktop JVM with more cores than a phone (see ParallelStepBenchmark).
+ */
+public class ParallelStepper {
+    // Don't give a thread fewer balls than this; it's faster to do them ourselves.
+    static final int MIN_BALLS_PER_THREAD = 256;
+
+    private final GameSimulation mSim;
+    private final int mThreadCount;
+    private final GameSimulation.StepContext[] mContexts;
+    private final Thread[] mWorkers;
+    private final CyclicBarrier mStartBarrier;
+    private final CyclicBarrier mDoneBarrier;
+
+    // Parameters for the current step.  Written by the stepping thread before it reaches
+    // the start barrier, which makes them visible to the workers.
+    private int mNumTasks;
+    private int mNumBalls;
+    private double mDeltaSec;
+    private float mSlowDiv;
+    private boolean mShutdown;
+
+    // First exception thrown by a worker during the current step.
+    private volatile Throwable mFailure;
+
+
+    /**
+     * Creates the contexts and starts "threadCount - 1" worker threads.
+     */
+    public ParallelStepper(GameSimulation sim, int threadCount) {
+        if (threadCount <= 0) {
+            throw new RuntimeException("bad thread count " + threadCount);
+        }
+        mSim = sim;
+        mThreadCount = threadCount;
+        mContexts = new GameSimulation.StepContext[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            mContexts[i] = sim.newDeferredContext();
+        }
+        mStartBarrier = new CyclicBarrier(threadCount);
+        mDoneBarrier = new CyclicBarrier(threadCount);
+
+        mWorkers = new Thread[threadCount - 1];
+        for (int i = 0; i < mWorkers.length; i++) {
+            final int task = i + 1;
+            Thread thread = new Thread("BallStepper-" + task) {
+                @Override
+                public void run() {
+                    workerLoop(task);
+                }
+            };
+            thread.setDaemon(true);
+            mWorkers[i] = thread;
+            thread.start();
+        }
+    }
+
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    /**
+     * Moves balls [0, numBalls) and merges the results.
+     *
+     * @return The event from GameSimulation.mergeDeferred().
+     */
+    public int step(int numBalls, double deltaSec, float slowDiv) {
+        int numTasks = numBalls / MIN_BALLS_PER_THREAD;
+        if (numTasks > mThreadCount) {
+            numTasks = mThreadCount;
+        } else if (numTasks < 1) {
+            numTasks = 1;
+        }
+
+        if (numTasks == 1) {
+            // Not worth waking anybody up.
+            mSim.moveBallRange(mContexts[0], 0, numBalls, deltaSec, slowDiv);
+        } else {
+            mNumTasks = numTasks;
+            mNumBalls = numBalls;
+            mDeltaSec = deltaSec;
+            mSlowDiv = slowDiv;
+
+            await(mStartBarrier);
+            try {
+                runTask(0);
+            } finally {
+                await(mDoneBarrier);
+            }
+
+            Throwable failure = mFailure;
+            if (failure != null) {
+                mFailure = null;
+                throw new RuntimeException("ball stepper thread failed", failure);
+            }
+        }
+
+        return mSim.mergeDeferred(mContexts, numTasks);
+    }
+
+    /**
+     * Stops the worker threads.  The stepper can't be used afterward.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        if (mWorkers.length != 0) {
+            await(mStartBarrier);
+        }
+        for (int i = 0; i < mWorkers.length; i++) {
+            try {
+                mWorkers[i].join();
+            } catch (InterruptedException ie) {
+                throw new RuntimeException(ie);
+            }
+        }
+    }
+
+    private void workerLoop(int task) {
+        while (true) {
+            await(mStartBarrier);
+            if (mShutdown) {
+                return;
+            }
+            try {
+                runTask(task);
+            } catch (Throwable th) {
+                // Report it on the stepping thread, and keep going so it isn't left
+                // waiting at the barrier forever.
+                if (mFailure == null) {
+                    mFailure = th;
+                }
+            }
+            await(mDoneBarrier);
+        }
+    }
+
+    /**
+     * Moves the task'th range of balls.  Ranges are as even as we can make them.
+     */
+    private void runTask(int task) {
+        if (task >= mNumTasks) {
+            return;     // more threads than there are balls to keep them busy
+        }
+        int first = (int) ((long) mNumBalls * task / mNumTasks);
+        int end = (int) ((long) mNumBalls * (task + 1) / mNumTasks);
+        mSim.moveBallRange(mContexts[task], first, end, mDeltaSec, mSlowDiv);
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        } catch (BrokenBarrierException bbe) {
+            throw new RuntimeException(bbe);
+        }
+    }
+}
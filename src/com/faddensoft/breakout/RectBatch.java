@@ -0,0 +1,278 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Collects solid-color axis-aligned rects and draws them all with a single draw call.
+ * <p>
+ * This class has no Android dependencies; all GL calls go through a GlCalls object.  The GL
+ * program is created elsewhere (see BasicAlignedRect) and handed in with setProgram().
+ */
+public class RectBatch {
+    /*
+     * The per-object approach in BasicAlignedRect costs three GL calls per rect (MVP matrix,
+     * color, draw).  Here we do the position and scale arithmetic on the CPU instead, writing
+     * the four corners of each rect, already in arena coordinates, into an interleaved vertex
+     * array along with the color:
+     *
+     *   x, y, r, g, b, a   (x4 per rect)
+     *
+     * The vertex shader only needs to apply the projection matrix, which is constant for the
+     * whole pass, so it's sent once in begin().  When we're done we copy the vertex data into
+     * a direct buffer and draw everything with one glDrawElements() call.  The index buffer
+     * never changes; it just describes two triangles per rect, with the same 0-1-2 2-1-3
+     * winding BaseRect uses for its triangle strip.
+     *
+     * This is approach #2 from the big comment in BasicAlignedRect.  We're sending a lot more
+     * vertex data across per rect (96 bytes rather than a 64-byte matrix and a 16-byte color),
+     * but we're making two or three orders of magnitude fewer calls into the driver, and
+     * that's where the CPU time was going.
+     *
+     * If more rects are added than we have room for, we flush what we have and start over, so
+     * the call count grows by one draw per "maxRects" rects.  16-bit indices limit us to
+     * 16384 rects per draw.
+     */
+
+    // Vertex layout, shared with StaticRectBuffer.
+    static final int FLOATS_PER_VERTEX = 6;                 // x, y, r, g, b, a
+    static final int VERTICES_PER_RECT = 4;
+    static final int INDICES_PER_RECT = 6;
+    static final int FLOATS_PER_RECT = FLOATS_PER_VERTEX * VERTICES_PER_RECT;
+    static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * 4;         // 4 bytes per float
+    static final int COLOR_OFFSET = 2 * 4;                          // byte offset of "r"
+    static final int MAX_RECTS_PER_DRAW = 65536 / VERTICES_PER_RECT;
+
+    // Values from GLES20.  We don't want the dependency.
+    private static final int GL_TRIANGLES = 0x0004;
+    private static final int GL_UNSIGNED_SHORT = 0x1403;
+    private static final int GL_FLOAT = 0x1406;
+
+    private final GlCalls mGl;
+    private final int mMaxRects;
+
+    // Vertex data is assembled in mVertices, then copied to the direct buffers for GL.
+    private final float[] mVertices;
+    private final FloatBuffer mVertexBuffer;
+    private final FloatBuffer mColorBuffer;     // view of mVertexBuffer, starting at "r"
+    private final ShortBuffer mIndexBuffer;
+    private int mNumRects;
+
+    private int mProgramHandle = -1;
+    private int mPositionHandle = -1;
+    private int mColorHandle = -1;
+    private int mProjMatrixHandle = -1;
+
+    // Sanity check on draw prep.
+    private boolean mDrawPrepared;
+
+    // Statistics.
+    private int mDrawCalls;
+    private int mRectsDrawn;
+
+
+    /**
+     * Creates a batch.
+     *
+     * @param gl Where to send GL calls.
+     * @param maxRects Maximum number of rects per draw call.
+     */
+    public RectBatch(GlCalls gl, int maxRects) {
+        if (maxRects <= 0 || maxRects > MAX_RECTS_PER_DRAW) {
+            throw new RuntimeException("bad maxRects " + maxRects);
+        }
+        mGl = gl;
+        mMaxRects = maxRects;
+        mVertices = new float[maxRects * FLOATS_PER_RECT];
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(mVertices.length * 4);
+        bb.order(ByteOrder.nativeOrder());
+        mVertexBuffer = bb.asFloatBuffer();
+        mVertexBuffer.position(2);
+        mColorBuffer = mVertexBuffer.slice();
+        mVertexBuffer.position(0);
+
+        mIndexBuffer = createIndexBuffer(maxRects);
+    }
+
+    /**
+     * Creates a direct buffer with the indices for "numRects" rects, two triangles each.
+     */
+    static ShortBuffer createIndexBuffer(int numRects) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(numRects * INDICES_PER_RECT * 2);
+        bb.order(ByteOrder.nativeOrder());
+        ShortBuffer sb = bb.asShortBuffer();
+        for (int i = 0; i < numRects; i++) {
+            int base = i * VERTICES_PER_RECT;
+            sb.put((short) base);
+            sb.put((short) (base + 1));
+            sb.put((short) (base + 2));
+            sb.put((short) (base + 2));
+            sb.put((short) (base + 1));
+            sb.put((short) (base + 3));
+        }
+        sb.position(0);
+        return sb;
+    }
+
+    /**
+     * Sets the program and the handles of its attributes and uniforms.  The program must
+     * take a vec4 "position" and "color" per vertex, and a mat4 projection matrix.
+     */
+    public void setProgram(int programHandle, int positionHandle, int colorHandle,
+            int projMatrixHandle) {
+        mProgramHandle = programHandle;
+        mPositionHandle = positionHandle;
+        mColorHandle = colorHandle;
+        mProjMatrixHandle = projMatrixHandle;
+    }
+
+    /**
+     * Starts a batch.  Selects the program and sends the projection matrix.
+     */
+    public void begin(float[] projectionMatrix) {
+        GlCalls gl = mGl;
+        gl.glUseProgram(mProgramHandle);
+        gl.glUniformMatrix4fv(mProjMatrixHandle, 1, false, projectionMatrix, 0);
+        gl.glEnableVertexAttribArray(mPositionHandle);
+        gl.glEnableVertexAttribArray(mColorHandle);
+        mNumRects = 0;
+        mDrawPrepared = true;
+    }
+
+    /**
+     * Adds a rect to the batch.  Position and scale follow the BaseRect conventions (center
+     * point, full width and height).
+     *
+     * @param color RGBA color, e.g. from BasicAlignedRect.getColor().
+     */
+    public void add(float xpos, float ypos, float xscale, float yscale, float[] color) {
+        if (!mDrawPrepared) {
+            throw new RuntimeException("not prepared");
+        }
+        if (mNumRects == mMaxRects) {
+            flush();
+        }
+
+        float left = xpos - xscale / 2;
+        float right = xpos + xscale / 2;
+        float bottom = ypos - yscale / 2;
+        float top = ypos + yscale / 2;
+        float r = color[0];
+        float g = color[1];
+        float b = color[2];
+        float a = color[3];
+
+        float[] v = mVertices;
+        int i = mNumRects * FLOATS_PER_RECT;
+        v[i++] = left;  v[i++] = bottom; v[i++] = r; v[i++] = g; v[i++] = b; v[i++] = a;
+        v[i++] = right; v[i++] = bottom; v[i++] = r; v[i++] = g; v[i++] = b; v[i++] = a;
+        v[i++] = left;  v[i++] = top;    v[i++] = r; v[i++] = g; v[i++] = b; v[i++] = a;
+        v[i++] = right; v[i++] = top;    v[i++] = r; v[i++] = g; v[i++] = b; v[i++] = a;
+        mNumRects++;
+    }
+
+    /**
+     * Draws the contents of a StaticRectBuffer with the batch's program.  Anything already
+     * added to the batch is drawn first, so the rects are layered in the order they were
+     * submitted.
+     */
+    public void drawStatic(StaticRectBuffer buf) {
+        if (!mDrawPrepared) {
+            throw new RuntimeException("not prepared");
+        }
+        flush();
+        buf.draw(mPositionHandle, mColorHandle);
+        mDrawCalls++;
+        mRectsDrawn += buf.getRectCount();
+    }
+
+    /**
+     * Draws anything still in the batch, and cleans up.
+     */
+    public void end() {
+        flush();
+        mDrawPrepared = false;
+
+        // Disable vertex arrays and program.  Not strictly necessary.
+        GlCalls gl = mGl;
+        gl.glDisableVertexAttribArray(mPositionHandle);
+        gl.glDisableVertexAttribArray(mColorHandle);
+        gl.glUseProgram(0);
+    }
+
+    /**
+     * Sends the accumulated rects to GL.
+     */
+    private void flush() {
+        if (mNumRects == 0) {
+            return;
+        }
+
+        // Copy the vertex data into the direct buffer.  A bulk put is much faster than
+        // writing into the FloatBuffer one value at a time.
+        mVertexBuffer.position(0);
+        mVertexBuffer.put(mVertices, 0, mNumRects * FLOATS_PER_RECT);
+        mVertexBuffer.position(0);
+
+        GlCalls gl = mGl;
+        gl.glVertexAttribPointer(mPositionHandle, 2, GL_FLOAT, false, VERTEX_STRIDE,
+                mVertexBuffer);
+        gl.glVertexAttribPointer(mColorHandle, 4, GL_FLOAT, false, VERTEX_STRIDE,
+                mColorBuffer);
+        gl.glDrawElements(GL_TRIANGLES, mNumRects * INDICES_PER_RECT, GL_UNSIGNED_SHORT,
+                mIndexBuffer);
+
+        mDrawCalls++;
+        mRectsDrawn += mNumRects;
+        mNumRects = 0;
+    }
+
+    /**
+     * Returns the number of draw calls issued since the batch was created.
+     */
+    public int getDrawCallCount() {
+        return mDrawCalls;
+    }
+
+    /**
+     * Returns the number of rects drawn since the batch was created.
+     */
+    public int getRectsDrawn() {
+        return mRectsDrawn;
+    }
+
+    /**
+     * Returns the vertex data for the rects currently in the batch (x, y, r, g, b, a per
+     * vertex, four vertices per rect).  Valid until the next flush.  The caller must not
+     * modify the array.
+     */
+    float[] getPendingVertices() {
+        return mVertices;
+    }
+
+    /**
+     * Returns the number of rects currently in the batch.
+     */
+    int getPendingCount() {
+        return mNumRects;
+    }
+}
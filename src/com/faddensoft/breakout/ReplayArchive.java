@@ -0,0 +1,560 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * File format for long InputRecordings, with an index for seeking.
+ * <p>
+ * The recording is cut into chunks of about KEYFRAME_INTERVAL entries.  Each chunk starts
+ * with a keyframe -- the full game state at that point, in the SavedGame format, plus the
+ * pause time -- so it can be played without anything that came before it.  To show the
+ * game at a given tick, a reader finds the last chunk that starts at or before it, loads
+ * the keyframe, and plays forward.  With the default interval that's at most a minute of
+ * play, which a headless simulation gets through in a few milliseconds.
+ * <p>
+ * Chunks end right after an entry that ran at least one tick, so a keyframe is the state
+ * just after a tick, before any paddle move that followed; that's the same place
+ * ReplayPlayer.playToTick() stops, so seeking to a keyframe's tick and playing to it give
+ * the same state.
+ * <p>
+ * Entries are small numbers that change slowly, so they're stored as deltas in varints:
+ * <pre>
+ *   varint  (ticks + 1) << 1 | (paddle moved ? 1 : 0)    (a pause has ticks = -1)
+ *   varint  zigzag(frame delta nsec - previous frame delta nsec), or the pause length
+ *   varint  zigzag(paddle float bits - previous paddle float bits), if the paddle moved
+ * </pre>
+ * The "previous" values start over at each chunk: the delta at zero, and the paddle at its
+ * keyframe position.  A typical 60fps frame takes 4-7 bytes, against 9 in memory.
+ * <p>
+ * If the recording has state hashes, each chunk ends with the hash after each of its
+ * ticks, as plain longs; they're random, so there's nothing to gain from coding them.
+ * That's 32 bytes per 60fps frame, so it's for recordings made to chase down a
+ * determinism bug, not for everyday use.  Reader.verify() plays the archive back and
+ * checks them.
+ * <p>
+ * The whole file:
+ * <pre>
+ *   int    magic ('BkRp')
+ *   int    version
+ *   int    flags (FLAG_HASHES)
+ *   byte[] configuration (see InputRecording.putConfig())
+ *   chunks:
+ *     float  pause time at the keyframe
+ *     int    keyframe length
+ *     byte[] keyframe (SavedGame format)
+ *     byte[] entries
+ *     long[] state hash after each tick, if FLAG_HASHES is set
+ *   index, one per chunk:
+ *     long   tick the chunk starts at
+ *     int    index of its first entry
+ *     int    number of entries
+ *     long   file offset of the chunk
+ *     int    chunk length
+ *     int    CRC32 of the chunk
+ *   long   file offset of the index
+ *   int    number of chunks
+ *   int    magic
+ * </pre>
+ * Readers map the file into memory rather than reading it, and only check and decode the
+ * chunk they need, so opening and scrubbing through a multi-hour archive touches only a
+ * few pages of it.
+ */
+class ReplayArchive {
+    private static final int FILE_MAGIC = 0x426b5270;      // 'BkRp'
+    private static final int FILE_VERSION = 2;
+    private static final int FLAG_HASHES = 0x01;
+    private static final int CONFIG_OFFSET = 12;
+    private static final int HEADER_SIZE = CONFIG_OFFSET + InputRecording.CONFIG_SIZE;
+    private static final int INDEX_ENTRY_SIZE = 8 + 4 + 4 + 8 + 4 + 4;
+    private static final int TRAILER_SIZE = 8 + 4 + 4;
+
+    /**
+     * Default number of entries per chunk: about a minute at 60fps.
+     */
+    public static final int KEYFRAME_INTERVAL = 3600;
+
+
+    /**
+     * Writes "recording" to "file".  The keyframes are made by playing the recording on a
+     * headless simulation, so this takes a moment for a long recording; don't do it on
+     * the Renderer thread.
+     *
+     * @param keyframeInterval Entries per chunk.
+     */
+    public static void write(InputRecording recording, File file, int keyframeInterval)
+            throws IOException {
+        int numEntries = recording.getEntryCount();
+        boolean hashes = recording.isHashing();
+        if (hashes) {
+            long ticks = 0;
+            for (int i = 0; i < numEntries; i++) {
+                ticks += Math.max(recording.getTicks(i), 0);
+            }
+            if (ticks != recording.getHashCount()) {
+                throw new RuntimeException("recording has " + recording.getHashCount()
+                        + " hashes for " + ticks + " ticks");
+            }
+        }
+        int maxChunks = numEntries / keyframeInterval + 2;
+        long[] chunkTick = new long[maxChunks];
+        int[] chunkEntry = new int[maxChunks];
+        int[] chunkOffset = new int[maxChunks];
+        int numChunks = 0;
+
+        Encoder enc = new Encoder(HEADER_SIZE + numEntries * 6
+                + (hashes ? recording.getHashCount() * 8 : 0) + 4096);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(FILE_MAGIC);
+        header.putInt(FILE_VERSION);
+        header.putInt(hashes ? FLAG_HASHES : 0);
+        recording.putConfig(header);
+        enc.putBytes(header.array(), 0, HEADER_SIZE);
+
+        ReplayPlayer player = new ReplayPlayer(recording, null);
+        GameSimulation sim = player.getSimulation();
+        SavedGame keyframe = new SavedGame(sim.getBrickCount(), sim.getMaxBalls());
+        byte[] keyframeData = new byte[keyframe.getMaxEncodedSize()];
+        int prevDelta = 0;
+        int prevPaddleBits = 0;
+        int chunkEntries = 0;
+
+        for (int i = 0; i < numEntries; i++) {
+            if (i == 0 || (chunkEntries >= keyframeInterval && recording.getTicks(i - 1) > 0)) {
+                // Finish the previous chunk, and start a new one.
+                if (i != 0 && hashes) {
+                    putHashes(enc, recording, chunkTick[numChunks - 1], player.getTick());
+                }
+                keyframe.captureFrom(sim);
+                keyframe.mIsValid = true;
+                int length = keyframe.encode(keyframeData);
+                chunkTick[numChunks] = player.getTick();
+                chunkEntry[numChunks] = i;
+                chunkOffset[numChunks] = enc.mLength;
+                numChunks++;
+                enc.putInt(Float.floatToRawIntBits(sim.getPauseTime()));
+                enc.putInt(length);
+                enc.putBytes(keyframeData, 0, length);
+                prevDelta = 0;
+                prevPaddleBits = Float.floatToRawIntBits(keyframe.mPaddlePosition);
+                chunkEntries = 0;
+            }
+
+            int ticks = recording.getTicks(i);
+            int delta = recording.getDeltaNsec(i);
+            float paddleX = recording.getPaddleX(i);
+            boolean moved = paddleX == paddleX;
+            enc.putVarint(((long) (ticks + 1) << 1) | (moved ? 1 : 0));
+            if (ticks == InputRecording.PAUSE) {
+                enc.putVarint(delta & 0xffffffffL);
+            } else {
+                enc.putVarint(zigzag((long) delta - prevDelta));
+                prevDelta = delta;
+            }
+            if (moved) {
+                int bits = Float.floatToRawIntBits(paddleX);
+                enc.putVarint(zigzag((long) bits - prevPaddleBits));
+                prevPaddleBits = bits;
+            }
+            chunkEntries++;
+            player.step();
+        }
+        if (numChunks != 0 && hashes) {
+            putHashes(enc, recording, chunkTick[numChunks - 1], player.getTick());
+        }
+
+        // Index and trailer.
+        int indexOffset = enc.mLength;
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < numChunks; i++) {
+            int end = (i + 1 < numChunks) ? chunkOffset[i + 1] : indexOffset;
+            int nextEntry = (i + 1 < numChunks) ? chunkEntry[i + 1] : numEntries;
+            crc.reset();
+            crc.update(enc.mData, chunkOffset[i], end - chunkOffset[i]);
+            enc.putLong(chunkTick[i]);
+            enc.putInt(chunkEntry[i]);
+            enc.putInt(nextEntry - chunkEntry[i]);
+            enc.putLong(chunkOffset[i]);
+            enc.putInt(end - chunkOffset[i]);
+            enc.putInt((int) crc.getValue());
+        }
+        enc.putLong(indexOffset);
+        enc.putInt(numChunks);
+        enc.putInt(FILE_MAGIC);
+
+        SavedGame.writeFile(file, enc.mData, enc.mLength);
+    }
+
+    /**
+     * Writes the recording's hashes for the ticks after "startTick", up to and including
+     * "endTick".
+     */
+    private static void putHashes(Encoder enc, InputRecording recording, long startTick,
+            long endTick) {
+        int first = (int) (startTick - recording.getStartTick());
+        int end = (int) (endTick - recording.getStartTick());
+        for (int i = first; i < end; i++) {
+            enc.putLong(recording.getHash(i));
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Growable byte array with big-endian and varint puts.
+     */
+    private static class Encoder {
+        byte[] mData;
+        int mLength;
+
+        Encoder(int capacity) {
+            mData = new byte[capacity];
+        }
+
+        private void ensure(int count) {
+            if (mLength + count > mData.length) {
+                byte[] data = new byte[Math.max(mData.length * 2, mLength + count)];
+                System.arraycopy(mData, 0, data, 0, mLength);
+                mData = data;
+            }
+        }
+
+        void putBytes(byte[] src, int offset, int count) {
+            ensure(count);
+            System.arraycopy(src, offset, mData, mLength, count);
+            mLength += count;
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            mData[mLength++] = (byte) (value >> 24);
+            mData[mLength++] = (byte) (value >> 16);
+            mData[mLength++] = (byte) (value >> 8);
+            mData[mLength++] = (byte) value;
+        }
+
+        void putLong(long value) {
+            putInt((int) (value >> 32));
+            putInt((int) value);
+        }
+
+        void putVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                mData[mLength++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            mData[mLength++] = (byte) value;
+        }
+    }
+
+    /**
+     * Reads an archive written by write().  Not thread-safe.
+     */
+    public static class Reader {
+        private final MappedByteBuffer mBuf;
+        private final int mNumChunks;
+        private final int mIndexOffset;
+        private final long mTotalTicks;
+        private final int mTotalEntries;
+        private final boolean mHasHashes;
+        private final CRC32 mCrc = new CRC32();
+        private final long[] mVarint = new long[1];
+        private byte[] mScratch = new byte[4096];
+
+        /**
+         * Opens an archive.  Only the header and index are looked at here.
+         */
+        public Reader(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                long length = raf.length();
+                if (length < HEADER_SIZE + TRAILER_SIZE || length > Integer.MAX_VALUE) {
+                    throw new IOException("bad replay archive size " + length);
+                }
+                // The mapping stays valid after the file is closed.
+                mBuf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } finally {
+                raf.close();
+            }
+
+            ByteBuffer buf = mBuf;
+            int length = buf.capacity();
+            if (buf.getInt(0) != FILE_MAGIC || buf.getInt(4) != FILE_VERSION
+                    || buf.getInt(length - 4) != FILE_MAGIC) {
+                throw new IOException("not a replay archive, or a different version");
+            }
+            mHasHashes = (buf.getInt(8) & FLAG_HASHES) != 0;
+            long indexOffset = buf.getLong(length - TRAILER_SIZE);
+            int numChunks = buf.getInt(length - 8);
+            if (numChunks <= 0 || indexOffset < HEADER_SIZE
+                    || indexOffset + (long) numChunks * INDEX_ENTRY_SIZE
+                            != length - TRAILER_SIZE) {
+                throw new IOException("bad replay archive index");
+            }
+            mNumChunks = numChunks;
+            mIndexOffset = (int) indexOffset;
+
+            // Sanity-check the index, so we can trust it later.
+            long prevTick = -1;
+            int expectedEntry = 0;
+            long expectedOffset = HEADER_SIZE;
+            for (int i = 0; i < numChunks; i++) {
+                int pos = mIndexOffset + i * INDEX_ENTRY_SIZE;
+                long tick = buf.getLong(pos);
+                if (tick <= prevTick || buf.getInt(pos + 8) != expectedEntry
+                        || buf.getInt(pos + 12) <= 0
+                        || buf.getLong(pos + 16) != expectedOffset
+                        || buf.getInt(pos + 24) <= 8) {
+                    throw new IOException("bad replay archive index entry " + i);
+                }
+                prevTick = tick;
+                expectedEntry += buf.getInt(pos + 12);
+                expectedOffset += buf.getInt(pos + 24);
+            }
+            if (expectedOffset != indexOffset) {
+                throw new IOException("bad replay archive index");
+            }
+            mTotalEntries = expectedEntry;
+
+            // We don't know how many ticks the last chunk has without decoding it.
+            InputRecording last = new InputRecording(16);
+            loadChunk(numChunks - 1, last);
+            long ticks = last.getStartTick();
+            for (int i = 0; i < last.getEntryCount(); i++) {
+                ticks += Math.max(last.getTicks(i), 0);
+            }
+            mTotalTicks = ticks;
+        }
+
+        /**
+         * Returns the number of chunks in the archive.
+         */
+        public int getChunkCount() {
+            return mNumChunks;
+        }
+
+        /**
+         * Returns the number of entries in the whole recording.
+         */
+        public int getEntryCount() {
+            return mTotalEntries;
+        }
+
+        /**
+         * Returns the number of ticks the whole recording runs for.
+         */
+        public long getTickCount() {
+            return mTotalTicks;
+        }
+
+        /**
+         * Returns true if the archive has state hashes.
+         */
+        public boolean hasHashes() {
+            return mHasHashes;
+        }
+
+        /**
+         * Returns the tick chunk "chunk" starts at.
+         */
+        public long getChunkStartTick(int chunk) {
+            return mBuf.getLong(mIndexOffset + chunk * INDEX_ENTRY_SIZE);
+        }
+
+        /**
+         * Returns the last chunk that starts at or before "tick".
+         */
+        public int findChunk(long tick) {
+            int lo = 0, hi = mNumChunks - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (getChunkStartTick(mid) <= tick) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * Decodes chunk "chunk" into "dst", which ends up holding the configuration, the
+         * keyframe as its starting state, the chunk's entries, and their hashes if the
+         * archive has them.
+         */
+        public void loadChunk(int chunk, InputRecording dst) throws IOException {
+            ByteBuffer buf = mBuf;
+            int pos = mIndexOffset + chunk * INDEX_ENTRY_SIZE;
+            long startTick = buf.getLong(pos);
+            int numEntries = buf.getInt(pos + 12);
+            int offset = (int) buf.getLong(pos + 16);
+            int length = buf.getInt(pos + 24);
+            int expectedCrc = buf.getInt(pos + 28);
+
+            // Pull the chunk out of the mapping, and check it.
+            if (mScratch.length < length) {
+                mScratch = new byte[Math.max(length, mScratch.length * 2)];
+            }
+            byte[] data = mScratch;
+            buf.position(offset);
+            buf.get(data, 0, length);
+            mCrc.reset();
+            mCrc.update(data, 0, length);
+            if ((int) mCrc.getValue() != expectedCrc) {
+                throw new IOException("replay archive chunk " + chunk + " is damaged");
+            }
+
+            ByteBuffer chunkBuf = ByteBuffer.wrap(data, 0, length);
+            float pauseSec = chunkBuf.getFloat();
+            int keyframeLength = chunkBuf.getInt();
+            if (keyframeLength <= 0 || keyframeLength > length - 8) {
+                throw new IOException("bad keyframe in replay archive chunk " + chunk);
+            }
+            byte[] keyframeData = new byte[keyframeLength];
+            chunkBuf.get(keyframeData);
+            SavedGame keyframe = SavedGame.decode(keyframeData, keyframeLength);
+            if (keyframe == null) {
+                throw new IOException("bad keyframe in replay archive chunk " + chunk);
+            }
+
+            buf.position(CONFIG_OFFSET);
+            dst.getConfig(buf);
+            dst.beginAt(keyframe, pauseSec, startTick);
+            dst.setHashing(mHasHashes);
+
+            // Decode the entries.
+            int p = 8 + keyframeLength;
+            int prevDelta = 0;
+            int prevPaddleBits = Float.floatToRawIntBits(keyframe.mPaddlePosition);
+            int chunkTicks = 0;
+            long[] out = mVarint;
+            for (int i = 0; i < numEntries; i++) {
+                p = readVarint(data, p, length, out);
+                long head = out[0];
+                int ticks = (int) (head >>> 1) - 1;
+                boolean moved = (head & 1) != 0;
+                p = readVarint(data, p, length, out);
+                int delta;
+                if (ticks == InputRecording.PAUSE) {
+                    delta = (int) out[0];
+                } else {
+                    delta = (int) (prevDelta + unzigzag(out[0]));
+                    prevDelta = delta;
+                }
+                float paddleX = Float.NaN;
+                if (moved) {
+                    p = readVarint(data, p, length, out);
+                    int bits = (int) (prevPaddleBits + unzigzag(out[0]));
+                    prevPaddleBits = bits;
+                    paddleX = Float.intBitsToFloat(bits);
+                }
+                if (ticks < InputRecording.PAUSE || ticks > Byte.MAX_VALUE) {
+                    throw new IOException("bad entry in replay archive chunk " + chunk);
+                }
+                dst.addEntry(delta, ticks, paddleX);
+                chunkTicks += Math.max(ticks, 0);
+            }
+            if (mHasHashes) {
+                if (length - p < chunkTicks * 8L) {
+                    throw new IOException("missing hashes in replay archive chunk " + chunk);
+                }
+                for (int i = 0; i < chunkTicks; i++, p += 8) {
+                    dst.recordHash(chunkBuf.getLong(p));
+                }
+            }
+            if (p != length) {
+                throw new IOException("bad entries in replay archive chunk " + chunk);
+            }
+        }
+
+        /**
+         * Reads a varint from data[pos], stopping before "end".  Puts the value in out[0].
+         *
+         * @return The position after the varint.
+         */
+        private static int readVarint(byte[] data, int pos, int end, long[] out)
+                throws IOException {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                if (pos >= end || shift > 63) {
+                    throw new IOException("bad varint in replay archive");
+                }
+                byte b = data[pos++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    out[0] = value;
+                    return pos;
+                }
+                shift += 7;
+            }
+        }
+
+        /**
+         * Returns a player positioned at "tick": the keyframe at or before it is loaded
+         * into "recording", and played forward to the tick.  If "tick" is past the end,
+         * the player ends up at the end.
+         */
+        public ReplayPlayer seek(long tick, InputRecording recording,
+                GameSimulation.Listener listener) throws IOException {
+            loadChunk(findChunk(tick), recording);
+            ReplayPlayer player = new ReplayPlayer(recording, listener);
+            player.playToTick(tick);
+            return player;
+        }
+
+        /**
+         * Plays the whole archive, one chunk at a time, and checks the simulation against
+         * the recorded state hashes after every tick.  Since each keyframe was made by
+         * playing the recording up to it, checking the chunks separately finds the same
+         * first divergence as playing straight through would.
+         *
+         * @param recording Scratch recording to load the chunks into.
+         * @return The first tick whose hash didn't match (see
+         *     ReplayPlayer.getFirstDivergentTick()), or -1 if they all did.
+         */
+        public long verify(InputRecording recording) throws IOException {
+            if (!mHasHashes) {
+                throw new IOException("replay archive has no state hashes");
+            }
+            for (int i = 0; i < mNumChunks; i++) {
+                loadChunk(i, recording);
+                ReplayPlayer player = new ReplayPlayer(recording, null);
+                player.setVerify(true);
+                player.playToEnd();
+                if (player.getFirstDivergentTick() >= 0) {
+                    return player.getFirstDivergentTick();
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+/**
+ * Plays back an InputRecording on a headless GameSimulation.
+ * <p>
+ * Each frame does to the simulation exactly what GameState.calculateNextFrame() and
+ * GameState.movePaddle() did when it was recorded: move the paddle if it was moved, then
+ * advance the recorded number of fixed-size ticks.  With nothing to draw and no waiting
+ * for vsync, this runs far faster than real time, so a long session can be replayed to
+ * reproduce a glitch, or profiled frame by frame.
+ * <p>
+ * If the recording has state hashes, setVerify() checks the simulation against them after
+ * every tick, and remembers the first tick where they differ.  Everything after that is
+ * suspect; the bug is in whatever happened during that tick.
+ * <p>
+ * All it needs is a GameSimulation and the recording, which is what lets ReplayBenchmark
+ * replay a game on a desktop JVM.
+ */
+class ReplayPlayer {
+    private final InputRecording mRecording;
+    private final GameSimulation mSim;
+    private int mNext;              // next entry to start
+    private int mTicksLeft;         // ticks left to play in the entry before that
+    private long mTick;
+    private long mElapsedNsec;
+    private boolean mVerify;
+    private long mFirstDivergentTick = -1;
+
+
+    /**
+     * Prepares to play "recording" on a new simulation.  If "listener" is non-null, it's
+     * given to the simulation.
+     */
+    public ReplayPlayer(InputRecording recording, GameSimulation.Listener listener) {
+        mRecording = recording;
+        mSim = recording.createSimulation();
+        mSim.setListener(listener);
+        mTick = recording.getStartTick();
+    }
+
+    /**
+     * Returns the simulation being played on.
+     */
+    public GameSimulation getSimulation() {
+        return mSim;
+    }
+
+    /**
+     * Returns the index of the next entry to be played.
+     */
+    public int getPosition() {
+        return mNext;
+    }
+
+    /**
+     * Returns true if there are entries, or ticks from a partly played entry, left to play.
+     */
+    public boolean hasMore() {
+        return mTicksLeft > 0 || mNext < mRecording.getEntryCount();
+    }
+
+    /**
+     * Returns the number of ticks the simulation has been advanced, counting from the start
+     * of the recording this one is a piece of (see InputRecording.getStartTick()).
+     */
+    public long getTick() {
+        return mTick;
+    }
+
+    /**
+     * Returns the amount of real time the played entries took when they were recorded.
+     */
+    public long getRecordedElapsedNsec() {
+        return mElapsedNsec;
+    }
+
+    /**
+     * Turns hash checking on or off.  Does nothing useful if the recording has no hashes.
+     */
+    public void setVerify(boolean verify) {
+        mVerify = verify;
+    }
+
+    /**
+     * Returns the first tick after which the simulation's state hash didn't match the
+     * recording's, or -1 if they've all matched so far.  Ticks are numbered like getTick(),
+     * so tick N is the one that took getTick() from N-1 to N.
+     */
+    public long getFirstDivergentTick() {
+        return mFirstDivergentTick;
+    }
+
+    /**
+     * Plays the next entry, or the rest of one playToTick() stopped in the middle of.
+     *
+     * @return The OR of the GameSimulation.EVENT_* values the ticks returned.
+     */
+    public int step() {
+        if (mTicksLeft == 0) {
+            startEntry();
+        }
+        int events = GameSimulation.EVENT_NONE;
+        while (mTicksLeft > 0) {
+            events |= tick();
+        }
+        return events;
+    }
+
+    /**
+     * Plays until getTick() reaches "tick", or the recording runs out.  Stops right after
+     * the tick, before any paddle move or pause that came after it.
+     */
+    public void playToTick(long tick) {
+        while (mTick < tick) {
+            if (mTicksLeft > 0) {
+                tick();
+            } else if (mNext < mRecording.getEntryCount()) {
+                startEntry();
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Plays all remaining entries.
+     */
+    public void playToEnd() {
+        while (hasMore()) {
+            step();
+        }
+    }
+
+    /**
+     * Applies the next entry's pause or paddle move, and sets up its ticks to be played.
+     */
+    private void startEntry() {
+        InputRecording rec = mRecording;
+        int index = mNext++;
+        int ticks = rec.getTicks(index);
+        if (ticks == InputRecording.PAUSE) {
+            mSim.setPauseTime(rec.getDeltaNsec(index) / 1000000000.0f);
+            return;
+        }
+
+        float paddleX = rec.getPaddleX(index);
+        if (paddleX == paddleX) {       // not NaN
+            mSim.movePaddle(paddleX);
+        }
+        mTicksLeft = ticks;
+        mElapsedNsec += rec.getDeltaNsec(index);
+    }
+
+    /**
+     * Advances the simulation one tick of the current entry.
+     */
+    private int tick() {
+        mTicksLeft--;
+        mTick++;
+        int event = mSim.advance(GameSimulation.TICK_SEC);
+        if (mVerify && mFirstDivergentTick < 0) {
+            long index = mTick - mRecording.getStartTick() - 1;
+            if (index < mRecording.getHashCount()
+                    && mSim.computeStateHash() != mRecording.getHash((int) index)) {
+                mFirstDivergentTick = mTick;
+            }
+        }
+        return event;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+/**
+ * Keeps the last few seconds of a game, so it can be rewound.
+ * <p>
+ * Every "interval" ticks we take a snapshot of the game, in a SavedGame (the same fields
+ * GameState.save() keeps) plus the pause timer, which a saved game doesn't need.  Between
+ * snapshots we keep the input for each tick: the paddle position requested before it, and
+ * the pause set before it, if any.  To go back to tick T, we load the last snapshot at or
+ * before T and run the simulation forward to T with the recorded input.  With the fixed
+ * timestep that reproduces the game exactly, so the state after a rewind is the same as it
+ * was the first time through.
+ * <p>
+ * Everything is allocated up front and reused as a ring, so recording doesn't allocate, and
+ * restoring doesn't either.  Recording a tick is a couple of array stores; a snapshot copies
+ * the balls and the brick bit vector, which for a standard board is a few hundred bytes.
+ * Restoring re-simulates at most "interval" ticks.
+ * <p>
+ * After a rewind, recording picks up from the restored tick, and the ticks that came after
+ * it are forgotten.
+ */
+class RewindBuffer {
+    private final int mInterval;
+    private final int mNumSnapshots;
+
+    // Snapshots.  Snapshot of tick N (a multiple of mInterval) is kept in slot
+    // (N / mInterval) % mNumSnapshots.  The tick is -1 if the slot is empty.
+    private final SavedGame[] mSnapshots;
+    private final long[] mSnapshotTick;
+    private final float[] mSnapshotPauseSec;
+
+    // Input for tick N is kept at N % mInputSize.  NaN means "none".
+    private final int mInputSize;
+    private final float[] mInputPaddleX;
+    private final float[] mInputPauseSec;
+
+    // Input since the last tick.
+    private float mPendingPaddleX = Float.NaN;
+    private float mPendingPauseSec = Float.NaN;
+
+    // Number of ticks since reset().
+    private long mTick;
+
+
+    /**
+     * Allocates the buffer.  It will hold at least "ticks" ticks of a game on a board with
+     * "numBricks" bricks and up to "maxBalls" balls, with a snapshot every "interval" ticks.
+     * A shorter interval makes rewinding faster and uses more memory.
+     */
+    public RewindBuffer(int numBricks, int maxBalls, int ticks, int interval) {
+        if (ticks <= 0 || interval <= 0) {
+            throw new RuntimeException("bad rewind length " + ticks + "/" + interval);
+        }
+        // One extra, so that "ticks" ticks back from anywhere there's a snapshot to start
+        // from.
+        int numSnapshots = (ticks + interval - 1) / interval + 1;
+        mInterval = interval;
+        mNumSnapshots = numSnapshots;
+        mSnapshots = new SavedGame[numSnapshots];
+        for (int i = 0; i < numSnapshots; i++) {
+            mSnapshots[i] = new SavedGame(numBricks, maxBalls);
+        }
+        mSnapshotTick = new long[numSnapshots];
+        mSnapshotPauseSec = new float[numSnapshots];
+
+        mInputSize = numSnapshots * interval;
+        mInputPaddleX = new float[mInputSize];
+        mInputPauseSec = new float[mInputSize];
+    }
+
+    /**
+     * Forgets everything, and starts over from the current state of "sim", which becomes
+     * tick zero.
+     */
+    public void reset(GameSimulation sim) {
+        for (int i = 0; i < mNumSnapshots; i++) {
+            mSnapshotTick[i] = -1;
+        }
+        mTick = 0;
+        mPendingPaddleX = Float.NaN;
+        mPendingPauseSec = Float.NaN;
+        takeSnapshot(sim);
+    }
+
+    /**
+     * Records a paddle move.  Like InputRecording, only the last one before a tick counts.
+     */
+    public void recordPaddle(float arenaX) {
+        mPendingPaddleX = arenaX;
+    }
+
+    /**
+     * Records a call to GameSimulation.setPauseTime().
+     */
+    public void recordPause(float durationSec) {
+        mPendingPauseSec = durationSec;
+    }
+
+    /**
+     * Records that "sim" just advanced one fixed-size tick, with the input recorded since the
+     * previous tick.  Takes a snapshot if it's time.
+     */
+    public void recordTick(GameSimulation sim) {
+        long tick = ++mTick;
+        int index = (int) (tick % mInputSize);
+        mInputPaddleX[index] = mPendingPaddleX;
+        mInputPauseSec[index] = mPendingPauseSec;
+        mPendingPaddleX = Float.NaN;
+        mPendingPauseSec = Float.NaN;
+        if (tick % mInterval == 0) {
+            takeSnapshot(sim);
+        }
+    }
+
+    private void takeSnapshot(GameSimulation sim) {
+        int slot = (int) ((mTick / mInterval) % mNumSnapshots);
+        mSnapshots[slot].captureFrom(sim);
+        mSnapshotPauseSec[slot] = sim.getPauseTime();
+        mSnapshotTick[slot] = mTick;
+    }
+
+    /**
+     * Returns the number of ticks recorded since reset().
+     */
+    public long getTick() {
+        return mTick;
+    }
+
+    /**
+     * Returns the earliest tick we can go back to.
+     */
+    public long getOldestTick() {
+        // Snapshots after the current tick are left over from before a rewind.  The rest
+        // are all still good, along with the input that follows them.
+        long oldest = mTick;
+        for (int i = 0; i < mNumSnapshots; i++) {
+            long tick = mSnapshotTick[i];
+            if (tick >= 0 && tick <= mTick && tick < oldest) {
+                oldest = tick;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Puts "sim" back the way it was right after tick "tick", which must be between
+     * getOldestTick() and getTick().  The simulation's listener hears about the bricks and
+     * sounds again as the ticks after the snapshot are re-run.
+     */
+    public void restore(GameSimulation sim, long tick) {
+        if (tick < getOldestTick() || tick > mTick) {
+            throw new RuntimeException("can't rewind to " + tick + ", have "
+                    + getOldestTick() + "-" + mTick);
+        }
+
+        // Find the last snapshot at or before the tick.  getOldestTick() says there is one.
+        long start = tick - tick % mInterval;
+        int slot;
+        while (true) {
+            slot = (int) ((start / mInterval) % mNumSnapshots);
+            if (mSnapshotTick[slot] == start) {
+                break;
+            }
+            start -= mInterval;
+        }
+
+        mSnapshots[slot].applyTo(sim);
+        sim.setPauseTime(mSnapshotPauseSec[slot]);
+        for (long t = start + 1; t <= tick; t++) {
+            int index = (int) (t % mInputSize);
+            float pauseSec = mInputPauseSec[index];
+            if (pauseSec == pauseSec) {     // not NaN
+                sim.setPauseTime(pauseSec);
+            }
+            float paddleX = mInputPaddleX[index];
+            if (paddleX == paddleX) {
+                sim.movePaddle(paddleX);
+            }
+            sim.advance(GameSimulation.TICK_SEC);
+        }
+
+        mTick = tick;
+        mPendingPaddleX = Float.NaN;
+        mPendingPauseSec = Float.NaN;
+    }
+}
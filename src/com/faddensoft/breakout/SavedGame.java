@@ -0,0 +1,364 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Game state storage.  Anything interesting gets copied in here.
+ * <p>
+ * This is "organized" as a dumping ground for GameState to use.  It can also be written to
+ * a small binary file, so a game survives the process being killed:
+ * <pre>
+ *   int    magic ('BkSv')
+ *   int    version
+ *   int    number of bricks
+ *   int    number of balls
+ *   int    game play state
+ *   int    game status message
+ *   int    lives remaining
+ *   int    score
+ *   float  paddle position
+ *   long[] brick liveness bits, (bricks + 63) / 64 of them
+ *   float[] ball X direction, Y direction, X position, Y position (one array after another)
+ *   int[]  ball speed
+ *   int    CRC32 of everything above
+ * </pre>
+ * Everything is big-endian and fixed-width, so the expected length can be computed from the
+ * header and checked before anything else is looked at.
+ * <p>
+ * Objects that are filled in over and over (see SavedGameStore) are created with room for
+ * the most balls the game can have, and mNumBalls says how many are in use.  The fields
+ * that other threads look at without a lock are volatile; see SavedGameStore for how they
+ * avoid seeing a half-written save.
+ * <p>
+ * The format only uses java.nio and java.util.zip, so SavedGameBenchmark can check the round
+ * trip and the damage detection on a plain JVM.
+ */
+class SavedGame {
+    private static final int FILE_MAGIC = 0x426b5376;      // 'BkSv'
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 9 * 4;
+    private static final int BYTES_PER_BALL = 5 * 4;
+    private static final int CHECKSUM_SIZE = 4;
+
+    // Sanity limits for reading.  Far beyond anything the game will create.
+    private static final int MAX_BRICKS = 1 << 20;
+    private static final int MAX_BALLS = 1 << 16;
+
+    public int mNumBricks;
+    public long mLiveBricks[];          // see GameSimulation.copyLiveBricks()
+    public int mNumBalls;
+    public float mBallXDirection[], mBallYDirection[];
+    public float mBallXPosition[], mBallYPosition[];
+    public int mBallSpeed[];
+    public float mPaddlePosition;
+    public volatile int mGamePlayState;
+    public int mGameStatusMessageNum;
+    public int mLivesRemaining;
+    public volatile int mScore;
+
+    public volatile boolean mIsValid = false;   // set when state has been written out
+
+    // Used by SavedGameStore.  mSequence is odd while the object is being filled in, and
+    // mGeneration is the store's invalidation count at the time of the save.
+    volatile int mSequence;
+    volatile int mGeneration;
+
+
+    /**
+     * Creates an empty object, to be filled in by decode().
+     */
+    public SavedGame() {}
+
+    /**
+     * Creates an object with room for a board of "numBricks" and up to "maxBalls" balls.
+     */
+    public SavedGame(int numBricks, int maxBalls) {
+        mNumBricks = numBricks;
+        mLiveBricks = new long[(numBricks + 63) >>> 6];
+        mBallXDirection = new float[maxBalls];
+        mBallYDirection = new float[maxBalls];
+        mBallXPosition = new float[maxBalls];
+        mBallYPosition = new float[maxBalls];
+        mBallSpeed = new int[maxBalls];
+    }
+
+    /**
+     * Returns the number of balls there's room for.
+     */
+    public int getMaxBalls() {
+        return mBallSpeed == null ? 0 : mBallSpeed.length;
+    }
+
+    /**
+     * Copies the game state out of the simulation.  The object must have been created with
+     * room for the simulation's bricks and balls.  Doesn't touch mGameStatusMessageNum or
+     * mIsValid, which belong to the caller.
+     */
+    public void captureFrom(GameSimulation sim) {
+        sim.copyLiveBricks(mLiveBricks);
+
+        int numBalls = sim.getBallCount();
+        mNumBalls = numBalls;
+        for (int i = 0; i < numBalls; i++) {
+            mBallXDirection[i] = sim.getBallXDirection(i);
+            mBallYDirection[i] = sim.getBallYDirection(i);
+            mBallXPosition[i] = sim.getBallXPosition(i);
+            mBallYPosition[i] = sim.getBallYPosition(i);
+            mBallSpeed[i] = sim.getBallSpeed(i);
+        }
+        mPaddlePosition = sim.getRectXPosition(sim.getPaddleRect());
+
+        mGamePlayState = sim.getGamePlayState();
+        mLivesRemaining = sim.getLivesRemaining();
+        mScore = sim.getScore();
+    }
+
+    /**
+     * Checks that this game can be applied to the simulation.  decode() only knows that the
+     * file is intact; a file written by a build with a different board, or with more balls
+     * or lives, can still be wrong for this one, and applyTo() would throw partway through.
+     *
+     * @return Null if the game fits, or a description of the problem.
+     */
+    public String checkFits(GameSimulation sim) {
+        if (mNumBricks != sim.getBrickCount()) {
+            return "has " + mNumBricks + " bricks, expected " + sim.getBrickCount();
+        }
+        if (mNumBalls <= 0 || mNumBalls > sim.getMaxBalls()) {
+            return "has " + mNumBalls + " balls, max is " + sim.getMaxBalls();
+        }
+        for (int i = 0; i < mNumBalls; i++) {
+            if (mBallSpeed[i] <= 0) {
+                return "ball " + i + " has speed " + mBallSpeed[i];
+            }
+        }
+        if (mGamePlayState < GameSimulation.GAME_INITIALIZING
+                || mGamePlayState > GameSimulation.GAME_LOST) {
+            return "has bad game state " + mGamePlayState;
+        }
+        if (mLivesRemaining < 0 || mLivesRemaining > sim.getMaxLives()) {
+            return "has " + mLivesRemaining + " lives, max is " + sim.getMaxLives();
+        }
+        return null;
+    }
+
+    /**
+     * Copies the game state into the simulation.  The simulation's board must be the same
+     * size as ours, and checkFits() must have passed.  Doesn't allocate.
+     */
+    public void applyTo(GameSimulation sim) {
+        // Kills or revives whatever bricks differ.  On a freshly created board they're all
+        // alive, so this just kills the dead ones.
+        sim.restoreLiveBricks(mLiveBricks);
+
+        int numBalls = mNumBalls;
+        sim.setBallCount(numBalls);
+        for (int i = 0; i < numBalls; i++) {
+            sim.restoreBallDirection(i, mBallXDirection[i], mBallYDirection[i]);
+            sim.setBallPosition(i, mBallXPosition[i], mBallYPosition[i]);
+            sim.setBallSpeed(i, mBallSpeed[i]);
+        }
+        sim.movePaddle(mPaddlePosition);
+
+        sim.setGamePlayState(mGamePlayState);
+        sim.setLivesRemaining(mLivesRemaining);
+        sim.setScore(mScore);
+    }
+
+    /**
+     * Returns the number of bytes encode() produces for a game with the given number of
+     * bricks and balls.
+     */
+    static int getEncodedSize(int numBricks, int numBalls) {
+        return HEADER_SIZE + ((numBricks + 63) >>> 6) * 8 + numBalls * BYTES_PER_BALL
+                + CHECKSUM_SIZE;
+    }
+
+    /**
+     * Returns the most bytes encode() can produce for this object.
+     */
+    public int getMaxEncodedSize() {
+        return getEncodedSize(mNumBricks, getMaxBalls());
+    }
+
+    /**
+     * Encodes the game in the file format.  The object must be valid.
+     */
+    public byte[] encode() {
+        byte[] data = new byte[getEncodedSize(mNumBricks, mNumBalls)];
+        encode(data);
+        return data;
+    }
+
+    /**
+     * Encodes the game in the file format into "data", which must hold at least
+     * getMaxEncodedSize() bytes.
+     *
+     * @return The number of bytes used.
+     */
+    public int encode(byte[] data) {
+        if (!mIsValid) {
+            throw new RuntimeException("can't encode invalid saved game");
+        }
+        int numBalls = mNumBalls;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.putInt(FILE_MAGIC);
+        buf.putInt(FILE_VERSION);
+        buf.putInt(mNumBricks);
+        buf.putInt(numBalls);
+        buf.putInt(mGamePlayState);
+        buf.putInt(mGameStatusMessageNum);
+        buf.putInt(mLivesRemaining);
+        buf.putInt(mScore);
+        buf.putFloat(mPaddlePosition);
+        buf.asLongBuffer().put(mLiveBricks, 0, (mNumBricks + 63) >>> 6);
+        buf.position(buf.position() + ((mNumBricks + 63) >>> 6) * 8);
+        putFloats(buf, mBallXDirection, numBalls);
+        putFloats(buf, mBallYDirection, numBalls);
+        putFloats(buf, mBallXPosition, numBalls);
+        putFloats(buf, mBallYPosition, numBalls);
+        buf.asIntBuffer().put(mBallSpeed, 0, numBalls);
+        buf.position(buf.position() + numBalls * 4);
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        return buf.position();
+    }
+
+    private static void putFloats(ByteBuffer buf, float[] values, int count) {
+        buf.asFloatBuffer().put(values, 0, count);
+        buf.position(buf.position() + count * 4);
+    }
+
+    /**
+     * Decodes a game from the file format.
+     *
+     * @return The game, or null if the data is damaged or from a different version.
+     */
+    public static SavedGame decode(byte[] data, int length) {
+        if (length < HEADER_SIZE + CHECKSUM_SIZE) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+        if (buf.getInt() != FILE_MAGIC || buf.getInt() != FILE_VERSION) {
+            return null;
+        }
+        int numBricks = buf.getInt();
+        int numBalls = buf.getInt();
+        if (numBricks < 0 || numBricks > MAX_BRICKS || numBalls <= 0 || numBalls > MAX_BALLS
+                || length != getEncodedSize(numBricks, numBalls)) {
+            return null;
+        }
+
+        // Check the checksum before we bother with anything else.
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length - CHECKSUM_SIZE);
+        if (buf.getInt(length - CHECKSUM_SIZE) != (int) crc.getValue()) {
+            return null;
+        }
+
+        SavedGame save = new SavedGame();
+        save.mNumBricks = numBricks;
+        save.mNumBalls = numBalls;
+        save.mGamePlayState = buf.getInt();
+        save.mGameStatusMessageNum = buf.getInt();
+        save.mLivesRemaining = buf.getInt();
+        save.mScore = buf.getInt();
+        save.mPaddlePosition = buf.getFloat();
+
+        int numWords = (numBricks + 63) >>> 6;
+        save.mLiveBricks = new long[numWords];
+        buf.asLongBuffer().get(save.mLiveBricks);
+        buf.position(buf.position() + numWords * 8);
+        if ((numBricks & 63) != 0 && (save.mLiveBricks[numWords - 1] >>> numBricks) != 0) {
+            return null;        // bits set past the last brick
+        }
+
+        save.mBallXDirection = getFloats(buf, numBalls);
+        save.mBallYDirection = getFloats(buf, numBalls);
+        save.mBallXPosition = getFloats(buf, numBalls);
+        save.mBallYPosition = getFloats(buf, numBalls);
+        save.mBallSpeed = new int[numBalls];
+        buf.asIntBuffer().get(save.mBallSpeed);
+
+        save.mIsValid = true;
+        return save;
+    }
+
+    private static float[] getFloats(ByteBuffer buf, int count) {
+        float[] values = new float[count];
+        buf.asFloatBuffer().get(values);
+        buf.position(buf.position() + count * 4);
+        return values;
+    }
+
+    /**
+     * Writes encoded data to a file.  The data goes to a temporary file that is then renamed,
+     * so a crash part way through leaves the previous file intact.
+     */
+    public static void writeFile(File file, byte[] data, int length) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmpFile);
+        try {
+            fos.write(data, 0, length);
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("unable to rename " + tmpFile + " to " + file);
+        }
+    }
+
+    /**
+     * Reads a game written by writeFile().
+     *
+     * @return The game, or null if the file doesn't exist or isn't a valid saved game.
+     */
+    public static SavedGame readFile(File file) throws IOException {
+        long length = file.length();        // zero if it doesn't exist
+        if (length < HEADER_SIZE + CHECKSUM_SIZE
+                || length > getEncodedSize(MAX_BRICKS, MAX_BALLS)) {
+            return null;
+        }
+
+        byte[] data = new byte[(int) length];
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int count = fis.read(data, offset, data.length - offset);
+                if (count < 0) {
+                    return null;
+                }
+                offset += count;
+            }
+        } finally {
+            fis.close();
+        }
+        return decode(data, data.length);
+    }
+}
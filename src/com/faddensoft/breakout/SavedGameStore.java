@@ -0,0 +1,421 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Holds the saved game, and keeps the save file up to date.
+ * <p>
+ * The Renderer thread saves the game every time the Activity pauses, and the UI thread
+ * wants to know whether there's a game to resume, or what the final score was.  We don't
+ * want either of them waiting for the other, and we don't want the Renderer allocating
+ * anything, so there are two preallocated SavedGame objects.  One of them is "published"
+ * through an atomic reference; the Renderer fills in the other one and then publishes it.
+ * <p>
+ * A reader can still get the published object just before it's swapped out and be reading
+ * it when the Renderer starts filling it in again two saves later.  Each object has a
+ * sequence number that is odd while it's being filled in, so readers check it before and
+ * after and try again if it changed (a "seqlock").  That never happens in practice -- saves
+ * are seconds apart -- but the stress test in the benchmarks makes it happen constantly.
+ * <p>
+ * A reader holding an object from two saves ago can also read the whole of the next save
+ * in the gap between the sequence number going even and the object being published.  On
+ * its next read it would get the object that's still published, which is older, so saves
+ * would appear to go backward.  (The stress test caught this.)  So readers also check that
+ * the object is still the published one after they read it, and try again if not.
+ * <p>
+ * The sequence number is volatile, but that isn't quite enough when the other fields are
+ * not: the VM may move plain reads after a later volatile read, and plain writes before an
+ * earlier volatile write, and then a reader can get a torn copy that looks fine.  So the
+ * Renderer bumps the sequence number with an atomic increment, and readers of plain fields
+ * check it with a compare-and-set of the value they started with; both act as full
+ * barriers.  readStatus() only reads volatile fields, so a plain volatile read is enough
+ * there.
+ * <p>
+ * Invalidating the saved game doesn't touch either object, since that would make the UI
+ * thread a writer.  Instead it bumps a generation number, and a saved game only counts if
+ * it was made in the current generation.
+ * <p>
+ * If a save file has been set, a background thread encodes the most recently published
+ * save and writes it out whenever a new one shows up, and deletes the file when the saved
+ * game is invalidated.  Saves that arrive faster than the disk can keep up are skipped;
+ * only the latest one matters.
+ * <p>
+ * The writer is a plain Thread and the file is handed in by the caller, so the store
+ * doesn't need a Context, and SavedGameStoreBenchmark can stress it on a desktop.
+ */
+class SavedGameStore {
+    /**
+     * Value returned by readStatus() when there's no valid saved game.
+     */
+    public static final long NO_SAVE = -1L;
+
+    /**
+     * Receives messages about the save file.  Called on whatever thread did the work.
+     */
+    public interface Listener {
+        void onLogMessage(String msg);
+    }
+
+    // Updates SavedGame.mSequence with barriers; see the class comment.
+    private static final AtomicIntegerFieldUpdater<SavedGame> SEQUENCE =
+            AtomicIntegerFieldUpdater.newUpdater(SavedGame.class, "mSequence");
+
+    private final Listener mListener;
+
+    // The saved game readers see, or null if nothing has been saved or loaded.
+    private final AtomicReference<SavedGame> mPublished = new AtomicReference<SavedGame>();
+
+    // Incremented by invalidate().
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    // The two objects the Renderer fills in.  Only touched by the Renderer thread.
+    private final SavedGame mBuffers[] = new SavedGame[2];
+
+    // Number of times a reader had to try again.  Only interesting for testing.
+    private final AtomicInteger mReadRetries = new AtomicInteger();
+
+    // The save file, and whether we've tried to load it yet.
+    private final AtomicReference<File> mFile = new AtomicReference<File>();
+    private final AtomicBoolean mFileChecked = new AtomicBoolean();
+    private volatile boolean mFileLoadDone;
+
+    // Background file writer.  mPublishCount is bumped by each save so the writer can tell
+    // that something changed; mWriterSleeping is set while it's parked, so we only unpark
+    // it when we have to.
+    private Thread mWriter;
+    private volatile int mPublishCount;
+    private volatile boolean mWriterSleeping;
+
+
+    public SavedGameStore(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Gets a SavedGame for the Renderer thread to fill in.  The object has room for
+     * "numBricks" bricks and "maxBalls" balls; the caller sets everything except mIsValid,
+     * then calls endSave().
+     * <p>
+     * Renderer thread only.  Doesn't allocate anything unless the board size changes.
+     */
+    public SavedGame beginSave(int numBricks, int maxBalls) {
+        SavedGame published = mPublished.get();
+        SavedGame save = (mBuffers[0] == published) ? mBuffers[1] : mBuffers[0];
+        if (save == null || save.mNumBricks != numBricks || save.getMaxBalls() < maxBalls) {
+            save = new SavedGame(numBricks, maxBalls);
+            if (mBuffers[0] == published) {
+                mBuffers[1] = save;
+            } else {
+                mBuffers[0] = save;
+            }
+        }
+        SEQUENCE.incrementAndGet(save);     // now odd; readers will stay away
+        save.mGeneration = mGeneration.get();
+        return save;
+    }
+
+    /**
+     * Publishes a SavedGame obtained from beginSave().
+     * <p>
+     * Renderer thread only.
+     */
+    public void endSave(SavedGame save) {
+        save.mIsValid = true;
+        SEQUENCE.incrementAndGet(save);     // even again
+        mPublished.set(save);
+
+        // Once we've saved, the old file is out of date, so there's no point loading it.
+        mFileChecked.set(true);
+        mFileLoadDone = true;
+
+        mPublishCount++;            // only the Renderer thread writes this
+        wakeWriter();
+    }
+
+    /**
+     * Marks the saved game as invalid, and deletes the save file.
+     * <p>
+     * May be called from any thread.
+     */
+    public void invalidate() {
+        mGeneration.incrementAndGet();
+
+        // Don't load the old file later.
+        mFileChecked.set(true);
+        mFileLoadDone = true;
+        wakeWriter();
+    }
+
+    /**
+     * Returns the current saved game, or null if there isn't a valid one.  The object
+     * belongs to the store; it won't change until the next save.
+     * <p>
+     * Renderer thread only, since that's the only thread that changes the objects.
+     */
+    public SavedGame getSave() {
+        loadFileIfNeeded();
+        SavedGame save = mPublished.get();
+        if (save == null || !save.mIsValid || save.mGeneration != mGeneration.get()) {
+            return null;
+        }
+        return save;
+    }
+
+    /**
+     * Reads the play state and score of the current saved game.  They're returned as a pair
+     * to guarantee they come from the same save; use getPlayState() and getScore() to pull
+     * them apart.
+     * <p>
+     * May be called from any thread.  Never waits for a save in progress.
+     *
+     * @return The packed state and score, or NO_SAVE if there isn't a valid saved game.
+     */
+    public long readStatus() {
+        loadFileIfNeeded();
+        while (true) {
+            SavedGame save = mPublished.get();
+            if (save == null) {
+                return NO_SAVE;
+            }
+            int seq = save.mSequence;
+            if ((seq & 1) == 0) {
+                boolean valid = save.mIsValid && save.mGeneration == mGeneration.get();
+                int state = save.mGamePlayState;
+                int score = save.mScore;
+                if (save.mSequence == seq && mPublished.get() == save) {
+                    return valid ? ((long) state << 32) | (score & 0xffffffffL) : NO_SAVE;
+                }
+            }
+            mReadRetries.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the play state from a readStatus() result.
+     */
+    public static int getPlayState(long status) {
+        return (int) (status >> 32);
+    }
+
+    /**
+     * Returns the score from a readStatus() result.
+     */
+    public static int getScore(long status) {
+        return (int) status;
+    }
+
+    /**
+     * Copies the current saved game into "dst", which must have room for it (see the
+     * SavedGame constructor).  Used by the stress test to look for torn saves.
+     * <p>
+     * May be called from any thread.  Never waits for a save in progress.
+     *
+     * @return true if there was a valid saved game to copy.
+     */
+    public boolean copyTo(SavedGame dst) {
+        loadFileIfNeeded();
+        while (true) {
+            SavedGame save = mPublished.get();
+            if (save == null) {
+                return false;
+            }
+            int seq = save.mSequence;
+            if ((seq & 1) == 0) {
+                boolean valid = save.mIsValid && save.mGeneration == mGeneration.get();
+                int numBricks = save.mNumBricks;
+                int numBalls = save.mNumBalls;
+                if (valid && numBricks == dst.mNumBricks && numBalls <= dst.getMaxBalls()) {
+                    System.arraycopy(save.mLiveBricks, 0, dst.mLiveBricks, 0,
+                            dst.mLiveBricks.length);
+                    System.arraycopy(save.mBallXDirection, 0, dst.mBallXDirection, 0, numBalls);
+                    System.arraycopy(save.mBallYDirection, 0, dst.mBallYDirection, 0, numBalls);
+                    System.arraycopy(save.mBallXPosition, 0, dst.mBallXPosition, 0, numBalls);
+                    System.arraycopy(save.mBallYPosition, 0, dst.mBallYPosition, 0, numBalls);
+                    System.arraycopy(save.mBallSpeed, 0, dst.mBallSpeed, 0, numBalls);
+                    dst.mNumBalls = numBalls;
+                    dst.mPaddlePosition = save.mPaddlePosition;
+                    dst.mGamePlayState = save.mGamePlayState;
+                    dst.mGameStatusMessageNum = save.mGameStatusMessageNum;
+                    dst.mLivesRemaining = save.mLivesRemaining;
+                    dst.mScore = save.mScore;
+                }
+                if (SEQUENCE.compareAndSet(save, seq, seq) && mPublished.get() == save) {
+                    if (valid && numBricks != dst.mNumBricks) {
+                        throw new RuntimeException("saved game has " + numBricks
+                                + " bricks, copy has room for " + dst.mNumBricks);
+                    }
+                    dst.mIsValid = valid;
+                    return valid;
+                }
+            }
+            mReadRetries.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of times a reader had to try again because a save was in progress.
+     */
+    public int getReadRetries() {
+        return mReadRetries.get();
+    }
+
+    /**
+     * Sets the save file, and starts the thread that writes it.  Calls after the first
+     * have no effect.
+     * <p>
+     * May be called from any thread.
+     */
+    public void setFile(File file) {
+        if (!mFile.compareAndSet(null, file)) {
+            return;
+        }
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writerLoop();
+            }
+        }, "SavedGameWriter");
+        writer.setDaemon(true);
+        mWriter = writer;
+        writer.start();
+        wakeWriter();       // in case anything was saved before now
+    }
+
+    /**
+     * If we haven't saved or loaded a game yet, tries to load one from the save file.
+     * Loading takes well under a millisecond, so it's done on whatever thread needs the
+     * saved game first.  If another thread is already loading it, we wait for it to finish;
+     * that only happens once per process, and never behind a save.
+     */
+    private void loadFileIfNeeded() {
+        if (mFileLoadDone) {
+            return;
+        }
+        File file = mFile.get();
+        if (file == null) {
+            return;
+        }
+        if (!mFileChecked.compareAndSet(false, true)) {
+            while (!mFileLoadDone) {
+                Thread.yield();
+            }
+            return;
+        }
+
+        long startNsec = System.nanoTime();
+        SavedGame loaded = null;
+        try {
+            loaded = SavedGame.readFile(file);
+        } catch (IOException ioe) {
+            mListener.onLogMessage("Unable to read " + file + ": " + ioe);
+        }
+        if (loaded != null) {
+            // If invalidate() gets in between these two, the generation won't match and
+            // the loaded game won't count, which is what we want.
+            loaded.mGeneration = mGeneration.get();
+            if (mPublished.compareAndSet(null, loaded)) {
+                mListener.onLogMessage("Loaded saved game in "
+                        + (System.nanoTime() - startNsec) / 1000 + "us");
+            }
+        }
+        mFileLoadDone = true;
+    }
+
+    /**
+     * Unparks the writer thread if it's waiting for work.
+     */
+    private void wakeWriter() {
+        if (mWriterSleeping) {
+            LockSupport.unpark(mWriter);
+        }
+    }
+
+    /**
+     * Background thread.  Writes each new save to the file, and deletes the file when the
+     * saved game is invalidated.
+     */
+    private void writerLoop() {
+        File file = mFile.get();
+        byte[] data = null;
+        int writtenPublishCount = 0;
+        int writtenGeneration = mGeneration.get();
+
+        while (true) {
+            int publishCount = mPublishCount;
+            int generation = mGeneration.get();
+            if (publishCount == writtenPublishCount && generation == writtenGeneration) {
+                // Nothing to do.  Say we're going to sleep, then check again, so a save
+                // that slips in between doesn't get missed.
+                mWriterSleeping = true;
+                if (mPublishCount == writtenPublishCount
+                        && mGeneration.get() == writtenGeneration) {
+                    LockSupport.park(this);
+                }
+                mWriterSleeping = false;
+                continue;
+            }
+            writtenPublishCount = publishCount;
+            writtenGeneration = generation;
+
+            // Encode the current save.  If it changes while we're encoding it, start over;
+            // the newer one is the one we want anyway.
+            int length = 0;
+            SavedGame save = mPublished.get();
+            while (save != null) {
+                int seq = save.mSequence;
+                if ((seq & 1) == 0) {
+                    if (!save.mIsValid || save.mGeneration != generation) {
+                        save = null;
+                        break;
+                    }
+                    int size = save.getMaxEncodedSize();
+                    if (data == null || data.length < size) {
+                        data = new byte[size];
+                    }
+                    try {
+                        length = save.encode(data);
+                    } catch (RuntimeException re) {
+                        length = 0;     // torn by a save; we'll see the sequence change
+                    }
+                    if (SEQUENCE.compareAndSet(save, seq, seq)) {
+                        break;
+                    }
+                }
+                Thread.yield();
+                save = mPublished.get();
+            }
+
+            try {
+                if (save != null) {
+                    SavedGame.writeFile(file, data, length);
+                } else {
+                    file.delete();
+                }
+            } catch (IOException ioe) {
+                mListener.onLogMessage("Unable to write " + file + ": " + ioe);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+/**
+ * Fixed-size queue of sound requests, from the game thread to the audio thread.
+ * <p>
+ * This is a single-producer, single-consumer ring buffer: exactly one thread may call
+ * offer() and exactly one (possibly different) thread may call poll() and isEmpty().
+ * Neither side locks or allocates.  Each side owns one counter -- the producer the tail,
+ * the consumer the head -- and only reads the other's, so a volatile write of the counter
+ * after the slot is filled or emptied is all the synchronization required.  Each side also
+ * keeps a private copy of the other's counter and only rereads the real one when the copy
+ * says the queue is full (or empty).
+ * <p>
+ * If a sound is offered while an earlier request for the same sound is still waiting, the
+ * new one is folded into it, since both would start in the same mixer block anyway.  If
+ * the queue is full the request is dropped.  Both cases are counted, so the queue can be
+ * sized by watching the counts under load.
+ * <p>
+ * Nothing here is specific to sound or to Android.  SoundQueueBenchmark runs a producer and
+ * a consumer on two desktop threads to check that nothing is lost or reordered.
+ */
+public class SoundEventQueue {
+    private final int[] mEvents;
+    private final int mMask;
+
+    // Sequence number of the next event to read.  Written only by the consumer.
+    private volatile long mHead;
+
+    // Sequence number of the next event to write.  Written only by the producer.
+    private volatile long mTail;
+
+    // Producer-only state.  mLastQueued[sound] is one more than the sequence number of the
+    // most recent event for that sound, or zero if there hasn't been one.
+    private long mCachedHead;
+    private final long[] mLastQueued;
+
+    // Consumer-only state.
+    private long mCachedTail;
+
+    // Statistics.  Written only by the producer.
+    private volatile int mDroppedCount;
+    private volatile int mCoalescedCount;
+
+
+    /**
+     * Creates a queue.
+     *
+     * @param capacity Maximum number of queued events.  Must be a power of two.
+     * @param numSounds Number of distinct sounds; events are 0 through numSounds-1.
+     */
+    public SoundEventQueue(int capacity, int numSounds) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new RuntimeException("capacity must be a power of two: " + capacity);
+        }
+        mEvents = new int[capacity];
+        mMask = capacity - 1;
+        mLastQueued = new long[numSounds];
+    }
+
+    /**
+     * Returns the maximum number of queued events.
+     */
+    public int getCapacity() {
+        return mEvents.length;
+    }
+
+    /**
+     * Adds a request for a sound.  Producer only.
+     *
+     * @return False if the queue was full and the request was dropped.
+     */
+    public boolean offer(int sound) {
+        long tail = mTail;
+
+        // Still waiting from last time?  (The consumer can be at most a little behind
+        // reality here, which only means we occasionally queue a duplicate.)
+        long last = mLastQueued[sound];
+        if (last > mCachedHead) {
+            mCachedHead = mHead;
+            if (last > mCachedHead) {
+                mCoalescedCount++;
+                return true;
+            }
+        }
+
+        if (tail - mCachedHead >= mEvents.length) {
+            mCachedHead = mHead;
+            if (tail - mCachedHead >= mEvents.length) {
+                mDroppedCount++;
+                return false;
+            }
+        }
+
+        mEvents[(int) tail & mMask] = sound;
+        mLastQueued[sound] = tail + 1;
+        mTail = tail + 1;       // publishes the slot
+        return true;
+    }
+
+    /**
+     * Removes the oldest request.  Consumer only.
+     *
+     * @return The sound, or -1 if the queue is empty.
+     */
+    public int poll() {
+        long head = mHead;
+        if (head >= mCachedTail) {
+            mCachedTail = mTail;
+            if (head >= mCachedTail) {
+                return -1;
+            }
+        }
+
+        int sound = mEvents[(int) head & mMask];
+        mHead = head + 1;       // releases the slot
+        return sound;
+    }
+
+    /**
+     * Returns true if there's nothing to poll().  Consumer only.
+     */
+    public boolean isEmpty() {
+        return mHead >= mTail;
+    }
+
+    /**
+     * Returns the number of requests dropped because the queue was full.
+     */
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Returns the number of requests folded into an identical one already in the queue.
+     */
+    public int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+}
@@ -27,11 +27,22 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Generate and play sound data.
  * <p>
- * The initialize() method must be called before any sounds can be played.
+ * The initialize() method must be called before any sounds can be played.  It returns
+ * right away, and the sounds become available a little later; until then play() does
+ * nothing.
  */
 public class SoundResources implements SoundPool.OnLoadCompleteListener {
     private static final String TAG = BreakoutActivity.TAG;
@@ -52,13 +63,36 @@ public class SoundResources implements SoundPool.OnLoadCompleteListener {
      *
      * We create a single, immutable instance of the class to hold the data.  Once created,
      * any thread that can see the reference is guaranteed to be able to see all of the data.
-     * (We don't actually guarantee that other threads can see our singleton reference, but a
-     * simple null check will handle that.)
+     *
+     * Generating the sounds used to happen right in initialize(), on the UI thread, while
+     * the activity was starting.  Now initialize() starts a background thread to build the
+     * instance and returns a Future for it.  The four tones are independent, so that thread
+     * hands them to a small pool and synthesizes them in parallel.  The singleton reference is
+     * volatile and only set once everything is ready, so play() just sees null until then.
      *
      * Note that the sound data won't be discarded when the game Activity goes away, because
      * it's held by the class.  For our purposes that's reasonable, and perhaps even desirable.
+     *
+     * With USE_MIXER set we skip SoundPool and the WAV files entirely.  The tones are kept in
+     * memory as 16-bit PCM, and an AudioMixer thread mixes whatever is playing into small
+     * blocks that it streams to an AudioTrack.  Nothing touches the filesystem, which matters
+     * on first launch, and a sound starts within one block (about 12ms) of the request plus
+     * the AudioTrack's minimum buffer, rather than whenever SoundPool gets around to it.
      */
 
+    // Mix sounds ourselves instead of going through SoundPool.
+    private static final boolean USE_MIXER = true;
+
+    // Samples per mixer block.  256 samples at 22.05KHz is 11.6ms.
+    private static final int MIX_BLOCK_FRAMES = 256;
+
+    // Number of requests that can be waiting for the next mixer block.  Duplicates are
+    // folded together, so there's rarely more than one per sound (see SoundQueueBenchmark).
+    private static final int SOUND_QUEUE_SIZE = 8;
+
+    // Peak amplitude of the generated tones.  Matches the SoundPool playback volume.
+    private static final float SOUND_VOLUME = 0.5f;
+
     // Pass these as arguments to playSound().
     public static final int BRICK_HIT = 0;
     public static final int PADDLE_HIT = 1;
@@ -66,13 +100,28 @@ public class SoundResources implements SoundPool.OnLoadCompleteListener {
     public static final int BALL_LOST = 3;
     private static final int NUM_SOUNDS = 4;
 
+    // Names (for debugging and file names), lengths, and frequencies of the sounds, indexed
+    // by sound number.  Be aware that lower-frequency tones don't reproduce well on the
+    // internal speakers present on some devices.
+    private static final String[] SOUND_NAMES = { "brick", "paddle", "wall", "ball_lost" };
+    private static final int[] SOUND_LENGTH_MSEC = { 50, 50, 50, 500 };
+    private static final int[] SOUND_FREQ_HZ = { 900, 700, 300, 280 };
+
+    // Mixer priorities, indexed by sound number.  When every voice is busy, a sound can
+    // only cut off one of equal or lower priority.  Losing the ball matters most, then
+    // hitting it with the paddle; walls are the least interesting.
+    private static final int[] SOUND_PRIORITY = { 1, 2, 0, 3 };
+
     // Parameters for our generated sounds.
     private static final int SAMPLE_RATE = 22050;
     private static final int NUM_CHANNELS = 1;
     private static final int BITS_PER_SAMPLE = 8;
 
-    // Singleton instance.
-    private static SoundResources sSoundResources;
+    // Singleton instance.  Null until the sounds are ready.
+    private static volatile SoundResources sSoundResources;
+
+    // Result of the initialization thread.  Guarded by the class lock.
+    private static Future<SoundResources> sInitFuture;
 
     // Maximum simultaneous sounds.  Four seems nice.
     private static final int MAX_STREAMS = 4;
@@ -85,24 +134,79 @@ public class SoundResources implements SoundPool.OnLoadCompleteListener {
     // The actual sound data.  Must be "final" for immutability guarantees.
     private final Sound[] mSounds = new Sound[NUM_SOUNDS];
 
+    // Sound mixer, if USE_MIXER is set.  In that case mSounds is empty.
+    private final AudioMixer mMixer;
+
 
     /**
      * Initializes global data.  We have a small, fixed set of sounds, so we just load them all
      * statically.  Call this when the game activity starts.
      * <p>
+     * The work happens on a background thread.  Calls after the first return the same Future.
+     * <p>
      * We need the application context to figure out where files will live.
+     *
+     * @return A Future that completes when the sounds are ready to play.
      */
-    public static synchronized void initialize(Context context) {
+    public static synchronized Future<SoundResources> initialize(Context context) {
         /*
          * In theory, this could be called from two different threads at the same time, and
          * we'd end up with two sets of sounds.  This isn't a huge problem for us, but the
          * correct thing to do is use a mutex to ensure it only gets initialized once.
          */
 
-        if (sSoundResources == null) {
-            File dir = context.getFilesDir();
-            sSoundResources = new SoundResources(dir);
+        if (sInitFuture == null) {
+            final File dir = USE_MIXER ? null : context.getFilesDir();
+            FutureTask<SoundResources> task = new FutureTask<SoundResources>(
+                    new Callable<SoundResources>() {
+                @Override
+                public SoundResources call() {
+                    return createInstance(dir);
+                }
+            });
+            Thread thread = new Thread(task, "SoundInit");
+            thread.setDaemon(true);
+            thread.start();
+            sInitFuture = task;
         }
+        return sInitFuture;
+    }
+
+    /**
+     * Returns true once the sounds are ready to play.
+     */
+    public static boolean isReady() {
+        return sSoundResources != null;
+    }
+
+    /**
+     * Builds the singleton and publishes it.  Runs on the initialization thread.
+     */
+    private static SoundResources createInstance(File privateDir) {
+        long startNsec = System.nanoTime();
+
+        // The tones are generated on a pool while this thread waits for them, so the pool
+        // can use every core.
+        int threads = Math.min(NUM_SOUNDS, Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SoundSynth");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        SoundResources instance;
+        try {
+            instance = new SoundResources(privateDir, pool);
+        } finally {
+            pool.shutdown();
+        }
+        sSoundResources = instance;
+
+        Log.d(TAG, "Sounds ready in " + (System.nanoTime() - startNsec) / 1000000 + "ms ("
+                + threads + " threads)");
+        return instance;
     }
 
     /**
@@ -110,16 +214,19 @@ public class SoundResources implements SoundPool.OnLoadCompleteListener {
      */
     public static void play(int soundNum) {
         /*
-         * Because this method is not declared synchronized, we're not actually guaranteed to
-         * see the initialization of sSoundResources.  The immutable instance rules do
-         * guarantee that we either see a null pointer or a fully-constructed instance, so
-         * rather than using "synchronized" or "volatile" we just do a null check here.
+         * sSoundResources is volatile and isn't set until the instance is complete, so
+         * we either see null (not ready yet, so we don't play anything) or a
+         * fully-constructed instance.
          */
 
         if (SoundResources.sSoundEffectsEnabled) {
             SoundResources instance = sSoundResources;
             if (instance != null) {
-                instance.mSounds[soundNum].play();
+                if (instance.mMixer != null) {
+                    instance.mMixer.play(soundNum);
+                } else {
+                    instance.mSounds[soundNum].play();
+                }
             }
         }
     }
@@ -133,12 +240,19 @@ public class SoundResources implements SoundPool.OnLoadCompleteListener {
     }
 
     /**
-     * Constructs the object.  All sounds are generated and loaded into the sound pool.
+     * Constructs the object.  All sounds are generated and either handed to a new mixer or
+     * loaded into the sound pool.
      */
-    private SoundResources(File privateDir) {
+    private SoundResources(File privateDir, ExecutorService pool) {
+        if (USE_MIXER) {
+            mMixer = createMixer(pool);
+            return;
+        }
+        mMixer = null;
+
         SoundPool soundPool = new SoundPool(MAX_STREAMS, AudioManager.STREAM_MUSIC, 0);
         soundPool.setOnLoadCompleteListener(this);
-        generateSoundFiles(soundPool, privateDir);
+        generateSoundFiles(soundPool, privateDir, pool);
 
         if (false) {
             // Sleep briefly to allow SoundPool to finish loading, then play each sound.
@@ -172,22 +286,56 @@ public class SoundResources implements SoundPool.OnLoadCompleteListener {
     }
 
     /**
-     * Generates all sounds.
+     * Generates all sounds in memory and starts a mixer that plays them through an AudioTrack.
      */
-    private void generateSoundFiles(SoundPool soundPool, File privateDir) {
-        // Be aware that lower-frequency tones don't reproduce well on the internal speakers
-        // present on some devices.
-        mSounds[BRICK_HIT] = generateSound(soundPool, privateDir, "brick", 50 /*ms*/, 900 /*Hz*/);
-        mSounds[PADDLE_HIT] = generateSound(soundPool, privateDir, "paddle", 50, 700);
-        mSounds[WALL_HIT] = generateSound(soundPool, privateDir, "wall", 50, 300);
-        mSounds[BALL_LOST] = generateSound(soundPool, privateDir, "ball_lost", 500, 280);
+    private static AudioMixer createMixer(ExecutorService pool) {
+        short[][] tones = AudioMixer.generateTones(pool, SAMPLE_RATE, SOUND_LENGTH_MSEC,
+                SOUND_FREQ_HZ, SOUND_VOLUME);
+        AudioMixer mixer = new AudioMixer(SOUND_PRIORITY, MAX_STREAMS, MIX_BLOCK_FRAMES,
+                SOUND_QUEUE_SIZE);
+        for (int i = 0; i < NUM_SOUNDS; i++) {
+            mixer.setSound(i, tones[i]);
+        }
+        mixer.start(new AudioTrackSink(SAMPLE_RATE, MIX_BLOCK_FRAMES));
+        return mixer;
     }
 
     /**
-     * Generate a sound with specific characteristics.
+     * Generates all sounds.  The files are written in parallel on "pool", then loaded into
+     * the sound pool in order.
      */
-    private Sound generateSound(SoundPool soundPool, File dir, String name, int lengthMsec,
-            int freqHz) {
+    private void generateSoundFiles(SoundPool soundPool, final File privateDir,
+            ExecutorService pool) {
+        List<Future<File>> files = new ArrayList<Future<File>>(NUM_SOUNDS);
+        for (int i = 0; i < NUM_SOUNDS; i++) {
+            final int soundNum = i;
+            files.add(pool.submit(new Callable<File>() {
+                @Override
+                public File call() {
+                    return generateSoundFile(privateDir, SOUND_NAMES[soundNum],
+                            SOUND_LENGTH_MSEC[soundNum], SOUND_FREQ_HZ[soundNum]);
+                }
+            }));
+        }
+
+        for (int i = 0; i < NUM_SOUNDS; i++) {
+            File file;
+            try {
+                file = files.get(i).get();
+            } catch (InterruptedException ie) {
+                throw new RuntimeException(ie);
+            } catch (ExecutionException ee) {
+                throw new RuntimeException(ee.getCause());
+            }
+            int handle = soundPool.load(file.toString(), 1);
+            mSounds[i] = new Sound(SOUND_NAMES[i], soundPool, handle);
+        }
+    }
+
+    /**
+     * Generate a sound file with specific characteristics, unless it already exists.
+     */
+    private static File generateSoundFile(File dir, String name, int lengthMsec, int freqHz) {
         /*
          * Since we're generating trivial tones, we could just generate a short set of samples
          * and then set a nonzero loop count in SoundPool.  We could also generate it at twice
@@ -199,8 +347,6 @@ public class SoundResources implements SoundPool.OnLoadCompleteListener {
          * and save some wear on flash memory.
          */
 
-        Sound sound = null;
-
         File outFile = new File(dir, name + ".wav");
         if (!outFile.exists()) {
             try {
@@ -228,8 +374,7 @@ public class SoundResources implements SoundPool.OnLoadCompleteListener {
             //Log.d(TAG, "Sound '" + outFile.getName() + "' exists, not regenerating");
         }
 
-        int handle = soundPool.load(outFile.toString(), 1);
-        return new Sound(name, soundPool, handle);
+        return outFile;
     }
 
     /**
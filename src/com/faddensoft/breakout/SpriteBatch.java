@@ -0,0 +1,258 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Collects textured axis-aligned rects and draws them with one draw call per texture.
+ * <p>
+ * This is the textured counterpart of RectBatch, used to draw every ball in play (and the
+ * remaining-lives display) in one pass.  Like RectBatch it has no Android dependencies; all
+ * GL calls go through a GlCalls object, and the program is created by TexturedAlignedRect.
+ */
+public class SpriteBatch {
+    /*
+     * Each vertex is:
+     *
+     *   x, y, s, t   (x4 per sprite)
+     *
+     * The position is in arena coordinates, so the shader just applies the projection matrix.
+     * Sprites that use the same texture are drawn together; switching to a different texture
+     * with setTexture() flushes whatever has been collected so far.  setTexCoords() selects
+     * the part of the texture used by the sprites that follow.  The texture output is
+     * expected to be premultiplied, same as TexturedAlignedRect.
+     *
+     * The index buffer and the limits on sprites per draw are the same as RectBatch.
+     */
+    static final int FLOATS_PER_VERTEX = 4;                 // x, y, s, t
+    static final int FLOATS_PER_SPRITE = FLOATS_PER_VERTEX * RectBatch.VERTICES_PER_RECT;
+    static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * 4;         // 4 bytes per float
+
+    // Values from GLES20.  We don't want the dependency.
+    private static final int GL_TRIANGLES = 0x0004;
+    private static final int GL_UNSIGNED_SHORT = 0x1403;
+    private static final int GL_FLOAT = 0x1406;
+    private static final int GL_TEXTURE_2D = 0x0DE1;
+    private static final int GL_TEXTURE0 = 0x84C0;
+
+    private final GlCalls mGl;
+    private final int mMaxSprites;
+
+    // Vertex data is assembled in mVertices, then copied to the direct buffers for GL.
+    private final float[] mVertices;
+    private final FloatBuffer mVertexBuffer;
+    private final FloatBuffer mTexCoordBuffer;  // view of mVertexBuffer, starting at "s"
+    private final ShortBuffer mIndexBuffer;
+    private int mNumSprites;
+
+    // Texture and texture coordinates for sprites added from now on.
+    private int mTextureHandle;
+    private float mTexLeft, mTexTop, mTexRight, mTexBottom;
+
+    private int mProgramHandle = -1;
+    private int mPositionHandle = -1;
+    private int mTexCoordHandle = -1;
+    private int mProjMatrixHandle = -1;
+
+    // Sanity check on draw prep.
+    private boolean mDrawPrepared;
+
+    // Statistics.
+    private int mDrawCalls;
+    private int mSpritesDrawn;
+
+    /**
+     * Creates a batch.
+     *
+     * @param gl Where to send GL calls.
+     * @param maxSprites Maximum number of sprites per draw call.
+     */
+    public SpriteBatch(GlCalls gl, int maxSprites) {
+        if (maxSprites <= 0 || maxSprites > RectBatch.MAX_RECTS_PER_DRAW) {
+            throw new RuntimeException("bad maxSprites " + maxSprites);
+        }
+        mGl = gl;
+        mMaxSprites = maxSprites;
+        mVertices = new float[maxSprites * FLOATS_PER_SPRITE];
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(mVertices.length * 4);
+        bb.order(ByteOrder.nativeOrder());
+        mVertexBuffer = bb.asFloatBuffer();
+        mVertexBuffer.position(2);
+        mTexCoordBuffer = mVertexBuffer.slice();
+        mVertexBuffer.position(0);
+
+        mIndexBuffer = RectBatch.createIndexBuffer(maxSprites);
+    }
+
+    /**
+     * Sets the program and the handles of its attributes and uniforms.  The program must
+     * take a vec4 "position" and vec2 texture coordinate per vertex, and a mat4 projection
+     * matrix.  The sampler must already be set to texture unit 0.
+     */
+    public void setProgram(int programHandle, int positionHandle, int texCoordHandle,
+            int projMatrixHandle) {
+        mProgramHandle = programHandle;
+        mPositionHandle = positionHandle;
+        mTexCoordHandle = texCoordHandle;
+        mProjMatrixHandle = projMatrixHandle;
+    }
+
+    /**
+     * Starts a batch.  Selects the program and sends the projection matrix.  Call
+     * setTexture() before adding sprites.
+     */
+    public void begin(float[] projectionMatrix) {
+        GlCalls gl = mGl;
+        gl.glUseProgram(mProgramHandle);
+        gl.glUniformMatrix4fv(mProjMatrixHandle, 1, false, projectionMatrix, 0);
+        gl.glEnableVertexAttribArray(mPositionHandle);
+        gl.glEnableVertexAttribArray(mTexCoordHandle);
+        gl.glActiveTexture(GL_TEXTURE0);
+        mTextureHandle = 0;
+        setTexCoords(0.0f, 0.0f, 1.0f, 1.0f);
+        mNumSprites = 0;
+        mDrawPrepared = true;
+    }
+
+    /**
+     * Selects the texture for sprites added from now on.  If it's different from the
+     * current texture, the sprites collected so far are drawn first.
+     */
+    public void setTexture(int textureHandle) {
+        if (textureHandle == mTextureHandle) {
+            return;
+        }
+        flush();
+        mGl.glBindTexture(GL_TEXTURE_2D, textureHandle);
+        mTextureHandle = textureHandle;
+    }
+
+    /**
+     * Sets the part of the texture used by sprites added from now on.  Values are normalized
+     * texture coordinates, with (0,0) at the top left of the image.
+     */
+    public void setTexCoords(float left, float top, float right, float bottom) {
+        mTexLeft = left;
+        mTexTop = top;
+        mTexRight = right;
+        mTexBottom = bottom;
+    }
+
+    /**
+     * Adds a sprite to the batch.  Position and scale follow the BaseRect conventions
+     * (center point, full width and height).
+     */
+    public void add(float xpos, float ypos, float xscale, float yscale) {
+        if (!mDrawPrepared || mTextureHandle == 0) {
+            throw new RuntimeException("not prepared");
+        }
+        if (mNumSprites == mMaxSprites) {
+            flush();
+        }
+
+        float left = xpos - xscale / 2;
+        float right = xpos + xscale / 2;
+        float bottom = ypos - yscale / 2;
+        float top = ypos + yscale / 2;
+        float sl = mTexLeft;
+        float sr = mTexRight;
+        float tt = mTexTop;
+        float tb = mTexBottom;
+
+        float[] v = mVertices;
+        int i = mNumSprites * FLOATS_PER_SPRITE;
+        v[i++] = left;  v[i++] = bottom; v[i++] = sl; v[i++] = tb;
+        v[i++] = right; v[i++] = bottom; v[i++] = sr; v[i++] = tb;
+        v[i++] = left;  v[i++] = top;    v[i++] = sl; v[i++] = tt;
+        v[i++] = right; v[i++] = top;    v[i++] = sr; v[i++] = tt;
+        mNumSprites++;
+    }
+
+    /**
+     * Draws anything still in the batch, and cleans up.
+     */
+    public void end() {
+        flush();
+        mDrawPrepared = false;
+
+        // Disable vertex arrays and program.  Not strictly necessary.
+        GlCalls gl = mGl;
+        gl.glDisableVertexAttribArray(mPositionHandle);
+        gl.glDisableVertexAttribArray(mTexCoordHandle);
+        gl.glUseProgram(0);
+    }
+
+    /**
+     * Sends the accumulated sprites to GL.
+     */
+    private void flush() {
+        if (mNumSprites == 0) {
+            return;
+        }
+
+        mVertexBuffer.position(0);
+        mVertexBuffer.put(mVertices, 0, mNumSprites * FLOATS_PER_SPRITE);
+        mVertexBuffer.position(0);
+
+        GlCalls gl = mGl;
+        gl.glVertexAttribPointer(mPositionHandle, 2, GL_FLOAT, false, VERTEX_STRIDE,
+                mVertexBuffer);
+        gl.glVertexAttribPointer(mTexCoordHandle, 2, GL_FLOAT, false, VERTEX_STRIDE,
+                mTexCoordBuffer);
+        gl.glDrawElements(GL_TRIANGLES, mNumSprites * RectBatch.INDICES_PER_RECT,
+                GL_UNSIGNED_SHORT, mIndexBuffer);
+
+        mDrawCalls++;
+        mSpritesDrawn += mNumSprites;
+        mNumSprites = 0;
+    }
+
+    /**
+     * Returns the number of draw calls issued since the batch was created.
+     */
+    public int getDrawCallCount() {
+        return mDrawCalls;
+    }
+
+    /**
+     * Returns the number of sprites drawn since the batch was created.
+     */
+    public int getSpritesDrawn() {
+        return mSpritesDrawn;
+    }
+
+    /**
+     * Returns the vertex data for the sprites currently in the batch (x, y, s, t per vertex,
+     * four vertices per sprite).  Valid until the next flush.  The caller must not modify
+     * the array.
+     */
+    float[] getPendingVertices() {
+        return mVertices;
+    }
+
+    /**
+     * Returns the number of sprites currently in the batch.
+     */
+    int getPendingCount() {
+        return mNumSprites;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A fixed set of solid-color axis-aligned rects, held in a vertex buffer object.
+ * <p>
+ * Rects can be hidden and shown again after the buffer is uploaded, but not recolored.
+ * Draw it with RectBatch.drawStatic().  Like RectBatch, this has no Android dependencies,
+ * but drawing uses the buffer-offset GLES20 calls, which Android only has from API 9.
+ */
+public class StaticRectBuffer {
+    /*
+     * The bricks never move and never change color; the only thing that happens to them is
+     * that they disappear.  Sending their geometry to GL every frame, either as one matrix
+     * per brick or as a big vertex array, is wasted effort.  Instead, we build the vertex
+     * data once, in the same interleaved layout RectBatch uses, and hand it to GL in a VBO.
+     * The indices go into a second buffer object, so once everything is uploaded a frame
+     * costs one uniform (the projection matrix, sent by RectBatch.begin()) and a handful of
+     * small calls.
+     *
+     * When a rect is hidden, we collapse its four vertices onto a single point so that its
+     * triangles have zero area and produce no fragments.  That only changes 96 bytes of
+     * vertex data, so rather than re-upload the whole thing we remember the range of rects
+     * that changed and send just that span with glBufferSubData() the next time we draw.
+     * Several bricks dying in the same frame (or a saved game being restored) turns into one
+     * update covering all of them.
+     *
+     * We could compact the buffer instead, and draw fewer triangles as bricks go away, but
+     * moving vertices around means sending more data, and the vertex shader is not where
+     * our time goes.
+     *
+     * The buffer objects belong to the EGL context, so if the context is lost the whole
+     * thing needs to be recreated and uploaded again.  GameState does that from allocBricks(),
+     * which is called from onSurfaceCreated().
+     */
+
+    // Values from GLES20.  We don't want the dependency.
+    private static final int GL_TRIANGLES = 0x0004;
+    private static final int GL_UNSIGNED_SHORT = 0x1403;
+    private static final int GL_FLOAT = 0x1406;
+    private static final int GL_ARRAY_BUFFER = 0x8892;
+    private static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+    private static final int GL_STATIC_DRAW = 0x88E4;
+
+    private final GlCalls mGl;
+    private final int mNumRects;
+
+    // Local copy of the vertex data, and a direct buffer to pass it through.
+    private final float[] mVertices;
+    private final FloatBuffer mVertexBuffer;
+    private final ShortBuffer mIndexBuffer;
+
+    // GL buffer object handles: vertices, indices.
+    private final int[] mBufferHandles = new int[2];
+    private boolean mUploaded;
+
+    // Range of rects, inclusive, that changed since the last upload.  Empty if first > last.
+    private int mDirtyFirst;
+    private int mDirtyLast;
+
+    // Statistics.
+    private int mSubDataUpdates;
+    private long mBytesUploaded;
+
+
+    /**
+     * Creates a buffer for "numRects" rects.  All rects start out hidden.
+     */
+    public StaticRectBuffer(GlCalls gl, int numRects) {
+        if (numRects <= 0 || numRects > RectBatch.MAX_RECTS_PER_DRAW) {
+            throw new RuntimeException("bad numRects " + numRects);
+        }
+        mGl = gl;
+        mNumRects = numRects;
+        mVertices = new float[numRects * RectBatch.FLOATS_PER_RECT];
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(mVertices.length * 4);
+        bb.order(ByteOrder.nativeOrder());
+        mVertexBuffer = bb.asFloatBuffer();
+        mIndexBuffer = RectBatch.createIndexBuffer(numRects);
+
+        clearDirty();
+    }
+
+    /**
+     * Returns the number of rects in the buffer, including hidden ones.
+     */
+    public int getRectCount() {
+        return mNumRects;
+    }
+
+    /**
+     * Sets the position, size, and color of a rect.  Position and scale follow the BaseRect
+     * conventions.  Must be called before upload().
+     */
+    public void setRect(int index, float xpos, float ypos, float xscale, float yscale,
+            float[] color) {
+        if (mUploaded) {
+            throw new RuntimeException("can't change rects after upload");
+        }
+
+        float left = xpos - xscale / 2;
+        float right = xpos + xscale / 2;
+        float bottom = ypos - yscale / 2;
+        float top = ypos + yscale / 2;
+        float r = color[0];
+        float g = color[1];
+        float b = color[2];
+        float a = color[3];
+
+        float[] v = mVertices;
+        int i = index * RectBatch.FLOATS_PER_RECT;
+        v[i++] = left;  v[i++] = bottom; v[i++] = r; v[i++] = g; v[i++] = b; v[i++] = a;
+        v[i++] = right; v[i++] = bottom; v[i++] = r; v[i++] = g; v[i++] = b; v[i++] = a;
+        v[i++] = left;  v[i++] = top;    v[i++] = r; v[i++] = g; v[i++] = b; v[i++] = a;
+        v[i++] = right; v[i++] = top;    v[i++] = r; v[i++] = g; v[i++] = b; v[i++] = a;
+    }
+
+    /**
+     * Hides a rect.  If the buffer has been uploaded, the change is sent to GL the next time
+     * the buffer is drawn.
+     */
+    public void hideRect(int index) {
+        // Collapse all four corners onto the first one.  Colors are left alone.
+        float[] v = mVertices;
+        int start = index * RectBatch.FLOATS_PER_RECT;
+        float x = v[start];
+        float y = v[start + 1];
+        for (int i = 1; i < RectBatch.VERTICES_PER_RECT; i++) {
+            int off = start + i * RectBatch.FLOATS_PER_VERTEX;
+            v[off] = x;
+            v[off + 1] = y;
+        }
+
+        if (mUploaded) {
+            if (index < mDirtyFirst) {
+                mDirtyFirst = index;
+            }
+            if (index > mDirtyLast) {
+                mDirtyLast = index;
+            }
+        }
+    }
+
+    /**
+     * Puts a hidden rect back, with the given position and size.  Colors are left as they
+     * were.  If the buffer has been uploaded, the change is sent to GL the next time the
+     * buffer is drawn.
+     */
+    public void showRect(int index, float xpos, float ypos, float xscale, float yscale) {
+        float left = xpos - xscale / 2;
+        float right = xpos + xscale / 2;
+        float bottom = ypos - yscale / 2;
+        float top = ypos + yscale / 2;
+
+        float[] v = mVertices;
+        int i = index * RectBatch.FLOATS_PER_RECT;
+        int step = RectBatch.FLOATS_PER_VERTEX;
+        v[i] = left;             v[i + 1] = bottom;
+        v[i + step] = right;     v[i + step + 1] = bottom;
+        v[i + step * 2] = left;  v[i + step * 2 + 1] = top;
+        v[i + step * 3] = right; v[i + step * 3 + 1] = top;
+
+        if (mUploaded) {
+            if (index < mDirtyFirst) {
+                mDirtyFirst = index;
+            }
+            if (index > mDirtyLast) {
+                mDirtyLast = index;
+            }
+        }
+    }
+
+    /**
+     * Creates the GL buffer objects and copies the vertex and index data into them.  Must
+     * be called on the thread that owns the EGL context.
+     */
+    public void upload() {
+        GlCalls gl = mGl;
+        gl.glGenBuffers(2, mBufferHandles, 0);
+
+        mVertexBuffer.position(0);
+        mVertexBuffer.put(mVertices);
+        mVertexBuffer.position(0);
+        int vertexBytes = mVertices.length * 4;
+        gl.glBindBuffer(GL_ARRAY_BUFFER, mBufferHandles[0]);
+        gl.glBufferData(GL_ARRAY_BUFFER, vertexBytes, mVertexBuffer, GL_STATIC_DRAW);
+        gl.glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        int indexBytes = mNumRects * RectBatch.INDICES_PER_RECT * 2;
+        gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, mBufferHandles[1]);
+        gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexBytes, mIndexBuffer, GL_STATIC_DRAW);
+        gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        mBytesUploaded += vertexBytes + indexBytes;
+        mUploaded = true;
+        clearDirty();
+    }
+
+    /**
+     * Draws all rects.  The program must already be in use, with the vertex attribute arrays
+     * enabled.  Called from RectBatch.drawStatic().
+     */
+    void draw(int positionHandle, int colorHandle) {
+        if (!mUploaded) {
+            throw new RuntimeException("not uploaded");
+        }
+
+        GlCalls gl = mGl;
+        gl.glBindBuffer(GL_ARRAY_BUFFER, mBufferHandles[0]);
+
+        if (mDirtyFirst <= mDirtyLast) {
+            // Send the span of rects that changed.
+            int first = mDirtyFirst * RectBatch.FLOATS_PER_RECT;
+            int count = (mDirtyLast - mDirtyFirst + 1) * RectBatch.FLOATS_PER_RECT;
+            mVertexBuffer.position(0);
+            mVertexBuffer.put(mVertices, first, count);
+            mVertexBuffer.position(0);
+            gl.glBufferSubData(GL_ARRAY_BUFFER, first * 4, count * 4, mVertexBuffer);
+            mSubDataUpdates++;
+            mBytesUploaded += count * 4;
+            clearDirty();
+        }
+
+        gl.glVertexAttribPointer(positionHandle, 2, GL_FLOAT, false, RectBatch.VERTEX_STRIDE,
+                0);
+        gl.glVertexAttribPointer(colorHandle, 4, GL_FLOAT, false, RectBatch.VERTEX_STRIDE,
+                RectBatch.COLOR_OFFSET);
+        gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, mBufferHandles[1]);
+        gl.glDrawElements(GL_TRIANGLES, mNumRects * RectBatch.INDICES_PER_RECT,
+                GL_UNSIGNED_SHORT, 0);
+
+        // Unbind, so that client-side arrays work again.
+        gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Returns the number of glBufferSubData() calls made.
+     */
+    public int getSubDataUpdateCount() {
+        return mSubDataUpdates;
+    }
+
+    /**
+     * Returns the total number of bytes handed to glBufferData() and glBufferSubData().
+     */
+    public long getBytesUploaded() {
+        return mBytesUploaded;
+    }
+
+    private void clearDirty() {
+        mDirtyFirst = mNumRects;
+        mDirtyLast = -1;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Draws strings from a GlyphAtlas texture, one textured quad per glyph, all in a single draw
+ * call.
+ * <p>
+ * This works like RectBatch: glyph quads are collected between begin() and end(), and are
+ * sent to GL together.  The atlas texture holds only coverage (alpha); the color comes from
+ * the vertex data, so one set of glyphs can be drawn in any color.  This class has no
+ * Android dependencies.
+ */
+public class TextBatch {
+    /*
+     * The vertex layout is:
+     *
+     *   x, y, s, t, r, g, b, a   (x4 per glyph)
+     *
+     * The fragment shader multiplies the texture's alpha by the vertex color, and emits
+     * premultiplied alpha to match the blend mode GameSurfaceRenderer uses.
+     *
+     * Strings can have a drop shadow.  The old text texture had a blurred shadow baked into
+     * each string.  We can't do that with shared glyphs, since most of what we draw doesn't
+     * want a shadow, so instead we draw the string twice: first offset and in translucent
+     * black, then in place.  The shadow quads all go into the batch ahead of the glyph quads,
+     * so the shadow of one letter can't end up on top of its neighbor.  It's a hard-edged
+     * shadow rather than a blurred one, which is fine for our purposes.
+     */
+
+    public static final int ALIGN_LEFT = 0;
+    public static final int ALIGN_CENTER = 1;
+    public static final int ALIGN_RIGHT = 2;
+
+    private static final int FLOATS_PER_VERTEX = 8;         // x, y, s, t, r, g, b, a
+    private static final int FLOATS_PER_GLYPH = FLOATS_PER_VERTEX * RectBatch.VERTICES_PER_RECT;
+    private static final int VERTEX_STRIDE = FLOATS_PER_VERTEX * 4;
+
+    // Drop shadow offset, in atlas texels, and opacity.
+    private static final float SHADOW_OFFSET = 5.0f;
+    private static final float SHADOW_ALPHA = 0.6f;
+
+    // Values from GLES20.  We don't want the dependency.
+    private static final int GL_TRIANGLES = 0x0004;
+    private static final int GL_UNSIGNED_SHORT = 0x1403;
+    private static final int GL_FLOAT = 0x1406;
+    private static final int GL_TEXTURE_2D = 0x0DE1;
+    private static final int GL_TEXTURE0 = 0x84C0;
+
+    private final GlCalls mGl;
+    private final int mMaxGlyphs;
+
+    private final float[] mVertices;
+    private final FloatBuffer mVertexBuffer;
+    private final FloatBuffer mTexCoordBuffer;      // views of mVertexBuffer
+    private final FloatBuffer mColorBuffer;
+    private final ShortBuffer mIndexBuffer;
+    private int mNumGlyphs;
+
+    private int mProgramHandle = -1;
+    private int mPositionHandle = -1;
+    private int mTexCoordHandle = -1;
+    private int mColorHandle = -1;
+    private int mProjMatrixHandle = -1;
+
+    // Set by begin().
+    private GlyphAtlas mAtlas;
+    private boolean mDrawPrepared;
+
+    private final float[] mShadowColor = { 0.0f, 0.0f, 0.0f, SHADOW_ALPHA };
+    private final float[] mMeasure = new float[3];
+
+    // Statistics.
+    private int mDrawCalls;
+
+
+    /**
+     * Creates a batch.
+     *
+     * @param gl Where to send GL calls.
+     * @param maxGlyphs Maximum number of glyphs (including shadows) per draw call.
+     */
+    public TextBatch(GlCalls gl, int maxGlyphs) {
+        if (maxGlyphs <= 0 || maxGlyphs > RectBatch.MAX_RECTS_PER_DRAW) {
+            throw new RuntimeException("bad maxGlyphs " + maxGlyphs);
+        }
+        mGl = gl;
+        mMaxGlyphs = maxGlyphs;
+        mVertices = new float[maxGlyphs * FLOATS_PER_GLYPH];
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(mVertices.length * 4);
+        bb.order(ByteOrder.nativeOrder());
+        mVertexBuffer = bb.asFloatBuffer();
+        mVertexBuffer.position(2);
+        mTexCoordBuffer = mVertexBuffer.slice();
+        mVertexBuffer.position(4);
+        mColorBuffer = mVertexBuffer.slice();
+        mVertexBuffer.position(0);
+
+        mIndexBuffer = RectBatch.createIndexBuffer(maxGlyphs);
+    }
+
+    /**
+     * Sets the program and the handles of its attributes and uniforms.
+     */
+    public void setProgram(int programHandle, int positionHandle, int texCoordHandle,
+            int colorHandle, int projMatrixHandle) {
+        mProgramHandle = programHandle;
+        mPositionHandle = positionHandle;
+        mTexCoordHandle = texCoordHandle;
+        mColorHandle = colorHandle;
+        mProjMatrixHandle = projMatrixHandle;
+    }
+
+    /**
+     * Starts a batch.  Selects the program, sends the projection matrix, and binds the atlas
+     * texture to texture unit 0.
+     */
+    public void begin(float[] projectionMatrix, GlyphAtlas atlas, int textureHandle) {
+        GlCalls gl = mGl;
+        gl.glUseProgram(mProgramHandle);
+        gl.glUniformMatrix4fv(mProjMatrixHandle, 1, false, projectionMatrix, 0);
+        gl.glEnableVertexAttribArray(mPositionHandle);
+        gl.glEnableVertexAttribArray(mTexCoordHandle);
+        gl.glEnableVertexAttribArray(mColorHandle);
+        gl.glActiveTexture(GL_TEXTURE0);
+        gl.glBindTexture(GL_TEXTURE_2D, textureHandle);
+        mAtlas = atlas;
+        mNumGlyphs = 0;
+        mDrawPrepared = true;
+    }
+
+    /**
+     * Adds a string to the batch.
+     *
+     * @param str Text to draw.  Characters that aren't in the atlas are drawn as blank space.
+     * @param x Horizontal position, in arena coordinates.  Whether this is the left edge,
+     *      center, or right edge of the string is determined by "align".
+     * @param baseline Vertical position of the baseline, in arena coordinates.
+     * @param scale Arena units per atlas texel.
+     * @param align ALIGN_LEFT, ALIGN_CENTER, or ALIGN_RIGHT.
+     * @param color RGBA color.
+     * @param shadow If set, draw a drop shadow under the text.
+     */
+    public void addString(CharSequence str, float x, float baseline, float scale, int align,
+            float[] color, boolean shadow) {
+        if (!mDrawPrepared) {
+            throw new RuntimeException("not prepared");
+        }
+
+        if (align != ALIGN_LEFT) {
+            mAtlas.measure(str, mMeasure);
+            float width = mMeasure[0] * scale;
+            x -= (align == ALIGN_CENTER) ? width / 2 : width;
+        }
+
+        if (shadow) {
+            float offset = SHADOW_OFFSET * scale;
+            addGlyphs(str, x + offset, baseline - offset, scale, mShadowColor);
+        }
+        addGlyphs(str, x, baseline, scale, color);
+    }
+
+    /**
+     * Adds a quad showing the entire atlas texture.  Handy for debugging.
+     *
+     * @param x Center of the quad, in arena coordinates.
+     * @param y Center of the quad, in arena coordinates.
+     * @param scale Arena units per atlas texel.
+     */
+    public void addAtlas(float x, float y, float scale, float[] color) {
+        if (!mDrawPrepared) {
+            throw new RuntimeException("not prepared");
+        }
+        if (mNumGlyphs == mMaxGlyphs) {
+            flush();
+        }
+
+        float halfWidth = mAtlas.getTextureWidth() * scale / 2;
+        float halfHeight = mAtlas.getTextureHeight() * scale / 2;
+        addQuad(x - halfWidth, x + halfWidth, y - halfHeight, y + halfHeight,
+                0.0f, 1.0f, 0.0f, 1.0f, color);
+    }
+
+    /**
+     * Adds one quad per glyph with ink.
+     */
+    private void addGlyphs(CharSequence str, float penX, float baseline, float scale,
+            float[] color) {
+        final GlyphAtlas atlas = mAtlas;
+        final float texWidth = atlas.getTextureWidth();
+        final float texHeight = atlas.getTextureHeight();
+
+        for (int ci = 0; ci < str.length(); ci++) {
+            int glyph = atlas.findGlyph(str.charAt(ci));
+            if (glyph < 0) {
+                penX += atlas.getMissingAdvance() * scale;
+                continue;
+            }
+
+            int width = atlas.getWidth(glyph);
+            int height = atlas.getHeight(glyph);
+            if (width != 0 && height != 0) {
+                if (mNumGlyphs == mMaxGlyphs) {
+                    flush();
+                }
+
+                // Glyph metrics are in image coordinates (Y increases downward), arena
+                // coordinates have Y increasing upward.
+                float left = penX + atlas.getBoundsLeft(glyph) * scale;
+                float right = left + width * scale;
+                float top = baseline - atlas.getBoundsTop(glyph) * scale;
+                float bottom = top - height * scale;
+
+                float texLeft = atlas.getTexLeft(glyph) / texWidth;
+                float texRight = (atlas.getTexLeft(glyph) + width) / texWidth;
+                float texTop = atlas.getTexTop(glyph) / texHeight;
+                float texBottom = (atlas.getTexTop(glyph) + height) / texHeight;
+
+                addQuad(left, right, bottom, top, texLeft, texRight, texTop, texBottom, color);
+            }
+
+            penX += atlas.getAdvance(glyph) * scale;
+        }
+    }
+
+    /**
+     * Adds a quad to the batch.  The caller must ensure there's room.
+     */
+    private void addQuad(float left, float right, float bottom, float top,
+            float texLeft, float texRight, float texTop, float texBottom, float[] color) {
+        final float r = color[0];
+        final float g = color[1];
+        final float b = color[2];
+        final float a = color[3];
+
+        // Same vertex order as BaseRect: bottom left, bottom right, top left, top right.
+        float[] v = mVertices;
+        int i = mNumGlyphs * FLOATS_PER_GLYPH;
+        v[i++] = left;  v[i++] = bottom; v[i++] = texLeft;  v[i++] = texBottom;
+        v[i++] = r; v[i++] = g; v[i++] = b; v[i++] = a;
+        v[i++] = right; v[i++] = bottom; v[i++] = texRight; v[i++] = texBottom;
+        v[i++] = r; v[i++] = g; v[i++] = b; v[i++] = a;
+        v[i++] = left;  v[i++] = top;    v[i++] = texLeft;  v[i++] = texTop;
+        v[i++] = r; v[i++] = g; v[i++] = b; v[i++] = a;
+        v[i++] = right; v[i++] = top;    v[i++] = texRight; v[i++] = texTop;
+        v[i++] = r; v[i++] = g; v[i++] = b; v[i++] = a;
+        mNumGlyphs++;
+    }
+
+    /**
+     * Draws anything still in the batch, and cleans up.
+     */
+    public void end() {
+        flush();
+        mDrawPrepared = false;
+        mAtlas = null;
+
+        GlCalls gl = mGl;
+        gl.glDisableVertexAttribArray(mPositionHandle);
+        gl.glDisableVertexAttribArray(mTexCoordHandle);
+        gl.glDisableVertexAttribArray(mColorHandle);
+        gl.glUseProgram(0);
+    }
+
+    /**
+     * Sends the accumulated glyphs to GL.
+     */
+    private void flush() {
+        if (mNumGlyphs == 0) {
+            return;
+        }
+
+        mVertexBuffer.position(0);
+        mVertexBuffer.put(mVertices, 0, mNumGlyphs * FLOATS_PER_GLYPH);
+        mVertexBuffer.position(0);
+
+        GlCalls gl = mGl;
+        gl.glVertexAttribPointer(mPositionHandle, 2, GL_FLOAT, false, VERTEX_STRIDE,
+                mVertexBuffer);
+        gl.glVertexAttribPointer(mTexCoordHandle, 2, GL_FLOAT, false, VERTEX_STRIDE,
+                mTexCoordBuffer);
+        gl.glVertexAttribPointer(mColorHandle, 4, GL_FLOAT, false, VERTEX_STRIDE,
+                mColorBuffer);
+        gl.glDrawElements(GL_TRIANGLES, mNumGlyphs * RectBatch.INDICES_PER_RECT,
+                GL_UNSIGNED_SHORT, mIndexBuffer);
+
+        mDrawCalls++;
+        mNumGlyphs = 0;
+    }
+
+    /**
+     * Returns the number of draw calls issued since the batch was created.
+     */
+    public int getDrawCallCount() {
+        return mDrawCalls;
+    }
+}
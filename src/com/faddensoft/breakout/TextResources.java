@@ -27,12 +27,11 @@ import android.opengl.GLUtils;
 import android.util.Log;
 
 /**
- * Text resources used in the game.  We render multiple strings into a single large texture,
- * and do all drawing from that.
+ * Text resources used in the game.  We render the glyphs we need into a single texture (a
+ * "glyph atlas"), and compose strings from that at draw time.
  * <p>
- * There are more general solutions to this (see e.g. LabelMaker in the Sprite Text ApiDemo),
- * but our needs are rather simple.  Allocation is based on a simple greedy algorithm that
- * will likely leave lots of wasted space.
+ * Each glyph is rendered once, in white, and the texture only holds the alpha channel.
+ * Color is applied when drawing, so the same glyphs serve every string.  See TextBatch.
  * <p>
  * This demonstrates rendering text into a bitmap, converting a bitmap to a texture, and
  * using sub-sections of a texture image.
@@ -78,36 +77,44 @@ public class TextResources {
      * been retained until they were replaced with new values.
      */
 
-    // Messages we show to the user, and a set of digits for the score.  Pass one of these
-    // as the argument to getTextureRect().
+    /*
+     * We used to render each complete message into the texture, along with the digits 0-9 for
+     * the score.  That was simple, but it meant we couldn't draw anything we hadn't thought of
+     * in advance (no "lives: 3", no frame rate display), and a translation with longer
+     * messages needed more texture space.
+     *
+     * Now we render printable ASCII, plus any other characters that appear in the messages,
+     * one glyph at a time.  A translation only adds the handful of characters ASCII doesn't
+     * cover.  Because the color is applied at draw time, the texture can be GL_ALPHA (one
+     * byte per texel) instead of ARGB_4444.  We also render a bit smaller, since individual
+     * glyphs scale up well enough for this game.  With the default font that should land in a
+     * 512x512 alpha texture (256KB, half of the old 512x512 ARGB_4444 texture); the actual
+     * size is chosen by GlyphAtlas.pack() and logged.
+     */
+
+    // Messages we show to the user.  Pass one of these to getString() etc.
     public static final int NO_MESSAGE = -1;        // used to indicate no message shown
     public static final int READY = 0;
     public static final int GAME_OVER = 1;
     public static final int WINNER = 2;             // YOU'RE WINNER !
-    public static final int DIGIT_START = 3;
-    private static final int STRING_COUNT = DIGIT_START + 10;
-
-    // We use a square texture with this size.  With ARGB_4444 this eats up 512KB.  If we add
-    // more strings we might want to double the height.  (Texture sizes should always be powers
-    // of 2, but they don't have to be square.)
-    private static final int TEXTURE_SIZE = 512;
-
-    // How big the text should be when drawn on the bitmap (point size).  We want this to be
-    // small enough that we can fit lots of strings, but big enough that the text looks good
-    // even if we blow it up quite a bit.  If we had some text that was going to be small on
-    // screen, and other text that could be large, it would save space to render different
-    // strings at different sizes.  We don't have a space problem so we just render everything
-    // at the same size.
-    private static final int TEXT_SIZE = 70;
-
-    // Fancy text parameters.
-    private static final int SHADOW_RADIUS = 8;
-    private static final int SHADOW_OFFSET = 5;
-
-    // These identify the location of individual items.
-    private Rect[] mTextPositions = new Rect[STRING_COUNT];
-
-    // Handle to the image texture that holds all of the strings.
+    private static final int STRING_COUNT = 3;
+
+    // RGB color of the score.
+    private static final int SCORE_COLOR = 0xe0e020;
+
+    // First and last characters of the printable ASCII range, which we always include.
+    private static final char FIRST_ASCII = ' ';
+    private static final char LAST_ASCII = '~';
+
+    // How big the text should be when drawn on the bitmap (point size).  The glyphs are
+    // scaled up or down when drawn, so this is a trade-off between texture size and how good
+    // the text looks when it's blown up.
+    private static final int TEXT_SIZE = 56;
+
+    // Glyph layout and metrics.
+    private final GlyphAtlas mAtlas;
+
+    // Handle to the image texture that holds all of the glyphs.
     public int mTextureHandle = -1;
 
 
@@ -118,8 +125,9 @@ public class TextResources {
         // Strings to draw.
         private final String[] mTextStrings = new String[STRING_COUNT];
 
-        // RGB colors to use when rendering the text.
-        private final int[] mTextColors = new int[STRING_COUNT];
+        // RGBA colors to use when drawing the text.
+        private final float[][] mTextColors = new float[STRING_COUNT][];
+        private final float[] mScoreColor;
 
         // Add a drop shadow?
         private final boolean[] mTextShadows = new boolean[STRING_COUNT];
@@ -132,32 +140,37 @@ public class TextResources {
             setString(context, READY, R.string.msg_ready, 0x0000ff);
             setString(context, GAME_OVER, R.string.msg_game_over, 0xff0000);
             setString(context, WINNER, R.string.msg_winner, 0x00ff00);
-            for (int i = 0; i < 10; i++) {
-                // Just using Arabic numerals here.  No need to pull the string out of the resource.
-                mTextStrings[DIGIT_START + i] = String.valueOf((char)('0' + i));
-                mTextColors[DIGIT_START + i] = 0xe0e020;
-                mTextShadows[DIGIT_START + i] = false;
-            }
+            mScoreColor = toColor(SCORE_COLOR);
         }
 
         /** helper for constructor */
         private void setString(Context context, int index, int res, int color) {
             mTextStrings[index] = context.getString(res);
-            mTextColors[index] = color;
+            mTextColors[index] = toColor(color);
             mTextShadows[index] = true;
         }
 
+        /** converts 0xRRGGBB to an opaque RGBA color vector */
+        private static float[] toColor(int rgb) {
+            return new float[] {
+                ((rgb >> 16) & 0xff) / 255.0f,
+                ((rgb >> 8) & 0xff) / 255.0f,
+                (rgb & 0xff) / 255.0f,
+                1.0f
+            };
+        }
+
         public String getTextString(int index) {
             return mTextStrings[index];
         }
-        public int getTextColor(int index) {
-            return mTextColors[index];
-        }
         public boolean getTextShadow(int index) {
             return mTextShadows[index];
         }
     }
 
+    // Configuration we were created from.  Immutable.
+    private final Configuration mConfig;
+
     /**
      * Initializes configuration data.  Returns an object that can be passed into the constructor.
      * <p>
@@ -173,17 +186,38 @@ public class TextResources {
      * Generates the texture image from the configuration specified earlier.
      */
     public TextResources(Configuration config) {
-        createTexture(config);
+        mConfig = config;
+        mAtlas = new GlyphAtlas(getCharacterSet(config));
+        createTexture();
     }
 
-    private void createTexture(Configuration config) {
+    /**
+     * Returns the characters we need glyphs for: printable ASCII, plus anything else that
+     * appears in the configured strings.
+     */
+    private static char[] getCharacterSet(Configuration config) {
+        StringBuilder sb = new StringBuilder();
+        for (char ch = FIRST_ASCII; ch <= LAST_ASCII; ch++) {
+            sb.append(ch);
+        }
+        for (int i = 0; i < STRING_COUNT; i++) {
+            sb.append(config.getTextString(i));
+        }
+
+        // GlyphAtlas discards duplicates.
+        char[] chars = new char[sb.length()];
+        sb.getChars(0, chars.length, chars, 0);
+        return chars;
+    }
+
+    private void createTexture() {
         /*
          * We could retain a reference to the Bitmap and just regenerate the texture map from
          * that if the Configuration hasn't changed, but it doesn't take long to draw, and we
-         * don't want to retain the Bitmap in memory (it's large).
+         * don't want to retain the Bitmap in memory.
          */
 
-        Bitmap bitmap = createTextBitmap(config);
+        Bitmap bitmap = createGlyphBitmap();
 
         // Create texture storage.
         int handles[] = new int[1];
@@ -200,7 +234,8 @@ public class TextResources {
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
                 GLES20.GL_LINEAR);
 
-        // Load the bitmap into a texture using the Android utility function.
+        // Load the bitmap into a texture using the Android utility function.  An ALPHA_8
+        // bitmap becomes a GL_ALPHA texture.
         GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
 
         // Don't need this anymore.
@@ -208,110 +243,58 @@ public class TextResources {
     }
 
     /**
-     * Creates a bitmap with the various strings.
+     * Measures every glyph, lays out the atlas, and renders the glyphs into a bitmap.
      */
-    private Bitmap createTextBitmap(Configuration config) {
+    private Bitmap createGlyphBitmap() {
         /*
          * In everything that follows we're working in image coordinates, for which (0,0) is
          * at the top left rather than the bottom left.
          */
-
-        Bitmap bitmap = Bitmap.createBitmap(TEXTURE_SIZE, TEXTURE_SIZE, Bitmap.Config.ARGB_4444);
-        Canvas canvas = new Canvas(bitmap);
-        bitmap.eraseColor(0x00000000);      // transparent black background
-        //bitmap.eraseColor(0xffffffff);      // debug -- use opaque white background
+        GlyphAtlas atlas = mAtlas;
 
         Paint textPaint = new Paint();
         Typeface typeface = Typeface.defaultFromStyle(Typeface.BOLD);
         textPaint.setTypeface(typeface);
         textPaint.setTextSize(TEXT_SIZE);
         textPaint.setAntiAlias(true);
+        textPaint.setColor(0xffffffff);
+
+        Paint.FontMetrics metrics = textPaint.getFontMetrics();
+        atlas.setFontMetrics(TEXT_SIZE, metrics.ascent, metrics.descent);
+
+        // Figure out how big each glyph is.
+        //
+        // The bounds rect is the tight bounds of the ink, relative to the pen position on the
+        // baseline.  The advance is how far to move the pen afterward, which includes the
+        // glyph's side bearings.  Keeping both is what lets us string glyphs together with
+        // the spacing the font intended, and keep them on a common baseline (which the old
+        // per-digit bounding boxes did not).
+        char[] one = new char[1];
+        Rect boundsRect = new Rect();
+        for (int i = 0; i < atlas.getGlyphCount(); i++) {
+            one[0] = atlas.getGlyphChar(i);
+            float advance = textPaint.measureText(one, 0, 1);
+            textPaint.getTextBounds(one, 0, 1, boundsRect);
+            atlas.setGlyph(i, advance, boundsRect.left, boundsRect.top,
+                    boundsRect.width(), boundsRect.height());
+        }
+        atlas.pack();
+        Log.d(TAG, "glyph atlas: " + atlas.getGlyphCount() + " glyphs, "
+                + atlas.getTextureWidth() + "x" + atlas.getTextureHeight());
 
-        int startX = 0;
-        int startY = 0;
-        int lineHeight = 0;
-        for (int i = 0; i < STRING_COUNT; i++) {
-            // Get text dimensions.
-            String str = config.getTextString(i);
-            textPaint.setColor(0xff000000 | config.getTextColor(i));
-            if (config.getTextShadow(i)) {
-                textPaint.setShadowLayer(SHADOW_RADIUS, SHADOW_OFFSET, SHADOW_OFFSET, 0xff000000);
-            } else {
-                textPaint.setShadowLayer(0, 0, 0, 0);
-            }
-
-            // Figure out how big the rendered text is.
-            //
-            // The actual text may not reach the full ascent/descent of the font, depending
-            // on which characters we draw.  The bounds rect indicates the tight bounds for
-            // the actual rendered text.
-            //
-            // It does not, however, account for the shadow layer, so we have to guess at what
-            // that should be.  If we adjust by too much we waste pixels (and possibly render
-            // a bit off-center), if we adjust by too little we'll have shadows from nearby
-            // text bleeding in.  We do what android.widget.TextView does and just sum up
-            // the parameters.
-            //
-            // What we do here is generally the wrong way to go about working with the single
-            // digits (0-9), because we're planning to string them together but aren't attempting
-            // to maintain a common baselines.  For example, we might be using a font with
-            // "quirky" numbers, where the 6 appeared lower on each line than the 7.  If we
-            // rendered the string "5678", it would look different than it would rendering each
-            // number separately and aligning them vertically based on the bounding box (which
-            // doesn't preserve blank space above and below the digit).  We could handle that
-            // (by adjusting the bounding to cover the full ascent/descent of the font, or
-            // saving off the offset of the bottom of the bounding box from the font's baseline),
-            // but that's not necessary with the relatively mundane font we're using.
-            Rect boundsRect = new Rect();
-            textPaint.getTextBounds(str, 0, str.length(), boundsRect);
-            if (config.getTextShadow(i)) {
-                boundsRect.right += SHADOW_RADIUS + SHADOW_OFFSET;
-                boundsRect.bottom += SHADOW_RADIUS + SHADOW_OFFSET;
-            }
-
-            // Warn if this can't possibly fit in the texture.  We include what we can.  A
-            // more sophisticated system would reduce the font size (or increase the bitmap
-            // size) until all strings fit, but we're keeping it simple.
-            //
-            // Bear in mind that the size of text here has no bearing on the size it will be
-            // when displayed.  The rendered text is scaled up or down to fill the textured
-            // rect.  A font that is scaled up dramatically may look pixelated, so we don't
-            // want to be *too* far off.
-            if (boundsRect.width() > TEXTURE_SIZE || boundsRect.height() > TEXTURE_SIZE) {
-                Log.w(TAG, "HEY: text string '" + str + "' is too big: " + boundsRect);
-            }
-
-            if (startX != 0 && startX + boundsRect.width() > TEXTURE_SIZE) {
-                // Ran out of room on this line, move down to next section.
-                startX = 0;
-                startY += lineHeight;
-                lineHeight = 0;
+        Bitmap bitmap = Bitmap.createBitmap(atlas.getTextureWidth(), atlas.getTextureHeight(),
+                Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(bitmap);
+        bitmap.eraseColor(0x00000000);      // transparent background
 
-                if (startY >= TEXTURE_SIZE) {
-                    Log.w(TAG, "HEY: fell off the bottom of the message texture");
-                }
+        // Draw each glyph at an offset that puts its bounds rect at the packed location.
+        for (int i = 0; i < atlas.getGlyphCount(); i++) {
+            if (atlas.getWidth(i) == 0) {
+                continue;       // e.g. space
             }
-
-            // Draw the text at an offset that will yield a bounds rect at (startX,startY),
-            // and store the bounds in our table.
-            canvas.drawText(str, startX - boundsRect.left, startY - boundsRect.top, textPaint);
-            boundsRect.offsetTo(startX, startY);
-            mTextPositions[i] = boundsRect;
-
-            // This replaces the text with colored rectangles.  Helps see edges when debugging.
-            //canvas.drawRect(boundsRect, textPaint);
-
-            // With GL_LINEAR filtering, the texture rendering code will sample pixels outside
-            // the specified texture coordinates.  To avoid picking up fringes from neighboring
-            // elements, we leave a one-pixel transparent black "neutral zone".  We don't actually
-            // want to be blending transparent black in -- it would be better to clone the
-            // last row and column -- but it's not noticeable for this application.
-            //
-            // (Switching to GL_NEAREST also prevents the issue, but that makes the text ugly.
-            // We could also modify TexturedAlignedRect to shift the rect coordinates by +/- 0.5
-            // when converting to texture coordinates so we never sample beyond the edge.)
-            lineHeight = Math.max(lineHeight, boundsRect.height() + 1);
-            startX += boundsRect.width() + 1;
+            one[0] = atlas.getGlyphChar(i);
+            canvas.drawText(one, 0, 1, atlas.getTexLeft(i) - atlas.getBoundsLeft(i),
+                    atlas.getTexTop(i) - atlas.getBoundsTop(i), textPaint);
         }
 
         return bitmap;
@@ -335,28 +318,53 @@ public class TextResources {
      * Texture width, in pixels.
      */
     public int getTextureWidth() {
-        return TEXTURE_SIZE;
+        return mAtlas.getTextureWidth();
     }
 
     /**
      * Texture height, in pixels.
      */
     public int getTextureHeight() {
-        return TEXTURE_SIZE;
+        return mAtlas.getTextureHeight();
     }
 
     /**
-     * Returns a Rect that bounds the text with the specified index.
-     * <p>
-     * The caller must not modify the returned Rect.
+     * Returns the glyph metrics and texture layout.
+     */
+    public GlyphAtlas getAtlas() {
+        return mAtlas;
+    }
+
+    /**
+     * Returns one of our message strings.
      *
      * @param index Message string index.  Use the constants defined in this class (e.g.
      *      {@link #GAME_OVER}).
      */
-    public Rect getTextureRect(int index) {
-        // Returning the actual Rect is bad practice, since the caller could modify it and
-        // screw things up in mysterious ways, but we need to avoid creating objects in the
-        // main game loop.
-        return mTextPositions[index];
+    public String getString(int index) {
+        return mConfig.getTextString(index);
+    }
+
+    /**
+     * Returns the RGBA color for a message string.  The caller must not modify the values in
+     * the returned array.
+     */
+    public float[] getColor(int index) {
+        return mConfig.mTextColors[index];
+    }
+
+    /**
+     * Returns true if the message string should be drawn with a drop shadow.
+     */
+    public boolean getShadow(int index) {
+        return mConfig.getTextShadow(index);
+    }
+
+    /**
+     * Returns the RGBA color for the score.  The caller must not modify the values in the
+     * returned array.
+     */
+    public float[] getScoreColor() {
+        return mConfig.mScoreColor;
     }
 }
@@ -47,6 +47,19 @@ public class TexturedAlignedRect extends BaseRect {
             "  v_texCoord = a_texCoord;" +
             "}";
 
+    static final String POS_SCALE_VERTEX_SHADER_CODE =
+            "uniform mat4 u_projMatrix;" +      // projection matrix
+            "uniform vec4 u_posScale;" +        // x, y, xscale, yscale
+            "attribute vec4 a_position;" +      // vertex data for us to transform
+            "attribute vec2 a_texCoord;" +      // texture coordinate for vertex...
+            "varying vec2 v_texCoord;" +        // ...which we forward to the fragment shader
+
+            "void main() {" +
+            "  vec2 pos = a_position.xy * u_posScale.zw + u_posScale.xy;" +
+            "  gl_Position = u_projMatrix * vec4(pos, 0.0, 1.0);" +
+            "  v_texCoord = a_texCoord;" +
+            "}";
+
     static final String FRAGMENT_SHADER_CODE =
             "precision mediump float;" +        // medium is fine for texture maps
             "uniform sampler2D u_texture;" +    // texture data
@@ -57,6 +70,63 @@ public class TexturedAlignedRect extends BaseRect {
             "}";
 
 
+    /*
+     * Sprites (e.g. the balls) are drawn in batches, with the corners already in arena
+     * coordinates.  See SpriteBatch.  The fragment shader is the same as above.
+     */
+    static final String SPRITE_VERTEX_SHADER_CODE =
+            "uniform mat4 u_projMatrix;" +      // projection matrix
+            "attribute vec4 a_position;" +      // vertex position, in arena coordinates
+            "attribute vec2 a_texCoord;" +      // texture coordinate for vertex...
+            "varying vec2 v_texCoord;" +        // ...which we forward to the fragment shader
+
+            "void main() {" +
+            "  gl_Position = u_projMatrix * a_position;" +
+            "  v_texCoord = a_texCoord;" +
+            "}";
+
+    /*
+     * Text is drawn with a different program.  The texture holds only coverage (alpha), and
+     * the color comes in with each vertex.  We output premultiplied alpha, like the textures
+     * we use for everything else.  See TextBatch.
+     */
+    static final String TEXT_VERTEX_SHADER_CODE =
+            "uniform mat4 u_projMatrix;" +      // projection matrix
+            "attribute vec4 a_position;" +      // vertex position, in arena coordinates
+            "attribute vec2 a_texCoord;" +      // texture coordinate for vertex
+            "attribute vec4 a_color;" +         // text color for vertex
+            "varying vec2 v_texCoord;" +
+            "varying vec4 v_color;" +
+
+            "void main() {" +
+            "  gl_Position = u_projMatrix * a_position;" +
+            "  v_texCoord = a_texCoord;" +
+            "  v_color = a_color;" +
+            "}";
+
+    static final String TEXT_FRAGMENT_SHADER_CODE =
+            "precision mediump float;" +
+            "uniform sampler2D u_texture;" +    // glyph coverage in the alpha channel
+            "varying vec2 v_texCoord;" +
+            "varying vec4 v_color;" +
+
+            "void main() {" +
+            "  float alpha = v_color.a * texture2D(u_texture, v_texCoord).a;" +
+            "  gl_FragColor = vec4(v_color.rgb * alpha, alpha);" +
+            "}";
+
+    // Max glyphs per text draw call.
+    private static final int MAX_TEXT_GLYPHS = 128;
+
+    // Collects glyphs between prepareToDrawText() and finishedDrawingText().
+    private static TextBatch sTextBatch;
+
+    // Max sprites per sprite draw call.  Enough for a screen full of balls.
+    private static final int MAX_SPRITES = 1024;
+
+    // Collects sprites between prepareToDrawSprites() and finishedDrawingSprites().
+    private static SpriteBatch sSpriteBatch;
+
     // References to vertex data.
     private static FloatBuffer sVertexBuffer = getVertexArray();
 
@@ -65,12 +135,15 @@ public class TexturedAlignedRect extends BaseRect {
     private static int sTexCoordHandle = -1;
     private static int sPositionHandle = -1;
     private static int sMVPMatrixHandle = -1;
+    private static int sProjMatrixHandle = -1;
+    private static int sPosScaleHandle = -1;
 
     // Texture data for this instance.
     private int mTextureDataHandle = -1;
     private int mTextureWidth = -1;
     private int mTextureHeight = -1;
     private FloatBuffer mTexBuffer;
+    private float mTexLeft = 0.0f, mTexTop = 0.0f, mTexRight = 1.0f, mTexBottom = 1.0f;
 
     // Sanity check on draw prep.
     private static boolean sDrawPrepared;
@@ -104,7 +177,8 @@ public class TexturedAlignedRect extends BaseRect {
      * Creates the GL program and associated references.
      */
     public static void createProgram() {
-        sProgramHandle = Util.createProgram(VERTEX_SHADER_CODE,
+        sProgramHandle = Util.createProgram(
+                UNIFORM_TRANSFORM ? POS_SCALE_VERTEX_SHADER_CODE : VERTEX_SHADER_CODE,
                 FRAGMENT_SHADER_CODE);
         Log.d(TAG, "Created program " + sProgramHandle);
 
@@ -116,9 +190,16 @@ public class TexturedAlignedRect extends BaseRect {
         sTexCoordHandle = GLES20.glGetAttribLocation(sProgramHandle, "a_texCoord");
         Util.checkGlError("glGetAttribLocation");
 
-        // Get handle to transformation matrix.
-        sMVPMatrixHandle = GLES20.glGetUniformLocation(sProgramHandle, "u_mvpMatrix");
-        Util.checkGlError("glGetUniformLocation");
+        if (UNIFORM_TRANSFORM) {
+            // Get handles to projection matrix and position/scale vector.
+            sProjMatrixHandle = GLES20.glGetUniformLocation(sProgramHandle, "u_projMatrix");
+            sPosScaleHandle = GLES20.glGetUniformLocation(sProgramHandle, "u_posScale");
+            Util.checkGlError("glGetUniformLocation");
+        } else {
+            // Get handle to transformation matrix.
+            sMVPMatrixHandle = GLES20.glGetUniformLocation(sProgramHandle, "u_mvpMatrix");
+            Util.checkGlError("glGetUniformLocation");
+        }
 
         // Get handle to texture reference.
         int textureUniformHandle = GLES20.glGetUniformLocation(sProgramHandle, "u_texture");
@@ -131,9 +212,60 @@ public class TexturedAlignedRect extends BaseRect {
         Util.checkGlError("glUniform1i");
         GLES20.glUseProgram(0);
 
+        createSpriteProgram();
+        createTextProgram();
+
         Util.checkGlError("TexturedAlignedRect setup complete");
    }
 
+    /**
+     * Creates the GL program for sprites, and the batch that uses it.
+     */
+    private static void createSpriteProgram() {
+        int program = Util.createProgram(SPRITE_VERTEX_SHADER_CODE, FRAGMENT_SHADER_CODE);
+        Log.d(TAG, "Created sprite program " + program);
+
+        int positionHandle = GLES20.glGetAttribLocation(program, "a_position");
+        int texCoordHandle = GLES20.glGetAttribLocation(program, "a_texCoord");
+        Util.checkGlError("glGetAttribLocation");
+        int projMatrixHandle = GLES20.glGetUniformLocation(program, "u_projMatrix");
+        int textureUniformHandle = GLES20.glGetUniformLocation(program, "u_texture");
+        Util.checkGlError("glGetUniformLocation");
+
+        GLES20.glUseProgram(program);
+        GLES20.glUniform1i(textureUniformHandle, 0);
+        Util.checkGlError("glUniform1i");
+        GLES20.glUseProgram(0);
+
+        sSpriteBatch = new SpriteBatch(new GLES20Calls(), MAX_SPRITES);
+        sSpriteBatch.setProgram(program, positionHandle, texCoordHandle, projMatrixHandle);
+    }
+
+    /**
+     * Creates the GL program for text, and the batch that uses it.
+     */
+    private static void createTextProgram() {
+        int program = Util.createProgram(TEXT_VERTEX_SHADER_CODE, TEXT_FRAGMENT_SHADER_CODE);
+        Log.d(TAG, "Created text program " + program);
+
+        int positionHandle = GLES20.glGetAttribLocation(program, "a_position");
+        int texCoordHandle = GLES20.glGetAttribLocation(program, "a_texCoord");
+        int colorHandle = GLES20.glGetAttribLocation(program, "a_color");
+        Util.checkGlError("glGetAttribLocation");
+        int projMatrixHandle = GLES20.glGetUniformLocation(program, "u_projMatrix");
+        int textureUniformHandle = GLES20.glGetUniformLocation(program, "u_texture");
+        Util.checkGlError("glGetUniformLocation");
+
+        GLES20.glUseProgram(program);
+        GLES20.glUniform1i(textureUniformHandle, 0);
+        Util.checkGlError("glUniform1i");
+        GLES20.glUseProgram(0);
+
+        sTextBatch = new TextBatch(new GLES20Calls(), MAX_TEXT_GLYPHS);
+        sTextBatch.setProgram(program, positionHandle, texCoordHandle, colorHandle,
+                projMatrixHandle);
+    }
+
     /**
      * Sets the texture data by creating a new texture from a buffer of data.
      */
@@ -172,6 +304,10 @@ public class TexturedAlignedRect extends BaseRect {
         float right = (float) coords.right / mTextureWidth;
         float top = (float) coords.top / mTextureHeight;
         float bottom = (float) coords.bottom / mTextureHeight;
+        mTexLeft = left;
+        mTexTop = top;
+        mTexRight = right;
+        mTexBottom = bottom;
 
         FloatBuffer fb = mTexBuffer;
         fb.put(left);           // bottom left
@@ -206,6 +342,13 @@ public class TexturedAlignedRect extends BaseRect {
         GLES20.glEnableVertexAttribArray(sTexCoordHandle);
         Util.checkGlError("glEnableVertexAttribArray");
 
+        if (UNIFORM_TRANSFORM) {
+            // The projection matrix is the same for every object.
+            GLES20.glUniformMatrix4fv(sProjMatrixHandle, 1, false,
+                    GameSurfaceRenderer.mProjectionMatrix, 0);
+            Util.checkGlError("glUniformMatrix4fv");
+        }
+
         sDrawPrepared = true;
     }
 
@@ -234,13 +377,20 @@ public class TexturedAlignedRect extends BaseRect {
             GLES20.GL_FLOAT, false, TEX_VERTEX_STRIDE, mTexBuffer);
         if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glVertexAttribPointer");
 
-        // Compute model/view/projection matrix.
-        float[] mvp = sTempMVP;     // scratch storage
-        Matrix.multiplyMM(mvp, 0, GameSurfaceRenderer.mProjectionMatrix, 0, mModelView, 0);
-
-        // Copy the model / view / projection matrix over.
-        GLES20.glUniformMatrix4fv(sMVPMatrixHandle, 1, false, mvp, 0);
-        if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glUniformMatrix4fv");
+        if (UNIFORM_TRANSFORM) {
+            // Send the position and scale; the shader does the rest.
+            GLES20.glUniform4f(sPosScaleHandle,
+                    getXPosition(), getYPosition(), getXScale(), getYScale());
+            if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glUniform4f");
+        } else {
+            // Compute model/view/projection matrix.
+            float[] mvp = sTempMVP;     // scratch storage
+            Matrix.multiplyMM(mvp, 0, GameSurfaceRenderer.mProjectionMatrix, 0, mModelView, 0);
+
+            // Copy the model / view / projection matrix over.
+            GLES20.glUniformMatrix4fv(sMVPMatrixHandle, 1, false, mvp, 0);
+            if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glUniformMatrix4fv");
+        }
 
         // Set the active texture unit to unit 0.
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
@@ -257,4 +407,70 @@ public class TexturedAlignedRect extends BaseRect {
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, VERTEX_COUNT);
         if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("glDrawArrays");
     }
+
+    /**
+     * Performs setup for drawing sprites.  Sprites are drawn with their own program, so this
+     * can't be mixed with prepareToDraw() / draw().
+     */
+    public static void prepareToDrawSprites() {
+        sSpriteBatch.begin(GameSurfaceRenderer.mProjectionMatrix);
+        Util.checkGlError("sprite batch begin");
+    }
+
+    /**
+     * Draws this rect's texture at the specified position and size, as part of the current
+     * sprite batch.  The object's own position and scale are not used or changed, so one
+     * object can stand in for any number of identical sprites.  The sprite is actually drawn
+     * by finishedDrawingSprites(), or when the batch fills up.
+     */
+    public void drawSprite(float xpos, float ypos, float xscale, float yscale) {
+        SpriteBatch batch = sSpriteBatch;
+        batch.setTexture(mTextureDataHandle);
+        batch.setTexCoords(mTexLeft, mTexTop, mTexRight, mTexBottom);
+        batch.add(xpos, ypos, xscale, yscale);
+    }
+
+    /**
+     * Draws the sprites collected since prepareToDrawSprites(), and cleans up.
+     */
+    public static void finishedDrawingSprites() {
+        sSpriteBatch.end();
+        if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("sprite batch end");
+    }
+
+    /**
+     * Performs setup for drawing text.  Text is drawn with its own program, so this can't be
+     * mixed with prepareToDraw() / draw().
+     *
+     * @param textRes Source of the glyph texture.
+     */
+    public static void prepareToDrawText(TextResources textRes) {
+        sTextBatch.begin(GameSurfaceRenderer.mProjectionMatrix, textRes.getAtlas(),
+                textRes.getTextureHandle());
+        Util.checkGlError("text batch begin");
+    }
+
+    /**
+     * Draws a string.  The text is actually drawn by finishedDrawingText().  See
+     * TextBatch.addString() for a description of the arguments.
+     */
+    public static void drawText(CharSequence str, float x, float baseline, float scale,
+            int align, float[] color, boolean shadow) {
+        sTextBatch.addString(str, x, baseline, scale, align, color, shadow);
+    }
+
+    /**
+     * Draws the entire glyph texture, centered at (x,y).  For debugging.
+     */
+    public static void drawTextAtlas(float x, float y, float scale, float[] color) {
+        sTextBatch.addAtlas(x, y, scale, color);
+    }
+
+    /**
+     * Draws the text collected since prepareToDrawText(), and cleans up.
+     */
+    public static void finishedDrawingText() {
+        sTextBatch.end();
+        if (GameSurfaceRenderer.EXTRA_CHECK) Util.checkGlError("text batch end");
+    }
 }
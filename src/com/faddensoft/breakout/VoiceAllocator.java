@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.faddensoft.breakout;
+
+/**
+ * Decides which sounds get to play when more are requested than there are voices.
+ * <p>
+ * Requests are collected with request() and started together by startPending(), once per
+ * mixer block.  A sound requested more than once in a block is started once.  The pending
+ * sounds are started highest priority first, with ties going to the lower sound number, so
+ * the outcome doesn't depend on the order the requests arrived in.
+ * <p>
+ * When every voice is busy, the victim is the voice playing the lowest-priority sound.
+ * Among equals, the one that has played the longest goes, and after that the lowest voice
+ * number.  A new sound can only take a voice from a sound of the same or lower priority;
+ * otherwise it's refused.  So a burst of brick hits can cut off other brick hits but never
+ * the "ball lost" sound, and the work per block never exceeds one pass over each voice.
+ */
+public class VoiceAllocator {
+    private final int[] mPriority;
+
+    // Voice state.  A voice is idle when its sound is -1.
+    private final int[] mVoiceSound;
+    private final int[] mVoicePos;
+    private int mNumActive;
+
+    // Sounds requested since the last startPending(), and the order to start them in.
+    private final boolean[] mRequested;
+    private final int[] mStartOrder;
+
+    // Statistics.
+    private int mStartedCount;
+    private int mCoalescedCount;
+    private int mStolenCount;
+    private int mRefusedCount;
+
+
+    /**
+     * Creates an allocator.
+     *
+     * @param maxVoices Number of voices.
+     * @param priority Priority of each sound, indexed by sound number; higher is more
+     *        important.
+     */
+    public VoiceAllocator(int maxVoices, int[] priority) {
+        int numSounds = priority.length;
+        mPriority = priority.clone();
+        mVoiceSound = new int[maxVoices];
+        mVoicePos = new int[maxVoices];
+        for (int i = 0; i < maxVoices; i++) {
+            mVoiceSound[i] = -1;
+        }
+        mRequested = new boolean[numSounds];
+
+        // Sort the sounds by descending priority, then ascending number.  A handful of
+        // sounds, so insertion sort is fine.
+        mStartOrder = new int[numSounds];
+        for (int i = 0; i < numSounds; i++) {
+            int j = i;
+            while (j > 0 && mPriority[mStartOrder[j - 1]] < mPriority[i]) {
+                mStartOrder[j] = mStartOrder[j - 1];
+                j--;
+            }
+            mStartOrder[j] = i;
+        }
+    }
+
+    /**
+     * Asks for a sound to be started at the next startPending().
+     */
+    public void request(int soundNum) {
+        if (mRequested[soundNum]) {
+            mCoalescedCount++;
+        } else {
+            mRequested[soundNum] = true;
+        }
+    }
+
+    /**
+     * Starts the requested sounds, in priority order, and clears the requests.
+     */
+    public void startPending() {
+        for (int i = 0; i < mStartOrder.length; i++) {
+            int soundNum = mStartOrder[i];
+            if (mRequested[soundNum]) {
+                mRequested[soundNum] = false;
+                start(soundNum);
+            }
+        }
+    }
+
+    /**
+     * Assigns a voice to a sound, stealing one if necessary.
+     *
+     * @return The voice, or -1 if every voice is playing something more important.
+     */
+    private int start(int soundNum) {
+        int voice = -1;
+        for (int v = 0; v < mVoiceSound.length; v++) {
+            if (mVoiceSound[v] < 0) {
+                voice = v;
+                break;
+            }
+            if (voice < 0 || isBetterVictim(v, voice)) {
+                voice = v;
+            }
+        }
+
+        if (mVoiceSound[voice] < 0) {
+            mNumActive++;
+        } else if (mPriority[mVoiceSound[voice]] > mPriority[soundNum]) {
+            mRefusedCount++;
+            return -1;
+        } else {
+            mStolenCount++;
+        }
+        mVoiceSound[voice] = soundNum;
+        mVoicePos[voice] = 0;
+        mStartedCount++;
+        return voice;
+    }
+
+    /**
+     * Returns true if active voice "a" should be stolen before active voice "b".  Voice
+     * numbers are visited in ascending order, so ties leave "b", the lower one, in place.
+     */
+    private boolean isBetterVictim(int a, int b) {
+        int priorityA = mPriority[mVoiceSound[a]];
+        int priorityB = mPriority[mVoiceSound[b]];
+        if (priorityA != priorityB) {
+            return priorityA < priorityB;
+        }
+        return mVoicePos[a] > mVoicePos[b];
+    }
+
+    /**
+     * Returns the number of voices.
+     */
+    public int getVoiceCount() {
+        return mVoiceSound.length;
+    }
+
+    /**
+     * Returns the number of voices playing something.
+     */
+    public int getActiveCount() {
+        return mNumActive;
+    }
+
+    /**
+     * Returns the sound a voice is playing, or -1 if it's idle.
+     */
+    public int getSound(int voice) {
+        return mVoiceSound[voice];
+    }
+
+    /**
+     * Returns the sample position of a voice within its sound.
+     */
+    public int getPosition(int voice) {
+        return mVoicePos[voice];
+    }
+
+    /**
+     * Sets the sample position of a voice within its sound.
+     */
+    public void setPosition(int voice, int position) {
+        mVoicePos[voice] = position;
+    }
+
+    /**
+     * Marks a voice as idle, e.g. because its sound has finished.
+     */
+    public void release(int voice) {
+        if (mVoiceSound[voice] >= 0) {
+            mVoiceSound[voice] = -1;
+            mNumActive--;
+        }
+    }
+
+    /**
+     * Returns the number of sounds started.
+     */
+    public int getStartedCount() {
+        return mStartedCount;
+    }
+
+    /**
+     * Returns the number of requests folded into another request for the same sound.
+     */
+    public int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    /**
+     * Returns the number of sounds cut off to make room for another.
+     */
+    public int getStolenCount() {
+        return mStolenCount;
+    }
+
+    /**
+     * Returns the number of sounds not started because every voice was more important.
+     */
+    public int getRefusedCount() {
+        return mRefusedCount;
+    }
+}